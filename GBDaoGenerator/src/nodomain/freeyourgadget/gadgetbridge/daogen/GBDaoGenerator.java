@@ -16,6 +16,7 @@
 package nodomain.freeyourgadget.gadgetbridge.daogen;
 
 import de.greenrobot.daogenerator.DaoGenerator;
+import de.greenrobot.daogenerator.DaoUtil;
 import de.greenrobot.daogenerator.Entity;
 import de.greenrobot.daogenerator.Index;
 import de.greenrobot.daogenerator.Property;
@@ -39,10 +40,11 @@ public class GBDaoGenerator {
     private static final String SAMPLE_HEART_RATE = "heartRate";
     private static final String TIMESTAMP_FROM = "timestampFrom";
     private static final String TIMESTAMP_TO = "timestampTo";
+    private static final String OUT_DIR = "app/src/main/java";
 
 
     public static void main(String[] args) throws Exception {
-        Schema schema = new Schema(17, MAIN_PACKAGE + ".entities");
+        Schema schema = new Schema(19, MAIN_PACKAGE + ".entities");
 
         Entity userAttributes = addUserAttributes(schema);
         Entity user = addUserInfo(schema, userAttributes);
@@ -57,18 +59,26 @@ public class GBDaoGenerator {
         Entity tag = addTag(schema);
         Entity userDefinedActivityOverlay = addActivityDescription(schema, tag, user);
 
-        addMiBandActivitySample(schema, user, device);
-        addPebbleHealthActivitySample(schema, user, device);
+        Entity miBandActivitySample = addMiBandActivitySample(schema, user, device);
+        Entity pebbleHealthActivitySample = addPebbleHealthActivitySample(schema, user, device);
         addPebbleHealthActivityKindOverlay(schema, user, device);
         addPebbleMisfitActivitySample(schema, user, device);
         addPebbleMorpheuzActivitySample(schema, user, device);
         addHPlusHealthActivityKindOverlay(schema, user, device);
-        addHPlusHealthActivitySample(schema, user, device);
+        Entity hPlusHealthActivitySample = addHPlusHealthActivitySample(schema, user, device);
         addNo1F1ActivitySample(schema, user, device);
 
         addCalendarSyncState(schema, device);
 
-        new DaoGenerator().generateAll(schema, "app/src/main/java");
+        addActivityRollup(schema, device);
+
+        new DaoGenerator().generateAll(schema, OUT_DIR);
+
+        // bulk writers for the sample tables receiving the most samples
+        SampleUpsertGenerator upsertGenerator = new SampleUpsertGenerator(OUT_DIR);
+        upsertGenerator.generate(miBandActivitySample);
+        upsertGenerator.generate(pebbleHealthActivitySample);
+        upsertGenerator.generate(hPlusHealthActivitySample);
     }
 
     private static Entity addTag(Schema schema) {
@@ -201,11 +211,12 @@ public class GBDaoGenerator {
     private static Entity addPebbleHealthActivityKindOverlay(Schema schema, Entity user, Entity device) {
         Entity activityOverlay = addEntity(schema, "PebbleHealthActivityOverlay");
 
-        activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
-        activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
+        Property timestampFrom = activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey().getProperty();
+        Property timestampTo = activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey().getProperty();
         activityOverlay.addIntProperty(SAMPLE_RAW_KIND).notNull().primaryKey();
         Property deviceId = activityOverlay.addLongProperty("deviceId").primaryKey().notNull().getProperty();
         activityOverlay.addToOne(device, deviceId);
+        addOverlayIndex(activityOverlay, deviceId, timestampFrom, timestampTo);
 
         Property userId = activityOverlay.addLongProperty("userId").notNull().getProperty();
         activityOverlay.addToOne(user, userId);
@@ -246,11 +257,12 @@ public class GBDaoGenerator {
     private static Entity addHPlusHealthActivityKindOverlay(Schema schema, Entity user, Entity device) {
         Entity activityOverlay = addEntity(schema, "HPlusHealthActivityOverlay");
 
-        activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
-        activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
+        Property timestampFrom = activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey().getProperty();
+        Property timestampTo = activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey().getProperty();
         activityOverlay.addIntProperty(SAMPLE_RAW_KIND).notNull().primaryKey();
         Property deviceId = activityOverlay.addLongProperty("deviceId").primaryKey().notNull().getProperty();
         activityOverlay.addToOne(device, deviceId);
+        addOverlayIndex(activityOverlay, deviceId, timestampFrom, timestampTo);
 
         Property userId = activityOverlay.addLongProperty("userId").notNull().getProperty();
         activityOverlay.addToOne(user, userId);
@@ -276,11 +288,38 @@ public class GBDaoGenerator {
                 "This class represents a sample specific to the device. Values like activity kind or\n" +
                         "intensity, are device specific. Normalized values can be retrieved through the\n" +
                         "corresponding {@link SampleProvider}.");
-        activitySample.addIntProperty("timestamp").notNull().codeBeforeGetterAndSetter(OVERRIDE).primaryKey();
+        Property timestamp = activitySample.addIntProperty("timestamp").notNull().codeBeforeGetterAndSetter(OVERRIDE).primaryKey().getProperty();
         Property deviceId = activitySample.addLongProperty("deviceId").primaryKey().notNull().codeBeforeGetterAndSetter(OVERRIDE).getProperty();
         activitySample.addToOne(device, deviceId);
         Property userId = activitySample.addLongProperty("userId").notNull().codeBeforeGetterAndSetter(OVERRIDE).getProperty();
         activitySample.addToOne(user, userId);
+        // samples are always queried for one device and a range of timestamps, the primary key
+        // starts with the timestamp and therefore cannot narrow down the device
+        addIndex(activitySample, deviceId, timestamp);
+    }
+
+    /**
+     * Overlays are queried for one device and those ending after the start of the range (and
+     * for HPlus, ending before its end). The start is included so that the remaining condition
+     * on it can be checked without reading the rows.
+     */
+    private static void addOverlayIndex(Entity activityOverlay, Property deviceId, Property timestampFrom, Property timestampTo) {
+        addIndex(activityOverlay, deviceId, timestampTo, timestampFrom);
+    }
+
+    /**
+     * Adds a non-unique index with the given columns, named IDX_&lt;table&gt;_&lt;columns&gt;.
+     * Existing databases get them through GadgetbridgeUpdate_19, which uses the same names.
+     */
+    private static void addIndex(Entity entity, Property... properties) {
+        Index index = new Index();
+        StringBuilder name = new StringBuilder("IDX_").append(DaoUtil.dbName(entity.getClassName()));
+        for (Property property : properties) {
+            index.addProperty(property);
+            name.append('_').append(DaoUtil.dbName(property.getPropertyName()));
+        }
+        index.setName(name.toString());
+        entity.addIndex(index);
     }
 
     private static void addCalendarSyncState(Schema schema, Entity device) {
@@ -297,6 +336,30 @@ public class GBDaoGenerator {
         calendarSyncState.addIntProperty("hash").notNull();
     }
 
+    private static Entity addActivityRollup(Schema schema, Entity device) {
+        Entity rollup = addEntity(schema, "ActivityRollup");
+        rollup.setJavaDoc(
+                "Pre-aggregated activity values of one device for one hour, maintained when samples are\n" +
+                        "added, so that charts covering several days do not need to analyze every sample.");
+        rollup.addIntProperty("timestamp").notNull().primaryKey().javaDocGetterAndSetter("The start of the hour, in seconds since the epoch.");
+        Property deviceId = rollup.addLongProperty("deviceId").primaryKey().notNull().getProperty();
+        rollup.addToOne(device, deviceId);
+        rollup.addStringProperty("sampleSource").notNull().primaryKey().javaDocGetterAndSetter("The name of the sample table the values were calculated from.");
+        rollup.addIntProperty("activitySeconds").notNull();
+        rollup.addIntProperty("activitySteps").notNull();
+        rollup.addIntProperty("lightSleepSeconds").notNull();
+        rollup.addIntProperty("lightSleepSteps").notNull();
+        rollup.addIntProperty("deepSleepSeconds").notNull();
+        rollup.addIntProperty("deepSleepSteps").notNull();
+        rollup.addIntProperty("notWornSeconds").notNull();
+        rollup.addIntProperty("notWornSteps").notNull();
+        rollup.addIntProperty("heartRateMin").notNull();
+        rollup.addIntProperty("heartRateMax").notNull();
+        rollup.addIntProperty("heartRateAverage").notNull();
+        rollup.addIntProperty("heartRateCount").notNull().javaDocGetterAndSetter("The number of valid heart rate measurements the min, max and average are based on.");
+        return rollup;
+    }
+
     private static Property findProperty(Entity entity, String propertyName) {
         for (Property prop : entity.getProperties()) {
             if (propertyName.equals(prop.getPropertyName())) {
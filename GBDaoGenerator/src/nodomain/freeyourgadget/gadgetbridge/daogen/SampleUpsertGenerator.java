@@ -0,0 +1,158 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.daogen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Property;
+
+/**
+ * Generates a subclass of SampleUpsert for a sample entity, binding every column of the
+ * entity directly from its getters, in the order of the entity's properties.
+ */
+class SampleUpsertGenerator {
+    private static final String SAMPLE_UPSERT = "nodomain.freeyourgadget.gadgetbridge.database.SampleUpsert";
+
+    private final String outDir;
+
+    SampleUpsertGenerator(String outDir) {
+        this.outDir = outDir;
+    }
+
+    void generate(Entity entity) throws IOException {
+        String className = entity.getClassName() + "Upsert";
+        String packageName = entity.getJavaPackage();
+        File dir = new File(outDir, packageName.replace('.', File.separatorChar));
+        File file = new File(dir, className + ".java");
+
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")))) {
+            out.println("package " + packageName + ";");
+            out.println();
+            out.println("import android.database.sqlite.SQLiteStatement;");
+            out.println();
+            out.println("import " + SAMPLE_UPSERT + ";");
+            out.println();
+            out.println("// THIS CODE IS GENERATED BY GBDaoGenerator, DO NOT EDIT.");
+            out.println("/**");
+            out.println(" * Inserts or replaces " + entity.getClassName() + " samples, see {@link SampleUpsert}.");
+            out.println(" */");
+            out.println("public class " + className + " extends SampleUpsert<" + entity.getClassName() + "> {");
+            out.println();
+            out.println("    public static final String SQL = \"" + createSql(entity) + "\";");
+            out.println();
+            out.println("    public " + className + "() {");
+            out.println("        super(SQL);");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    protected void bind(SQLiteStatement stmt, " + entity.getClassName() + " entity) {");
+            List<Property> properties = entity.getProperties();
+            for (int i = 0; i < properties.size(); i++) {
+                writeBind(out, properties.get(i), i + 1);
+            }
+            out.println("    }");
+            out.println("}");
+        }
+        System.out.println("Written " + file.getCanonicalPath());
+    }
+
+    private String createSql(Entity entity) {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (Property property : entity.getProperties()) {
+            if (columns.length() > 0) {
+                columns.append(',');
+                values.append(',');
+            }
+            columns.append("\\\"").append(property.getColumnName()).append("\\\"");
+            values.append('?');
+        }
+        return "INSERT OR REPLACE INTO \\\"" + entity.getTableName() + "\\\" (" + columns + ") VALUES (" + values + ")";
+    }
+
+    private void writeBind(PrintWriter out, Property property, int index) {
+        String getter = "entity.get" + Character.toUpperCase(property.getPropertyName().charAt(0)) + property.getPropertyName().substring(1) + "()";
+        if (property.isNotNull()) {
+            out.println("        stmt." + bindCall(property, index, getter) + ";");
+        } else {
+            String local = property.getPropertyName();
+            out.println("        " + boxedType(property) + " " + local + " = " + getter + ";");
+            out.println("        if (" + local + " != null) {");
+            out.println("            stmt." + bindCall(property, index, local) + ";");
+            out.println("        } else {");
+            out.println("            stmt.bindNull(" + index + ");");
+            out.println("        }");
+        }
+    }
+
+    private String bindCall(Property property, int index, String value) {
+        switch (property.getPropertyType()) {
+            case Byte:
+            case Short:
+            case Int:
+            case Long:
+                return "bindLong(" + index + ", " + value + ")";
+            case Boolean:
+                return "bindLong(" + index + ", " + value + " ? 1L : 0L)";
+            case Float:
+            case Double:
+                return "bindDouble(" + index + ", " + value + ")";
+            case String:
+                return "bindString(" + index + ", " + value + ")";
+            case ByteArray:
+                return "bindBlob(" + index + ", " + value + ")";
+            case Date:
+                return "bindLong(" + index + ", " + value + ".getTime())";
+            default:
+                throw new IllegalArgumentException("Unsupported property type: " + property.getPropertyType());
+        }
+    }
+
+    private String boxedType(Property property) {
+        switch (property.getPropertyType()) {
+            case Byte:
+                return "Byte";
+            case Short:
+                return "Short";
+            case Int:
+                return "Integer";
+            case Long:
+                return "Long";
+            case Boolean:
+                return "Boolean";
+            case Float:
+                return "Float";
+            case Double:
+                return "Double";
+            case String:
+                return "String";
+            case ByteArray:
+                return "byte[]";
+            case Date:
+                return "java.util.Date";
+            default:
+                throw new IllegalArgumentException("Unsupported property type: " + property.getPropertyType());
+        }
+    }
+}
@@ -33,6 +33,7 @@ import android.os.Build;
 import android.os.Build.VERSION;
 import android.preference.PreferenceManager;
 import android.provider.ContactsContract.PhoneLookup;
+import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 import android.util.TypedValue;
@@ -44,8 +45,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
@@ -61,7 +62,7 @@ import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
-import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
+import nodomain.freeyourgadget.gadgetbridge.util.IntLruCache;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 /**
@@ -74,13 +75,28 @@ public class GBApplication extends Application {
     public static final String DATABASE_NAME = "Gadgetbridge";
 
     private static GBApplication context;
-    private static final Lock dbLock = new ReentrantLock();
+    /**
+     * Held by the single writer, see #acquireDB()
+     */
+    private static final ReentrantLock dbLock = new ReentrantLock();
+    /**
+     * Held shared by the readers and exclusively while the database is closed,
+     * see #acquireDBReadOnly()
+     */
+    private static final ReentrantReadWriteLock dbReadLock = new ReentrantReadWriteLock();
+    private static final long DB_LOCK_TIMEOUT_SECONDS = 30;
+    /**
+     * The database is closed on the UI thread (export, import, deletion), so do not wait
+     * long for readers there; the caller reports the failure instead.
+     */
+    private static final long DB_EXCLUSIVE_LOCK_TIMEOUT_MILLIS = 2000;
+    private static final long DB_LOCK_WAIT_WARN_MILLIS = 1000;
     private static DeviceService deviceService;
     private static SharedPreferences sharedPrefs;
     private static final String PREFS_VERSION = "shared_preferences_version";
     //if preferences have to be migrated, increment the following and add the migration logic in migratePrefs below; see http://stackoverflow.com/questions/16397848/how-can-i-migrate-android-preferences-with-a-new-version
     private static final int CURRENT_PREFS_VERSION = 2;
-    private static LimitedQueue mIDSenderLookup = new LimitedQueue(16);
+    private static IntLruCache<String> mIDSenderLookup = new IntLruCache<>(16);
     private static Prefs prefs;
     private static GBPrefs gbPrefs;
     private static LockHandler lockHandler;
@@ -225,6 +241,8 @@ public class GBApplication extends Application {
             helper = new DaoMaster.DevOpenHelper(this, null, null);
         } else {
             helper = new DBOpenHelper(this, DATABASE_NAME, null);
+            // lets readers run concurrently to the writer
+            helper.setWriteAheadLoggingEnabled(true);
         }
         SQLiteDatabase db = helper.getWritableDatabase();
         DaoMaster daoMaster = new DaoMaster(db);
@@ -248,12 +266,23 @@ public class GBApplication extends Application {
         return deviceService;
     }
 
+    /**
+     * Returns the facade for talking to the given device only.
+     */
+    public static DeviceService deviceService(GBDevice device) {
+        return deviceService.forDevice(device);
+    }
+
     /**
      * Returns the DBHandler instance for reading/writing or throws GBException
      * when that was not successful
      * If acquiring was successful, callers must call #releaseDB when they
      * are done (from the same thread that acquired the lock!
      * <p>
+     * There is only one writer at a time, but readers that acquired the database with
+     * #acquireDBReadOnly() are not blocked by it. Callers that only read should use that
+     * instead.
+     * <p>
      * Callers must not hold a reference to the returned instance because it
      * will be invalidated at some point.
      *
@@ -262,8 +291,13 @@ public class GBApplication extends Application {
      * @see #releaseDB()
      */
     public static DBHandler acquireDB() throws GBException {
+        long start = System.currentTimeMillis();
         try {
-            if (dbLock.tryLock(30, TimeUnit.SECONDS)) {
+            if (dbLock.tryLock(DB_LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                long waitMillis = checkLockWait("write", start);
+                if (dbLock.getHoldCount() == 1) {
+                    lockHandler.setLockWaitMillis(waitMillis);
+                }
                 return lockHandler;
             }
         } catch (InterruptedException ex) {
@@ -272,6 +306,23 @@ public class GBApplication extends Application {
         throw new GBException("Unable to access the database.");
     }
 
+    /**
+     * Like #acquireDB(), but does not wait if the database is currently being written to.
+     *
+     * @return the DBHandler, or null if another thread is currently writing
+     * @see #releaseDB()
+     */
+    @Nullable
+    public static DBHandler tryAcquireDB() {
+        if (dbLock.tryLock()) {
+            if (dbLock.getHoldCount() == 1) {
+                lockHandler.setLockWaitMillis(0);
+            }
+            return lockHandler;
+        }
+        return null;
+    }
+
     /**
      * Releases the database lock.
      *
@@ -282,6 +333,77 @@ public class GBApplication extends Application {
         dbLock.unlock();
     }
 
+    /**
+     * Returns a DBHandler for reading only or throws GBException when that was not
+     * successful. Any number of readers may access the database at the same time, and
+     * they are not blocked by a writer. They are only blocked while the database is closed,
+     * e.g. during export or import.
+     * The returned handler has its own session, which must not be used for writing.
+     * <p>
+     * Callers must close the returned handler when they are done, which calls
+     * #releaseDBReadOnly(). Callers must not close the database while holding a read only
+     * handler, neither through a handler acquired with #acquireDB().
+     *
+     * @return the read only DBHandler
+     * @throws GBException
+     */
+    public static DBHandler acquireDBReadOnly() throws GBException {
+        long start = System.currentTimeMillis();
+        try {
+            if (dbReadLock.readLock().tryLock(DB_LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                try {
+                    return lockHandler.createReadOnlyHandler(checkLockWait("read", start));
+                } catch (RuntimeException ex) {
+                    dbReadLock.readLock().unlock();
+                    throw ex;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Log.i(TAG, "Interrupted while waiting for DB read lock");
+        }
+        throw new GBException("Unable to access the database.");
+    }
+
+    /**
+     * Releases the read lock of a handler returned by #acquireDBReadOnly().
+     */
+    public static void releaseDBReadOnly() {
+        dbReadLock.readLock().unlock();
+    }
+
+    /**
+     * Waits until no reader holds the database anymore and keeps them out until
+     * #unlockDBExclusively() is called, i.e. while the database is closed.
+     *
+     * @return false if the readers did not release the database within
+     * DB_EXCLUSIVE_LOCK_TIMEOUT_MILLIS
+     */
+    static boolean lockDBExclusively() {
+        if (dbReadLock.isWriteLockedByCurrentThread()) {
+            return true;
+        }
+        try {
+            return dbReadLock.writeLock().tryLock(DB_EXCLUSIVE_LOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Log.i(TAG, "Interrupted while waiting for DB readers");
+            return false;
+        }
+    }
+
+    static void unlockDBExclusively() {
+        while (dbReadLock.isWriteLockedByCurrentThread()) {
+            dbReadLock.writeLock().unlock();
+        }
+    }
+
+    private static long checkLockWait(String kind, long start) {
+        long waitMillis = System.currentTimeMillis() - start;
+        if (waitMillis >= DB_LOCK_WAIT_WARN_MILLIS) {
+            Log.w(TAG, "Waited " + waitMillis + "ms for the DB " + kind + " lock");
+        }
+        return waitMillis;
+    }
+
     public static boolean isRunningLollipopOrLater() {
         return VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
     }
@@ -452,12 +574,21 @@ public class GBApplication extends Application {
      * @return true on successful deletion
      */
     public static synchronized boolean deleteActivityDatabase(Context context) {
-        // TODO: flush, close, reopen db
+        // TODO: flush
         if (lockHandler != null) {
-            lockHandler.closeDb();
+            try {
+                lockHandler.closeDb();
+            } catch (IllegalStateException ex) {
+                Log.w(TAG, "Unable to delete the database: " + ex.getMessage());
+                return false;
+            }
         }
         boolean result = deleteOldActivityDatabase(context);
         result &= getContext().deleteDatabase(DATABASE_NAME);
+        if (lockHandler != null) {
+            // recreates the empty tables and lets readers in again
+            app.setupDatabase();
+        }
         return result;
     }
 
@@ -544,7 +675,7 @@ public class GBApplication extends Application {
         LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
     }
 
-    public static LimitedQueue getIDSenderLookup() {
+    public static IntLruCache<String> getIDSenderLookup() {
         return mIDSenderLookup;
     }
 
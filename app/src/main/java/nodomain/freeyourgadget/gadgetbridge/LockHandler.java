@@ -19,18 +19,26 @@ package nodomain.freeyourgadget.gadgetbridge;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import de.greenrobot.dao.identityscope.IdentityScopeType;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.IdentityCache;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 
 /**
  * Provides lowlevel access to the database.
+ * This is the handler of the single writer, see GBApplication#acquireDB().
+ * Readers get a {@link ReadOnlyHandler} through #createReadOnlyHandler(long) instead,
+ * which uses a separate session without identity scope, so that readers neither share
+ * the writer's entity cache nor its statements.
  */
 public class LockHandler implements DBHandler {
 
     private DaoMaster daoMaster = null;
     private DaoSession session = null;
+    private DaoSession readOnlySession = null;
     private SQLiteOpenHelper helper = null;
+    private long lockWaitMillis;
 
     public LockHandler() {
     }
@@ -49,9 +57,24 @@ public class LockHandler implements DBHandler {
         this.helper = helper;
 
         session = daoMaster.newSession();
-        if (session == null) {
+        readOnlySession = daoMaster.newSession(IdentityScopeType.None);
+        if (session == null || readOnlySession == null) {
             throw new RuntimeException("Unable to create database session");
         }
+        // the database is usable again, let readers in
+        GBApplication.unlockDBExclusively();
+    }
+
+    /**
+     * Sets the time the current writer had to wait for the lock.
+     */
+    void setLockWaitMillis(long lockWaitMillis) {
+        this.lockWaitMillis = lockWaitMillis;
+    }
+
+    DBHandler createReadOnlyHandler(long lockWaitMillis) {
+        ensureValid();
+        return new ReadOnlyHandler(lockWaitMillis);
     }
 
     @Override
@@ -84,14 +107,23 @@ public class LockHandler implements DBHandler {
         GBApplication.app().setupDatabase();
     }
 
+    /**
+     * Closes the database after waiting for all readers to release it. Readers will wait
+     * until the database has been opened again.
+     */
     @Override
     public synchronized void closeDb() {
         if (session == null) {
             throw new IllegalStateException("session must not be null");
         }
+        if (!GBApplication.lockDBExclusively()) {
+            throw new IllegalStateException("Unable to close the database, still in use by readers");
+        }
+        IdentityCache.getInstance().invalidateAll();
         session.clear();
         session.getDatabase().close();
         session = null;
+        readOnlySession = null;
         helper = null;
         daoMaster = null;
     }
@@ -113,4 +145,72 @@ public class LockHandler implements DBHandler {
         ensureValid();
         return daoMaster.getDatabase();
     }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public long getLockWaitMillis() {
+        return lockWaitMillis;
+    }
+
+    /**
+     * A reader's view of the database, see GBApplication#acquireDBReadOnly().
+     * The database cannot be closed or opened through it.
+     */
+    private class ReadOnlyHandler implements DBHandler {
+        private final long lockWaitMillis;
+
+        ReadOnlyHandler(long lockWaitMillis) {
+            this.lockWaitMillis = lockWaitMillis;
+        }
+
+        @Override
+        public void closeDb() {
+            throw new IllegalStateException("Read only handlers cannot close the database");
+        }
+
+        @Override
+        public void openDb() {
+            throw new IllegalStateException("Read only handlers cannot open the database");
+        }
+
+        @Override
+        public SQLiteOpenHelper getHelper() {
+            return LockHandler.this.getHelper();
+        }
+
+        @Override
+        public void close() {
+            GBApplication.releaseDBReadOnly();
+        }
+
+        @Override
+        public SQLiteDatabase getDatabase() {
+            return LockHandler.this.getDatabase();
+        }
+
+        @Override
+        public DaoMaster getDaoMaster() {
+            return LockHandler.this.getDaoMaster();
+        }
+
+        @Override
+        public DaoSession getDaoSession() {
+            ensureValid();
+            return readOnlySession;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+
+        @Override
+        public long getLockWaitMillis() {
+            return lockWaitMillis;
+        }
+    }
 }
@@ -46,10 +46,12 @@ public abstract class Logging {
             } else {
                 stopFileLogger();
             }
+            ProtocolLog.setEnabled(enable);
             getLogger().info("Gadgetbridge version: " + BuildConfig.VERSION_NAME);
         } catch (IOException ex) {
             Log.e("GBApplication", "External files dir not available, cannot log to file", ex);
             stopFileLogger();
+            ProtocolLog.setEnabled(false);
         }
     }
 
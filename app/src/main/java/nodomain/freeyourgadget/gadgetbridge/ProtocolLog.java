@@ -0,0 +1,131 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge;
+
+import org.slf4j.Logger;
+
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
+
+/**
+ * Logs the binary traffic of a device protocol. Does nothing unless enabled, which
+ * happens together with logging to a file, see Logging#setupLogging(boolean).
+ * When enabled, every message is recorded in the {@link ProtocolRingBuffer} and logged
+ * as hex dump at debug level, at most {@link #MAX_LINES_PER_SECOND} lines per second
+ * and channel. The hex dump is only created when a line is actually logged.
+ * <p/>
+ * Typically used as a static field next to the class's logger:
+ * <pre>
+ * private static final ProtocolLog PLOG = new ProtocolLog(LOG, "pebble");
+ * ...
+ * PLOG.received("DATALOG", buffer, offset, length);
+ * </pre>
+ */
+public class ProtocolLog {
+    public static final int MAX_LINES_PER_SECOND = 20;
+
+    private static volatile boolean enabled;
+
+    private final Logger logger;
+    private final int channel;
+    private long windowStart;
+    private int linesInWindow;
+    private int suppressedLines;
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param logger  the logger to log the hex dumps with
+     * @param channel the name of the records in the ring buffer, e.g. the device type
+     */
+    public ProtocolLog(Logger logger, String channel) {
+        this.logger = logger;
+        this.channel = ProtocolRingBuffer.getInstance().registerChannel(channel);
+    }
+
+    /**
+     * @param what describes the message, its toString() is only called when it is logged
+     */
+    public void received(Object what, byte[] data) {
+        if (enabled && data != null) {
+            log(what, true, data, 0, data.length);
+        }
+    }
+
+    public void received(Object what, byte[] data, int offset, int length) {
+        if (enabled) {
+            log(what, true, data, offset, length);
+        }
+    }
+
+    public void sent(Object what, byte[] data) {
+        if (enabled && data != null) {
+            log(what, false, data, 0, data.length);
+        }
+    }
+
+    public void sent(Object what, byte[] data, int offset, int length) {
+        if (enabled) {
+            log(what, false, data, offset, length);
+        }
+    }
+
+    /**
+     * Returns an object whose toString() returns the hex dump of the given bytes, for
+     * parameterized log messages that should only format the bytes when actually logged.
+     * The bytes must not be modified until the message has been logged.
+     */
+    public static Object hex(final byte[] data, final int offset, final int length) {
+        return new Object() {
+            @Override
+            public String toString() {
+                return data != null ? GB.hexdump(data, offset, length) : "(null)";
+            }
+        };
+    }
+
+    private void log(Object what, boolean incoming, byte[] data, int offset, int length) {
+        ProtocolRingBuffer.getInstance().record(channel, incoming, data, offset, length);
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        int suppressed = 0;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= 1000) {
+                suppressed = suppressedLines;
+                windowStart = now;
+                linesInWindow = 0;
+                suppressedLines = 0;
+            }
+            if (linesInWindow >= MAX_LINES_PER_SECOND) {
+                suppressedLines++;
+                return;
+            }
+            linesInWindow++;
+        }
+        if (suppressed > 0) {
+            logger.debug("{} protocol messages not logged, limit is {} per second", suppressed, MAX_LINES_PER_SECOND);
+        }
+        logger.debug("{} {} {} bytes: {}", what, incoming ? "received" : "sent", length, hex(data, offset, length));
+    }
+}
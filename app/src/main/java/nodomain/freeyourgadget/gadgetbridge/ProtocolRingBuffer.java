@@ -0,0 +1,173 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
+
+/**
+ * Keeps the most recent protocol traffic in a fixed size binary buffer, overwriting the
+ * oldest records when full. Recording a message only copies its bytes, formatting happens
+ * when the buffer is dumped.
+ * <p/>
+ * A record consists of its total length (4 bytes), the time in milliseconds (8 bytes),
+ * the channel (1 byte), the direction (1 byte), the original length of the message
+ * (4 bytes) and at most {@link #MAX_MESSAGE_LENGTH} bytes of the message.
+ */
+public class ProtocolRingBuffer {
+    public static final int CAPACITY = 64 * 1024;
+    public static final int MAX_MESSAGE_LENGTH = 1024;
+    private static final int HEADER_LENGTH = 4 + 8 + 1 + 1 + 4;
+
+    private static final ProtocolRingBuffer instance = new ProtocolRingBuffer(CAPACITY);
+
+    private final byte[] buffer;
+    private final List<String> channels = new ArrayList<>();
+    /**
+     * Absolute positions, the position in the buffer is position % buffer.length
+     */
+    private long head;
+    private long tail;
+
+    public static ProtocolRingBuffer getInstance() {
+        return instance;
+    }
+
+    ProtocolRingBuffer(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Returns the id under which records of the given channel are stored.
+     */
+    synchronized int registerChannel(String channel) {
+        int id = channels.indexOf(channel);
+        if (id >= 0) {
+            return id;
+        }
+        if (channels.size() > 0xff) {
+            throw new IllegalStateException("too many protocol channels: " + channel);
+        }
+        channels.add(channel);
+        return channels.size() - 1;
+    }
+
+    synchronized void record(int channel, boolean incoming, byte[] data, int offset, int length) {
+        int stored = Math.min(length, MAX_MESSAGE_LENGTH);
+        int recordLength = HEADER_LENGTH + stored;
+        while (head + recordLength - tail > buffer.length) {
+            tail += readInt(tail);
+        }
+        long pos = head;
+        pos = writeInt(pos, recordLength);
+        pos = writeLong(pos, System.currentTimeMillis());
+        pos = writeByte(pos, channel);
+        pos = writeByte(pos, incoming ? 1 : 0);
+        pos = writeInt(pos, length);
+        for (int i = 0; i < stored; i++) {
+            pos = writeByte(pos, data[offset + i]);
+        }
+        head = pos;
+    }
+
+    public synchronized void clear() {
+        tail = head;
+    }
+
+    /**
+     * Writes all records, oldest first, one line per record.
+     */
+    public void dump(Writer out) throws IOException {
+        byte[] copy;
+        long start;
+        long end;
+        List<String> channelNames;
+        synchronized (this) {
+            copy = buffer.clone();
+            start = tail;
+            end = head;
+            channelNames = new ArrayList<>(channels);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        long pos = start;
+        while (pos < end) {
+            int recordLength = readInt(copy, pos);
+            long time = readLong(copy, pos + 4);
+            int channel = copy[index(pos + 12)] & 0xff;
+            boolean incoming = copy[index(pos + 13)] != 0;
+            int length = readInt(copy, pos + 14);
+            byte[] message = new byte[recordLength - HEADER_LENGTH];
+            for (int i = 0; i < message.length; i++) {
+                message[i] = copy[index(pos + HEADER_LENGTH + i)];
+            }
+            out.write(format.format(new Date(time)));
+            out.write(' ');
+            out.write(channel < channelNames.size() ? channelNames.get(channel) : String.valueOf(channel));
+            out.write(incoming ? " < " : " > ");
+            out.write(GB.hexdump(message, 0, message.length));
+            if (length > message.length) {
+                out.write(" ... (" + length + " bytes)");
+            }
+            out.write('\n');
+            pos += recordLength;
+        }
+    }
+
+    private int index(long pos) {
+        return (int) (pos % buffer.length);
+    }
+
+    private long writeByte(long pos, int value) {
+        buffer[index(pos)] = (byte) value;
+        return pos + 1;
+    }
+
+    private long writeInt(long pos, int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            pos = writeByte(pos, value >>> shift);
+        }
+        return pos;
+    }
+
+    private long writeLong(long pos, long value) {
+        pos = writeInt(pos, (int) (value >>> 32));
+        return writeInt(pos, (int) value);
+    }
+
+    private int readInt(long pos) {
+        return readInt(buffer, pos);
+    }
+
+    private int readInt(byte[] from, long pos) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (from[index(pos + i)] & 0xff);
+        }
+        return value;
+    }
+
+    private long readLong(byte[] from, long pos) {
+        return ((long) readInt(from, pos) << 32) | (readInt(from, pos + 4) & 0xffffffffL);
+    }
+}
@@ -121,6 +121,6 @@ public class ConfigureAlarms extends AbstractGBActivity {
     }
 
     private void sendAlarmsToDevice() {
-        GBApplication.deviceService().onSetAlarms(mGBAlarmListAdapter.getAlarmList());
+        GBApplication.deviceService(getDevice()).onSetAlarms(mGBAlarmListAdapter.getAlarmList());
     }
 }
@@ -39,9 +39,17 @@ import android.widget.Toast;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolLog;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolRingBuffer;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.CallSpec;
@@ -50,6 +58,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.MusicSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 
@@ -72,6 +81,7 @@ public class DebugActivity extends AbstractGBActivity {
     private Button rebootButton;
     private Button HeartRateButton;
     private Button testNewFunctionalityButton;
+    private Button dumpProtocolLogButton;
 
     private EditText editContent;
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
@@ -237,6 +247,30 @@ public class DebugActivity extends AbstractGBActivity {
                 testNewFunctionality();
             }
         });
+
+        dumpProtocolLogButton = (Button) findViewById(R.id.dumpProtocolLogButton);
+        dumpProtocolLogButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                dumpProtocolLog();
+            }
+        });
+    }
+
+    private void dumpProtocolLog() {
+        if (!ProtocolLog.isEnabled()) {
+            GB.toast(this, "Protocol logging is only enabled while logging to a file", Toast.LENGTH_LONG, GB.WARN);
+            return;
+        }
+        try {
+            File file = new File(FileUtils.getExternalFilesDir(), "protocol.log");
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"))) {
+                ProtocolRingBuffer.getInstance().dump(out);
+            }
+            GB.toast(this, "Protocol log written to " + file.getPath(), Toast.LENGTH_LONG, GB.INFO);
+        } catch (IOException ex) {
+            GB.toast(this, "Error writing protocol log: " + ex.getMessage(), Toast.LENGTH_LONG, GB.ERROR, ex);
+        }
     }
 
     private void testNewFunctionality() {
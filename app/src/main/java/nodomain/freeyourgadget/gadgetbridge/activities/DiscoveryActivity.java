@@ -53,7 +53,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
@@ -248,6 +251,10 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
     private ProgressBar progressView;
     private BluetoothAdapter adapter;
     private final ArrayList<GBDeviceCandidate> deviceCandidates = new ArrayList<>();
+    /**
+     * The device types recognized for the advertisements seen so far, see #getAdvertisementKey
+     */
+    private final Map<String, DeviceType> advertisedDeviceTypes = new ConcurrentHashMap<>();
     private DeviceCandidateAdapter cadidateListAdapter;
     private Button startButton;
     private Scanning isScanning = Scanning.SCANNING_OFF;
@@ -359,7 +366,13 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
         }
 
         GBDeviceCandidate candidate = new GBDeviceCandidate(device, rssi, uuids);
-        DeviceType deviceType = DeviceHelper.getInstance().getSupportedType(candidate);
+        // devices advertise repeatedly, only ask the coordinators when something changed
+        String advertisementKey = getAdvertisementKey(device, uuids);
+        DeviceType deviceType = advertisedDeviceTypes.get(advertisementKey);
+        if (deviceType == null) {
+            deviceType = DeviceHelper.getInstance().getSupportedType(candidate);
+            advertisedDeviceTypes.put(advertisementKey, deviceType);
+        }
         if (deviceType.isSupported()) {
             candidate.setDeviceType(deviceType);
             LOG.info("Recognized supported device: " + candidate);
@@ -373,6 +386,14 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
         }
     }
 
+    /**
+     * Returns what the coordinators look at to recognize a device: its address, name
+     * and service UUIDs.
+     */
+    private String getAdvertisementKey(BluetoothDevice device, ParcelUuid[] uuids) {
+        return device.getAddress() + '|' + device.getName() + '|' + Arrays.toString(uuids);
+    }
+
     /**
      * Pre: bluetooth is available, enabled and scanning is off.
      * Post: BT is discovering
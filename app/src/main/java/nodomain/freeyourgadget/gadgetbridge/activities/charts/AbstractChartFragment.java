@@ -62,6 +62,7 @@ import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
@@ -90,6 +91,10 @@ import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
  */
 public abstract class AbstractChartFragment extends AbstractGBFragment {
     protected final int ANIM_TIME = 250;
+    /**
+     * The number of horizontal pixels per bucket when downsampling the samples for line charts
+     */
+    private static final int PIXELS_PER_BUCKET = 2;
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractChartFragment.class);
 
@@ -146,6 +151,8 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
 
     protected String HEARTRATE_LABEL;
 
+    private SampleDownsampler mDownsampler;
+
     protected AbstractChartFragment(String... intentFilterActions) {
         mIntentFilterActions = new HashSet<>();
         if (intentFilterActions != null) {
@@ -187,6 +194,8 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
 
         HEARTRATE_LABEL = getContext().getString(R.string.charts_legend_heartrate);
 
+        mDownsampler = new SampleDownsampler(getResources().getDisplayMetrics().widthPixels / PIXELS_PER_BUCKET);
+
         akActivity = new ActivityConfig(ActivityKind.TYPE_ACTIVITY, getString(R.string.abstract_chart_fragment_kind_activity), AK_ACTIVITY_COLOR);
         akLightSleep = new ActivityConfig(ActivityKind.TYPE_LIGHT_SLEEP, getString(R.string.abstract_chart_fragment_kind_light_sleep), AK_LIGHT_SLEEP_COLOR);
         akDeepSleep = new ActivityConfig(ActivityKind.TYPE_DEEP_SLEEP, getString(R.string.abstract_chart_fragment_kind_deep_sleep), AK_DEEP_SLEEP_COLOR);
@@ -416,9 +425,28 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
     protected abstract void renderCharts();
 
     protected DefaultChartsData<LineData> refresh(GBDevice gbDevice, List<? extends ActivitySample> samples) {
+        return refresh(gbDevice, SampleColumns.of(samples));
+    }
+
+    protected DefaultChartsData<LineData> refresh(GBDevice gbDevice, SampleColumns samples) {
+        return refresh(gbDevice, getDownsampler().downsample(samples), new TimestampTranslation());
+    }
+
+    /**
+     * Returns the downsampler for samples to be drawn across the width of the screen.
+     */
+    protected SampleDownsampler getDownsampler() {
+        return mDownsampler;
+    }
+
+    /**
+     * Creates the line data for the given samples, without any downsampling.
+     *
+     * @param tsTranslation the translation to use for the x values
+     */
+    protected DefaultChartsData<LineData> refresh(GBDevice gbDevice, SampleColumns samples, TimestampTranslation tsTranslation) {
 //        Calendar cal = GregorianCalendar.getInstance();
 //        cal.clear();
-        TimestampTranslation tsTranslation = new TimestampTranslation();
 //        Date date;
 //        String dateStringFrom = "";
 //        String dateStringTo = "";
@@ -442,9 +470,8 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
             int lastHrSampleIndex = -1;
 
             for (int i = 0; i < numEntries; i++) {
-                ActivitySample sample = samples.get(i);
-                int type = sample.getKind();
-                int ts = tsTranslation.shorten(sample.getTimestamp());
+                int type = samples.getKind(i);
+                int ts = tsTranslation.shorten(samples.getTimestamp(i));
 
 //                System.out.println(ts);
 //                ts = i;
@@ -459,7 +486,7 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
 //                    dateStringTo = dateFormat.format(date);
 //                }
 
-                float movement = sample.getIntensity();
+                float movement = samples.getIntensity(i);
 
                 float value = movement;
                 switch (type) {
@@ -509,13 +536,14 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
                         }
                         activityEntries.add(createLineEntry(value, ts));
                 }
-                if (hr && isValidHeartRateValue(sample.getHeartRate())) {
+                int heartRate = samples.getHeartRate(i);
+                if (hr && isValidHeartRateValue(heartRate)) {
                     if (lastHrSampleIndex > -1 && ts - lastHrSampleIndex > 1800*HeartRateUtils.MAX_HR_MEASUREMENTS_GAP_MINUTES) {
                         heartrateEntries.add(createLineEntry(0, lastHrSampleIndex + 1));
                         heartrateEntries.add(createLineEntry(0, ts - 1));
                     }
 
-                    heartrateEntries.add(createLineEntry(sample.getHeartRate(), ts));
+                    heartrateEntries.add(createLineEntry(heartRate, ts));
                     lastHrSampleIndex = ts;
                 }
 
@@ -714,6 +742,22 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
         return samples;
     }
 
+    /**
+     * Like #getSamples(DBHandler, GBDevice), but streams all samples of the current time range
+     * into columns instead of loading them as entities.
+     */
+    protected SampleColumns getSampleColumns(DBHandler db, GBDevice device) {
+        int tsStart = getTSStart();
+        int tsEnd = getTSEnd();
+        SampleProvider<? extends AbstractActivitySample> provider = getProvider(db, device);
+        SampleColumns columns = SampleColumns.read(provider, tsStart, tsEnd);
+        // like the samples created by createTrailingActivitySample()
+        columns.ensureStartAndEnd(tsStart, tsEnd,
+                provider.normalizeType(ActivitySample.NOT_MEASURED),
+                provider.normalizeIntensity(ActivitySample.NOT_MEASURED));
+        return columns;
+    }
+
     protected void ensureStartAndEndSamples(List<ActivitySample> samples, int tsStart, int tsEnd) {
         if (samples == null || samples.isEmpty()) {
             return;
@@ -741,11 +785,11 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
         return sample;
     }
 
-    private int getTSEnd() {
+    protected int getTSEnd() {
         return toTimestamp(getEndDate());
     }
 
-    private int getTSStart() {
+    protected int getTSStart() {
         return toTimestamp(getStartDate());
     }
 
@@ -48,10 +48,13 @@ import java.util.Locale;
 
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollups;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 
 
 public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
@@ -233,20 +236,30 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
         yAxisRight.setTextColor(CHART_TEXT_COLOR);
     }
 
-    private List<? extends ActivitySample> getSamplesOfDay(DBHandler db, Calendar day, int offsetHours, GBDevice device) {
-        int startTs;
-        int endTs;
-
+    private int getDayStartTimestamp(Calendar day, int offsetHours) {
         day = (Calendar) day.clone(); // do not modify the caller's argument
         day.set(Calendar.HOUR_OF_DAY, 0);
         day.set(Calendar.MINUTE, 0);
         day.set(Calendar.SECOND, 0);
         day.add(Calendar.HOUR, offsetHours);
 
-        startTs = (int) (day.getTimeInMillis() / 1000);
-        endTs = startTs + 24 * 60 * 60 - 1;
+        return (int) (day.getTimeInMillis() / 1000);
+    }
+
+    private ActivityAmounts calculateActivityAmountsOfDay(DBHandler db, int startTs, GBDevice device) {
+        int endTs = startTs + 24 * 60 * 60 - 1;
+
+        SampleProvider<? extends AbstractActivitySample> provider = getProvider(db, device);
+        if (provider instanceof AbstractSampleProvider && ActivityRollups.isHourAligned(startTs, endTs)) {
+            ActivityRollups rollups = ((AbstractSampleProvider<?>) provider).getActivityRollups();
+            if (rollups != null) {
+                return rollups.getActivityAmounts(startTs, endTs);
+            }
+        }
 
-        return getSamples(db, device, startTs, endTs);
+        // stream the samples instead of loading the whole day into memory
+        ActivityAnalysis analysis = new ActivityAnalysis();
+        return analysis.calculateActivityAmounts(provider, startTs, endTs);
     }
 
     @Override
@@ -284,21 +297,20 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
 
     private ActivityAmounts getActivityAmountsForDay(DBHandler db, Calendar day, GBDevice device) {
 
-        LimitedQueue activityAmountCache = null;
+        ActivityAmountCache activityAmountCache = null;
         ActivityAmounts amounts = null;
 
         Activity activity = getActivity();
-        int key = (int) (day.getTimeInMillis() / 1000) + (mOffsetHours * 3600);
+        int startTs = getDayStartTimestamp(day, mOffsetHours);
         if (activity != null) {
             activityAmountCache = ((ChartsActivity) activity).mActivityAmountCache;
-            amounts = (ActivityAmounts) (activityAmountCache.lookup(key));
+            amounts = activityAmountCache.get(device, startTs);
         }
 
         if (amounts == null) {
-            ActivityAnalysis analysis = new ActivityAnalysis();
-            amounts = analysis.calculateActivityAmounts(getSamplesOfDay(db, day, mOffsetHours, device));
+            amounts = calculateActivityAmountsOfDay(db, startTs, device);
             if (activityAmountCache != null) {
-                activityAmountCache.add(key, amounts);
+                activityAmountCache.put(device, startTs, amounts);
             }
         }
 
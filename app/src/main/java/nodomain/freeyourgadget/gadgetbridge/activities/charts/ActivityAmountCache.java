@@ -0,0 +1,59 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.util.IntLruCache;
+
+/**
+ * Caches the ActivityAmounts of single days for the week charts, keyed by device and
+ * the start timestamp of the day, which includes the chart's offset hours.
+ * Must be invalidated whenever new samples may have been added.
+ */
+class ActivityAmountCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityAmountCache.class);
+
+    // one year for the steps and the sleep chart each
+    private static final int MAX_ENTRIES = 2 * 366;
+
+    private final IntLruCache<ActivityAmounts> cache = new IntLruCache<>(MAX_ENTRIES);
+    private String deviceAddress;
+
+    synchronized ActivityAmounts get(GBDevice device, int dayStartTimestamp) {
+        if (!device.getAddress().equals(deviceAddress)) {
+            return null;
+        }
+        return cache.get(dayStartTimestamp);
+    }
+
+    synchronized void put(GBDevice device, int dayStartTimestamp, ActivityAmounts amounts) {
+        if (!device.getAddress().equals(deviceAddress)) {
+            cache.clear();
+            deviceAddress = device.getAddress();
+        }
+        cache.put(dayStartTimestamp, amounts);
+    }
+
+    synchronized void invalidate() {
+        LOG.debug("invalidating " + cache);
+        cache.clear();
+    }
+}
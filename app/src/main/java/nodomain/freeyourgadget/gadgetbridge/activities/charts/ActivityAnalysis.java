@@ -24,6 +24,9 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
@@ -38,16 +41,43 @@ class ActivityAnalysis {
     private int maxSpeed = 0;
 
     ActivityAmounts calculateActivityAmounts(List<? extends ActivitySample> samples) {
-        ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
-        ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
-        ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
-        ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
-
-        ActivityAmount previousAmount = null;
-        ActivitySample previousSample = null;
+        AmountsVisitor visitor = new AmountsVisitor();
         for (ActivitySample sample : samples) {
+            visitor.visit(sample);
+        }
+        return visitor.getResult();
+    }
+
+    /**
+     * Like #calculateActivityAmounts(List), but streams the samples from the given provider
+     * instead of loading the whole time range into memory.
+     */
+    ActivityAmounts calculateActivityAmounts(SampleProvider<? extends AbstractActivitySample> provider, int tsFrom, int tsTo) {
+        AmountsVisitor visitor = new AmountsVisitor();
+        provider.visitAllActivitySamples(tsFrom, tsTo, visitor);
+        return visitor.getResult();
+    }
+
+    /**
+     * Accumulates the activity amounts sample by sample. Only primitive values of the
+     * previous sample are remembered, so the sample instances may be reused by the caller.
+     */
+    private class AmountsVisitor implements SampleVisitor<ActivitySample> {
+        private final ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
+        private final ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
+        private final ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
+        private final ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
+
+        private ActivityAmount previousAmount = null;
+        private boolean hasPreviousSample = false;
+        private int previousTimestamp;
+        private int previousRawKind;
+
+        @Override
+        public boolean visit(ActivitySample sample) {
             ActivityAmount amount;
-            switch (sample.getKind()) {
+            int kind = sample.getKind();
+            switch (kind) {
                 case ActivityKind.TYPE_DEEP_SLEEP:
                     amount = deepSleep;
                     break;
@@ -68,9 +98,11 @@ class ActivityAnalysis {
                 amount.addSteps(steps);
             }
 
-            if (previousSample != null) {
-                long timeDifference = sample.getTimestamp() - previousSample.getTimestamp();
-                if (previousSample.getRawKind() == sample.getRawKind()) {
+            int timestamp = sample.getTimestamp();
+            int rawKind = sample.getRawKind();
+            if (hasPreviousSample) {
+                long timeDifference = timestamp - previousTimestamp;
+                if (previousRawKind == rawKind) {
                     amount.addSeconds(timeDifference);
                 } else {
                     long sharedTimeDifference = (long) (timeDifference / 2.0f);
@@ -79,7 +111,7 @@ class ActivityAnalysis {
                 }
 
                 // add time
-                if (steps > 0 && sample.getKind() == ActivityKind.TYPE_ACTIVITY) {
+                if (steps > 0 && kind == ActivityKind.TYPE_ACTIVITY) {
                     if (steps > maxSpeed) {
                         maxSpeed = steps;
                     }
@@ -96,22 +128,27 @@ class ActivityAnalysis {
             }
 
             previousAmount = amount;
-            previousSample = sample;
+            previousTimestamp = timestamp;
+            previousRawKind = rawKind;
+            hasPreviousSample = true;
+            return true;
         }
 
-        ActivityAmounts result = new ActivityAmounts();
-        if (deepSleep.getTotalSeconds() > 0) {
-            result.addAmount(deepSleep);
-        }
-        if (lightSleep.getTotalSeconds() > 0) {
-            result.addAmount(lightSleep);
-        }
-        if (activity.getTotalSeconds() > 0) {
-            result.addAmount(activity);
-        }
-        result.calculatePercentages();
+        ActivityAmounts getResult() {
+            ActivityAmounts result = new ActivityAmounts();
+            if (deepSleep.getTotalSeconds() > 0) {
+                result.addAmount(deepSleep);
+            }
+            if (lightSleep.getTotalSeconds() > 0) {
+                result.addAmount(lightSleep);
+            }
+            if (activity.getTotalSeconds() > 0) {
+                result.addAmount(activity);
+            }
+            result.calculatePercentages();
 
-        return result;
+            return result;
+        }
     }
 
     int calculateTotalSteps(List<? extends ActivitySample> samples) {
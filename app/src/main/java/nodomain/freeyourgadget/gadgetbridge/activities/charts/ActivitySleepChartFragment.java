@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -31,6 +32,8 @@ import com.github.mikephil.charting.components.LegendEntry;
 import com.github.mikephil.charting.components.XAxis;
 import com.github.mikephil.charting.components.YAxis;
 import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.listener.ChartTouchListener;
+import com.github.mikephil.charting.listener.OnChartGestureListener;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +44,7 @@ import java.util.List;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 
@@ -55,6 +59,14 @@ public class ActivitySleepChartFragment extends AbstractChartFragment {
     private int mTimestampFrom = -1;
     private int mSmartAlarmGoneOff = -1;
 
+    /**
+     * All samples of the current range, for showing more details when zooming in
+     */
+    private SampleColumns mSamples;
+    private TimestampTranslation mTsTranslation;
+    private int mDetailFrom;
+    private int mDetailTo = -1;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -106,6 +118,41 @@ public class ActivitySleepChartFragment extends AbstractChartFragment {
         yAxisRight.setAxisMaximum(HeartRateUtils.MAX_HEART_RATE_VALUE);
         yAxisRight.setAxisMinimum(HeartRateUtils.MIN_HEART_RATE_VALUE);
 
+        mChart.setOnChartGestureListener(new OnChartGestureListener() {
+            @Override
+            public void onChartGestureStart(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+            }
+
+            @Override
+            public void onChartGestureEnd(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+                updateDetail();
+            }
+
+            @Override
+            public void onChartLongPressed(MotionEvent me) {
+            }
+
+            @Override
+            public void onChartDoubleTapped(MotionEvent me) {
+            }
+
+            @Override
+            public void onChartSingleTapped(MotionEvent me) {
+            }
+
+            @Override
+            public void onChartFling(MotionEvent me1, MotionEvent me2, float velocityX, float velocityY) {
+            }
+
+            @Override
+            public void onChartScale(MotionEvent me, float scaleX, float scaleY) {
+            }
+
+            @Override
+            public void onChartTranslate(MotionEvent me, float dX, float dY) {
+            }
+        });
+
         // refresh immediately instead of use refreshIfVisible(), for perceived performance
         refresh();
     }
@@ -127,17 +174,62 @@ public class ActivitySleepChartFragment extends AbstractChartFragment {
 
     @Override
     protected ChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
-        List<? extends ActivitySample> samples = getSamples(db, device);
-        return refresh(device, samples);
+        SampleColumns samples = getSampleColumns(db, device);
+        TimestampTranslation tsTranslation = new TimestampTranslation();
+        DefaultChartsData<LineData> chartsData = refresh(device, getDownsampler().downsample(samples), tsTranslation);
+        return new MyChartsData(chartsData, samples, tsTranslation);
+    }
+
+    /**
+     * Draws the visible part of a zoomed chart with the samples that were dropped
+     * by downsampling the whole range, and the whole range again when zoomed out.
+     */
+    private void updateDetail() {
+        if (mSamples == null || mChart.getData() == null) {
+            return;
+        }
+        int detailFrom = 0;
+        int detailTo = -1;
+        if (!mChart.isFullyZoomedOut()) {
+            int visibleFrom = mTsTranslation.toOriginalValue((int) mChart.getLowestVisibleX());
+            int visibleTo = mTsTranslation.toOriginalValue((int) Math.ceil(mChart.getHighestVisibleX()));
+            int visibleWidth = visibleTo - visibleFrom;
+            boolean covered = visibleFrom >= mDetailFrom && visibleTo <= mDetailTo
+                    && mDetailTo - mDetailFrom <= 4 * visibleWidth;
+            if (covered) {
+                return;
+            }
+            // some room for panning without updating again
+            detailFrom = visibleFrom - visibleWidth / 2;
+            detailTo = visibleTo + visibleWidth / 2;
+        } else if (mDetailTo < mDetailFrom) {
+            // already showing the whole range
+            return;
+        }
+        mDetailFrom = detailFrom;
+        mDetailTo = detailTo;
+
+        SampleColumns samples = getDownsampler().downsample(mSamples, detailFrom, detailTo);
+        DefaultChartsData<LineData> chartsData = refresh(getChartsHost().getDevice(), samples, mTsTranslation);
+        setChartData(chartsData);
+        mChart.invalidate();
+    }
+
+    private void setChartData(DefaultChartsData<LineData> chartsData) {
+        mChart.setData(null); // workaround for https://github.com/PhilJay/MPAndroidChart/issues/2317
+        mChart.getXAxis().setValueFormatter(chartsData.getXValueFormatter());
+        mChart.setData(chartsData.getData());
     }
 
     @Override
     protected void updateChartsnUIThread(ChartsData chartsData) {
-        DefaultChartsData dcd = (DefaultChartsData) chartsData;
+        MyChartsData mcd = (MyChartsData) chartsData;
+        mSamples = mcd.getSamples();
+        mTsTranslation = mcd.getTsTranslation();
+        mDetailFrom = 0;
+        mDetailTo = -1;
         mChart.getLegend().setTextColor(LEGEND_TEXT_COLOR);
-        mChart.setData(null); // workaround for https://github.com/PhilJay/MPAndroidChart/issues/2317
-        mChart.getXAxis().setValueFormatter(dcd.getXValueFormatter());
-        mChart.setData((LineData) dcd.getData());
+        setChartData(mcd);
     }
 
     @Override
@@ -183,4 +275,23 @@ public class ActivitySleepChartFragment extends AbstractChartFragment {
     protected List<? extends ActivitySample> getSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
         return getAllSamples(db, device, tsFrom, tsTo);
     }
+
+    private static class MyChartsData extends DefaultChartsData<LineData> {
+        private final SampleColumns samples;
+        private final TimestampTranslation tsTranslation;
+
+        MyChartsData(DefaultChartsData<LineData> chartsData, SampleColumns samples, TimestampTranslation tsTranslation) {
+            super(chartsData.getData(), chartsData.getXValueFormatter());
+            this.samples = samples;
+            this.tsTranslation = tsTranslation;
+        }
+
+        SampleColumns getSamples() {
+            return samples;
+        }
+
+        TimestampTranslation getTsTranslation() {
+            return tsTranslation;
+        }
+    }
 }
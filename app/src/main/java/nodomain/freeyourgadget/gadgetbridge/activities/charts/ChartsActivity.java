@@ -55,7 +55,6 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
-import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 
 public class ChartsActivity extends AbstractGBFragmentActivity implements ChartsHost {
 
@@ -70,7 +69,7 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
     private SwipeRefreshLayout swipeLayout;
     private NonSwipeableViewPager viewPager;
 
-    LimitedQueue mActivityAmountCache = new LimitedQueue(60);
+    final ActivityAmountCache mActivityAmountCache = new ActivityAmountCache();
 
     private static class ShowDurationDialog extends Dialog {
         private final String mDuration;
@@ -103,11 +102,12 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
-            switch (action) {
-                case GBDevice.ACTION_DEVICE_CHANGED:
-                    GBDevice dev = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
-                    refreshBusyState(dev);
-                    break;
+            if (GBDevice.ACTION_DEVICE_CHANGED.equals(action)) {
+                GBDevice dev = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
+                refreshBusyState(dev);
+            } else if (REFRESH.equals(action)) {
+                // new samples may have arrived
+                mActivityAmountCache.invalidate();
             }
         }
     };
@@ -121,6 +121,7 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
             boolean wasBusy = swipeLayout.isRefreshing();
             swipeLayout.setRefreshing(false);
             if (wasBusy) {
+                mActivityAmountCache.invalidate();
                 LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(REFRESH));
             }
         }
@@ -136,6 +137,7 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
 
         IntentFilter filterLocal = new IntentFilter();
         filterLocal.addAction(GBDevice.ACTION_DEVICE_CHANGED);
+        filterLocal.addAction(REFRESH);
         LocalBroadcastManager.getInstance(this).registerReceiver(mReceiver, filterLocal);
 
         Bundle extras = getIntent().getExtras();
@@ -284,7 +286,7 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
 
     private void fetchActivityData() {
         if (getDevice().isInitialized()) {
-            GBApplication.deviceService().onFetchActivityData();
+            GBApplication.deviceService(getDevice()).onFetchActivityData();
         } else {
             swipeLayout.setRefreshing(false);
             GB.toast(this, getString(R.string.device_not_connected), Toast.LENGTH_SHORT, GB.ERROR);
@@ -16,15 +16,10 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.activities.charts;
 
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.graphics.Paint;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.FragmentActivity;
-import android.support.v4.content.LocalBroadcastManager;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -60,8 +55,8 @@ import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.model.Measurement;
+import nodomain.freeyourgadget.gadgetbridge.model.RealtimeSamples;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class LiveActivityFragment extends AbstractChartFragment {
@@ -81,6 +76,8 @@ public class LiveActivityFragment extends AbstractChartFragment {
 
     private final Steps mSteps = new Steps();
     private ScheduledExecutorService pulseScheduler;
+    // the device realtime tracking was enabled on
+    private GBDevice mRealtimeDevice;
     private int maxStepsResetCounter;
     private List<Measurement> heartRateValues;
     private LineDataSet mHeartRateSet;
@@ -151,36 +148,38 @@ public class LiveActivityFragment extends AbstractChartFragment {
         }
     }
 
-    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+    private final RealtimeSamples.Sample mSample = new RealtimeSamples.Sample();
+    private long mNextSequence = -1;
+
+    /**
+     * Called in the UI thread, possibly once for several new samples.
+     */
+    private final RealtimeSamples.Listener mSamplesListener = new RealtimeSamples.Listener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            switch (action) {
-                case DeviceService.ACTION_REALTIME_SAMPLES: {
-                    ActivitySample sample = (ActivitySample) intent.getSerializableExtra(DeviceService.EXTRA_REALTIME_SAMPLE);
-                    addSample(sample);
-                    break;
+        public void onSamplesAvailable(RealtimeSamples samples) {
+            long next = samples.getNextSequence();
+            long sequence = Math.max(mNextSequence, samples.getOldestSequence());
+            for (; sequence < next; sequence++) {
+                if (samples.read(sequence, mSample)) {
+                    addSample(mSample);
                 }
             }
+            mNextSequence = next;
         }
     };
 
-    private void addSample(ActivitySample sample) {
-        int heartRate = sample.getHeartRate();
-        int timestamp = tsTranslation.shorten(sample.getTimestamp());
+    private void addSample(RealtimeSamples.Sample sample) {
+        int heartRate = sample.heartRate;
+        int timestamp = tsTranslation.shorten(sample.timestamp);
         if (isValidHeartRateValue(heartRate)) {
             setCurrentHeartRate(heartRate, timestamp);
         }
-        int steps = sample.getSteps();
+        int steps = sample.steps;
         if (steps != ActivitySample.NOT_MEASURED) {
             addEntries(steps, timestamp);
         }
     }
 
-    private int translateTimestampFrom(Intent intent) {
-        return translateTimestamp(intent.getLongExtra(DeviceService.EXTRA_TIMESTAMP, System.currentTimeMillis()));
-    }
-
     private int translateTimestamp(long tsMillis) {
         int timestamp = (int) (tsMillis / 1000); // translate to seconds
         return tsTranslation.shorten(timestamp); // and shorten
@@ -257,8 +256,6 @@ public class LiveActivityFragment extends AbstractChartFragment {
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-        IntentFilter filterLocal = new IntentFilter();
-        filterLocal.addAction(DeviceService.ACTION_REALTIME_SAMPLES);
         heartRateValues = new ArrayList<>();
         tsTranslation = new TimestampTranslation();
 
@@ -275,7 +272,9 @@ public class LiveActivityFragment extends AbstractChartFragment {
         mTotalStepsData = setupTotalStepsChart(mTotalStepsChart, totalStepsEntry, getString(R.string.live_activity_total_steps));
         setupHistoryChart(mStepsPerMinuteHistoryChart);
 
-        LocalBroadcastManager.getInstance(getActivity()).registerReceiver(mReceiver, filterLocal);
+        // only show samples published from now on
+        mNextSequence = RealtimeSamples.getInstance().getNextSequence();
+        RealtimeSamples.getInstance().addListener(mSamplesListener);
 
         return rootView;
     }
@@ -337,7 +336,9 @@ public class LiveActivityFragment extends AbstractChartFragment {
         renderCharts();
 
         // have to enable it again and again to keep it measureing
-        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(true);
+        if (mRealtimeDevice != null) {
+            GBApplication.deviceService(mRealtimeDevice).onEnableRealtimeHeartRateMeasurement(true);
+        }
     }
 
     private int getPulseIntervalMillis() {
@@ -356,8 +357,15 @@ public class LiveActivityFragment extends AbstractChartFragment {
             return;
         }
 
-        GBApplication.deviceService().onEnableRealtimeSteps(enable);
-        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(enable);
+        // track only the device shown, and stop tracking on that same device
+        if (enable) {
+            ChartsHost chartsHost = getChartsHost();
+            mRealtimeDevice = chartsHost != null ? chartsHost.getDevice() : null;
+        }
+        if (mRealtimeDevice != null) {
+            GBApplication.deviceService(mRealtimeDevice).onEnableRealtimeSteps(enable);
+            GBApplication.deviceService(mRealtimeDevice).onEnableRealtimeHeartRateMeasurement(enable);
+        }
         if (enable) {
             if (getActivity() != null) {
                 getActivity().getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -365,6 +373,7 @@ public class LiveActivityFragment extends AbstractChartFragment {
             pulseScheduler = startActivityPulse();
         } else {
             stopActivityPulse();
+            mRealtimeDevice = null;
             if (getActivity() != null) {
                 getActivity().getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
             }
@@ -380,7 +389,7 @@ public class LiveActivityFragment extends AbstractChartFragment {
     @Override
     public void onDestroyView() {
         onMadeInvisibleInActivity();
-        LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mReceiver);
+        RealtimeSamples.getInstance().removeListener(mSamplesListener);
         super.onDestroyView();
     }
 
@@ -0,0 +1,199 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import java.util.Arrays;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleColumns;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Reduces the number of samples to draw for long time ranges, where there are many
+ * more samples than pixels. The time range is divided into buckets of equal duration
+ * (ideally one or two pixel columns each) and only the samples that determine how a
+ * bucket looks are kept: the first and last sample, the samples with the lowest and
+ * highest intensity and heart rate, and the samples around each change of the
+ * activity kind.
+ * <p/>
+ * A detail range (e.g. the visible part of a zoomed chart) can be given, which is
+ * divided into the same number of buckets, so that zooming in reveals the samples
+ * that were dropped for the whole range.
+ * <p/>
+ * Instances are immutable and may be used from any thread.
+ */
+public class SampleDownsampler {
+    /**
+     * Below this number of samples per bucket, nothing is dropped
+     */
+    private static final int MIN_SAMPLES_PER_BUCKET = 4;
+
+    private final int buckets;
+
+    /**
+     * @param buckets the number of buckets for the whole and for the detail range
+     */
+    public SampleDownsampler(int buckets) {
+        this.buckets = Math.max(1, buckets);
+    }
+
+    public SampleColumns downsample(SampleColumns samples) {
+        return downsample(samples, Integer.MAX_VALUE, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Returns the downsampled samples, or the given samples themselves if there are
+     * too few for dropping any.
+     *
+     * @param detailFrom the start timestamp of the detail range
+     * @param detailTo   the end timestamp of the detail range, smaller than detailFrom for none
+     */
+    public SampleColumns downsample(SampleColumns samples, int detailFrom, int detailTo) {
+        int size = samples.size();
+        if (size < 2) {
+            return samples;
+        }
+        int first = samples.getTimestamp(0);
+        int last = samples.getTimestamp(size - 1);
+        boolean hasDetail = detailFrom <= detailTo && detailFrom <= last && detailTo >= first;
+        int coarseWidth = bucketWidth(first, last);
+        int detailWidth = hasDetail ? bucketWidth(Math.max(first, detailFrom), Math.min(last, detailTo)) : coarseWidth;
+        int expectedBuckets = hasDetail ? 2 * buckets : buckets;
+        if (size < expectedBuckets * MIN_SAMPLES_PER_BUCKET) {
+            return samples;
+        }
+
+        SampleColumns result = new SampleColumns(expectedBuckets * MIN_SAMPLES_PER_BUCKET);
+        Selection selection = new Selection();
+        int bucketStart = 0;
+        int bucketEnd = nextBucketEnd(samples.getTimestamp(0), first, coarseWidth, detailFrom, detailTo, detailWidth, hasDetail);
+        for (int i = 1; i <= size; i++) {
+            if (i == size || samples.getTimestamp(i) >= bucketEnd) {
+                emitBucket(samples, bucketStart, i, selection, result);
+                if (i < size) {
+                    bucketStart = i;
+                    bucketEnd = nextBucketEnd(samples.getTimestamp(i), first, coarseWidth, detailFrom, detailTo, detailWidth, hasDetail);
+                }
+            }
+        }
+        return result;
+    }
+
+    private int bucketWidth(int from, int to) {
+        return Math.max(1, (int) (((long) to - from + buckets) / buckets));
+    }
+
+    /**
+     * Returns the (exclusive) end timestamp of the bucket that contains the given timestamp.
+     * Buckets are aligned to the first timestamp, or to the start of the detail range, and
+     * never cross the borders of the detail range.
+     */
+    private static int nextBucketEnd(int timestamp, int first, int coarseWidth, int detailFrom, int detailTo, int detailWidth, boolean hasDetail) {
+        if (hasDetail && timestamp >= detailFrom && timestamp <= detailTo) {
+            long end = detailFrom + ((long) timestamp - detailFrom) / detailWidth * detailWidth + detailWidth;
+            return (int) Math.min(end, (long) detailTo + 1);
+        }
+        long end = first + ((long) timestamp - first) / coarseWidth * coarseWidth + coarseWidth;
+        if (hasDetail && timestamp < detailFrom) {
+            end = Math.min(end, detailFrom);
+        }
+        return (int) Math.min(end, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Adds the samples from start (inclusive) to end (exclusive) that shape the bucket.
+     */
+    private static void emitBucket(SampleColumns samples, int start, int end, Selection selection, SampleColumns result) {
+        if (end - start <= MIN_SAMPLES_PER_BUCKET) {
+            for (int i = start; i < end; i++) {
+                copy(samples, i, result);
+            }
+            return;
+        }
+        selection.clear();
+        selection.add(start);
+        selection.add(end - 1);
+        int minIntensity = start;
+        int maxIntensity = start;
+        int minHeartRate = -1;
+        int maxHeartRate = -1;
+        for (int i = start; i < end; i++) {
+            float intensity = samples.getIntensity(i);
+            if (intensity < samples.getIntensity(minIntensity)) {
+                minIntensity = i;
+            } else if (intensity > samples.getIntensity(maxIntensity)) {
+                maxIntensity = i;
+            }
+            int heartRate = samples.getHeartRate(i);
+            if (heartRate != ActivitySample.NOT_MEASURED) {
+                if (minHeartRate < 0 || heartRate < samples.getHeartRate(minHeartRate)) {
+                    minHeartRate = i;
+                }
+                if (maxHeartRate < 0 || heartRate > samples.getHeartRate(maxHeartRate)) {
+                    maxHeartRate = i;
+                }
+            }
+            if (i > start && samples.getKind(i) != samples.getKind(i - 1)) {
+                // keep the end of the previous kind and the start of the next
+                selection.add(i - 1);
+                selection.add(i);
+            }
+        }
+        selection.add(minIntensity);
+        selection.add(maxIntensity);
+        if (minHeartRate >= 0) {
+            selection.add(minHeartRate);
+            selection.add(maxHeartRate);
+        }
+
+        selection.sort();
+        int previous = -1;
+        for (int i = 0; i < selection.count; i++) {
+            int index = selection.indices[i];
+            if (index != previous) {
+                copy(samples, index, result);
+                previous = index;
+            }
+        }
+    }
+
+    private static void copy(SampleColumns samples, int index, SampleColumns result) {
+        result.add(samples.getTimestamp(index), samples.getKind(index), samples.getIntensity(index), samples.getHeartRate(index));
+    }
+
+    /**
+     * The indices of the samples to keep of the current bucket, possibly with duplicates.
+     */
+    private static class Selection {
+        private int[] indices = new int[16];
+        private int count;
+
+        void clear() {
+            count = 0;
+        }
+
+        void add(int index) {
+            if (count == indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+            }
+            indices[count++] = index;
+        }
+
+        void sort() {
+            Arrays.sort(indices, 0, count);
+        }
+    }
+}
@@ -52,16 +52,16 @@ public class SpeedZonesFragment extends AbstractChartFragment {
 
     @Override
     protected ChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
-        List<? extends ActivitySample> samples = getSamples(db, device);
+        // only aggregated values are needed, so stream the samples instead of loading them all
+        ActivityAnalysis analysis = new ActivityAnalysis();
+        analysis.calculateActivityAmounts(getProvider(db, device), getTSStart(), getTSEnd());
 
-        MySpeedZonesData mySpeedZonesData = refreshStats(samples);
+        MySpeedZonesData mySpeedZonesData = refreshStats(analysis);
 
         return new MyChartsData(mySpeedZonesData);
     }
 
-    private MySpeedZonesData refreshStats(List<? extends ActivitySample> samples) {
-        ActivityAnalysis analysis = new ActivityAnalysis();
-        analysis.calculateActivityAmounts(samples);
+    private MySpeedZonesData refreshStats(ActivityAnalysis analysis) {
         BarData data = new BarData();
         data.setValueTextColor(CHART_TEXT_COLOR);
         List<BarEntry> entries = new ArrayList<>();
@@ -24,6 +24,12 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
+/**
+ * Reads from the database in the background. Uses a read only DBHandler, so it is
+ * not blocked by writers.
+ *
+ * @see GBApplication#acquireDBReadOnly()
+ */
 public abstract class DBAccess extends AsyncTask {
     private final String mTask;
     private final Context mContext;
@@ -42,7 +48,7 @@ public abstract class DBAccess extends AsyncTask {
 
     @Override
     protected Object doInBackground(Object[] params) {
-        try (DBHandler db = GBApplication.acquireDB()) {
+        try (DBHandler db = GBApplication.acquireDBReadOnly()) {
             doInBackground(db);
         } catch (Exception e) {
             mError = e;
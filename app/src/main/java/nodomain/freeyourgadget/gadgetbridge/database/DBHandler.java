@@ -25,6 +25,8 @@ import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 
 /**
  * Provides lowlevel access to the database.
+ * There is at most one writer at a time, while any number of readers may access the
+ * database concurrently, also while it is being written to (write-ahead logging).
  */
 public interface DBHandler extends AutoCloseable {
     /**
@@ -50,4 +52,15 @@ public interface DBHandler extends AutoCloseable {
 
     DaoMaster getDaoMaster();
     DaoSession getDaoSession();
+
+    /**
+     * Returns true if this handler was acquired for reading only, see
+     * GBApplication#acquireDBReadOnly(). Its session must not be used for writing.
+     */
+    boolean isReadOnly();
+
+    /**
+     * Returns how long acquiring this handler had to wait for the database lock.
+     */
+    long getLockWaitMillis();
 }
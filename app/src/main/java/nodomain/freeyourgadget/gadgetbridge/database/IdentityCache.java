@@ -0,0 +1,125 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
+
+/**
+ * Caches the database ids of the user and of the devices, so that code writing samples
+ * does not have to resolve them through DBHelper#getUser(DaoSession) and
+ * DBHelper#getDevice(GBDevice, DaoSession) for every sample, which queries and possibly
+ * updates the user, the device and their attributes each time.
+ * <p/>
+ * The user id is resolved again when the user preferences changed, a device id when
+ * the device's name, model or firmware changed, so the attributes in the database
+ * are kept up to date just like when calling DBHelper directly.
+ * <p/>
+ * Must only be used with the writer's session, see GBApplication#acquireDB().
+ */
+public class IdentityCache {
+    private static final Logger LOG = LoggerFactory.getLogger(IdentityCache.class);
+
+    private static final IdentityCache instance = new IdentityCache();
+
+    private long userId;
+    private String userKey;
+    /**
+     * By device address
+     */
+    private final Map<String, DeviceEntry> devices = new HashMap<>();
+
+    public static IdentityCache getInstance() {
+        return instance;
+    }
+
+    private IdentityCache() {
+    }
+
+    /**
+     * Returns the id of the user, like DBHelper.getUser(session).getId()
+     */
+    public synchronized long getUserId(DaoSession session) {
+        String key = createUserKey(new ActivityUser());
+        if (!key.equals(userKey)) {
+            userId = DBHelper.getUser(session).getId();
+            userKey = key;
+        }
+        return userId;
+    }
+
+    /**
+     * Returns the id of the given device, like DBHelper.getDevice(gbDevice, session).getId()
+     */
+    public synchronized long getDeviceId(GBDevice gbDevice, DaoSession session) {
+        String key = createDeviceKey(gbDevice);
+        DeviceEntry entry = devices.get(gbDevice.getAddress());
+        if (entry == null || !key.equals(entry.key)) {
+            entry = new DeviceEntry(DBHelper.getDevice(gbDevice, session).getId(), key);
+            devices.put(gbDevice.getAddress(), entry);
+        }
+        return entry.id;
+    }
+
+    /**
+     * Forgets the id of the given device, e.g. when it was disconnected or deleted.
+     */
+    public synchronized void invalidate(GBDevice gbDevice) {
+        devices.remove(gbDevice.getAddress());
+    }
+
+    /**
+     * Forgets all ids, e.g. when the database is replaced.
+     */
+    public synchronized void invalidateAll() {
+        LOG.debug("invalidating all cached ids");
+        userKey = null;
+        devices.clear();
+    }
+
+    private static String createUserKey(ActivityUser user) {
+        return user.getName() + '|' + user.getUserBirthday() + '|' + user.getGender()
+                + '|' + user.getHeightCm() + '|' + user.getWeightKg()
+                + '|' + user.getSleepDuration() + '|' + user.getStepsGoal();
+    }
+
+    /**
+     * Contains everything DBHelper#getDevice(GBDevice, DaoSession) stores about the device.
+     */
+    private static String createDeviceKey(GBDevice gbDevice) {
+        return gbDevice.getName() + '|' + gbDevice.getModel() + '|' + gbDevice.getType()
+                + '|' + gbDevice.isInitialized() + '|' + gbDevice.getFirmwareVersion()
+                + '|' + gbDevice.getFirmwareVersion2() + '|' + gbDevice.getVolatileAddress();
+    }
+
+    private static class DeviceEntry {
+        private final long id;
+        private final String key;
+
+        DeviceEntry(long id, String key) {
+            this.id = id;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+
+/**
+ * Write-behind buffer for samples recorded in realtime, typically one per second. Instead
+ * of acquiring the database for every sample, the samples are collected in memory and
+ * submitted to SampleIngestion in batches: when the buffer is full, when the buffered
+ * samples span more than the maximum delay, or on #flush(), e.g. when recording stops or
+ * the device disconnects.
+ * <p/>
+ * Buffered samples are not yet in the database, so the live charts must be fed directly,
+ * see RealtimeSamples.
+ */
+public class RealtimeSampleBuffer<T extends AbstractActivitySample> {
+    public static final int DEFAULT_CAPACITY = 60;
+    public static final int DEFAULT_MAX_DELAY_SECONDS = 60;
+
+    private final SampleIngestion.Target<T> target;
+    private final T[] samples;
+    private final int maxDelaySeconds;
+    private int count;
+
+    public RealtimeSampleBuffer(SampleIngestion.Target<T> target, Class<T> sampleClass) {
+        this(target, sampleClass, DEFAULT_CAPACITY, DEFAULT_MAX_DELAY_SECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public RealtimeSampleBuffer(SampleIngestion.Target<T> target, Class<T> sampleClass, int capacity, int maxDelaySeconds) {
+        this.target = target;
+        this.samples = (T[]) Array.newInstance(sampleClass, capacity);
+        this.maxDelaySeconds = maxDelaySeconds;
+    }
+
+    /**
+     * Adds the given sample. The user and device ids and the provider are set when it is
+     * written, the sample must not be modified anymore by the caller.
+     */
+    public synchronized void add(T sample) {
+        if (count > 0 && sample.getTimestamp() - samples[0].getTimestamp() >= maxDelaySeconds) {
+            flush();
+        }
+        samples[count++] = sample;
+        if (count == samples.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Submits all buffered samples for writing.
+     */
+    public synchronized void flush() {
+        if (count == 0) {
+            return;
+        }
+        T[] batch = Arrays.copyOf(samples, count);
+        Arrays.fill(samples, 0, count, null);
+        count = 0;
+        SampleIngestion.getInstance().submit(target, batch);
+    }
+
+    public synchronized int getBufferedCount() {
+        return count;
+    }
+}
@@ -0,0 +1,362 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * Collects the samples fetched from devices and writes them to the database on a
+ * background thread, so that device supports do not have to acquire the database and
+ * open a transaction for every packet or buffer they receive.
+ * <p/>
+ * Submitted batches are kept in memory and written in a single transaction, at the
+ * latest MAX_DELAY_MILLIS after the first pending batch, or as soon as MAX_PENDING_SAMPLES
+ * are pending, or when #flush() is called at the end of a transfer. The user and device
+ * ids of the samples are set when they are written, see IdentityCache.
+ * <p/>
+ * Data that the device deletes once it is acknowledged must only be acknowledged when
+ * the samples are written, see #whenWritten(Collection, Callback). Do not wait for that
+ * on a thread that receives data from the device. Never wait for a ticket while holding
+ * the database, see GBApplication#acquireDB().
+ */
+public class SampleIngestion {
+    private static final Logger LOG = LoggerFactory.getLogger(SampleIngestion.class);
+
+    public static final long MAX_DELAY_MILLIS = 2000;
+    public static final int MAX_PENDING_SAMPLES = 10000;
+    /**
+     * A reasonable timeout for waiting until submitted samples have been written
+     */
+    public static final long DEFAULT_AWAIT_MILLIS = 15000;
+
+    private static final SampleIngestion instance = new SampleIngestion();
+
+    private final Object lock = new Object();
+    /**
+     * All batches not yet written, by target, in the order of their first submission
+     */
+    private Map<Target<?>, PendingSamples<?>> pending = new LinkedHashMap<>();
+    private List<Ticket> pendingTickets = new ArrayList<>();
+    private int pendingSampleCount;
+    private long firstPendingNanos;
+    private boolean writeRequested;
+    private Thread writerThread;
+
+    public static SampleIngestion getInstance() {
+        return instance;
+    }
+
+    private SampleIngestion() {
+    }
+
+    /**
+     * Queues the given samples for writing through a provider created by the given target.
+     * The samples must not be modified anymore by the caller.
+     *
+     * @return the ticket for waiting until the samples are written
+     */
+    public <T extends AbstractActivitySample> Ticket submit(Target<T> target, T[] samples) {
+        Ticket ticket = new Ticket();
+        synchronized (lock) {
+            @SuppressWarnings("unchecked")
+            PendingSamples<T> pendingSamples = (PendingSamples<T>) pending.get(target);
+            if (pendingSamples == null) {
+                pendingSamples = new PendingSamples<>(target);
+                pending.put(target, pendingSamples);
+            }
+            pendingSamples.add(samples);
+            if (pendingTickets.isEmpty()) {
+                firstPendingNanos = System.nanoTime();
+            }
+            pendingTickets.add(ticket);
+            pendingSampleCount += samples.length;
+            ensureWriterThread();
+            lock.notifyAll();
+        }
+        return ticket;
+    }
+
+    /**
+     * Requests writing all pending samples now instead of waiting for more, e.g. when a
+     * device finished sending its data.
+     */
+    public void flush() {
+        synchronized (lock) {
+            writeRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Calls the given callback once all given tickets are written, on the writer thread,
+     * or right away if they already are. Does not request writing them earlier.
+     *
+     * @param callback called with true if all samples were written successfully, with
+     *                 false if writing any of them failed
+     */
+    public void whenWritten(Collection<Ticket> tickets, final Callback callback) {
+        if (tickets.isEmpty()) {
+            callback.onWritten(true);
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(tickets.size());
+        final AtomicBoolean allWritten = new AtomicBoolean(true);
+        Callback ticketCallback = new Callback() {
+            @Override
+            public void onWritten(boolean success) {
+                if (!success) {
+                    allWritten.set(false);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    callback.onWritten(allWritten.get());
+                }
+            }
+        };
+        for (Ticket ticket : tickets) {
+            ticket.addCallback(ticketCallback);
+        }
+    }
+
+    private void ensureWriterThread() {
+        if (writerThread == null) {
+            writerThread = new Thread("SampleIngestion") {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            };
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Map<Target<?>, PendingSamples<?>> batches;
+            List<Ticket> tickets;
+            synchronized (lock) {
+                try {
+                    long waitMillis;
+                    while ((waitMillis = getWaitMillis()) != 0) {
+                        lock.wait(Math.max(0, waitMillis));
+                    }
+                } catch (InterruptedException e) {
+                    LOG.warn("sample writer interrupted, writing remaining samples");
+                }
+                batches = pending;
+                tickets = pendingTickets;
+                pending = new LinkedHashMap<>();
+                pendingTickets = new ArrayList<>();
+                pendingSampleCount = 0;
+                writeRequested = false;
+            }
+            if (tickets.isEmpty()) {
+                continue;
+            }
+
+            boolean success = write(batches.values());
+            for (Ticket ticket : tickets) {
+                ticket.complete(success);
+            }
+        }
+    }
+
+    /**
+     * Returns 0 if the pending samples should be written now, -1 if there are none, or
+     * else the milliseconds until they must be written.
+     */
+    private long getWaitMillis() {
+        if (pendingTickets.isEmpty()) {
+            return -1;
+        }
+        if (writeRequested || pendingSampleCount >= MAX_PENDING_SAMPLES) {
+            return 0;
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstPendingNanos);
+        // never return 0 or -1 for "not yet"
+        return elapsedMillis >= MAX_DELAY_MILLIS ? 0 : Math.max(1, MAX_DELAY_MILLIS - elapsedMillis);
+    }
+
+    private boolean write(Collection<PendingSamples<?>> batches) {
+        int count = 0;
+        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+            SQLiteDatabase db = dbHandler.getDatabase();
+            db.beginTransaction();
+            try {
+                for (PendingSamples<?> batch : batches) {
+                    count += batch.write(dbHandler.getDaoSession());
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            LOG.debug("wrote " + count + " samples in a single transaction");
+            return true;
+        } catch (Exception e) {
+            LOG.error("Error writing samples", e);
+            return false;
+        }
+    }
+
+    /**
+     * Creates the sample provider for writing samples of a device. Samples submitted with
+     * the same target instance are written together.
+     */
+    public abstract static class Target<T extends AbstractActivitySample> {
+        private final GBDevice device;
+
+        protected Target(GBDevice device) {
+            this.device = device;
+        }
+
+        public GBDevice getDevice() {
+            return device;
+        }
+
+        protected abstract AbstractSampleProvider<T> createProvider(GBDevice device, DaoSession session);
+    }
+
+    /**
+     * Notified when submitted samples have been written, see #whenWritten(Collection, Callback).
+     * It is called on the writer thread and must not block, as that would delay writing
+     * other samples.
+     */
+    public interface Callback {
+        void onWritten(boolean success);
+    }
+
+    /**
+     * Tells whether submitted samples have been written.
+     */
+    public class Ticket {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean success;
+        private List<Callback> callbacks;
+
+        void complete(boolean success) {
+            List<Callback> toCall;
+            synchronized (this) {
+                this.success = success;
+                done.countDown();
+                toCall = callbacks;
+                callbacks = null;
+            }
+            if (toCall != null) {
+                for (Callback callback : toCall) {
+                    try {
+                        callback.onWritten(success);
+                    } catch (Exception e) {
+                        LOG.error("Error notifying about written samples", e);
+                    }
+                }
+            }
+        }
+
+        void addCallback(Callback callback) {
+            synchronized (this) {
+                if (!isDone()) {
+                    if (callbacks == null) {
+                        callbacks = new ArrayList<>(1);
+                    }
+                    callbacks.add(callback);
+                    return;
+                }
+            }
+            callback.onWritten(success);
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Waits until the samples are written. This does not request writing them, call
+         * #flush() first to not wait for the delay.
+         *
+         * @return true if the samples were written successfully, false if writing failed,
+         * the timeout elapsed or the thread was interrupted
+         */
+        public boolean await(long timeoutMillis) {
+            try {
+                return done.await(timeoutMillis, TimeUnit.MILLISECONDS) && success;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private static class PendingSamples<T extends AbstractActivitySample> {
+        private final Target<T> target;
+        private final List<T[]> chunks = new ArrayList<>();
+        private int count;
+
+        PendingSamples(Target<T> target) {
+            this.target = target;
+        }
+
+        void add(T[] samples) {
+            chunks.add(samples);
+            count += samples.length;
+        }
+
+        int write(DaoSession session) {
+            if (count == 0) {
+                return 0;
+            }
+            // later chunks replace earlier samples with the same timestamp, as when written one by one
+            T[] samples = Arrays.copyOf(chunks.get(0), count);
+            int offset = chunks.get(0).length;
+            for (int i = 1; i < chunks.size(); i++) {
+                T[] chunk = chunks.get(i);
+                System.arraycopy(chunk, 0, samples, offset, chunk.length);
+                offset += chunk.length;
+            }
+
+            AbstractSampleProvider<T> provider = target.createProvider(target.getDevice(), session);
+            long userId = IdentityCache.getInstance().getUserId(session);
+            long deviceId = IdentityCache.getInstance().getDeviceId(target.getDevice(), session);
+            for (T sample : samples) {
+                sample.setUserId(userId);
+                sample.setDeviceId(deviceId);
+                sample.setProvider(provider);
+            }
+            provider.addGBActivitySamples(samples);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Writes samples with a single compiled INSERT OR REPLACE statement, which is reused for
+ * all samples of a call. The columns are bound directly from the sample's getters.
+ * <p/>
+ * Unlike AbstractDao#insertOrReplaceInTx(Object[]), the samples are not attached to the
+ * session afterwards, so relations of the given samples (e.g. getDevice()) cannot be
+ * resolved lazily. Samples are only ever written, so this is not needed.
+ * <p/>
+ * The subclasses for the sample tables are generated by GBDaoGenerator, along with the
+ * entities and daos.
+ *
+ * @param <T> the sample type
+ */
+public abstract class SampleUpsert<T> {
+    private final String sql;
+
+    protected SampleUpsert(String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * Inserts the given samples or replaces existing ones with the same primary key, in a
+     * single transaction. Joins the current transaction, if any.
+     */
+    public void upsert(SQLiteDatabase db, T[] samples) {
+        if (samples.length == 0) {
+            return;
+        }
+        SQLiteStatement statement = db.compileStatement(sql);
+        db.beginTransaction();
+        try {
+            for (T sample : samples) {
+                bind(statement, sample);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * Binds all columns of the statement. Every column is bound, null values with
+     * SQLiteStatement#bindNull(int), so the statement does not need to be cleared
+     * between samples.
+     */
+    protected abstract void bind(SQLiteStatement statement, T sample);
+
+    public String getSql() {
+        return sql;
+    }
+}
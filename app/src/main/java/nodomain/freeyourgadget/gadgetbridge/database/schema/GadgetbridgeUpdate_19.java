@@ -0,0 +1,73 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.database.DBUpdateScript;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.No1F1ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleMisfitSampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleMorpheuzSampleDao;
+
+/*
+ * adds the (deviceId, timestamp) indexes of the sample tables and the
+ * (deviceId, timestampTo, timestampFrom) indexes of the overlay tables
+ */
+
+public class GadgetbridgeUpdate_19 implements DBUpdateScript {
+    @Override
+    public void upgradeSchema(SQLiteDatabase db) {
+        createIndex(db, MiBandActivitySampleDao.TABLENAME, MiBandActivitySampleDao.Properties.DeviceId, MiBandActivitySampleDao.Properties.Timestamp);
+        createIndex(db, PebbleHealthActivitySampleDao.TABLENAME, PebbleHealthActivitySampleDao.Properties.DeviceId, PebbleHealthActivitySampleDao.Properties.Timestamp);
+        createIndex(db, PebbleMisfitSampleDao.TABLENAME, PebbleMisfitSampleDao.Properties.DeviceId, PebbleMisfitSampleDao.Properties.Timestamp);
+        createIndex(db, PebbleMorpheuzSampleDao.TABLENAME, PebbleMorpheuzSampleDao.Properties.DeviceId, PebbleMorpheuzSampleDao.Properties.Timestamp);
+        createIndex(db, HPlusHealthActivitySampleDao.TABLENAME, HPlusHealthActivitySampleDao.Properties.DeviceId, HPlusHealthActivitySampleDao.Properties.Timestamp);
+        createIndex(db, No1F1ActivitySampleDao.TABLENAME, No1F1ActivitySampleDao.Properties.DeviceId, No1F1ActivitySampleDao.Properties.Timestamp);
+
+        createIndex(db, PebbleHealthActivityOverlayDao.TABLENAME, PebbleHealthActivityOverlayDao.Properties.DeviceId,
+                PebbleHealthActivityOverlayDao.Properties.TimestampTo, PebbleHealthActivityOverlayDao.Properties.TimestampFrom);
+        createIndex(db, HPlusHealthActivityOverlayDao.TABLENAME, HPlusHealthActivityOverlayDao.Properties.DeviceId,
+                HPlusHealthActivityOverlayDao.Properties.TimestampTo, HPlusHealthActivityOverlayDao.Properties.TimestampFrom);
+    }
+
+    @Override
+    public void downgradeSchema(SQLiteDatabase db) {
+    }
+
+    /**
+     * Creates the index with the name GBDaoGenerator gives it, so that the dao's createTable()
+     * does not add it a second time.
+     */
+    private void createIndex(SQLiteDatabase db, String table, Property... columns) {
+        StringBuilder name = new StringBuilder("IDX_").append(table);
+        StringBuilder columnList = new StringBuilder();
+        for (Property column : columns) {
+            name.append('_').append(column.columnName);
+            if (columnList.length() > 0) {
+                columnList.append(',');
+            }
+            columnList.append('"').append(column.columnName).append('"');
+        }
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + name + " ON \"" + table + "\" (" + columnList + ");");
+    }
+}
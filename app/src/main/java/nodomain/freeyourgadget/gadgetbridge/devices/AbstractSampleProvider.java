@@ -16,6 +16,7 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices;
 
+import android.database.Cursor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -28,6 +29,7 @@ import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import de.greenrobot.dao.query.WhereCondition;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleUpsert;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
@@ -80,14 +82,92 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         }
     }
 
+    @Override
+    public void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor<? super T> visitor) {
+        QueryBuilder<T> qb = getSampleDao().queryBuilder();
+        Property timestampProperty = getTimestampSampleProperty();
+        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
+        if (dbDevice == null) {
+            // no device, no samples
+            return;
+        }
+        Property deviceProperty = getDeviceIdentifierSampleProperty();
+        qb.where(deviceProperty.eq(dbDevice.getId()), timestampProperty.ge(timestamp_from))
+            .where(timestampProperty.le(timestamp_to))
+            .orderAsc(timestampProperty);
+
+        T sample = createActivitySample();
+        sample.setProvider(this);
+        try (Cursor cursor = qb.buildCursor().query()) {
+            while (cursor.moveToNext()) {
+                readSample(cursor, sample);
+                if (!visitor.visit(sample)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper for subclasses that need to post-process their samples in memory
+     * (e.g. for applying overlays) and therefore cannot stream them directly from
+     * the database.
+     */
+    protected void visitSamples(List<T> samples, SampleVisitor<? super T> visitor) {
+        for (T sample : samples) {
+            if (!visitor.visit(sample)) {
+                break;
+            }
+        }
+    }
+
     @Override
     public void addGBActivitySample(T activitySample) {
         getSampleDao().insertOrReplace(activitySample);
+
+        ActivityRollups rollups = getActivityRollups();
+        if (rollups != null) {
+            rollups.invalidate(activitySample.getTimestamp());
+        }
     }
 
     @Override
     public void addGBActivitySamples(T[] activitySamples) {
-        getSampleDao().insertOrReplaceInTx(activitySamples);
+        SampleUpsert<T> upsert = getSampleUpsert();
+        if (upsert != null) {
+            upsert.upsert(getSession().getDatabase(), activitySamples);
+        } else {
+            getSampleDao().insertOrReplaceInTx(activitySamples);
+        }
+
+        ActivityRollups rollups = getActivityRollups();
+        if (rollups != null && activitySamples.length > 0) {
+            int minTimestamp = Integer.MAX_VALUE;
+            int maxTimestamp = Integer.MIN_VALUE;
+            for (T sample : activitySamples) {
+                minTimestamp = Math.min(minTimestamp, sample.getTimestamp());
+                maxTimestamp = Math.max(maxTimestamp, sample.getTimestamp());
+            }
+            rollups.update(minTimestamp, maxTimestamp);
+        }
+    }
+
+    /**
+     * Returns the generated bulk writer for this provider's samples, or null to write them
+     * through the dao. Worthwhile for sample tables receiving many samples at once.
+     */
+    @Nullable
+    protected SampleUpsert<T> getSampleUpsert() {
+        return null;
+    }
+
+    /**
+     * Returns access to the hourly rollups of this provider's samples, or null if the samples
+     * cannot be rolled up, e.g. because they are modified by overlays that are stored separately.
+     */
+    @Nullable
+    public ActivityRollups getActivityRollups() {
+        return new ActivityRollups(this);
     }
 
     @Nullable
@@ -124,7 +204,8 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         }
         Property deviceProperty = getDeviceIdentifierSampleProperty();
         qb.where(deviceProperty.eq(dbDevice.getId()), timestampProperty.ge(timestamp_from))
-            .where(timestampProperty.le(timestamp_to), getClauseForActivityType(qb, activityType));
+            .where(timestampProperty.le(timestamp_to), getClauseForActivityType(qb, activityType))
+            .orderAsc(timestampProperty);
         List<T> samples = qb.build().list();
         for (T sample : samples) {
             sample.setProvider(this);
@@ -196,6 +277,13 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
 
     public abstract AbstractDao<T,?> getSampleDao();
 
+    /**
+     * Reads the columns of the current cursor row into the given, already existing sample.
+     * Used for streaming samples without creating an entity per row. Implementations
+     * typically delegate to the generated dao's <code>readEntity(cursor, sample, 0)</code>.
+     */
+    protected abstract void readSample(Cursor cursor, T sample);
+
     @Nullable
     protected abstract Property getRawKindSampleProperty();
 
@@ -0,0 +1,113 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Applies overlays, i.e. time ranges that patch the samples within them (e.g. with a
+ * different activity kind), to time sorted samples in a single sweep over the samples.
+ * <p/>
+ * Overlays are identified by their index in the order they were given. For every sample,
+ * the {@link Applier} is called once for each overlay containing the sample's timestamp,
+ * in ascending index order, so the last overlay is dominant. A sample is contained if
+ * timestampFrom &lt;= timestamp &lt; timestampTo.
+ * <p/>
+ * This gives the same result as looping over all samples once per overlay, but costs
+ * O(samples * overlapping overlays + overlays * log(overlays)) instead of
+ * O(samples * overlays).
+ */
+public class ActivityOverlays {
+    public interface Applier<T extends ActivitySample> {
+        /**
+         * Called for every sample within an overlay.
+         *
+         * @param sample       the sample to patch
+         * @param overlayIndex the index of the overlay
+         */
+        void apply(T sample, int overlayIndex);
+    }
+
+    private final int[] timestampsFrom;
+    private final int[] timestampsTo;
+    /**
+     * The overlay indices, sorted by timestampFrom
+     */
+    private final int[] byStart;
+
+    /**
+     * @param timestampsFrom the start of each overlay (inclusive)
+     * @param timestampsTo   the end of each overlay (exclusive)
+     */
+    public ActivityOverlays(int[] timestampsFrom, int[] timestampsTo) {
+        if (timestampsFrom.length != timestampsTo.length) {
+            throw new IllegalArgumentException("timestampsFrom and timestampsTo must have the same length");
+        }
+        this.timestampsFrom = timestampsFrom;
+        this.timestampsTo = timestampsTo;
+
+        // sort start and index together, so that we do not need to box the indices
+        long[] starts = new long[timestampsFrom.length];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = ((long) timestampsFrom[i] << 32) | i;
+        }
+        Arrays.sort(starts);
+        byStart = new int[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            byStart[i] = (int) starts[i];
+        }
+    }
+
+    public int size() {
+        return byStart.length;
+    }
+
+    /**
+     * Applies the overlays to the given samples, which must be sorted by timestamp.
+     */
+    public <T extends ActivitySample> void apply(List<T> samples, Applier<? super T> applier) {
+        if (byStart.length == 0) {
+            return;
+        }
+        BitSet active = new BitSet(byStart.length);
+        int nextStart = 0;
+        int lastTimestamp = Integer.MIN_VALUE;
+        for (T sample : samples) {
+            int timestamp = sample.getTimestamp();
+            if (timestamp < lastTimestamp) {
+                throw new IllegalArgumentException("samples must be sorted by timestamp");
+            }
+            lastTimestamp = timestamp;
+
+            while (nextStart < byStart.length && timestampsFrom[byStart[nextStart]] <= timestamp) {
+                active.set(byStart[nextStart++]);
+            }
+            for (int i = active.nextSetBit(0); i >= 0; i = active.nextSetBit(i + 1)) {
+                if (timestampsTo[i] <= timestamp) {
+                    // ended before this sample, and thus before all following ones
+                    active.clear(i);
+                } else {
+                    applier.apply(sample, i);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,480 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.greenrobot.dao.Property;
+import de.greenrobot.dao.query.QueryBuilder;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityRollup;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityRollupDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+
+/**
+ * Maintains and reads the hourly {@link ActivityRollup}s of a sample provider.
+ *
+ * Rollups are recalculated from the raw samples whenever a batch of samples is added,
+ * and are calculated lazily (and stored, once the hour is over) when they are missing,
+ * e.g. for data recorded before rollups existed. Daily values are summed up from the
+ * hourly rows, because the day boundaries depend on the time zone and on the chart's
+ * offset.
+ *
+ * The time between two samples is attributed the same way ActivityAnalysis does it,
+ * to the hour of the later sample, however long the gap is. ActivityAnalysis does not
+ * count the time before the first sample of the analyzed range, so #getActivityAmounts(int, int)
+ * leaves it out as well.
+ */
+public class ActivityRollups {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityRollups.class);
+
+    public static final int HOUR_SECONDS = 60 * 60;
+
+    private final AbstractSampleProvider<? extends AbstractActivitySample> provider;
+
+    public ActivityRollups(AbstractSampleProvider<? extends AbstractActivitySample> provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Returns the start of the hour that contains the given timestamp.
+     */
+    public static int toHour(int timestamp) {
+        return timestamp - (((timestamp % HOUR_SECONDS) + HOUR_SECONDS) % HOUR_SECONDS);
+    }
+
+    /**
+     * Returns whether the given time range consists of full hours only, i.e. whether it
+     * can be answered from the hourly rollups.
+     */
+    public static boolean isHourAligned(int timestamp_from, int timestamp_to) {
+        return toHour(timestamp_from) == timestamp_from && toHour(timestamp_to + 1) == timestamp_to + 1;
+    }
+
+    /**
+     * Deletes all rollups of the given device, of any sample source.
+     */
+    public static void deleteAll(DaoSession session, long deviceId) {
+        QueryBuilder<?> qb = session.getActivityRollupDao().queryBuilder();
+        qb.where(ActivityRollupDao.Properties.DeviceId.eq(deviceId)).buildDelete().executeDeleteWithoutDetachingEntities();
+    }
+
+    private String getSampleSource() {
+        return provider.getSampleDao().getTablename();
+    }
+
+    /**
+     * Recalculates the rollups of all hours touched by the given time range, plus the
+     * hour of the next sample after the range, whose time depends on the last sample of
+     * the range. To be called after samples in that range have been added or changed.
+     */
+    public void update(int timestamp_from, int timestamp_to) {
+        Device dbDevice = DBHelper.findDevice(provider.getDevice(), provider.getSession());
+        if (dbDevice == null) {
+            return;
+        }
+        int lastHour = toHour(timestamp_to);
+        Map<Integer, ActivityRollup> rollups = calculate(dbDevice.getId(), toHour(timestamp_from), lastHour);
+        Integer next = findFirstTimestampAfter(dbDevice.getId(), timestamp_to);
+        if (next != null && toHour(next) > lastHour) {
+            rollups.putAll(calculate(dbDevice.getId(), toHour(next), toHour(next)));
+        }
+        store(rollups);
+    }
+
+    /**
+     * Removes the rollups that are affected by a sample with the given timestamp, so that
+     * they will be recalculated on the next access. Cheaper than #update(int, int) for
+     * single samples.
+     */
+    public void invalidate(int timestamp) {
+        Device dbDevice = DBHelper.findDevice(provider.getDevice(), provider.getSession());
+        if (dbDevice == null) {
+            return;
+        }
+        deleteHour(dbDevice.getId(), toHour(timestamp));
+        Integer next = findFirstTimestampAfter(dbDevice.getId(), timestamp);
+        if (next != null && toHour(next) != toHour(timestamp)) {
+            deleteHour(dbDevice.getId(), toHour(next));
+        }
+    }
+
+    private void deleteHour(long deviceId, int hour) {
+        QueryBuilder<?> qb = provider.getSession().getActivityRollupDao().queryBuilder();
+        qb.where(ActivityRollupDao.Properties.DeviceId.eq(deviceId),
+                ActivityRollupDao.Properties.SampleSource.eq(getSampleSource()),
+                ActivityRollupDao.Properties.Timestamp.eq(hour))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+    }
+
+    /**
+     * Returns the hourly rollups of all hours within the given range, ordered by time.
+     * Missing rollups are calculated from the raw samples.
+     */
+    @NonNull
+    public List<ActivityRollup> getHourlyRollups(int timestamp_from, int timestamp_to) {
+        Device dbDevice = DBHelper.findDevice(provider.getDevice(), provider.getSession());
+        if (dbDevice == null) {
+            return Collections.emptyList();
+        }
+        int firstHour = toHour(timestamp_from);
+        int lastHour = toHour(timestamp_to);
+
+        QueryBuilder<ActivityRollup> qb = provider.getSession().getActivityRollupDao().queryBuilder();
+        qb.where(ActivityRollupDao.Properties.DeviceId.eq(dbDevice.getId()),
+                ActivityRollupDao.Properties.SampleSource.eq(getSampleSource()),
+                ActivityRollupDao.Properties.Timestamp.ge(firstHour),
+                ActivityRollupDao.Properties.Timestamp.le(lastHour));
+        Map<Integer, ActivityRollup> rollups = new TreeMap<>();
+        for (ActivityRollup rollup : qb.build().list()) {
+            rollups.put(rollup.getTimestamp(), rollup);
+        }
+        provider.getSession().getActivityRollupDao().detachAll();
+
+        int firstMissing = -1;
+        int lastMissing = -1;
+        for (int hour = firstHour; hour <= lastHour; hour += HOUR_SECONDS) {
+            if (!rollups.containsKey(hour)) {
+                if (firstMissing == -1) {
+                    firstMissing = hour;
+                }
+                lastMissing = hour;
+            }
+        }
+        if (firstMissing != -1) {
+            Map<Integer, ActivityRollup> calculated = calculate(dbDevice.getId(), firstMissing, lastMissing);
+            store(calculated);
+            rollups.putAll(calculated);
+        }
+        return new ArrayList<>(rollups.values());
+    }
+
+    /**
+     * Returns the activity amounts of the given range, like ActivityAnalysis would calculate
+     * them from the raw samples. The range must be hour aligned, see #isHourAligned(int, int).
+     */
+    @NonNull
+    public ActivityAmounts getActivityAmounts(int timestamp_from, int timestamp_to) {
+        ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
+        ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
+        ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
+
+        for (ActivityRollup rollup : getHourlyRollups(timestamp_from, timestamp_to)) {
+            deepSleep.addSeconds(rollup.getDeepSleepSeconds());
+            deepSleep.addSteps(rollup.getDeepSleepSteps());
+            lightSleep.addSeconds(rollup.getLightSleepSeconds());
+            lightSleep.addSteps(rollup.getLightSleepSteps());
+            activity.addSeconds(rollup.getActivitySeconds());
+            activity.addSteps(rollup.getActivitySteps());
+        }
+
+        // the first sample of the range got the time since the last sample before it
+        ActivityRollup leadingGap = calculateLeadingGap(timestamp_from, timestamp_to);
+        if (leadingGap != null) {
+            deepSleep.addSeconds(-leadingGap.getDeepSleepSeconds());
+            lightSleep.addSeconds(-leadingGap.getLightSleepSeconds());
+            activity.addSeconds(-leadingGap.getActivitySeconds());
+        }
+
+        ActivityAmounts result = new ActivityAmounts();
+        if (deepSleep.getTotalSeconds() > 0) {
+            result.addAmount(deepSleep);
+        }
+        if (lightSleep.getTotalSeconds() > 0) {
+            result.addAmount(lightSleep);
+        }
+        if (activity.getTotalSeconds() > 0) {
+            result.addAmount(activity);
+        }
+        result.calculatePercentages();
+
+        return result;
+    }
+
+    /**
+     * Calculates the rollups of all hours from firstHour to lastHour (inclusive) from
+     * the raw samples. Hours without samples get an empty rollup.
+     */
+    private Map<Integer, ActivityRollup> calculate(long deviceId, int firstHour, int lastHour) {
+        RollupVisitor visitor = new RollupVisitor();
+        for (int hour = firstHour; hour <= lastHour; hour += HOUR_SECONDS) {
+            visitor.add(createEmptyRollup(hour, deviceId));
+        }
+        // start with the predecessor of the first sample
+        Integer previous = findLastTimestampBefore(deviceId, firstHour);
+        provider.visitAllActivitySamples(previous != null ? previous : firstHour, lastHour + HOUR_SECONDS - 1, visitor);
+        return visitor.finish();
+    }
+
+    /**
+     * Returns the seconds attributed to the first sample of the given range because of
+     * the last sample before the range, or null if there are no such samples.
+     */
+    @Nullable
+    private ActivityRollup calculateLeadingGap(int timestamp_from, int timestamp_to) {
+        Device dbDevice = DBHelper.findDevice(provider.getDevice(), provider.getSession());
+        if (dbDevice == null) {
+            return null;
+        }
+        Integer previous = findLastTimestampBefore(dbDevice.getId(), timestamp_from);
+        if (previous == null) {
+            return null;
+        }
+        LeadingGapVisitor visitor = new LeadingGapVisitor();
+        provider.visitAllActivitySamples(previous, timestamp_to, visitor);
+        return visitor.getResult();
+    }
+
+    @Nullable
+    private Integer findLastTimestampBefore(long deviceId, int timestamp) {
+        Property timestampProperty = provider.getTimestampSampleProperty();
+        QueryBuilder<? extends AbstractActivitySample> qb = provider.getSampleDao().queryBuilder();
+        qb.where(provider.getDeviceIdentifierSampleProperty().eq(deviceId), timestampProperty.lt(timestamp))
+                .orderDesc(timestampProperty).limit(1);
+        return getFirstTimestamp(qb);
+    }
+
+    @Nullable
+    private Integer findFirstTimestampAfter(long deviceId, int timestamp) {
+        Property timestampProperty = provider.getTimestampSampleProperty();
+        QueryBuilder<? extends AbstractActivitySample> qb = provider.getSampleDao().queryBuilder();
+        qb.where(provider.getDeviceIdentifierSampleProperty().eq(deviceId), timestampProperty.gt(timestamp))
+                .orderAsc(timestampProperty).limit(1);
+        return getFirstTimestamp(qb);
+    }
+
+    @Nullable
+    private Integer getFirstTimestamp(QueryBuilder<? extends AbstractActivitySample> qb) {
+        List<? extends AbstractActivitySample> samples = qb.build().list();
+        provider.detachFromSession();
+        return samples.isEmpty() ? null : samples.get(0).getTimestamp();
+    }
+
+    private ActivityRollup createEmptyRollup(int hour, long deviceId) {
+        ActivityRollup rollup = new ActivityRollup();
+        rollup.setTimestamp(hour);
+        rollup.setDeviceId(deviceId);
+        rollup.setSampleSource(getSampleSource());
+        return rollup;
+    }
+
+    /**
+     * Stores the given rollups, except those of hours that are not over yet, since
+     * more samples may arrive for them.
+     */
+    private void store(Map<Integer, ActivityRollup> rollups) {
+        int currentHour = toHour((int) (System.currentTimeMillis() / 1000));
+        List<ActivityRollup> complete = new ArrayList<>(rollups.size());
+        for (ActivityRollup rollup : rollups.values()) {
+            if (rollup.getTimestamp() < currentHour) {
+                complete.add(rollup);
+            }
+        }
+        if (complete.isEmpty()) {
+            return;
+        }
+        // the provider may use a read only session, so store through the writer, but
+        // don't wait for it, the rollups will simply be calculated again next time
+        DBHandler db = GBApplication.tryAcquireDB();
+        if (db == null) {
+            LOG.debug("database is busy, not storing activity rollups for " + getSampleSource());
+            return;
+        }
+        try {
+            ActivityRollupDao dao = db.getDaoSession().getActivityRollupDao();
+            dao.insertOrReplaceInTx(complete);
+            dao.detachAll();
+            LOG.debug("stored " + complete.size() + " activity rollups for " + getSampleSource());
+        } finally {
+            GBApplication.releaseDB();
+        }
+    }
+
+    private static class HourAccumulator {
+        private final ActivityRollup rollup;
+        private long heartRateSum;
+
+        HourAccumulator(ActivityRollup rollup) {
+            this.rollup = rollup;
+            rollup.setHeartRateMin(Integer.MAX_VALUE);
+        }
+
+        void addSeconds(int kind, int seconds) {
+            switch (kind) {
+                case ActivityKind.TYPE_DEEP_SLEEP:
+                    rollup.setDeepSleepSeconds(rollup.getDeepSleepSeconds() + seconds);
+                    break;
+                case ActivityKind.TYPE_LIGHT_SLEEP:
+                    rollup.setLightSleepSeconds(rollup.getLightSleepSeconds() + seconds);
+                    break;
+                case ActivityKind.TYPE_NOT_WORN:
+                    rollup.setNotWornSeconds(rollup.getNotWornSeconds() + seconds);
+                    break;
+                case ActivityKind.TYPE_ACTIVITY:
+                default:
+                    rollup.setActivitySeconds(rollup.getActivitySeconds() + seconds);
+                    break;
+            }
+        }
+
+        void addSteps(int kind, int steps) {
+            switch (kind) {
+                case ActivityKind.TYPE_DEEP_SLEEP:
+                    rollup.setDeepSleepSteps(rollup.getDeepSleepSteps() + steps);
+                    break;
+                case ActivityKind.TYPE_LIGHT_SLEEP:
+                    rollup.setLightSleepSteps(rollup.getLightSleepSteps() + steps);
+                    break;
+                case ActivityKind.TYPE_NOT_WORN:
+                    rollup.setNotWornSteps(rollup.getNotWornSteps() + steps);
+                    break;
+                case ActivityKind.TYPE_ACTIVITY:
+                default:
+                    rollup.setActivitySteps(rollup.getActivitySteps() + steps);
+                    break;
+            }
+        }
+
+        /**
+         * Adds the time since the previous sample, like ActivityAnalysis: all of it to the
+         * sample's kind if the raw kinds are the same, otherwise half of it to each kind.
+         */
+        void addTimeDifference(int previousKind, int previousRawKind, int kind, int rawKind, int timeDifference) {
+            if (previousRawKind == rawKind) {
+                addSeconds(kind, timeDifference);
+            } else {
+                int sharedTimeDifference = (int) (timeDifference / 2.0f);
+                addSeconds(previousKind, sharedTimeDifference);
+                addSeconds(kind, sharedTimeDifference);
+            }
+        }
+
+        void addHeartRate(int heartRate) {
+            rollup.setHeartRateMin(Math.min(rollup.getHeartRateMin(), heartRate));
+            rollup.setHeartRateMax(Math.max(rollup.getHeartRateMax(), heartRate));
+            rollup.setHeartRateCount(rollup.getHeartRateCount() + 1);
+            heartRateSum += heartRate;
+        }
+
+        ActivityRollup finish() {
+            int count = rollup.getHeartRateCount();
+            if (count > 0) {
+                rollup.setHeartRateAverage((int) (heartRateSum / count));
+            } else {
+                rollup.setHeartRateMin(0);
+            }
+            return rollup;
+        }
+    }
+
+    private static class RollupVisitor implements SampleVisitor<AbstractActivitySample> {
+        private final Map<Integer, HourAccumulator> hours = new TreeMap<>();
+
+        private boolean hasPreviousSample;
+        private int previousTimestamp;
+        private int previousRawKind;
+        private int previousKind;
+
+        void add(ActivityRollup rollup) {
+            hours.put(rollup.getTimestamp(), new HourAccumulator(rollup));
+        }
+
+        @Override
+        public boolean visit(AbstractActivitySample sample) {
+            int timestamp = sample.getTimestamp();
+            int kind = sample.getKind();
+            int rawKind = sample.getRawKind();
+            int hour = toHour(timestamp);
+
+            HourAccumulator accumulator = hours.get(hour);
+            if (accumulator != null) {
+                int steps = sample.getSteps();
+                if (steps > 0) {
+                    accumulator.addSteps(kind, steps);
+                }
+                int heartRate = sample.getHeartRate();
+                if (heartRate > HeartRateUtils.MIN_HEART_RATE_VALUE && heartRate < HeartRateUtils.MAX_HEART_RATE_VALUE) {
+                    accumulator.addHeartRate(heartRate);
+                }
+                if (hasPreviousSample) {
+                    accumulator.addTimeDifference(previousKind, previousRawKind, kind, rawKind, timestamp - previousTimestamp);
+                }
+            }
+
+            hasPreviousSample = true;
+            previousTimestamp = timestamp;
+            previousRawKind = rawKind;
+            previousKind = kind;
+            return true;
+        }
+
+        Map<Integer, ActivityRollup> finish() {
+            Map<Integer, ActivityRollup> result = new TreeMap<>();
+            for (Map.Entry<Integer, HourAccumulator> entry : hours.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().finish());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Visits the last sample before a range and the first sample of the range, and
+     * calculates the time attributed to the latter.
+     */
+    private static class LeadingGapVisitor implements SampleVisitor<AbstractActivitySample> {
+        private final HourAccumulator accumulator = new HourAccumulator(new ActivityRollup());
+        private int count;
+        private int previousTimestamp;
+        private int previousRawKind;
+        private int previousKind;
+
+        @Override
+        public boolean visit(AbstractActivitySample sample) {
+            if (count == 0) {
+                previousTimestamp = sample.getTimestamp();
+                previousRawKind = sample.getRawKind();
+                previousKind = sample.getKind();
+            } else {
+                accumulator.addTimeDifference(previousKind, previousRawKind, sample.getKind(), sample.getRawKind(), sample.getTimestamp() - previousTimestamp);
+            }
+            return ++count < 2;
+        }
+
+        @Nullable
+        ActivityRollup getResult() {
+            return count < 2 ? null : accumulator.finish();
+        }
+    }
+}
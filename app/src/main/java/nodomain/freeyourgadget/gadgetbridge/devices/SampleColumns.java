@@ -0,0 +1,156 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Compact, column oriented copy of the values of a range of samples that are needed for
+ * drawing charts: the timestamp, the normalized activity kind, the normalized intensity
+ * and the heart rate. Compared to a list of sample entities, this needs a few arrays
+ * instead of one object per sample, and no further calls to the provider for
+ * normalizing kind and intensity.
+ * <p/>
+ * Use #read(SampleProvider, int, int) to stream the samples from the database
+ * into the columns.
+ */
+public class SampleColumns {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int HEART_RATE_NOT_MEASURED = 0xff;
+
+    private int size;
+    private int[] timestamps;
+    private byte[] kinds;
+    private float[] intensities;
+    private byte[] heartRates;
+
+    public SampleColumns() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SampleColumns(int capacity) {
+        capacity = Math.max(1, capacity);
+        timestamps = new int[capacity];
+        kinds = new byte[capacity];
+        intensities = new float[capacity];
+        heartRates = new byte[capacity];
+    }
+
+    /**
+     * Reads all samples of the given provider within the given time span.
+     */
+    public static SampleColumns read(SampleProvider<? extends ActivitySample> provider, int timestamp_from, int timestamp_to) {
+        final SampleColumns columns = new SampleColumns();
+        provider.visitAllActivitySamples(timestamp_from, timestamp_to, new SampleVisitor<ActivitySample>() {
+            @Override
+            public boolean visit(ActivitySample sample) {
+                columns.add(sample);
+                return true;
+            }
+        });
+        return columns;
+    }
+
+    public static SampleColumns of(List<? extends ActivitySample> samples) {
+        SampleColumns columns = new SampleColumns(samples.size());
+        for (ActivitySample sample : samples) {
+            columns.add(sample);
+        }
+        return columns;
+    }
+
+    public void add(ActivitySample sample) {
+        add(sample.getTimestamp(), sample.getKind(), sample.getIntensity(), sample.getHeartRate());
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param kind      the normalized kind, one of the ActivityKind types
+     * @param heartRate the heart rate, values outside of 0..254 are stored as
+     *                  ActivitySample#NOT_MEASURED
+     */
+    public void add(int timestamp, int kind, float intensity, int heartRate) {
+        ensureCapacity(size + 1);
+        set(size++, timestamp, kind, intensity, heartRate);
+    }
+
+    /**
+     * Adds samples with the given kind and intensity at the given start and end
+     * timestamp, unless there are samples at or beyond those already, so that charts
+     * span the whole time range. Nothing is added if there are no samples at all.
+     */
+    public void ensureStartAndEnd(int timestamp_start, int timestamp_end, int kind, float intensity) {
+        if (size == 0) {
+            return;
+        }
+        if (timestamps[size - 1] < timestamp_end) {
+            add(timestamp_end, kind, intensity, ActivitySample.NOT_MEASURED);
+        }
+        if (timestamps[0] > timestamp_start) {
+            ensureCapacity(size + 1);
+            System.arraycopy(timestamps, 0, timestamps, 1, size);
+            System.arraycopy(kinds, 0, kinds, 1, size);
+            System.arraycopy(intensities, 0, intensities, 1, size);
+            System.arraycopy(heartRates, 0, heartRates, 1, size);
+            size++;
+            set(0, timestamp_start, kind, intensity, ActivitySample.NOT_MEASURED);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public int getKind(int index) {
+        return kinds[index];
+    }
+
+    public float getIntensity(int index) {
+        return intensities[index];
+    }
+
+    public int getHeartRate(int index) {
+        int heartRate = heartRates[index] & 0xff;
+        return heartRate == HEART_RATE_NOT_MEASURED ? ActivitySample.NOT_MEASURED : heartRate;
+    }
+
+    private void set(int index, int timestamp, int kind, float intensity, int heartRate) {
+        timestamps[index] = timestamp;
+        kinds[index] = (byte) kind;
+        intensities[index] = intensity;
+        heartRates[index] = (byte) (heartRate >= 0 && heartRate < HEART_RATE_NOT_MEASURED ? heartRate : HEART_RATE_NOT_MEASURED);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= timestamps.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, timestamps.length * 2);
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        kinds = Arrays.copyOf(kinds, newCapacity);
+        intensities = Arrays.copyOf(intensities, newCapacity);
+        heartRates = Arrays.copyOf(heartRates, newCapacity);
+    }
+}
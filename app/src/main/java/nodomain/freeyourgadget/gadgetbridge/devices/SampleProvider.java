@@ -74,6 +74,17 @@ public interface SampleProvider<T extends AbstractActivitySample> {
     @NonNull
     List<T> getSleepSamples(int timestamp_from, int timestamp_to);
 
+    /**
+     * Streams all samples, of any type, within the given time span to the given
+     * visitor, in ascending timestamp order. Unlike #getAllActivitySamples(int, int),
+     * the samples are not materialized as a list; the visited sample instance may
+     * be reused for every row, see {@link SampleVisitor}.
+     * @param timestamp_from the start timestamp
+     * @param timestamp_to the end timestamp
+     * @param visitor the visitor to be called for each sample
+     */
+    void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor<? super T> visitor);
+
     /**
      * Adds the given sample to the database. An existing sample with the same
      * timestamp will be overwritten.
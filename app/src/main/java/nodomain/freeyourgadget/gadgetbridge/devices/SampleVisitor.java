@@ -0,0 +1,38 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Callback for streaming access to samples, see
+ * {@link SampleProvider#visitAllActivitySamples(int, int, SampleVisitor)}.
+ *
+ * The sample instance passed to #visit(ActivitySample) may be reused for the
+ * following samples, so implementations must copy any values they want to keep
+ * instead of holding on to the sample itself.
+ *
+ * @param <T> the sample type
+ */
+public interface SampleVisitor<T extends ActivitySample> {
+    /**
+     * Called once for every sample, in ascending timestamp order.
+     * @param sample the current sample, only valid during this call
+     * @return true to continue with the next sample, false to stop visiting
+     */
+    boolean visit(T sample);
+}
@@ -69,6 +69,10 @@ public class UnknownDeviceCoordinator extends AbstractDeviceCoordinator {
             return null;
         }
 
+        @Override
+        public void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor visitor) {
+        }
+
         @Override
         public void addGBActivitySample(AbstractActivitySample activitySample) {
         }
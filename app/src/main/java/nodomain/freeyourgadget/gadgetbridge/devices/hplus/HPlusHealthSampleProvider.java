@@ -20,9 +20,12 @@ package nodomain.freeyourgadget.gadgetbridge.devices.hplus;
 * @author João Paulo Barraca &lt;jpbarraca@gmail.com&gt;
 */
 
+import android.database.Cursor;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
@@ -33,19 +36,25 @@ import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleUpsert;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityOverlays;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollups;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlay;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlayDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySampleUpsert;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.hplus.HPlusDataRecord;
 
 public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealthActivitySample> {
+    private static final SampleUpsert<HPlusHealthActivitySample> SAMPLE_UPSERT = new HPlusHealthActivitySampleUpsert();
 
     private GBDevice mDevice;
     private DaoSession mSession;
@@ -114,6 +123,16 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return getSession().getHPlusHealthActivitySampleDao();
     }
 
+    @Override
+    protected SampleUpsert<HPlusHealthActivitySample> getSampleUpsert() {
+        return SAMPLE_UPSERT;
+    }
+
+    @Override
+    protected void readSample(Cursor cursor, HPlusHealthActivitySample sample) {
+        getSession().getHPlusHealthActivitySampleDao().readEntity(cursor, sample, 0);
+    }
+
 
     public List<HPlusHealthActivitySample> getActivityamples(int timestamp_from, int timestamp_to) {
         return getAllActivitySamples(timestamp_from, timestamp_to);
@@ -123,6 +142,19 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return getAllActivitySamples(timestamp_from, timestamp_to);
     }
 
+    @Nullable
+    @Override
+    public ActivityRollups getActivityRollups() {
+        // overlays are stored separately and would not update the rollups
+        return null;
+    }
+
+    @Override
+    public void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor<? super HPlusHealthActivitySample> visitor) {
+        // overlays are applied in memory, so we cannot stream directly from the database
+        visitSamples(getAllActivitySamples(timestamp_from, timestamp_to), visitor);
+    }
+
     @NonNull
     @Override
     public List<HPlusHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
@@ -142,56 +174,51 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
 
         List<HPlusHealthActivityOverlay> overlayRecords = qb.build().list();
 
-
-
-        //Apply Overlays
-        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
-
-            //Create fake events to improve activity counters if there are no events around the overlay
-            //timestamp boundaries
-            //Insert one before, one at the beginning, one at the end, and one 1s after.
-            insertVirtualItem(samples, Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.max(overlay.getTimestampFrom(), timestamp_from), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.min(overlay.getTimestampTo(), timestamp_to), overlay.getDeviceId(), overlay.getUserId());
+        //Create fake events to improve activity counters if there are no events around the overlay
+        //timestamp boundaries
+        //Insert one before, one at the beginning, one at the end, and one 1s after.
+        List<HPlusHealthActivitySample> virtualSamples = new ArrayList<>(overlayRecords.size() * 4);
+        int[] timestampsFrom = new int[overlayRecords.size()];
+        int[] timestampsTo = new int[overlayRecords.size()];
+        final int[] rawKinds = new int[overlayRecords.size()];
+        for (int i = 0; i < rawKinds.length; i++) {
+            HPlusHealthActivityOverlay overlay = overlayRecords.get(i);
+            insertVirtualItem(virtualSamples, Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.max(overlay.getTimestampFrom(), timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.min(overlay.getTimestampTo(), timestamp_to), overlay.getDeviceId(), overlay.getUserId());
+
+            timestampsFrom[i] = overlay.getTimestampFrom();
+            timestampsTo[i] = overlay.getTimestampTo();
+            rawKinds[i] = overlay.getRawKind();
         }
-
-        Collections.sort(samples, new Comparator<HPlusHealthActivitySample>() {
-            public int compare(HPlusHealthActivitySample one, HPlusHealthActivitySample other) {
-                return one.getTimestamp() - other.getTimestamp();
-            }
-        });
+        samples = mergeByTimestamp(samples, virtualSamples);
 
         //Apply Overlays
-        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
-
-            long nonSleepTimeEnd = 0;
-            for (HPlusHealthActivitySample sample : samples) {
+        final long[] nonSleepTimeEnd = new long[rawKinds.length];
+        new ActivityOverlays(timestampsFrom, timestampsTo).apply(samples, new ActivityOverlays.Applier<HPlusHealthActivitySample>() {
+            @Override
+            public void apply(HPlusHealthActivitySample sample, int overlayIndex) {
+                int overlayKind = rawKinds[overlayIndex];
                 if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                    continue;
-
-                if (sample.getTimestamp() >= overlay.getTimestampFrom() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                        if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
-                            nonSleepTimeEnd = sample.getTimestamp() + 10 * 60; // 10 minutes
-                            continue;
-                        }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd){
-                            continue;
-                        }
-
-                        if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                            sample.setHeartRate(0);
+                    return;
+
+                if (overlayKind == ActivityKind.TYPE_NOT_WORN || overlayKind == ActivityKind.TYPE_LIGHT_SLEEP || overlayKind == ActivityKind.TYPE_DEEP_SLEEP) {
+                    if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
+                        nonSleepTimeEnd[overlayIndex] = sample.getTimestamp() + 10 * 60; // 10 minutes
+                        return;
+                    }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd[overlayIndex]){
+                        return;
+                    }
 
-                        if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
-                            sample.setRawKind(overlay.getRawKind());
+                    if (overlayKind == ActivityKind.TYPE_NOT_WORN)
+                        sample.setHeartRate(0);
 
-                        sample.setRawIntensity(10);
-                    }
+                    sample.setRawKind(overlayKind);
+                    sample.setRawIntensity(10);
                 }
             }
-        }
-
-
+        });
 
         //Fix Step counters
         //Todays sample steps will come from the Day Slots messages
@@ -238,6 +265,35 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return samples;
     }
 
+    /**
+     * Merges the virtual samples into the time sorted samples, keeping the order of samples
+     * with equal timestamps: real samples first, then virtual ones in insertion order.
+     */
+    private List<HPlusHealthActivitySample> mergeByTimestamp(List<HPlusHealthActivitySample> samples, List<HPlusHealthActivitySample> virtualSamples) {
+        if (virtualSamples.isEmpty()) {
+            return samples;
+        }
+        Collections.sort(virtualSamples, new Comparator<HPlusHealthActivitySample>() {
+            public int compare(HPlusHealthActivitySample one, HPlusHealthActivitySample other) {
+                return one.getTimestamp() - other.getTimestamp();
+            }
+        });
+
+        List<HPlusHealthActivitySample> result = new ArrayList<>(samples.size() + virtualSamples.size());
+        int i = 0;
+        int j = 0;
+        while (i < samples.size() && j < virtualSamples.size()) {
+            if (virtualSamples.get(j).getTimestamp() < samples.get(i).getTimestamp()) {
+                result.add(virtualSamples.get(j++));
+            } else {
+                result.add(samples.get(i++));
+            }
+        }
+        result.addAll(samples.subList(i, samples.size()));
+        result.addAll(virtualSamples.subList(j, virtualSamples.size()));
+        return result;
+    }
+
     private List<HPlusHealthActivitySample> insertVirtualItem(List<HPlusHealthActivitySample> samples, int timestamp, long deviceId, long userId) {
         HPlusHealthActivitySample sample = new HPlusHealthActivitySample(
                 timestamp,            // ts
@@ -16,14 +16,17 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices.miband;
 
+import android.database.Cursor;
 import android.support.annotation.NonNull;
 
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleUpsert;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleUpsert;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 /**
@@ -31,6 +34,7 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
  * same activity sample class.
  */
 public abstract class AbstractMiBandSampleProvider extends AbstractSampleProvider<MiBandActivitySample> {
+    private static final SampleUpsert<MiBandActivitySample> SAMPLE_UPSERT = new MiBandActivitySampleUpsert();
 
     // maybe this should be configurable 256 seems way off, though.
     private final float movementDivisor = 180.0f; //256.0f;
@@ -49,6 +53,16 @@ public abstract class AbstractMiBandSampleProvider extends AbstractSampleProvide
         return getSession().getMiBandActivitySampleDao();
     }
 
+    @Override
+    protected SampleUpsert<MiBandActivitySample> getSampleUpsert() {
+        return SAMPLE_UPSERT;
+    }
+
+    @Override
+    protected void readSample(Cursor cursor, MiBandActivitySample sample) {
+        getSession().getMiBandActivitySampleDao().readEntity(cursor, sample, 0);
+    }
+
     @NonNull
     @Override
     protected Property getTimestampSampleProperty() {
@@ -20,6 +20,7 @@ package nodomain.freeyourgadget.gadgetbridge.devices.miband;
 import java.util.List;
 
 import de.greenrobot.dao.query.QueryBuilder;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
@@ -63,6 +64,24 @@ public class MiBand2SampleProvider extends AbstractMiBandSampleProvider {
         return samples;
     }
 
+    @Override
+    public void visitAllActivitySamples(int timestamp_from, int timestamp_to, final SampleVisitor<? super MiBandActivitySample> visitor) {
+        super.visitAllActivitySamples(timestamp_from, timestamp_to, new SampleVisitor<MiBandActivitySample>() {
+            private boolean first = true;
+            private int lastValidKind;
+
+            @Override
+            public boolean visit(MiBandActivitySample sample) {
+                if (first) {
+                    lastValidKind = determinePreviousValidActivityType(sample);
+                    first = false;
+                }
+                lastValidKind = postprocess(sample, lastValidKind);
+                return visitor.visit(sample);
+            }
+        });
+    }
+
     /**
      * "Temporary" runtime post processing of activity kinds.
      * @param samples
@@ -74,24 +93,33 @@ public class MiBand2SampleProvider extends AbstractMiBandSampleProvider {
 
         int lastValidKind = determinePreviousValidActivityType(samples.get(0));
         for (MiBandActivitySample sample : samples) {
-            int rawKind = sample.getRawKind();
-            if (rawKind != TYPE_UNSET) {
-                rawKind &= 0xf;
-                sample.setRawKind(rawKind);
-            }
+            lastValidKind = postprocess(sample, lastValidKind);
+        }
+    }
 
-            switch (rawKind) {
-                case TYPE_IGNORE:
-                case TYPE_NO_CHANGE:
-                    if (lastValidKind != TYPE_UNSET) {
-                        sample.setRawKind(lastValidKind);
-                    }
-                    break;
-                default:
-                    lastValidKind = rawKind;
-                    break;
-            }
+    /**
+     * Post processes a single sample.
+     * @return the last valid kind after this sample
+     */
+    private int postprocess(MiBandActivitySample sample, int lastValidKind) {
+        int rawKind = sample.getRawKind();
+        if (rawKind != TYPE_UNSET) {
+            rawKind &= 0xf;
+            sample.setRawKind(rawKind);
+        }
+
+        switch (rawKind) {
+            case TYPE_IGNORE:
+            case TYPE_NO_CHANGE:
+                if (lastValidKind != TYPE_UNSET) {
+                    sample.setRawKind(lastValidKind);
+                }
+                break;
+            default:
+                lastValidKind = rawKind;
+                break;
         }
+        return lastValidKind;
     }
 
     private int determinePreviousValidActivityType(MiBandActivitySample sample) {
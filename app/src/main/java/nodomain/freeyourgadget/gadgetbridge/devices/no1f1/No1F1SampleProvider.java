@@ -16,6 +16,7 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices.no1f1;
 
+import android.database.Cursor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -68,6 +69,11 @@ public class No1F1SampleProvider extends AbstractSampleProvider<No1F1ActivitySam
         return getSession().getNo1F1ActivitySampleDao();
     }
 
+    @Override
+    protected void readSample(Cursor cursor, No1F1ActivitySample sample) {
+        getSession().getNo1F1ActivitySampleDao().readEntity(cursor, sample, 0);
+    }
+
     @Nullable
     @Override
     protected Property getRawKindSampleProperty() {
@@ -40,6 +40,7 @@ import java.util.zip.ZipInputStream;
 
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.PebbleProtocol;
+import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
 import nodomain.freeyourgadget.gadgetbridge.util.UriHelper;
 
 public class PBWReader {
@@ -80,11 +81,7 @@ public class PBWReader {
         if (uriHelper.getFileName().endsWith(".pbl")) {
             STM32CRC stm32crc = new STM32CRC();
             try (InputStream fin = uriHelper.openInputStream()) {
-                byte[] buf = new byte[2000];
-                while (fin.available() > 0) {
-                    int count = fin.read(buf);
-                    stm32crc.addData(buf, count);
-                }
+                CheckSums.update(stm32crc, fin);
             }
             int crc = stm32crc.getResult();
             // language file
@@ -17,6 +17,9 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
 
+import android.database.Cursor;
+import android.support.annotation.Nullable;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -24,17 +27,24 @@ import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleUpsert;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityOverlays;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollups;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySampleUpsert;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 
 public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHealthActivitySample> {
+    private static final SampleUpsert<PebbleHealthActivitySample> SAMPLE_UPSERT = new PebbleHealthActivitySampleUpsert();
+
     public static final int TYPE_LIGHT_SLEEP = 1;
     public static final int TYPE_DEEP_SLEEP = 2;
     public static final int TYPE_LIGHT_NAP = 3;
@@ -50,6 +60,19 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
         super(device, session);
     }
 
+    @Nullable
+    @Override
+    public ActivityRollups getActivityRollups() {
+        // overlays are stored separately and would not update the rollups
+        return null;
+    }
+
+    @Override
+    public void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor<? super PebbleHealthActivitySample> visitor) {
+        // overlays are applied in memory, so we cannot stream directly from the database
+        visitSamples(getAllActivitySamples(timestamp_from, timestamp_to), visitor);
+    }
+
     @Override
     public List<PebbleHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         List<PebbleHealthActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
@@ -67,14 +90,22 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
                 .where(PebbleHealthActivityOverlayDao.Properties.TimestampFrom.le(timestamp_to));
         List<PebbleHealthActivityOverlay> overlayRecords = qb.build().list();
 
-        for (PebbleHealthActivityOverlay overlay : overlayRecords) {
-            for (PebbleHealthActivitySample sample : samples) {
-                if (overlay.getTimestampFrom() <= sample.getTimestamp() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    // patch in the raw kind
-                    sample.setRawKind(overlay.getRawKind());
-                }
-            }
+        int[] timestampsFrom = new int[overlayRecords.size()];
+        int[] timestampsTo = new int[overlayRecords.size()];
+        final int[] rawKinds = new int[overlayRecords.size()];
+        for (int i = 0; i < rawKinds.length; i++) {
+            PebbleHealthActivityOverlay overlay = overlayRecords.get(i);
+            timestampsFrom[i] = overlay.getTimestampFrom();
+            timestampsTo[i] = overlay.getTimestampTo();
+            rawKinds[i] = overlay.getRawKind();
         }
+        new ActivityOverlays(timestampsFrom, timestampsTo).apply(samples, new ActivityOverlays.Applier<PebbleHealthActivitySample>() {
+            @Override
+            public void apply(PebbleHealthActivitySample sample, int overlayIndex) {
+                // patch in the raw kind
+                sample.setRawKind(rawKinds[overlayIndex]);
+            }
+        });
         detachFromSession();
         return samples;
     }
@@ -84,6 +115,16 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
         return getSession().getPebbleHealthActivitySampleDao();
     }
 
+    @Override
+    protected SampleUpsert<PebbleHealthActivitySample> getSampleUpsert() {
+        return SAMPLE_UPSERT;
+    }
+
+    @Override
+    protected void readSample(Cursor cursor, PebbleHealthActivitySample sample) {
+        getSession().getPebbleHealthActivitySampleDao().readEntity(cursor, sample, 0);
+    }
+
     @Override
     protected Property getTimestampSampleProperty() {
         return PebbleHealthActivitySampleDao.Properties.Timestamp;
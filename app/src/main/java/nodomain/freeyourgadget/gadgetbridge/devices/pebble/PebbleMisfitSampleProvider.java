@@ -16,9 +16,12 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
 
+import android.database.Cursor;
+
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleMisfitSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleMisfitSampleDao;
@@ -57,6 +60,17 @@ public class PebbleMisfitSampleProvider extends AbstractSampleProvider<PebbleMis
         return getSession().getPebbleMisfitSampleDao();
     }
 
+    @Override
+    public void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor<? super PebbleMisfitSample> visitor) {
+        // misfit samples cache their decoded values, so they must not be reused for several rows
+        visitSamples(getAllActivitySamples(timestamp_from, timestamp_to), visitor);
+    }
+
+    @Override
+    protected void readSample(Cursor cursor, PebbleMisfitSample sample) {
+        getSession().getPebbleMisfitSampleDao().readEntity(cursor, sample, 0);
+    }
+
     @Override
     protected Property getRawKindSampleProperty() {
         return null;
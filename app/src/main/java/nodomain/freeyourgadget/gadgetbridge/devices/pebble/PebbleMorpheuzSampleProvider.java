@@ -16,6 +16,8 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
 
+import android.database.Cursor;
+
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
@@ -37,6 +39,11 @@ public class PebbleMorpheuzSampleProvider extends AbstractSampleProvider<PebbleM
         return getSession().getPebbleMorpheuzSampleDao();
     }
 
+    @Override
+    protected void readSample(Cursor cursor, PebbleMorpheuzSample sample) {
+        getSession().getPebbleMorpheuzSampleDao().readEntity(cursor, sample, 0);
+    }
+
     @Override
     protected Property getTimestampSampleProperty() {
         return PebbleMorpheuzSampleDao.Properties.Timestamp;
@@ -16,8 +16,7 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.zip.Checksum;
 
 /*
  * This code was ported to java from the following cpp source file
@@ -25,11 +24,13 @@ import java.nio.ByteOrder;
  * (Unofficial Pebble watch support for SailfishOS/Jolla)
  *
  * Tail code was (hopefully) fixed by @ashimokawa on 7th October 2015
+ *
+ * Words are processed with four tables at once (slicing-by-4), derived from crc_table.
  */
 
-public class STM32CRC {
+public class STM32CRC implements Checksum {
     private int crc;
-    private byte rem;
+    private int rem;
     private final byte[] buffer = {0, 0, 0, 0};
 
     private static final int[] crc_table = {
@@ -99,6 +100,23 @@ public class STM32CRC {
             0xbcb4666d, 0xb8757bda, 0xb5365d03, 0xb1f740b4,
     };
 
+    private static final int[] crc_table1 = new int[256];
+    private static final int[] crc_table2 = new int[256];
+    private static final int[] crc_table3 = new int[256];
+
+    static {
+        // table k contains the CRC of each byte value followed by k zero bytes
+        for (int i = 0; i < 256; i++) {
+            int c = crc_table[i];
+            c = (c << 8) ^ crc_table[c >>> 24];
+            crc_table1[i] = c;
+            c = (c << 8) ^ crc_table[c >>> 24];
+            crc_table2[i] = c;
+            c = (c << 8) ^ crc_table[c >>> 24];
+            crc_table3[i] = c;
+        }
+    }
+
     public void reset() {
         crc = 0xffffffff;
         rem = 0;
@@ -112,50 +130,59 @@ public class STM32CRC {
         reset();
     }
 
-    private int calc_crc(int crc, int word) {
+    private static int calc_crc(int crc, int word) {
         crc ^= word;
-        crc = (crc << 8) ^ crc_table[(crc >>> 24) & 0xFF];
-        crc = (crc << 8) ^ crc_table[(crc >>> 24) & 0xFF];
-        crc = (crc << 8) ^ crc_table[(crc >>> 24) & 0xFF];
-        crc = (crc << 8) ^ crc_table[(crc >>> 24) & 0xFF];
-        return crc;
+        return crc_table3[crc >>> 24]
+                ^ crc_table2[(crc >>> 16) & 0xff]
+                ^ crc_table1[(crc >>> 8) & 0xff]
+                ^ crc_table[crc & 0xff];
     }
 
     public void addData(byte[] data, int length) {
-        ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-
-        if (rem > 0) {
-            for (; rem < 4 && buf.hasRemaining(); ++rem) {
-                buffer[rem] = buf.get();
-            }
+        update(data, 0, length);
+    }
 
-            if (rem == 4) {
-                int word = (buffer[0] & 0xff) |
-                        ((buffer[1] & 0xff) << 8) |
-                        ((buffer[2] & 0xff) << 16) |
-                        ((buffer[3] & 0xff) << 24);
-                crc = calc_crc(crc, word);
-                buffer[0] = 0;
-                buffer[1] = 0;
-                buffer[2] = 0;
-                buffer[3] = 0;
-                rem = 0;
-            }
+    @Override
+    public void update(int b) {
+        buffer[rem++] = (byte) b;
+        if (rem == 4) {
+            crc = calc_crc(crc, littleEndianWord(buffer, 0));
+            buffer[0] = 0;
+            buffer[1] = 0;
+            buffer[2] = 0;
+            buffer[3] = 0;
+            rem = 0;
         }
+    }
 
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        int end = offset + length;
+        while (rem > 0 && offset < end) {
+            update(data[offset++]);
+        }
 
-        while (buf.remaining() >= 4) {
-            int word = buf.getInt();
-            crc = calc_crc(crc, word);
+        int c = crc;
+        for (; end - offset >= 4; offset += 4) {
+            c = calc_crc(c, littleEndianWord(data, offset));
         }
+        crc = c;
 
-        while (buf.hasRemaining()) {
-            buffer[rem++] = buf.get();
+        while (offset < end) {
+            buffer[rem++] = data[offset++];
         }
     }
 
+    private static int littleEndianWord(byte[] data, int offset) {
+        return (data[offset] & 0xff) |
+                ((data[offset + 1] & 0xff) << 8) |
+                ((data[offset + 2] & 0xff) << 16) |
+                ((data[offset + 3] & 0xff) << 24);
+    }
 
+    /**
+     * Returns the CRC of all data added so far. More data may be added afterwards.
+     */
     public int getResult() {
         if (rem > 0) {
             int word = 0;
@@ -173,8 +200,13 @@ public class STM32CRC {
                     word = buffer[0] & 0xff;
                     break;
             }
-            crc = calc_crc(crc, word);
+            return calc_crc(crc, word);
         }
         return crc;
     }
+
+    @Override
+    public long getValue() {
+        return getResult() & 0xffffffffL;
+    }
 }
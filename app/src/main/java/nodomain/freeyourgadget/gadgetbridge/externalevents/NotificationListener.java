@@ -63,7 +63,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceCommunicationService;
 import nodomain.freeyourgadget.gadgetbridge.util.BitmapUtil;
-import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
+import nodomain.freeyourgadget.gadgetbridge.util.IntLruCache;
 import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
@@ -82,7 +82,7 @@ public class NotificationListener extends NotificationListenerService {
     public static final String ACTION_REPLY
             = "nodomain.freeyourgadget.gadgetbridge.notificationlistener.action.reply";
 
-    private LimitedQueue mActionLookup = new LimitedQueue(16);
+    private IntLruCache<NotificationCompat.Action> mActionLookup = new IntLruCache<>(16);
 
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
 
@@ -141,7 +141,7 @@ public class NotificationListener extends NotificationListenerService {
                 case ACTION_REPLY:
                     int id = intent.getIntExtra("handle", -1);
                     String reply = intent.getStringExtra("reply");
-                    NotificationCompat.Action replyAction = (NotificationCompat.Action) mActionLookup.lookup(id);
+                    NotificationCompat.Action replyAction = mActionLookup.get(id);
                     if (replyAction != null && replyAction.getRemoteInputs() != null) {
                         RemoteInput[] remoteInputs = replyAction.getRemoteInputs();
                         PendingIntent actionIntent = replyAction.getActionIntent();
@@ -252,7 +252,7 @@ public class NotificationListener extends NotificationListenerService {
         for (NotificationCompat.Action act : actions) {
             if (act != null && act.getRemoteInputs() != null) {
                 LOG.info("found wearable action: " + act.getTitle() + "  " + sbn.getTag());
-                mActionLookup.add(notificationSpec.id, act);
+                mActionLookup.put(notificationSpec.id, act);
                 notificationSpec.flags |= NotificationSpec.FLAG_WEARABLE_REPLY;
                 break;
             }
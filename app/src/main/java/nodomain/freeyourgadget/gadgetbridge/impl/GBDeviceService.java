@@ -47,6 +47,8 @@ import static nodomain.freeyourgadget.gadgetbridge.util.JavaExtensions.coalesce;
 public class GBDeviceService implements DeviceService {
     protected final Context mContext;
     private final Class<? extends Service> mServiceClass;
+    @Nullable
+    private final GBDevice mDevice;
     private final String[] transliterationExtras = new String[]{
             EXTRA_NOTIFICATION_PHONENUMBER,
             EXTRA_NOTIFICATION_SENDER,
@@ -64,12 +66,29 @@ public class GBDeviceService implements DeviceService {
     };
 
     public GBDeviceService(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Creates a facade that sends all events to the given device, or to all devices if null.
+     */
+    public GBDeviceService(Context context, @Nullable GBDevice device) {
         mContext = context;
         mServiceClass = DeviceCommunicationService.class;
+        mDevice = device;
     }
 
     protected Intent createIntent() {
-        return new Intent(mContext, mServiceClass);
+        Intent intent = new Intent(mContext, mServiceClass);
+        if (mDevice != null) {
+            intent.putExtra(GBDevice.EXTRA_DEVICE, mDevice);
+        }
+        return intent;
+    }
+
+    @Override
+    public DeviceService forDevice(GBDevice device) {
+        return new GBDeviceService(mContext, device);
     }
 
     protected void invokeService(Intent intent) {
@@ -107,7 +126,7 @@ public class GBDeviceService implements DeviceService {
     @Override
     public void connect(@Nullable GBDevice device, boolean firstTime) {
         Intent intent = createIntent().setAction(ACTION_CONNECT)
-                .putExtra(GBDevice.EXTRA_DEVICE, device)
+                .putExtra(GBDevice.EXTRA_DEVICE, coalesce(device, mDevice))
                 .putExtra(EXTRA_CONNECT_FIRST_TIME, firstTime);
         invokeService(intent);
     }
@@ -55,6 +55,10 @@ public interface DeviceService extends EventHandler {
     String ACTION_SET_CONSTANT_VIBRATION = PREFIX + ".action.set_constant_vibration";
     String ACTION_SET_ALARMS = PREFIX + ".action.set_alarms";
     String ACTION_ENABLE_REALTIME_STEPS = PREFIX + ".action.enable_realtime_steps";
+    /**
+     * Use RealtimeSamples instead
+     */
+    @Deprecated
     String ACTION_REALTIME_SAMPLES = PREFIX + ".action.realtime_samples";
     String ACTION_ENABLE_REALTIME_HEARTRATE_MEASUREMENT = PREFIX + ".action.realtime_hr_measurement";
     String ACTION_ENABLE_HEARTRATE_SLEEP_SUPPORT = PREFIX + ".action.enable_heartrate_sleep_support";
@@ -111,6 +115,10 @@ public interface DeviceService extends EventHandler {
      */
     @Deprecated
     String EXTRA_REALTIME_STEPS = "realtime_steps";
+    /**
+     * Use RealtimeSamples instead
+     */
+    @Deprecated
     String EXTRA_REALTIME_SAMPLE = "realtime_sample";
     String EXTRA_TIMESTAMP = "timestamp";
     /**
@@ -146,4 +154,10 @@ public interface DeviceService extends EventHandler {
      * from the service will be reported.
      */
     void requestDeviceInfo();
+
+    /**
+     * Returns a facade that sends all events to the given device only, instead of all
+     * connected devices.
+     */
+    DeviceService forDevice(GBDevice device);
 }
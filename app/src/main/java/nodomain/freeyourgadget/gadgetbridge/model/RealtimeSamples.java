@@ -0,0 +1,190 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process channel for realtime samples (steps, heart rate, intensity) from the
+ * connected device to the live charts. Replaces broadcasting each sample as serialized
+ * entity in an intent.
+ * <p/>
+ * The samples are kept as primitives in a ring buffer, identified by a sequence number
+ * increasing with each published sample. Subscribers either poll with #read(long, Sample)
+ * or register a Listener, which is called back on its Handler's thread; callbacks are
+ * coalesced, i.e. when several samples arrive before the listener ran, it is only called
+ * once and is expected to read all samples since the last one it has seen.
+ */
+public class RealtimeSamples {
+    public static final int CAPACITY = 256;
+
+    private static final RealtimeSamples instance = new RealtimeSamples(CAPACITY);
+
+    private final int[] timestamps;
+    private final int[] steps;
+    private final int[] heartRates;
+    private final int[] rawIntensities;
+    /**
+     * The sequence number of the next sample to publish
+     */
+    private long nextSequence;
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public static RealtimeSamples getInstance() {
+        return instance;
+    }
+
+    RealtimeSamples(int capacity) {
+        timestamps = new int[capacity];
+        steps = new int[capacity];
+        heartRates = new int[capacity];
+        rawIntensities = new int[capacity];
+    }
+
+    /**
+     * Publishes a sample and notifies the listeners.
+     *
+     * @param timestamp    the timestamp in seconds
+     * @param steps        the steps since the previous sample or ActivitySample#NOT_MEASURED
+     * @param heartRate    the heart rate or ActivitySample#NOT_MEASURED
+     * @param rawIntensity the device specific intensity or ActivitySample#NOT_MEASURED
+     */
+    public void publish(int timestamp, int steps, int heartRate, int rawIntensity) {
+        synchronized (this) {
+            int index = (int) (nextSequence % timestamps.length);
+            this.timestamps[index] = timestamp;
+            this.steps[index] = steps;
+            this.heartRates[index] = heartRate;
+            this.rawIntensities[index] = rawIntensity;
+            nextSequence++;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+    }
+
+    public void publish(ActivitySample sample) {
+        publish(sample.getTimestamp(), sample.getSteps(), sample.getHeartRate(), sample.getRawIntensity());
+    }
+
+    /**
+     * Returns the sequence number the next published sample will have. Samples from
+     * #getOldestSequence() up to this value (exclusive) can be read.
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Returns the sequence number of the oldest sample still available.
+     */
+    public synchronized long getOldestSequence() {
+        return Math.max(0, nextSequence - timestamps.length);
+    }
+
+    /**
+     * Copies the sample with the given sequence number into the given sample.
+     *
+     * @return false if the sample has not been published yet or has already been overwritten
+     */
+    public synchronized boolean read(long sequence, Sample sample) {
+        if (sequence >= nextSequence || sequence < nextSequence - timestamps.length || sequence < 0) {
+            return false;
+        }
+        int index = (int) (sequence % timestamps.length);
+        sample.timestamp = timestamps[index];
+        sample.steps = steps[index];
+        sample.heartRate = heartRates[index];
+        sample.rawIntensity = rawIntensities[index];
+        return true;
+    }
+
+    /**
+     * Registers the listener to be called on the handler's thread when new samples
+     * were published.
+     */
+    public void addListener(Listener listener, Handler handler) {
+        subscriptions.add(new Subscription(listener, handler));
+    }
+
+    /**
+     * Registers the listener to be called on the main thread.
+     */
+    public void addListener(Listener listener) {
+        addListener(listener, new Handler(Looper.getMainLooper()));
+    }
+
+    public void removeListener(Listener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * A single sample, meant to be reused when reading.
+     */
+    public static class Sample {
+        public int timestamp;
+        public int steps;
+        public int heartRate;
+        public int rawIntensity;
+
+        @Override
+        public String toString() {
+            return "timestamp=" + timestamp + ", steps=" + steps + ", heartRate=" + heartRate + ", rawIntensity=" + rawIntensity;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called when one or more samples were published since the last call.
+         */
+        void onSamplesAvailable(RealtimeSamples samples);
+    }
+
+    private class Subscription implements Runnable {
+        private final Listener listener;
+        private final Handler handler;
+        private final AtomicBoolean pending = new AtomicBoolean();
+
+        Subscription(Listener listener, Handler handler) {
+            this.listener = listener;
+            this.handler = handler;
+        }
+
+        void schedule() {
+            if (pending.compareAndSet(false, true)) {
+                handler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            pending.set(false);
+            if (subscriptions.contains(this)) {
+                listener.onSamplesAvailable(RealtimeSamples.this);
+            }
+        }
+    }
+}
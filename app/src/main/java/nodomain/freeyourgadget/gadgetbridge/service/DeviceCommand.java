@@ -0,0 +1,57 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import android.support.annotation.Nullable;
+
+/**
+ * A command to be sent to a device by a DeviceDispatcher, e.g. a notification or a
+ * music info update.
+ */
+abstract class DeviceCommand {
+    private final String name;
+    @Nullable
+    private final String coalescingKey;
+
+    DeviceCommand(String name) {
+        this(name, null);
+    }
+
+    /**
+     * @param name          the name of the command, for logging
+     * @param coalescingKey if not null, the command replaces a command with the same key
+     *                      that was not yet sent, because only the latest one matters
+     */
+    DeviceCommand(String name, @Nullable String coalescingKey) {
+        this.name = name;
+        this.coalescingKey = coalescingKey;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    @Nullable
+    String getCoalescingKey() {
+        return coalescingKey;
+    }
+
+    /**
+     * Sends the command using the given DeviceSupport. Called on the device's thread.
+     */
+    abstract void execute(DeviceSupport deviceSupport);
+}
@@ -32,6 +32,8 @@ import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.LocalBroadcastManager;
@@ -41,7 +43,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -154,16 +163,29 @@ import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_URI
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_VIBRATION_INTENSITY;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_WEATHER;
 
+/**
+ * Manages the connections to the devices and delivers the events sent through
+ * GBDeviceService to them. Several devices can be connected at the same time, each with
+ * its own DeviceSupport. Events are delivered to the device given as GBDevice#EXTRA_DEVICE,
+ * or else to all devices, on a separate thread per device, see DeviceDispatcher.
+ */
 public class DeviceCommunicationService extends Service implements SharedPreferences.OnSharedPreferenceChangeListener {
     private static final Logger LOG = LoggerFactory.getLogger(DeviceCommunicationService.class);
     @SuppressLint("StaticFieldLeak") // only used for test cases
     private static DeviceSupportFactory DEVICE_SUPPORT_FACTORY = null;
+    /**
+     * How long to wait for a DeviceSupport to be disposed before connecting the device
+     * again.
+     */
+    private static final long DISPOSE_TIMEOUT_MILLIS = 2000;
 
     private boolean mStarted = false;
 
     private DeviceSupportFactory mFactory;
-    private GBDevice mGBDevice = null;
-    private DeviceSupport mDeviceSupport;
+    /**
+     * The devices being managed, by address. Only accessed on the main thread.
+     */
+    private final Map<String, DeviceDispatcher> mDevices = new LinkedHashMap<>();
 
     private PhoneCallReceiver mPhoneCallReceiver = null;
     private SMSReceiver mSMSReceiver = null;
@@ -175,7 +197,10 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     private AlarmClockReceiver mAlarmClockReceiver = null;
 
     private AlarmReceiver mAlarmReceiver = null;
-    private CalendarReceiver mCalendarReceiver = null;
+    /**
+     * The calendar receivers, by device address
+     */
+    private final Map<String, CalendarReceiver> mCalendarReceivers = new HashMap<>();
     private CMWeatherReceiver mCMWeatherReceiver = null;
     private OmniJawsObserver mOmniJawsObserver = null;
     private Random mRandom = new Random();
@@ -212,11 +237,10 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
             String action = intent.getAction();
             if (GBDevice.ACTION_DEVICE_CHANGED.equals(action)) {
                 GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
-                if (mGBDevice != null && mGBDevice.equals(device)) {
-                    mGBDevice = device;
-                    boolean enableReceivers = mDeviceSupport != null && (mDeviceSupport.useAutoConnect() || mGBDevice.isInitialized());
-                    setReceiversEnableState(enableReceivers, mGBDevice.isInitialized(), DeviceHelper.getInstance().getCoordinator(device));
-                    GB.updateNotification(mGBDevice, context);
+                DeviceDispatcher dispatcher = device != null ? mDevices.get(device.getAddress()) : null;
+                if (dispatcher != null) {
+                    updateReceiversEnableState();
+                    GB.updateNotification(dispatcher.getDevice(), context);
                 } else {
                     LOG.error("Got ACTION_DEVICE_CHANGED from unexpected device: " + device);
                 }
@@ -261,25 +285,12 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
 
         LOG.debug("Service startcommand: " + action);
 
-        if (!action.equals(ACTION_START) && !action.equals(ACTION_CONNECT)) {
-            if (!mStarted) {
-                // using the service before issuing ACTION_START
-                LOG.info("Must start service with " + ACTION_START + " or " + ACTION_CONNECT + " before using it: " + action);
-                return START_NOT_STICKY;
-            }
-
-            if (mDeviceSupport == null || (!isInitialized() && !mDeviceSupport.useAutoConnect())) {
-                // trying to send notification without valid Bluetooth connection
-                if (mGBDevice != null) {
-                    // at least send back the current device state
-                    mGBDevice.sendDeviceUpdateIntent(this);
-                }
-                return START_STICKY;
-            }
+        if (!action.equals(ACTION_START) && !action.equals(ACTION_CONNECT) && !mStarted) {
+            // using the service before issuing ACTION_START
+            LOG.info("Must start service with " + ACTION_START + " or " + ACTION_CONNECT + " before using it: " + action);
+            return START_NOT_STICKY;
         }
 
-        // when we get past this, we should have valid mDeviceSupport and mGBDevice instances
-
         Prefs prefs = getPrefs();
         switch (action) {
             case ACTION_START:
@@ -306,35 +317,152 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     autoReconnect = getGBPrefs().getAutoReconnect();
                 }
 
-                if (gbDevice != null && !isConnecting() && !isConnected()) {
-                    setDeviceSupport(null);
+                DeviceDispatcher existing = gbDevice != null ? mDevices.get(gbDevice.getAddress()) : null;
+                if (gbDevice != null && (existing == null || (!existing.getDevice().isConnecting() && !existing.getDevice().isConnected()))) {
+                    DeviceDispatcher previous = removeDevice(gbDevice.getAddress());
                     try {
                         DeviceSupport deviceSupport = mFactory.createDeviceSupport(gbDevice);
                         if (deviceSupport != null) {
-                            setDeviceSupport(deviceSupport);
-                            if (firstTime) {
-                                deviceSupport.connectFirstTime();
-                            } else {
-                                deviceSupport.setAutoReconnect(autoReconnect);
-                                deviceSupport.connect();
-                            }
+                            DeviceDispatcher dispatcher = new DeviceDispatcher(deviceSupport);
+                            mDevices.put(gbDevice.getAddress(), dispatcher);
+                            dispatcher.dispatch(createConnectCommand(previous, firstTime, autoReconnect));
                         } else {
                             GB.toast(this, getString(R.string.cannot_connect, "Can't create device support"), Toast.LENGTH_SHORT, GB.ERROR);
                         }
                     } catch (Exception e) {
                         GB.toast(this, getString(R.string.cannot_connect, e.getMessage()), Toast.LENGTH_SHORT, GB.ERROR, e);
-                        setDeviceSupport(null);
+                        removeDevice(gbDevice.getAddress());
                     }
-                } else if (mGBDevice != null) {
+                } else if (existing != null) {
                     // send an update at least
-                    mGBDevice.sendDeviceUpdateIntent(this);
+                    existing.getDevice().sendDeviceUpdateIntent(this);
                 }
                 break;
             case ACTION_REQUEST_DEVICEINFO:
-                mGBDevice.sendDeviceUpdateIntent(this);
+                for (DeviceDispatcher dispatcher : getTargetDevices(intent)) {
+                    dispatcher.getDevice().sendDeviceUpdateIntent(this);
+                }
                 break;
+            case ACTION_DISCONNECT: {
+                for (DeviceDispatcher dispatcher : getTargetDevices(intent)) {
+                    final GBDevice device = dispatcher.getDevice();
+                    removeDevice(device.getAddress(), new Runnable() {
+                        @Override
+                        public void run() {
+                            // only once disposed, so that it does not reconnect anymore
+                            if (device.getState() == GBDevice.State.WAITING_FOR_RECONNECT) {
+                                device.setState(GBDevice.State.NOT_CONNECTED);
+                                device.sendDeviceUpdateIntent(DeviceCommunicationService.this);
+                            }
+                        }
+                    });
+                }
+                updateReceiversEnableState();
+                break;
+            }
+            default:
+                if (ACTION_NOTIFICATION.equals(action)) {
+                    prepareNotification(intent);
+                }
+                for (DeviceDispatcher dispatcher : getTargetDevices(intent)) {
+                    if (isReady(dispatcher)) {
+                        DeviceCommand command = createCommand(intent);
+                        if (command != null) {
+                            dispatcher.dispatch(command);
+                        }
+                    } else {
+                        // trying to send an event without valid Bluetooth connection,
+                        // at least send back the current device state
+                        dispatcher.getDevice().sendDeviceUpdateIntent(this);
+                    }
+                }
+        }
+
+        return START_STICKY;
+    }
+
+    /**
+     * Returns the device given by the intent, or all devices if none is given.
+     */
+    private List<DeviceDispatcher> getTargetDevices(Intent intent) {
+        GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
+        if (device == null) {
+            return new ArrayList<>(mDevices.values());
+        }
+        DeviceDispatcher dispatcher = mDevices.get(device.getAddress());
+        if (dispatcher == null) {
+            LOG.info("Not handling " + intent.getAction() + " for unknown device " + device.getAddress());
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(dispatcher);
+    }
+
+    /**
+     * Returns whether the device is ready for receiving events, i.e. it is initialized or
+     * reconnects automatically.
+     */
+    private boolean isReady(DeviceDispatcher dispatcher) {
+        return dispatcher.getDevice().isInitialized() || dispatcher.getDeviceSupport().useAutoConnect();
+    }
+
+    /**
+     * Does what must only be done once for a notification, before it is delivered to the
+     * devices.
+     */
+    private void prepareNotification(Intent intent) {
+        NotificationType type = (NotificationType) intent.getSerializableExtra(EXTRA_NOTIFICATION_TYPE);
+        String phoneNumber = intent.getStringExtra(EXTRA_NOTIFICATION_PHONENUMBER);
+        if (type == NotificationType.GENERIC_SMS && phoneNumber != null) {
+            int id = mRandom.nextInt(); // FIXME: add this in external SMS Receiver?
+            intent.putExtra(EXTRA_NOTIFICATION_ID, id);
+            GBApplication.getIDSenderLookup().put(id, phoneNumber);
+        }
+    }
+
+    /**
+     * Creates the command that connects a new DeviceSupport. The connection is made on the
+     * device's thread, like all other calls to the DeviceSupport, but only after the previous
+     * DeviceSupport for the same device was disposed, so that the old connection is closed
+     * and its state changes do not interfere with the new one.
+     *
+     * @param previous the dispatcher of the previous DeviceSupport for the device, or null
+     */
+    private DeviceCommand createConnectCommand(@Nullable final DeviceDispatcher previous, final boolean firstTime, final boolean autoReconnect) {
+        return new DeviceCommand(ACTION_CONNECT) {
+            @Override
+            void execute(DeviceSupport deviceSupport) {
+                if (previous != null && !previous.awaitTermination(DISPOSE_TIMEOUT_MILLIS)) {
+                    LOG.warn("Previous connection to " + deviceSupport.getDevice().getAddress() + " not yet disposed, connecting anyway");
+                }
+                try {
+                    if (firstTime) {
+                        deviceSupport.connectFirstTime();
+                    } else {
+                        deviceSupport.setAutoReconnect(autoReconnect);
+                        deviceSupport.connect();
+                    }
+                } catch (Exception e) {
+                    GB.toast(DeviceCommunicationService.this, getString(R.string.cannot_connect, e.getMessage()), Toast.LENGTH_SHORT, GB.ERROR, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates the command for the given intent. The extras are read right away, so that
+     * only the typed values are kept in the device's queue. Every device gets its own
+     * command with its own copies of the values, since a DeviceSupport may keep or modify
+     * the specs it is given. The Parcelable and array extras of an intent are only
+     * unparcelled once, so they are copied explicitly.
+     *
+     * @return the command, or null if the action is not known
+     */
+    @Nullable
+    private DeviceCommand createCommand(final Intent intent) {
+        final String action = intent.getAction();
+        switch (action) {
             case ACTION_NOTIFICATION: {
-                NotificationSpec notificationSpec = new NotificationSpec();
+                final NotificationSpec notificationSpec = new NotificationSpec();
                 notificationSpec.phoneNumber = intent.getStringExtra(EXTRA_NOTIFICATION_PHONENUMBER);
                 notificationSpec.sender = intent.getStringExtra(EXTRA_NOTIFICATION_SENDER);
                 notificationSpec.subject = intent.getStringExtra(EXTRA_NOTIFICATION_SUBJECT);
@@ -346,14 +474,10 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 notificationSpec.id = intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1);
                 notificationSpec.flags = intent.getIntExtra(EXTRA_NOTIFICATION_FLAGS, 0);
 
-                if (notificationSpec.type == NotificationType.GENERIC_SMS && notificationSpec.phoneNumber != null) {
-                    notificationSpec.id = mRandom.nextInt(); // FIXME: add this in external SMS Receiver?
-                    GBApplication.getIDSenderLookup().add(notificationSpec.id, notificationSpec.phoneNumber);
-                }
-
                 if (((notificationSpec.flags & NotificationSpec.FLAG_WEARABLE_REPLY) > 0)
                         || (notificationSpec.type == NotificationType.GENERIC_SMS && notificationSpec.phoneNumber != null)) {
                     // NOTE: maybe not where it belongs
+                    Prefs prefs = getPrefs();
                     if (prefs.getBoolean("pebble_force_untested", false)) {
                         // I would rather like to save that as an array in ShadredPreferences
                         // this would work but I dont know how to do the same in the Settings Activity's xml
@@ -368,15 +492,24 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     }
                 }
 
-                mDeviceSupport.onNotification(notificationSpec);
-                break;
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onNotification(notificationSpec);
+                    }
+                };
             }
             case ACTION_DELETE_NOTIFICATION: {
-                mDeviceSupport.onDeleteNotification(intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
-                break;
+                final int id = intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onDeleteNotification(id);
+                    }
+                };
             }
             case ACTION_ADD_CALENDAREVENT: {
-                CalendarEventSpec calendarEventSpec = new CalendarEventSpec();
+                final CalendarEventSpec calendarEventSpec = new CalendarEventSpec();
                 calendarEventSpec.id = intent.getLongExtra(EXTRA_CALENDAREVENT_ID, -1);
                 calendarEventSpec.type = intent.getByteExtra(EXTRA_CALENDAREVENT_TYPE, (byte) -1);
                 calendarEventSpec.timestamp = intent.getIntExtra(EXTRA_CALENDAREVENT_TIMESTAMP, -1);
@@ -384,67 +517,89 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 calendarEventSpec.title = intent.getStringExtra(EXTRA_CALENDAREVENT_TITLE);
                 calendarEventSpec.description = intent.getStringExtra(EXTRA_CALENDAREVENT_DESCRIPTION);
                 calendarEventSpec.location = intent.getStringExtra(EXTRA_CALENDAREVENT_LOCATION);
-                mDeviceSupport.onAddCalendarEvent(calendarEventSpec);
-                break;
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onAddCalendarEvent(calendarEventSpec);
+                    }
+                };
             }
             case ACTION_DELETE_CALENDAREVENT: {
-                long id = intent.getLongExtra(EXTRA_CALENDAREVENT_ID, -1);
-                byte type = intent.getByteExtra(EXTRA_CALENDAREVENT_TYPE, (byte) -1);
-                mDeviceSupport.onDeleteCalendarEvent(type, id);
-                break;
-            }
-            case ACTION_REBOOT: {
-                mDeviceSupport.onReboot();
-                break;
-            }
-            case ACTION_HEARTRATE_TEST: {
-                mDeviceSupport.onHeartRateTest();
-                break;
-            }
-            case ACTION_FETCH_ACTIVITY_DATA: {
-                mDeviceSupport.onFetchActivityData();
-                break;
-            }
-            case ACTION_DISCONNECT: {
-                mDeviceSupport.dispose();
-                if (mGBDevice != null && mGBDevice.getState() == GBDevice.State.WAITING_FOR_RECONNECT) {
-                    setReceiversEnableState(false, false, null);
-                    mGBDevice.setState(GBDevice.State.NOT_CONNECTED);
-                    mGBDevice.sendDeviceUpdateIntent(this);
-                }
-                mDeviceSupport = null;
-                break;
+                final long id = intent.getLongExtra(EXTRA_CALENDAREVENT_ID, -1);
+                final byte type = intent.getByteExtra(EXTRA_CALENDAREVENT_TYPE, (byte) -1);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onDeleteCalendarEvent(type, id);
+                    }
+                };
             }
+            case ACTION_REBOOT:
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onReboot();
+                    }
+                };
+            case ACTION_HEARTRATE_TEST:
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onHeartRateTest();
+                    }
+                };
+            case ACTION_FETCH_ACTIVITY_DATA:
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onFetchActivityData();
+                    }
+                };
             case ACTION_FIND_DEVICE: {
-                boolean start = intent.getBooleanExtra(EXTRA_FIND_START, false);
-                mDeviceSupport.onFindDevice(start);
-                break;
+                final boolean start = intent.getBooleanExtra(EXTRA_FIND_START, false);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onFindDevice(start);
+                    }
+                };
             }
             case ACTION_SET_CONSTANT_VIBRATION: {
-                int intensity = intent.getIntExtra(EXTRA_VIBRATION_INTENSITY, 0);
-                mDeviceSupport.onSetConstantVibration(intensity);
-                break;
+                final int intensity = intent.getIntExtra(EXTRA_VIBRATION_INTENSITY, 0);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onSetConstantVibration(intensity);
+                    }
+                };
             }
-            case ACTION_CALLSTATE:
-                CallSpec callSpec = new CallSpec();
+            case ACTION_CALLSTATE: {
+                final CallSpec callSpec = new CallSpec();
                 callSpec.command = intent.getIntExtra(EXTRA_CALL_COMMAND, CallSpec.CALL_UNDEFINED);
                 callSpec.number = intent.getStringExtra(EXTRA_CALL_PHONENUMBER);
                 callSpec.name = intent.getStringExtra(EXTRA_CALL_DISPLAYNAME);
-                mDeviceSupport.onSetCallState(callSpec);
-                break;
-            case ACTION_SETCANNEDMESSAGES:
-                int type = intent.getIntExtra(EXTRA_CANNEDMESSAGES_TYPE, -1);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onSetCallState(callSpec);
+                    }
+                };
+            }
+            case ACTION_SETCANNEDMESSAGES: {
+                final CannedMessagesSpec cannedMessagesSpec = new CannedMessagesSpec();
+                cannedMessagesSpec.type = intent.getIntExtra(EXTRA_CANNEDMESSAGES_TYPE, -1);
                 String[] cannedMessages = intent.getStringArrayExtra(EXTRA_CANNEDMESSAGES);
-
-                CannedMessagesSpec cannedMessagesSpec = new CannedMessagesSpec();
-                cannedMessagesSpec.type = type;
-                cannedMessagesSpec.cannedMessages = cannedMessages;
-                mDeviceSupport.onSetCannedMessages(cannedMessagesSpec);
-                break;
+                cannedMessagesSpec.cannedMessages = cannedMessages != null ? cannedMessages.clone() : null;
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onSetCannedMessages(cannedMessagesSpec);
+                    }
+                };
+            }
             case ACTION_SETTIME:
-                mDeviceSupport.onSetTime();
-                break;
-            case ACTION_SETMUSICINFO:
+                return new SetTimeCommand();
+            case ACTION_SETMUSICINFO: {
                 MusicSpec musicSpec = new MusicSpec();
                 musicSpec.artist = intent.getStringExtra(EXTRA_MUSIC_ARTIST);
                 musicSpec.album = intent.getStringExtra(EXTRA_MUSIC_ALBUM);
@@ -452,164 +607,344 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 musicSpec.duration = intent.getIntExtra(EXTRA_MUSIC_DURATION, 0);
                 musicSpec.trackCount = intent.getIntExtra(EXTRA_MUSIC_TRACKCOUNT, 0);
                 musicSpec.trackNr = intent.getIntExtra(EXTRA_MUSIC_TRACKNR, 0);
-                mDeviceSupport.onSetMusicInfo(musicSpec);
-                break;
-            case ACTION_SETMUSICSTATE:
+                return new MusicInfoCommand(musicSpec);
+            }
+            case ACTION_SETMUSICSTATE: {
                 MusicStateSpec stateSpec = new MusicStateSpec();
                 stateSpec.shuffle = intent.getByteExtra(EXTRA_MUSIC_SHUFFLE, (byte) 0);
                 stateSpec.repeat = intent.getByteExtra(EXTRA_MUSIC_REPEAT, (byte) 0);
                 stateSpec.position = intent.getIntExtra(EXTRA_MUSIC_POSITION, 0);
                 stateSpec.playRate = intent.getIntExtra(EXTRA_MUSIC_RATE, 0);
                 stateSpec.state = intent.getByteExtra(EXTRA_MUSIC_STATE, (byte) 0);
-                mDeviceSupport.onSetMusicState(stateSpec);
-                break;
+                return new MusicStateCommand(stateSpec);
+            }
             case ACTION_REQUEST_APPINFO:
-                mDeviceSupport.onAppInfoReq();
-                break;
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onAppInfoReq();
+                    }
+                };
             case ACTION_REQUEST_SCREENSHOT:
-                mDeviceSupport.onScreenshotReq();
-                break;
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onScreenshotReq();
+                    }
+                };
             case ACTION_STARTAPP: {
-                UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
-                boolean start = intent.getBooleanExtra(EXTRA_APP_START, true);
-                mDeviceSupport.onAppStart(uuid, start);
-                break;
+                final UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
+                final boolean start = intent.getBooleanExtra(EXTRA_APP_START, true);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onAppStart(uuid, start);
+                    }
+                };
             }
             case ACTION_DELETEAPP: {
-                UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
-                mDeviceSupport.onAppDelete(uuid);
-                break;
+                final UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onAppDelete(uuid);
+                    }
+                };
             }
             case ACTION_APP_CONFIGURE: {
-                UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
-                String config = intent.getStringExtra(EXTRA_APP_CONFIG);
-                Integer id = null;
-                if (intent.hasExtra(EXTRA_APP_CONFIG_ID)) {
-                    id = intent.getIntExtra(EXTRA_APP_CONFIG_ID, 0);
-                }
-                mDeviceSupport.onAppConfiguration(uuid, config, id);
-                break;
+                final UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
+                final String config = intent.getStringExtra(EXTRA_APP_CONFIG);
+                final Integer id = intent.hasExtra(EXTRA_APP_CONFIG_ID) ? intent.getIntExtra(EXTRA_APP_CONFIG_ID, 0) : null;
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onAppConfiguration(uuid, config, id);
+                    }
+                };
             }
             case ACTION_APP_REORDER: {
-                UUID[] uuids = (UUID[]) intent.getSerializableExtra(EXTRA_APP_UUID);
-                mDeviceSupport.onAppReorder(uuids);
-                break;
+                UUID[] reordered = (UUID[]) intent.getSerializableExtra(EXTRA_APP_UUID);
+                final UUID[] uuids = reordered != null ? reordered.clone() : null;
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onAppReorder(uuids);
+                    }
+                };
             }
-            case ACTION_INSTALL:
-                Uri uri = intent.getParcelableExtra(EXTRA_URI);
-                if (uri != null) {
-                    LOG.info("will try to install app/fw");
-                    mDeviceSupport.onInstallApp(uri);
+            case ACTION_INSTALL: {
+                final Uri uri = intent.getParcelableExtra(EXTRA_URI);
+                if (uri == null) {
+                    return null;
                 }
-                break;
-            case ACTION_SET_ALARMS:
-                ArrayList<Alarm> alarms = intent.getParcelableArrayListExtra(EXTRA_ALARMS);
-                mDeviceSupport.onSetAlarms(alarms);
-                break;
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        LOG.info("will try to install app/fw");
+                        deviceSupport.onInstallApp(uri);
+                    }
+                };
+            }
+            case ACTION_SET_ALARMS: {
+                ArrayList<Alarm> intentAlarms = intent.getParcelableArrayListExtra(EXTRA_ALARMS);
+                final ArrayList<Alarm> alarms = intentAlarms != null ? new ArrayList<Alarm>(intentAlarms.size()) : null;
+                if (intentAlarms != null) {
+                    for (Alarm alarm : intentAlarms) {
+                        alarms.add(copyParcelable(alarm));
+                    }
+                }
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onSetAlarms(alarms);
+                    }
+                };
+            }
             case ACTION_ENABLE_REALTIME_STEPS: {
-                boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableRealtimeSteps(enable);
-                break;
+                final boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onEnableRealtimeSteps(enable);
+                    }
+                };
             }
             case ACTION_ENABLE_HEARTRATE_SLEEP_SUPPORT: {
-                boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableHeartRateSleepSupport(enable);
-                break;
+                final boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onEnableHeartRateSleepSupport(enable);
+                    }
+                };
             }
             case ACTION_SET_HEARTRATE_MEASUREMENT_INTERVAL: {
-                Integer seconds = intent.getIntExtra(EXTRA_INTERVAL_SECONDS, 0);
-                mDeviceSupport.onSetHeartRateMeasurementInterval(seconds);
-                break;
+                final int seconds = intent.getIntExtra(EXTRA_INTERVAL_SECONDS, 0);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onSetHeartRateMeasurementInterval(seconds);
+                    }
+                };
             }
             case ACTION_ENABLE_REALTIME_HEARTRATE_MEASUREMENT: {
-                boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableRealtimeHeartRateMeasurement(enable);
-                break;
+                final boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onEnableRealtimeHeartRateMeasurement(enable);
+                    }
+                };
             }
             case ACTION_SEND_CONFIGURATION: {
-                String config = intent.getStringExtra(EXTRA_CONFIG);
-                mDeviceSupport.onSendConfiguration(config);
-                break;
-            }
-            case ACTION_TEST_NEW_FUNCTION: {
-                mDeviceSupport.onTestNewFunction();
-                break;
+                final String config = intent.getStringExtra(EXTRA_CONFIG);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onSendConfiguration(config);
+                    }
+                };
             }
+            case ACTION_TEST_NEW_FUNCTION:
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onTestNewFunction();
+                    }
+                };
             case ACTION_SEND_WEATHER: {
-                WeatherSpec weatherSpec = intent.getParcelableExtra(EXTRA_WEATHER);
-                if (weatherSpec != null) {
-                    mDeviceSupport.onSendWeather(weatherSpec);
+                WeatherSpec intentWeatherSpec = intent.getParcelableExtra(EXTRA_WEATHER);
+                if (intentWeatherSpec == null) {
+                    return null;
                 }
-                break;
+                final WeatherSpec weatherSpec = copyParcelable(intentWeatherSpec);
+                return new DeviceCommand(action) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.onSendWeather(weatherSpec);
+                    }
+                };
             }
+            default:
+                LOG.info("Not handling unknown action " + action);
+                return null;
         }
+    }
 
-        return START_STICKY;
+    /**
+     * Returns a deep copy of the given Parcelable, by writing it to a Parcel and reading
+     * it back.
+     */
+    private static <T extends Parcelable> T copyParcelable(T parcelable) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(parcelable, 0);
+            parcel.setDataPosition(0);
+            return parcel.readParcelable(parcelable.getClass().getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
     }
 
     /**
-     * Disposes the current DeviceSupport instance (if any) and sets a new device support instance
-     * (if not null).
-     *
-     * @param deviceSupport
+     * Sets the device's time. Only the latest of several queued ones is sent.
      */
-    private void setDeviceSupport(@Nullable DeviceSupport deviceSupport) {
-        if (deviceSupport != mDeviceSupport && mDeviceSupport != null) {
-            mDeviceSupport.dispose();
-            mDeviceSupport = null;
-            mGBDevice = null;
+    private static class SetTimeCommand extends DeviceCommand {
+        SetTimeCommand() {
+            super(ACTION_SETTIME, ACTION_SETTIME);
+        }
+
+        @Override
+        void execute(DeviceSupport deviceSupport) {
+            deviceSupport.onSetTime();
         }
-        mDeviceSupport = deviceSupport;
-        mGBDevice = mDeviceSupport != null ? mDeviceSupport.getDevice() : null;
     }
 
-    private void start() {
-        if (!mStarted) {
-            startForeground(GB.NOTIFICATION_ID, GB.createNotification(getString(R.string.gadgetbridge_running), this));
-            mStarted = true;
+    /**
+     * Sends the current track. Only the latest of several queued ones is sent.
+     */
+    private static class MusicInfoCommand extends DeviceCommand {
+        private final MusicSpec musicSpec;
+
+        MusicInfoCommand(MusicSpec musicSpec) {
+            super(ACTION_SETMUSICINFO, ACTION_SETMUSICINFO);
+            this.musicSpec = musicSpec;
+        }
+
+        @Override
+        void execute(DeviceSupport deviceSupport) {
+            deviceSupport.onSetMusicInfo(musicSpec);
         }
     }
 
-    public boolean isStarted() {
-        return mStarted;
+    /**
+     * Sends the current playback state. Only the latest of several queued ones is sent.
+     */
+    private static class MusicStateCommand extends DeviceCommand {
+        private final MusicStateSpec stateSpec;
+
+        MusicStateCommand(MusicStateSpec stateSpec) {
+            super(ACTION_SETMUSICSTATE, ACTION_SETMUSICSTATE);
+            this.stateSpec = stateSpec;
+        }
+
+        @Override
+        void execute(DeviceSupport deviceSupport) {
+            deviceSupport.onSetMusicState(stateSpec);
+        }
     }
 
-    private boolean isConnected() {
-        return mGBDevice != null && mGBDevice.isConnected();
+    /**
+     * Removes the device and disposes its DeviceSupport on the device's thread, after the
+     * pending commands.
+     *
+     * @return the dispatcher of the removed device, or null if there was none
+     */
+    @Nullable
+    private DeviceDispatcher removeDevice(String address) {
+        return removeDevice(address, null);
     }
 
-    private boolean isConnecting() {
-        return mGBDevice != null && mGBDevice.isConnecting();
+    /**
+     * Like #removeDevice(String), and runs the given callback on the device's thread once
+     * the DeviceSupport is disposed.
+     */
+    @Nullable
+    private DeviceDispatcher removeDevice(String address, @Nullable Runnable onDisposed) {
+        DeviceDispatcher dispatcher = mDevices.remove(address);
+        if (dispatcher != null) {
+            dispatcher.dispose(onDisposed);
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Removes all devices. They are disposed on their own threads, without waiting for
+     * that, so as not to block the main thread.
+     */
+    private void removeAllDevices() {
+        for (String address : new ArrayList<>(mDevices.keySet())) {
+            removeDevice(address);
+        }
+    }
+
+    /**
+     * Waits until all events have been delivered to the devices. For testing.
+     *
+     * @return false if the timeout elapsed
+     */
+    boolean awaitDelivery(long timeoutMillis) {
+        for (DeviceDispatcher dispatcher : mDevices.values()) {
+            if (!dispatcher.awaitDelivery(timeoutMillis)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private boolean isInitialized() {
-        return mGBDevice != null && mGBDevice.isInitialized();
+    private void start() {
+        if (!mStarted) {
+            startForeground(GB.NOTIFICATION_ID, GB.createNotification(getString(R.string.gadgetbridge_running), this));
+            mStarted = true;
+        }
     }
 
+    public boolean isStarted() {
+        return mStarted;
+    }
 
-    private void setReceiversEnableState(boolean enable, boolean initialized, DeviceCoordinator coordinator) {
+    /**
+     * Enables the broadcast receivers needed by the devices that are ready, and disables
+     * the others.
+     */
+    private void updateReceiversEnableState() {
+        boolean enable = false;
+        boolean alarms = false;
+        boolean weather = false;
+        Set<String> calendarDevices = new HashSet<>();
+        for (DeviceDispatcher dispatcher : mDevices.values()) {
+            if (!isReady(dispatcher)) {
+                continue;
+            }
+            GBDevice device = dispatcher.getDevice();
+            DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
+            enable = true;
+            weather |= coordinator.supportsWeather();
+            if (device.isInitialized() && coordinator.supportsCalendarEvents()) {
+                alarms = true;
+                calendarDevices.add(device.getAddress());
+            }
+        }
         LOG.info("Setting broadcast receivers to: " + enable);
 
-        if (enable && initialized && coordinator != null && coordinator.supportsCalendarEvents()) {
-            if (mCalendarReceiver == null && getPrefs().getBoolean("enable_calendar_sync", true)) {
-                if (!(GBApplication.isRunningMarshmallowOrLater() && ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CALENDAR) == PackageManager.PERMISSION_DENIED)) {
-                    IntentFilter calendarIntentFilter = new IntentFilter();
-                    calendarIntentFilter.addAction("android.intent.action.PROVIDER_CHANGED");
-                    calendarIntentFilter.addDataScheme("content");
-                    calendarIntentFilter.addDataAuthority("com.android.calendar", null);
-                    mCalendarReceiver = new CalendarReceiver(mGBDevice);
-                    registerReceiver(mCalendarReceiver, calendarIntentFilter);
+        for (String address : new ArrayList<>(mCalendarReceivers.keySet())) {
+            if (!calendarDevices.contains(address)) {
+                CalendarReceiver calendarReceiver = mCalendarReceivers.remove(address);
+                unregisterReceiver(calendarReceiver);
+                calendarReceiver.dispose();
+            }
+        }
+        if (!calendarDevices.isEmpty() && getPrefs().getBoolean("enable_calendar_sync", true)) {
+            if (!(GBApplication.isRunningMarshmallowOrLater() && ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CALENDAR) == PackageManager.PERMISSION_DENIED)) {
+                for (String address : calendarDevices) {
+                    if (!mCalendarReceivers.containsKey(address)) {
+                        IntentFilter calendarIntentFilter = new IntentFilter();
+                        calendarIntentFilter.addAction("android.intent.action.PROVIDER_CHANGED");
+                        calendarIntentFilter.addDataScheme("content");
+                        calendarIntentFilter.addDataAuthority("com.android.calendar", null);
+                        CalendarReceiver calendarReceiver = new CalendarReceiver(mDevices.get(address).getDevice());
+                        mCalendarReceivers.put(address, calendarReceiver);
+                        registerReceiver(calendarReceiver, calendarIntentFilter);
+                    }
                 }
             }
+        }
+        if (alarms) {
             if (mAlarmReceiver == null) {
                 mAlarmReceiver = new AlarmReceiver();
                 registerReceiver(mAlarmReceiver, new IntentFilter("DAILY_ALARM"));
             }
         } else {
-            if (mCalendarReceiver != null) {
-                unregisterReceiver(mCalendarReceiver);
-                mCalendarReceiver = null;
-            }
             if (mAlarmReceiver != null) {
                 unregisterReceiver(mAlarmReceiver);
                 mAlarmReceiver = null;
@@ -662,11 +997,11 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 filter.addAction(AlarmClockReceiver.ALARM_DONE_ACTION);
                 registerReceiver(mAlarmClockReceiver, filter);
             }
-            if (mCMWeatherReceiver == null && coordinator != null && coordinator.supportsWeather()) {
+            if (mCMWeatherReceiver == null && weather) {
                 mCMWeatherReceiver = new CMWeatherReceiver();
                 registerReceiver(mCMWeatherReceiver, new IntentFilter("GB_UPDATE_WEATHER"));
             }
-            if (mOmniJawsObserver == null && coordinator != null && coordinator.supportsWeather()) {
+            if (mOmniJawsObserver == null && weather) {
                 try {
                     mOmniJawsObserver = new OmniJawsObserver(new Handler());
                     getContentResolver().registerContentObserver(mOmniJawsObserver.WEATHER_URI, true, mOmniJawsObserver);
@@ -728,9 +1063,9 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         super.onDestroy();
 
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
-        setReceiversEnableState(false, false, null); // disable BroadcastReceivers
+        removeAllDevices();
+        updateReceiversEnableState(); // disable BroadcastReceivers
 
-        setDeviceSupport(null);
         NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         if (nm != null) {
             nm.cancel(GB.NOTIFICATION_ID); // need to do this because the updated notification won't be cancelled when service stops
@@ -745,9 +1080,14 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (GBPrefs.AUTO_RECONNECT.equals(key)) {
-            boolean autoReconnect = getGBPrefs().getAutoReconnect();
-            if (mDeviceSupport != null) {
-                mDeviceSupport.setAutoReconnect(autoReconnect);
+            final boolean autoReconnect = getGBPrefs().getAutoReconnect();
+            for (DeviceDispatcher dispatcher : mDevices.values()) {
+                dispatcher.dispatch(new DeviceCommand(key) {
+                    @Override
+                    void execute(DeviceSupport deviceSupport) {
+                        deviceSupport.setAutoReconnect(autoReconnect);
+                    }
+                });
             }
         }
     }
@@ -764,7 +1104,20 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         return GBApplication.getGBPrefs();
     }
 
-    public GBDevice getGBDevice() {
-        return mGBDevice;
+    /**
+     * Returns the managed device with the given address, or null.
+     */
+    @Nullable
+    public GBDevice getGBDevice(String address) {
+        DeviceDispatcher dispatcher = mDevices.get(address);
+        return dispatcher != null ? dispatcher.getDevice() : null;
+    }
+
+    public List<GBDevice> getGBDevices() {
+        List<GBDevice> devices = new ArrayList<>(mDevices.size());
+        for (DeviceDispatcher dispatcher : mDevices.values()) {
+            devices.add(dispatcher.getDevice());
+        }
+        return devices;
     }
 }
@@ -0,0 +1,244 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import android.support.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * Delivers the commands handled by DeviceCommunicationService to a single device. Every
+ * device has its own thread and command queue, so that a slow or reconnecting device does
+ * not hold up the delivery to the other devices. Commands are delivered in the order they
+ * were dispatched.
+ * <p/>
+ * A command with a coalescing key replaces a command with the same key that is still
+ * waiting in the queue, e.g. only the latest of several music info updates is sent.
+ * <p/>
+ * Also keeps track of the latency of the device, i.e. the time a command waited in the
+ * queue until it was sent, and the time the DeviceSupport took to send it.
+ */
+class DeviceDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceDispatcher.class);
+
+    private static final long SLOW_COMMAND_MILLIS = 1000;
+
+    private final DeviceSupport deviceSupport;
+    private final ExecutorService executor;
+    /**
+     * The queued commands not yet sent, by coalescing key.
+     */
+    private final Map<String, QueuedCommand> pendingByKey = new HashMap<>();
+
+    private long commandCount;
+    private long coalescedCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long totalSendNanos;
+    private long maxSendNanos;
+
+    DeviceDispatcher(DeviceSupport deviceSupport) {
+        this.deviceSupport = deviceSupport;
+        final String threadName = "Gadgetbridge Device " + deviceSupport.getDevice().getAddress();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, threadName);
+            }
+        });
+    }
+
+    DeviceSupport getDeviceSupport() {
+        return deviceSupport;
+    }
+
+    GBDevice getDevice() {
+        return deviceSupport.getDevice();
+    }
+
+    /**
+     * Queues the given command for delivery to the device. If a command with the same
+     * coalescing key is still queued, that one is dropped.
+     */
+    void dispatch(DeviceCommand command) {
+        QueuedCommand queued = new QueuedCommand(command);
+        String key = command.getCoalescingKey();
+        synchronized (this) {
+            if (key != null) {
+                QueuedCommand superseded = pendingByKey.put(key, queued);
+                if (superseded != null) {
+                    superseded.superseded = true;
+                    coalescedCount++;
+                }
+            }
+        }
+        try {
+            executor.execute(queued);
+        } catch (RejectedExecutionException e) {
+            LOG.info("Not delivering " + command.getName() + " to disposed device " + getDevice().getAddress());
+            synchronized (this) {
+                if (key != null && pendingByKey.get(key) == queued) {
+                    pendingByKey.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Disposes the DeviceSupport after all commands dispatched so far have been delivered,
+     * and stops the device's thread. Does not wait for that.
+     */
+    void dispose() {
+        dispose(null);
+    }
+
+    /**
+     * Like #dispose(), and runs the given callback on the device's thread once the
+     * DeviceSupport is disposed.
+     */
+    void dispose(@Nullable final Runnable onDisposed) {
+        dispatch(new DeviceCommand("dispose") {
+            @Override
+            void execute(DeviceSupport deviceSupport) {
+                deviceSupport.dispose();
+                LOG.info("Disposed " + getDevice().getAddress() + ", " + getLatencyStats());
+                if (onDisposed != null) {
+                    onDisposed.run();
+                }
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Waits until all commands dispatched so far have been delivered. For testing.
+     *
+     * @return false if the timeout elapsed or the thread was interrupted
+     */
+    boolean awaitDelivery(long timeoutMillis) {
+        final Object marker = new Object();
+        try {
+            return executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, marker).get(timeoutMillis, TimeUnit.MILLISECONDS) == marker;
+        } catch (RejectedExecutionException e) {
+            // disposed, wait for the remaining commands instead
+            return awaitTermination(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Waits until the device was disposed and its thread stopped, see #dispose().
+     *
+     * @return false if the timeout elapsed or the thread was interrupted
+     */
+    boolean awaitTermination(long timeoutMillis) {
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Removes the given command from the pending ones.
+     *
+     * @return false if the command was superseded by a later one and must not be sent
+     */
+    private synchronized boolean takePending(QueuedCommand queued) {
+        if (queued.superseded) {
+            return false;
+        }
+        String key = queued.command.getCoalescingKey();
+        if (key != null) {
+            pendingByKey.remove(key);
+        }
+        return true;
+    }
+
+    private synchronized void recordLatency(String name, long waitNanos, long sendNanos) {
+        commandCount++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        totalSendNanos += sendNanos;
+        maxSendNanos = Math.max(maxSendNanos, sendNanos);
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos + sendNanos);
+        if (latencyMillis >= SLOW_COMMAND_MILLIS) {
+            LOG.warn("Delivering " + name + " to " + getDevice().getAddress() + " took " + latencyMillis + "ms, "
+                    + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms of which in the queue");
+        }
+    }
+
+    /**
+     * Returns the number of delivered and coalesced commands, their average and maximum
+     * time in the queue and their average and maximum time to be sent.
+     */
+    synchronized String getLatencyStats() {
+        long averageWaitMillis = commandCount > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / commandCount) : 0;
+        long averageSendMillis = commandCount > 0 ? TimeUnit.NANOSECONDS.toMillis(totalSendNanos / commandCount) : 0;
+        return commandCount + " commands, " + coalescedCount + " coalesced, queued avg " + averageWaitMillis
+                + "ms, max " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + "ms, sent avg " + averageSendMillis
+                + "ms, max " + TimeUnit.NANOSECONDS.toMillis(maxSendNanos) + "ms";
+    }
+
+    /**
+     * A command in the queue of this device. The same command may be queued for
+     * several devices.
+     */
+    private class QueuedCommand implements Runnable {
+        private final DeviceCommand command;
+        private final long enqueuedNanos = System.nanoTime();
+        private boolean superseded; // guarded by DeviceDispatcher.this
+
+        QueuedCommand(DeviceCommand command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            if (!takePending(this)) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                command.execute(deviceSupport);
+            } catch (Exception e) {
+                LOG.error("Error delivering " + command.getName() + " to " + getDevice().getAddress(), e);
+            }
+            recordLatency(command.getName(), startNanos - enqueuedNanos, System.nanoTime() - startNanos);
+        }
+    }
+}
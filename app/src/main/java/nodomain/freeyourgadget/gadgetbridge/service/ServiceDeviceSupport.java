@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.UUID;
 
+import nodomain.freeyourgadget.gadgetbridge.database.IdentityCache;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.Alarm;
 import nodomain.freeyourgadget.gadgetbridge.model.CalendarEventSpec;
@@ -94,7 +95,12 @@ public class ServiceDeviceSupport implements DeviceSupport {
 
     @Override
     public void dispose() {
+        GBDevice device = delegate.getDevice();
         delegate.dispose();
+        if (device != null) {
+            // the cached ids are only needed while connected
+            IdentityCache.getInstance().invalidate(device);
+        }
     }
 
     @Override
@@ -34,16 +34,17 @@ import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.util.UUID;
 
+import nodomain.freeyourgadget.gadgetbridge.ProtocolLog;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
 import nodomain.freeyourgadget.gadgetbridge.devices.liveview.LiveviewConstants;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.AbstractSerialDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceIoThread;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public abstract class BtClassicIoThread extends GBDeviceIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(BtClassicIoThread.class);
+    private static final ProtocolLog PLOG = new ProtocolLog(LOG, "btclassic");
 
     private final GBDeviceProtocol mProtocol;
     private final AbstractSerialDeviceSupport mDeviceSupport;
@@ -81,7 +82,7 @@ public abstract class BtClassicIoThread extends GBDeviceIoThread {
     public synchronized void write(byte[] bytes) {
         if (null == bytes)
             return;
-        LOG.debug("writing:" + GB.hexdump(bytes, 0, bytes.length));
+        PLOG.sent("write", bytes);
         try {
             mOutStream.write(bytes);
             mOutStream.flush();
@@ -34,7 +34,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 
-import nodomain.freeyourgadget.gadgetbridge.Logging;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolLog;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.AbstractDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.CheckInitializedAction;
@@ -56,6 +56,7 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
     private Map<UUID, BluetoothGattCharacteristic> mAvailableCharacteristics;
     private final Set<UUID> mSupportedServices = new HashSet<>(4);
     private Logger logger;
+    private final ProtocolLog protocolLog;
 
     private final List<AbstractBleProfile<?>> mSupportedProfiles = new ArrayList<>();
     public static final String BASE_UUID = "0000%s-0000-1000-8000-00805f9b34fb"; //this is common for all BTLE devices. see http://stackoverflow.com/questions/18699251/finding-out-android-bluetooth-le-gatt-profiles
@@ -66,6 +67,7 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
         if (logger == null) {
             throw new IllegalArgumentException("logger must not be null");
         }
+        protocolLog = new ProtocolLog(logger, getClass().getSimpleName());
     }
 
     @Override
@@ -232,12 +234,12 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
 
     /**
      * Utility method that may be used to log incoming messages when we don't know how to deal with them yet.
+     * Only logs when protocol logging is enabled, see {@link ProtocolLog}.
      *
      * @param value
      */
     public void logMessageContent(byte[] value) {
-        logger.info("RECEIVED DATA WITH LENGTH: " + ((value != null) ? value.length : "(null)"));
-        Logging.logBytes(logger, value);
+        protocolLog.received("unhandled data", value);
     }
 
     // default implementations of event handler methods (gatt callbacks)
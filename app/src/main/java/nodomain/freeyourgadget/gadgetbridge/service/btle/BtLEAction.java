@@ -57,6 +57,13 @@ public abstract class BtLEAction {
      */
     public abstract boolean run(BluetoothGatt gatt);
 
+    /**
+     * Called for every characteristic write callback received while this action is running,
+     * for actions that issue several GATT requests themselves. Does nothing by default.
+     */
+    public void onCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
+    }
+
     /**
      * Returns the GATT characteristic being read/written/...
      *
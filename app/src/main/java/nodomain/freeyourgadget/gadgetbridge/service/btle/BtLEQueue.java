@@ -31,29 +31,32 @@ import android.support.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice.State;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.Transaction.Priority;
 
 /**
  * One queue/thread per connectable device.
+ * Transactions are executed by priority class, see {@link Transaction.Priority}.
  */
 public final class BtLEQueue {
     private static final Logger LOG = LoggerFactory.getLogger(BtLEQueue.class);
 
+    private static final int REALTIME_CAPACITY = 16;
+    private static final int INTERACTIVE_CAPACITY = 64;
+    private static final int BULK_CAPACITY = 16;
+
     private final Object mGattMonitor = new Object();
     private final GBDevice mGbDevice;
     private final BluetoothAdapter mBluetoothAdapter;
     private BluetoothGatt mBluetoothGatt;
 
-    private final BlockingQueue<Transaction> mTransactions = new LinkedBlockingQueue<>();
+    private final TransactionScheduler mTransactions = new TransactionScheduler(REALTIME_CAPACITY, INTERACTIVE_CAPACITY, BULK_CAPACITY);
     private volatile boolean mDisposed;
     private volatile boolean mCrashed;
     private volatile boolean mAbortTransaction;
@@ -62,6 +65,7 @@ public final class BtLEQueue {
     private CountDownLatch mWaitForActionResultLatch;
     private CountDownLatch mConnectionLatch;
     private BluetoothGattCharacteristic mWaitCharacteristic;
+    private volatile BtLEAction mRunningAction;
     private final InternalGattCallback internalGattCallback;
     private boolean mAutoReconnect;
 
@@ -90,34 +94,8 @@ public final class BtLEQueue {
                         mConnectionLatch = null;
                     }
 
-                    internalGattCallback.setTransactionGattCallback(transaction.getGattCallback());
                     mAbortTransaction = false;
-                    // Run all actions of the transaction until one doesn't succeed
-                    for (BtLEAction action : transaction.getActions()) {
-                        if (mAbortTransaction) { // got disconnected
-                            LOG.info("Aborting running transaction");
-                            break;
-                        }
-                        mWaitCharacteristic = action.getCharacteristic();
-                        mWaitForActionResultLatch = new CountDownLatch(1);
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("About to run action: " + action);
-                        }
-                        if (action.run(mBluetoothGatt)) {
-                            // check again, maybe due to some condition, action did not need to write, so we can't wait
-                            boolean waitForResult = action.expectsResult();
-                            if (waitForResult) {
-                                mWaitForActionResultLatch.await();
-                                mWaitForActionResultLatch = null;
-                                if (mAbortTransaction) {
-                                    break;
-                                }
-                            }
-                        } else {
-                            LOG.error("Action returned false: " + action);
-                            break; // abort the transaction
-                        }
-                    }
+                    runTransaction(transaction);
                 } catch (InterruptedException ignored) {
                     mConnectionLatch = null;
                     LOG.debug("Thread interrupted");
@@ -132,6 +110,56 @@ public final class BtLEQueue {
             }
             LOG.info("Queue Dispatch Thread terminated.");
         }
+
+        /**
+         * Runs all actions of the transaction until one doesn't succeed. Realtime transactions
+         * are run in between the actions of interruptible transactions, each with its own
+         * callback.
+         */
+        private void runTransaction(Transaction transaction) throws InterruptedException {
+            GattCallback callback = transaction.getGattCallback();
+            internalGattCallback.setTransactionGattCallback(callback);
+            for (BtLEAction action : transaction.getActions()) {
+                if (transaction.isInterruptible()) {
+                    Transaction urgent;
+                    while (!mAbortTransaction && (urgent = mTransactions.pollHigherThan(Priority.INTERACTIVE)) != null) {
+                        LOG.debug("Interrupting " + transaction.getTaskName() + " for " + urgent);
+                        runTransaction(urgent);
+                        internalGattCallback.setTransactionGattCallback(callback);
+                    }
+                }
+                if (mAbortTransaction) { // got disconnected
+                    LOG.info("Aborting running transaction");
+                    break;
+                }
+                mWaitCharacteristic = action.getCharacteristic();
+                mWaitForActionResultLatch = new CountDownLatch(1);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("About to run action: " + action);
+                }
+                mRunningAction = action;
+                boolean success;
+                try {
+                    success = action.run(mBluetoothGatt);
+                } finally {
+                    mRunningAction = null;
+                }
+                if (success) {
+                    // check again, maybe due to some condition, action did not need to write, so we can't wait
+                    boolean waitForResult = action.expectsResult();
+                    if (waitForResult) {
+                        mWaitForActionResultLatch.await();
+                        mWaitForActionResultLatch = null;
+                        if (mAbortTransaction) {
+                            break;
+                        }
+                    }
+                } else {
+                    LOG.error("Action returned false: " + action);
+                    break; // abort the transaction
+                }
+            }
+        }
     };
 
     public BtLEQueue(BluetoothAdapter bluetoothAdapter, GBDevice gbDevice, GattCallback externalGattCallback, Context context) {
@@ -254,6 +282,8 @@ public final class BtLEQueue {
             return;
         }
         mDisposed = true;
+        LOG.info("Disposing queue: " + mTransactions);
+        mTransactions.close();
 //        try {
         disconnect();
         dispatchThread.interrupt();
@@ -265,31 +295,37 @@ public final class BtLEQueue {
     }
 
     /**
-     * Adds a transaction to the end of the queue.
+     * Adds a transaction to the end of the queue of its priority class.
+     * Does not block, a transaction that does not fit is rejected.
      *
      * @param transaction
+     * @return false if the transaction was rejected, because the queue of its priority
+     * class is full or this queue was disposed
      */
-    public void add(Transaction transaction) {
+    public boolean add(Transaction transaction) {
         LOG.debug("about to add: " + transaction);
-        if (!transaction.isEmpty()) {
-            mTransactions.add(transaction);
+        if (transaction.isEmpty()) {
+            return true;
         }
+        if (!mTransactions.add(transaction)) {
+            LOG.warn("transaction rejected: " + transaction);
+            return false;
+        }
+        return true;
     }
 
     /**
-     * Adds a transaction to the beginning of the queue.
+     * Adds a transaction to the beginning of the queue of its priority class.
      * Note that actions of the *currently executing* transaction
-     * will still be executed before the given transaction.
+     * will still be executed before the given transaction, unless it is
+     * interruptible and the given one is a realtime transaction.
      *
      * @param transaction
      */
     public void insert(Transaction transaction) {
         LOG.debug("about to insert: " + transaction);
         if (!transaction.isEmpty()) {
-            List<Transaction> tail = new ArrayList<>(mTransactions.size() + 2);
-            mTransactions.drainTo(tail);
-            mTransactions.add(transaction);
-            mTransactions.addAll(tail);
+            mTransactions.insert(transaction);
         }
     }
 
@@ -297,6 +333,40 @@ public final class BtLEQueue {
         mTransactions.clear();
     }
 
+    /**
+     * Returns the number of transactions waiting to be executed.
+     */
+    public int getQueueDepth() {
+        return mTransactions.size();
+    }
+
+    /**
+     * Returns the largest number of transactions that were waiting at the same time.
+     */
+    public int getMaxQueueDepth() {
+        return mTransactions.getMaxDepth();
+    }
+
+    /**
+     * Returns the average time transactions of the given priority class waited
+     * in the queue before being executed.
+     */
+    public long getAverageWaitMillis(Priority priority) {
+        return mTransactions.getAverageWaitMillis(priority);
+    }
+
+    public long getMaxWaitMillis(Priority priority) {
+        return mTransactions.getMaxWaitMillis(priority);
+    }
+
+    /**
+     * Returns the number of transactions of the given priority class that were rejected
+     * because their queue was full.
+     */
+    public long getRejectedCount(Priority priority) {
+        return mTransactions.getRejectedCount(priority);
+    }
+
     /**
      * Retrieves a list of supported GATT services on the connected device. This should be
      * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
@@ -410,6 +480,10 @@ public final class BtLEQueue {
             if (getCallbackToUse() != null) {
                 getCallbackToUse().onCharacteristicWrite(gatt, characteristic, status);
             }
+            BtLEAction runningAction = mRunningAction;
+            if (runningAction != null) {
+                runningAction.onCharacteristicWrite(characteristic, status);
+            }
             checkWaitingCharacteristic(characteristic, status);
         }
 
@@ -32,9 +32,27 @@ import java.util.Locale;
  * @author TREND
  */
 public class Transaction {
+    /**
+     * The priority class of a transaction. Transactions of a higher priority class are
+     * executed first. Realtime transactions may additionally run between two actions of an
+     * {@link #setInterruptible(boolean) interruptible} transaction, so that alerts do not
+     * have to wait until a long transfer is complete.
+     */
+    public enum Priority {
+        /** Alerts that must reach the device immediately, e.g. an incoming call. */
+        REALTIME,
+        /** The default, e.g. changing settings. */
+        INTERACTIVE,
+        /** Long running transfers, e.g. firmware uploads. */
+        BULK
+    }
+
     private final String mName;
     private final List<BtLEAction> mActions = new ArrayList<>(4);
     private final long creationTimestamp = System.currentTimeMillis();
+    private Priority mPriority = Priority.INTERACTIVE;
+    private boolean mInterruptible;
+    long queuedTimestamp;
     private
     @Nullable
     GattCallback gattCallback;
@@ -55,6 +73,29 @@ public class Transaction {
         return Collections.unmodifiableList(mActions);
     }
 
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    public void setPriority(Priority priority) {
+        mPriority = priority;
+    }
+
+    public boolean isInterruptible() {
+        return mInterruptible;
+    }
+
+    /**
+     * Allows realtime transactions to run between two actions of this transaction. Only
+     * for transactions whose actions do not depend on each other being sent back to back,
+     * like paced firmware writes. Transactions of other classes always wait until this one
+     * is complete, so the order of e.g. a command queued in response to this transaction
+     * is kept.
+     */
+    public void setInterruptible(boolean interruptible) {
+        mInterruptible = interruptible;
+    }
+
     public boolean isEmpty() {
         return mActions.isEmpty();
     }
@@ -65,7 +106,7 @@ public class Transaction {
 
     @Override
     public String toString() {
-        return String.format(Locale.US, "%s: Transaction task: %s with %d actions", getCreationTime(), getTaskName(), mActions.size());
+        return String.format(Locale.US, "%s: Transaction task: %s with %d actions, priority %s%s", getCreationTime(), getTaskName(), mActions.size(), mPriority, mInterruptible ? ", interruptible" : "");
     }
 
     public void setGattCallback(@Nullable GattCallback callback) {
@@ -94,17 +94,36 @@ public class TransactionBuilder {
         return mTransaction.getGattCallback();
     }
 
+    /**
+     * Sets the priority class of the transaction, the default is
+     * {@link Transaction.Priority#INTERACTIVE}.
+     */
+    public void setPriority(Transaction.Priority priority) {
+        mTransaction.setPriority(priority);
+    }
+
+    /**
+     * Allows realtime transactions to run between the actions of this transaction,
+     * see {@link Transaction#setInterruptible(boolean)}.
+     */
+    public void setInterruptible(boolean interruptible) {
+        mTransaction.setInterruptible(interruptible);
+    }
+
     /**
      * To be used as the final step to execute the transaction by the given queue.
+     * Does not block.
      *
      * @param queue
+     * @return false if the transaction was rejected, because the queue of its priority
+     * class is full or the queue was disposed
      */
-    public void queue(BtLEQueue queue) {
+    public boolean queue(BtLEQueue queue) {
         if (mQueued) {
             throw new IllegalStateException("This builder had already been queued. You must not reuse it.");
         }
         mQueued = true;
-        queue.add(mTransaction);
+        return queue.add(mTransaction);
     }
 
     public Transaction getTransaction() {
@@ -0,0 +1,195 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import android.support.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.Transaction.Priority;
+
+/**
+ * The pending transactions of a {@link BtLEQueue}, one bounded FIFO per
+ * {@link Priority priority class}. Transactions are taken highest priority first.
+ * Also keeps track of how long transactions had to wait before being taken.
+ */
+final class TransactionScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(TransactionScheduler.class);
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final ArrayDeque<Transaction>[] mQueues;
+    private final int[] mCapacities;
+    private final long[] mTakenCount = new long[PRIORITIES.length];
+    private final long[] mTotalWaitMillis = new long[PRIORITIES.length];
+    private final long[] mMaxWaitMillis = new long[PRIORITIES.length];
+    private final long[] mRejectedCount = new long[PRIORITIES.length];
+    private int mMaxDepth;
+    private boolean mClosed;
+
+    /**
+     * @param capacities the maximum number of pending transactions, per priority class
+     */
+    @SuppressWarnings("unchecked")
+    TransactionScheduler(int... capacities) {
+        if (capacities.length != PRIORITIES.length) {
+            throw new IllegalArgumentException("expected " + PRIORITIES.length + " capacities");
+        }
+        mCapacities = capacities;
+        mQueues = new ArrayDeque[PRIORITIES.length];
+        for (int i = 0; i < mQueues.length; i++) {
+            mQueues[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Adds the transaction to the end of its priority class, if that is not full. Never
+     * blocks: transactions are queued from the main thread and from GATT callbacks, which
+     * the dispatcher may be waiting for.
+     * @return false if the transaction was rejected because its priority class is full or
+     * the scheduler was closed
+     */
+    synchronized boolean add(Transaction transaction) {
+        if (mClosed) {
+            return false;
+        }
+        int i = transaction.getPriority().ordinal();
+        if (mQueues[i].size() >= mCapacities[i]) {
+            mRejectedCount[i]++;
+            LOG.warn("queue for " + transaction.getPriority() + " transactions is full, rejecting: " + transaction);
+            return false;
+        }
+        enqueue(transaction, false);
+        return true;
+    }
+
+    /**
+     * Adds the transaction to the beginning of its priority class, regardless of capacity.
+     */
+    synchronized void insert(Transaction transaction) {
+        if (!mClosed) {
+            enqueue(transaction, true);
+        }
+    }
+
+    /**
+     * Removes and returns the next transaction, waiting until one becomes available.
+     */
+    synchronized Transaction take() throws InterruptedException {
+        Transaction transaction;
+        while ((transaction = poll(PRIORITIES.length)) == null) {
+            wait();
+        }
+        return transaction;
+    }
+
+    /**
+     * Removes and returns the next transaction with a priority higher than the given one,
+     * without waiting.
+     */
+    @Nullable
+    synchronized Transaction pollHigherThan(Priority priority) {
+        return poll(priority.ordinal());
+    }
+
+    /**
+     * Removes all pending transactions.
+     */
+    synchronized void clear() {
+        for (ArrayDeque<Transaction> queue : mQueues) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Clears the scheduler and makes it reject further transactions.
+     */
+    synchronized void close() {
+        mClosed = true;
+        clear();
+    }
+
+    synchronized int size() {
+        int size = 0;
+        for (ArrayDeque<Transaction> queue : mQueues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    synchronized long getAverageWaitMillis(Priority priority) {
+        long taken = mTakenCount[priority.ordinal()];
+        return taken > 0 ? mTotalWaitMillis[priority.ordinal()] / taken : 0;
+    }
+
+    synchronized long getMaxWaitMillis(Priority priority) {
+        return mMaxWaitMillis[priority.ordinal()];
+    }
+
+    synchronized long getRejectedCount(Priority priority) {
+        return mRejectedCount[priority.ordinal()];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("depth=").append(size()).append(", maxDepth=").append(mMaxDepth);
+        for (Priority priority : PRIORITIES) {
+            int i = priority.ordinal();
+            builder.append(String.format(Locale.US, ", %s: %d taken, %d rejected, avg wait %dms, max wait %dms",
+                    priority, mTakenCount[i], mRejectedCount[i], getAverageWaitMillis(priority), mMaxWaitMillis[i]));
+        }
+        return builder.toString();
+    }
+
+    private void enqueue(Transaction transaction, boolean first) {
+        transaction.queuedTimestamp = System.currentTimeMillis();
+        ArrayDeque<Transaction> queue = mQueues[transaction.getPriority().ordinal()];
+        if (first) {
+            queue.addFirst(transaction);
+        } else {
+            queue.addLast(transaction);
+        }
+        mMaxDepth = Math.max(mMaxDepth, size());
+        notifyAll();
+    }
+
+    /**
+     * Polls the first transaction of the highest priority class below the given ordinal.
+     */
+    @Nullable
+    private Transaction poll(int priorityLimit) {
+        for (int i = 0; i < priorityLimit; i++) {
+            Transaction transaction = mQueues[i].pollFirst();
+            if (transaction != null) {
+                long waitMillis = System.currentTimeMillis() - transaction.queuedTimestamp;
+                mTakenCount[i]++;
+                mTotalWaitMillis[i] += waitMillis;
+                mMaxWaitMillis[i] = Math.max(mMaxWaitMillis[i], waitMillis);
+                return transaction;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,197 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle.actions;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
+
+/**
+ * Writes a range of bytes to a GATT characteristic, split into packets of the given length,
+ * as a single action. If the characteristic supports it, the packets are written without
+ * response, so that only the local Bluetooth stack has to accept a packet before the next
+ * one can be written, instead of the device having to respond to each packet.
+ * <p/>
+ * Every #onCharacteristicWrite callback for the characteristic returns a credit; up to
+ * maxInFlight packets may be written without having their credit returned. If the stack
+ * refuses a packet because it is still busy with a previous one (Android accepts only one
+ * outstanding GATT request), the packet is written again as soon as the next callback
+ * arrives, so the stack is handed the next packet without any delay.
+ * <p/>
+ * Typically used for firmware uploads, with a checkpoint (e.g. a sync command written with
+ * a {@link WriteAction}) after each bulk write.
+ */
+public class BulkWriteAction extends BtLEAction {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkWriteAction.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final long CREDIT_TIMEOUT_MILLIS = 5000;
+    /**
+     * How long to wait for a callback when the stack is busy although none of our packets
+     * is in flight, e.g. because of a request of another action.
+     */
+    private static final long BUSY_WAIT_MILLIS = 50;
+    private static final int MAX_BUSY_RETRIES = 100;
+
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+    private final int packetLength;
+    private final int maxInFlight;
+    private final Semaphore credits;
+    private final Object callbackLock = new Object();
+    // guarded by callbackLock
+    private long callbackCount;
+    private volatile boolean failed;
+
+    /**
+     * @param characteristic the characteristic to write to
+     * @param data           the data to write
+     * @param offset         the offset of the first byte to write
+     * @param length         the number of bytes to write
+     * @param packetLength   the maximum number of bytes per packet
+     * @param maxInFlight    the maximum number of packets not yet accepted by the Bluetooth stack
+     */
+    public BulkWriteAction(BluetoothGattCharacteristic characteristic, byte[] data, int offset, int length, int packetLength, int maxInFlight) {
+        super(characteristic);
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.packetLength = packetLength;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        credits = new Semaphore(this.maxInFlight);
+    }
+
+    @Override
+    public boolean run(BluetoothGatt gatt) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic();
+        int properties = characteristic.getProperties();
+        // the characteristic is shared with other actions, which expect their write type
+        int originalWriteType = characteristic.getWriteType();
+        if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) > 0) {
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        } else if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE) == 0) {
+            return false;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("bulk writing " + length + " bytes to characteristic: " + characteristic.getUuid());
+        }
+
+        try {
+            byte[] packet = new byte[packetLength];
+            int end = offset + length;
+            for (int pos = offset; pos < end && !failed; pos += packetLength) {
+                int size = Math.min(packetLength, end - pos);
+                if (size != packet.length) {
+                    packet = new byte[size];
+                }
+                System.arraycopy(data, pos, packet, 0, size);
+                if (!writePacket(gatt, characteristic, packet)) {
+                    return false;
+                }
+            }
+            // wait until all packets have been accepted
+            if (!credits.tryAcquire(maxInFlight, CREDIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("timeout waiting for the last packets to be written");
+                return false;
+            }
+            credits.release(maxInFlight);
+            return !failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            characteristic.setWriteType(originalWriteType);
+        }
+    }
+
+    private boolean writePacket(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] packet) throws InterruptedException {
+        if (!credits.tryAcquire(CREDIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            LOG.warn("timeout waiting for a write credit");
+            return false;
+        }
+        for (int attempt = 0; attempt <= MAX_BUSY_RETRIES && !failed; attempt++) {
+            long seenCallbacks;
+            synchronized (callbackLock) {
+                seenCallbacks = callbackCount;
+            }
+            if (characteristic.setValue(packet) && gatt.writeCharacteristic(characteristic)) {
+                return true;
+            }
+            // the stack is still busy with a previous packet, retry once its callback arrived
+            boolean ownPacketsInFlight = credits.availablePermits() < maxInFlight - 1;
+            if (!awaitCallback(seenCallbacks, ownPacketsInFlight ? CREDIT_TIMEOUT_MILLIS : BUSY_WAIT_MILLIS) && ownPacketsInFlight) {
+                LOG.warn("timeout waiting for the Bluetooth stack to accept a packet");
+                break;
+            }
+        }
+        credits.release();
+        if (!failed) {
+            LOG.warn("unable to write packet, Bluetooth stack stays busy");
+        }
+        return false;
+    }
+
+    /**
+     * Waits until there was another #onCharacteristicWrite callback after the given count.
+     *
+     * @return false if the timeout elapsed first
+     */
+    private boolean awaitCallback(long seenCallbacks, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (callbackLock) {
+            while (callbackCount == seenCallbacks) {
+                long waitMillis = deadline - System.currentTimeMillis();
+                if (waitMillis <= 0) {
+                    return false;
+                }
+                callbackLock.wait(waitMillis);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void onCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
+        if (!characteristic.getUuid().equals(getCharacteristic().getUuid())) {
+            return;
+        }
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            failed = true;
+        }
+        if (credits.availablePermits() < maxInFlight) {
+            credits.release();
+        }
+        synchronized (callbackLock) {
+            callbackCount++;
+            callbackLock.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean expectsResult() {
+        // run() only returns after all packets have been written
+        return false;
+    }
+}
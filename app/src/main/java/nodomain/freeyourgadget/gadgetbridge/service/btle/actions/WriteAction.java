@@ -24,7 +24,7 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import nodomain.freeyourgadget.gadgetbridge.Logging;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolLog;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
 
 /**
@@ -34,6 +34,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
  */
 public class WriteAction extends BtLEAction {
     private static final Logger LOG = LoggerFactory.getLogger(WriteAction.class);
+    private static final ProtocolLog PLOG = new ProtocolLog(LOG, "btle");
 
     private final byte[] value;
 
@@ -54,9 +55,7 @@ public class WriteAction extends BtLEAction {
     }
 
     protected boolean writeValue(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("writing to characteristic: " + characteristic.getUuid() + ": " + Logging.formatBytes(value));
-        }
+        PLOG.sent(characteristic.getUuid(), value);
         if (characteristic.setValue(value)) {
             return gatt.writeCharacteristic(characteristic);
         }
@@ -22,8 +22,6 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.hplus;
 
 
 import android.content.Context;
-import android.content.Intent;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import org.slf4j.Logger;
@@ -39,7 +37,9 @@ import java.util.List;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.IdentityCache;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleIngestion;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusConstants;
 import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusHealthSampleProvider;
@@ -50,7 +50,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
+import nodomain.freeyourgadget.gadgetbridge.model.RealtimeSamples;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceIoThread;
 
@@ -92,12 +92,20 @@ class HPlusHandlerThread extends GBDeviceIoThread {
 
     private HPlusDataRecordDaySlot mCurrentDaySlot = null;
 
+    private final SampleIngestion.Target<HPlusHealthActivitySample> mIngestionTarget;
+
     public HPlusHandlerThread(GBDevice gbDevice, Context context, HPlusSupport hplusSupport) {
         super(gbDevice, context);
         LOG.info("Initializing HPlus Handler Thread");
         mQuit = false;
 
         mHPlusSupport = hplusSupport;
+        mIngestionTarget = new SampleIngestion.Target<HPlusHealthActivitySample>(gbDevice) {
+            @Override
+            protected AbstractSampleProvider<HPlusHealthActivitySample> createProvider(GBDevice device, DaoSession session) {
+                return new HPlusHealthSampleProvider(device, session);
+            }
+        };
     }
 
 
@@ -288,42 +296,41 @@ class HPlusHandlerThread extends GBDeviceIoThread {
 
             List<Integer> notWornSlots = new ArrayList<>();
 
-            try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                HPlusHealthSampleProvider provider = new HPlusHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
-                List<HPlusHealthActivitySample> samples = new ArrayList<>();
+            List<HPlusHealthActivitySample> samples = new ArrayList<>();
 
-                for (HPlusDataRecordDaySlot storedRecord : mDaySlotRecords) {
+            for (HPlusDataRecordDaySlot storedRecord : mDaySlotRecords) {
 
-                    //Invalid records (no data) will be ignored
-                    if (!storedRecord.isValid())
-                        continue;
+                //Invalid records (no data) will be ignored
+                if (!storedRecord.isValid())
+                    continue;
 
-                    HPlusHealthActivitySample sample = createSample(dbHandler, storedRecord.timestamp);
+                // user, device and provider are set by SampleIngestion
+                HPlusHealthActivitySample sample = createSample(storedRecord.timestamp);
 
-                    sample.setRawHPlusHealthData(storedRecord.getRawData());
-                    sample.setSteps(storedRecord.steps);
+                sample.setRawHPlusHealthData(storedRecord.getRawData());
+                sample.setSteps(storedRecord.steps);
 
-                    sample.setRawIntensity(storedRecord.intensity);
-                    sample.setHeartRate(storedRecord.heartRate);
-                    sample.setRawKind(storedRecord.type);
-                    sample.setProvider(provider);
-                    samples.add(sample);
+                sample.setRawIntensity(storedRecord.intensity);
+                sample.setHeartRate(storedRecord.heartRate);
+                sample.setRawKind(storedRecord.type);
+                samples.add(sample);
 
-                    if (HPlusCoordinator.getAllDayHR(gbDevice.getAddress()) == HPlusConstants.ARG_HEARTRATE_ALLDAY_ON && storedRecord.heartRate == ActivitySample.NOT_MEASURED && storedRecord.steps <= 0) {
-                        notWornSlots.add(sample.getTimestamp());
-                        notWornSlots.add(sample.getTimestamp() + 10 * 60);
+                if (HPlusCoordinator.getAllDayHR(gbDevice.getAddress()) == HPlusConstants.ARG_HEARTRATE_ALLDAY_ON && storedRecord.heartRate == ActivitySample.NOT_MEASURED && storedRecord.steps <= 0) {
+                    notWornSlots.add(sample.getTimestamp());
+                    notWornSlots.add(sample.getTimestamp() + 10 * 60);
 
-                    }
                 }
+            }
 
-                provider.getSampleDao().insertOrReplaceInTx(samples);
-                mDaySlotRecords.clear();
+            SampleIngestion.getInstance().submit(mIngestionTarget, samples.toArray(new HPlusHealthActivitySample[samples.size()]));
+            mDaySlotRecords.clear();
 
-                //Create an overlay with unused slots
-                if (notWornSlots.size() > 0) {
+            //Create an overlay with unused slots
+            if (notWornSlots.size() > 0) {
+                try (DBHandler dbHandler = GBApplication.acquireDB()) {
                     DaoSession session = dbHandler.getDaoSession();
-                    Long userId = DBHelper.getUser(session).getId();
-                    Long deviceId = DBHelper.getDevice(getDevice(), session).getId();
+                    Long userId = IdentityCache.getInstance().getUserId(session);
+                    Long deviceId = IdentityCache.getInstance().getDeviceId(getDevice(), session);
 
                     HPlusHealthActivityOverlayDao overlayDao = session.getHPlusHealthActivityOverlayDao();
                     List<HPlusHealthActivityOverlay> overlayList = new ArrayList<>();
@@ -349,12 +356,11 @@ class HPlusHandlerThread extends GBDeviceIoThread {
                         overlayList.add(new HPlusHealthActivityOverlay(firstSlotTimestamp, lastSlotTimestamp, ActivityKind.TYPE_NOT_WORN, deviceId, userId, null));
 
                     overlayDao.insertOrReplaceInTx(overlayList);
+                } catch (GBException ex) {
+                    LOG.info((ex.getMessage()));
+                } catch (Exception ex) {
+                    LOG.info(ex.getMessage());
                 }
-
-            } catch (GBException ex) {
-                LOG.info((ex.getMessage()));
-            } catch (Exception ex) {
-                LOG.info(ex.getMessage());
             }
         }
 
@@ -384,8 +390,8 @@ class HPlusHandlerThread extends GBDeviceIoThread {
 
         try (DBHandler dbHandler = GBApplication.acquireDB()) {
             DaoSession session = dbHandler.getDaoSession();
-            Long userId = DBHelper.getUser(session).getId();
-            Long deviceId = DBHelper.getDevice(getDevice(), session).getId();
+            Long userId = IdentityCache.getInstance().getUserId(session);
+            Long deviceId = IdentityCache.getInstance().getDeviceId(getDevice(), session);
 
             HPlusHealthActivityOverlayDao overlayDao = session.getHPlusHealthActivityOverlayDao();
             HPlusHealthSampleProvider provider = new HPlusHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
@@ -461,11 +467,7 @@ class HPlusHandlerThread extends GBDeviceIoThread {
 
             sample.setSteps(sample.getSteps() - prevRealTimeRecord.steps);
 
-            Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                    .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample)
-                    .putExtra(DeviceService.EXTRA_TIMESTAMP, System.currentTimeMillis());
-            LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
-
+            RealtimeSamples.getInstance().publish(sample);
 
             //TODO: Handle Active Time. With Overlay?
         } catch (GBException ex) {
@@ -637,11 +639,22 @@ class HPlusHandlerThread extends GBDeviceIoThread {
      * @return The sample just created
      */
     private HPlusHealthActivitySample createSample(DBHandler dbHandler, int timestamp) {
-        Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-        Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
+        HPlusHealthActivitySample sample = createSample(timestamp);
+        sample.setUserId(IdentityCache.getInstance().getUserId(dbHandler.getDaoSession()));
+        sample.setDeviceId(IdentityCache.getInstance().getDeviceId(getDevice(), dbHandler.getDaoSession()));
+        return sample;
+    }
+
+    /**
+     * Creates a sample without user and device
+     *
+     * @param timestamp The sample timestamp
+     * @return The sample just created
+     */
+    private HPlusHealthActivitySample createSample(int timestamp) {
         HPlusHealthActivitySample sample = new HPlusHealthActivitySample(
                 timestamp,                      // ts
-                deviceId, userId,               // User id
+                0, 0,                           // Device and user id
                 null,            // Raw Data
                 ActivityKind.TYPE_UNKNOWN,
                 0,                              // Intensity
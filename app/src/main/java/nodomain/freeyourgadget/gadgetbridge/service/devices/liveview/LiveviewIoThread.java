@@ -28,14 +28,15 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.UUID;
 
+import nodomain.freeyourgadget.gadgetbridge.ProtocolLog;
 import nodomain.freeyourgadget.gadgetbridge.devices.liveview.LiveviewConstants;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.btclassic.BtClassicIoThread;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class LiveviewIoThread extends BtClassicIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(LiveviewIoThread.class);
+    private static final ProtocolLog PLOG = new ProtocolLog(LOG, "liveview");
 
     private static final UUID SERIAL = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
@@ -77,7 +78,7 @@ public class LiveviewIoThread extends BtClassicIoThread {
             }
         }
         byte[] msgArray = msgStream.toByteArray();
-        LOG.debug("received: " + GB.hexdump(msgArray, 0, msgArray.length));
+        PLOG.received("message", msgArray);
         return msgArray;
     }
 
@@ -30,7 +30,9 @@ import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
  * manner.
  *
  * Subclasses must implement #doCurrentSample() and should override #resetCurrentValues()
- * (but call super!).
+ * (but call super!). Subclasses that buffer the samples instead of writing each one right
+ * away should override #flushSamples(), which is called when the timer stops and after
+ * single shot samples.
  */
 public abstract class RealtimeSamplesSupport {
     private final long delay;
@@ -67,6 +69,7 @@ public abstract class RealtimeSamplesSupport {
             realtimeStorageTimer.purge();
             realtimeStorageTimer = null;
         }
+        flushSamples();
     }
 
     public synchronized boolean isRunning() {
@@ -107,6 +110,9 @@ public abstract class RealtimeSamplesSupport {
     public void triggerCurrentSample() {
         doCurrentSample();
         resetCurrentValues();
+        if (!isRunning()) {
+            flushSamples();
+        }
     }
 
     protected synchronized void resetCurrentValues() {
@@ -118,4 +124,10 @@ public abstract class RealtimeSamplesSupport {
     }
 
     protected abstract void doCurrentSample();
+
+    /**
+     * Writes the samples recorded by #doCurrentSample() that are not yet written.
+     */
+    protected void flushSamples() {
+    }
 }
@@ -26,22 +26,25 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleIngestion;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandConst;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandDateConverter;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandService;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.Transaction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetDeviceBusyAction;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.miband.MiBandSupport;
@@ -70,6 +73,12 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
     private final boolean hasExtendedActivityData;
     private final boolean hasPacketCounter;
 
+    private final SampleIngestion.Target<MiBandActivitySample> ingestionTarget;
+    /**
+     * The samples submitted since the last ACK
+     */
+    private final List<SampleIngestion.Ticket> unacknowledgedSamples = new ArrayList<>();
+
     private class ActivityStruct {
         private int maxDataPacketLength = 20;
         private int lastNotifiedProgress;
@@ -85,6 +94,8 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
         private GregorianCalendar activityDataTimestampProgress = null;
         //same as above, but remains untouched for the ack message
         private GregorianCalendar activityDataTimestampToAck = null;
+        //whether the band has no more data after the current block
+        private boolean lastDataBlock;
 
         ActivityStruct(int activityDataHolderSize, int maxDataPacketLength) {
             this.activityDataHolderSize = activityDataHolderSize;
@@ -121,7 +132,7 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
             return activityDataTimestampProgress == null;
         }
 
-        void startNewBlock(GregorianCalendar timestamp, int dataUntilNextHeader) {
+        void startNewBlock(GregorianCalendar timestamp, int dataUntilNextHeader, int totalDataToRead) {
             GB.assertThat(timestamp != null, "Timestamp must not be null");
 
             if (isFirstChunk()) {
@@ -138,9 +149,14 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
             }
             activityDataTimestampToAck = (GregorianCalendar) timestamp.clone();
             activityDataRemainingBytes = activityDataUntilNextHeader = dataUntilNextHeader;
+            lastDataBlock = dataUntilNextHeader >= totalDataToRead;
             validate();
         }
 
+        boolean isLastDataBlock() {
+            return lastDataBlock;
+        }
+
         boolean isBlockFinished() {
             return activityDataRemainingBytes == 0;
         }
@@ -162,6 +178,12 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
         int activityDataHolderSize = getBytesPerMinuteOfActivityData() * 60 * 4;
         int maxDataPacketLength = hasPacketCounter ? (hasExtendedActivityData ? 16 : 18) : 20;
         activityStruct = new ActivityStruct(activityDataHolderSize, maxDataPacketLength);
+        ingestionTarget = new SampleIngestion.Target<MiBandActivitySample>(getDevice()) {
+            @Override
+            protected AbstractSampleProvider<MiBandActivitySample> createProvider(GBDevice device, DaoSession session) {
+                return new MiBandSampleProvider(device, session);
+            }
+        };
     }
 
     @Override
@@ -174,6 +196,7 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
 //        scheduleTaskExecutor = Executors.newScheduledThreadPool(1);
 
         TransactionBuilder builder = performInitialized("fetch activity data");
+        builder.setPriority(Transaction.Priority.BULK);
         getSupport().setLowLatency(builder);
         builder.add(new SetDeviceBusyAction(getDevice(), getContext().getString(R.string.busy_task_fetch_activity_data), getContext()));
         builder.write(getCharacteristic(MiBandService.UUID_CHARACTERISTIC_CONTROL_POINT), fetch);
@@ -279,7 +302,7 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
         LOG.info("data to read until next header: " + dataUntilNextHeader + " len: " + (dataUntilNextHeader / getBytesPerMinuteOfActivityData()) + " minute(s)");
         LOG.info("TIMESTAMP: " + DateFormat.getDateTimeInstance().format(timestamp.getTime()) + " magic byte: " + dataUntilNextHeader);
 
-        activityStruct.startNewBlock(timestamp, dataUntilNextHeader);
+        activityStruct.startNewBlock(timestamp, dataUntilNextHeader, totalDataToRead);
     }
 
     private int getBytesPerMinuteOfActivityData() {
@@ -337,7 +360,7 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
 
     /**
      * empty the local buffer for activity data, arrange the values received in groups of three and
-     * store them in the DB
+     * submit them for storing in the DB
      */
     private void flushActivityDataHolder() {
         if (activityStruct == null) {
@@ -346,12 +369,8 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
         }
         int bpm = getBytesPerMinuteOfActivityData();
         LOG.debug("flushing activity data samples: " + activityStruct.activityDataHolderProgress / bpm);
-        byte category, intensity, steps, heartrate = 0;
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()){
-            MiBandSampleProvider provider = new MiBandSampleProvider(getDevice(), dbHandler.getDaoSession());
-            User user = DBHelper.getUser(dbHandler.getDaoSession());
-            Device device = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession());
+        try {
             int minutes = 0;
             try {
                 int timestampInSeconds = (int) (activityStruct.activityDataTimestampProgress.getTimeInMillis() / 1000);
@@ -360,32 +379,15 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
                 }
                 int numSamples = activityStruct.activityDataHolderProgress / bpm;
                 MiBandActivitySample[] samples = new MiBandActivitySample[numSamples];
-
-                for (int i = 0; i < activityStruct.activityDataHolderProgress; i += bpm) {
-                    category = activityStruct.activityDataHolder[i];
-                    intensity = activityStruct.activityDataHolder[i + 1];
-                    steps = activityStruct.activityDataHolder[i + 2];
-                    if (hasExtendedActivityData) {
-                        heartrate = activityStruct.activityDataHolder[i + 3];
-//                        LOG.debug("heartrate received: " + (heartrate & 0xff));
-                    }
-
-                    MiBandActivitySample sample = getSupport().createActivitySample(device, user, timestampInSeconds, provider);
-                    sample.setRawIntensity(intensity & 0xff);
-                    sample.setSteps(steps & 0xff);
-                    sample.setRawKind(category & 0xff);
-                    sample.setHeartRate(heartrate & 0xff);
-                    samples[minutes] = sample;
-
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("sample: " + samples[minutes]);
-                    }
-
-                    // next minute
-                    minutes++;
-                    timestampInSeconds += 60;
+                for (int i = 0; i < numSamples; i++) {
+                    // user, device and provider are set by SampleIngestion
+                    samples[i] = new MiBandActivitySample();
+                    samples[i].setTimestamp(timestampInSeconds + i * 60);
                 }
-                provider.addGBActivitySamples(samples);
+                decodeActivityData(activityStruct.activityDataHolder, bpm, hasExtendedActivityData, samples);
+                minutes = numSamples;
+
+                unacknowledgedSamples.add(SampleIngestion.getInstance().submit(ingestionTarget, samples));
             } finally {
                 activityStruct.bufferFlushed(minutes);
             }
@@ -394,16 +396,55 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
         }
     }
 
+    /**
+     * Decodes the raw activity data of consecutive minutes into the given samples,
+     * one sample per bytesPerMinute bytes: category, intensity, steps and, with extended
+     * activity data, the heart rate.
+     */
+    public static void decodeActivityData(byte[] data, int bytesPerMinute, boolean hasHeartRate, MiBandActivitySample[] samples) {
+        int heartrate = 0;
+        for (int i = 0, offset = 0; i < samples.length; i++, offset += bytesPerMinute) {
+            if (hasHeartRate) {
+                heartrate = data[offset + 3] & 0xff;
+            }
+            MiBandActivitySample sample = samples[i];
+            sample.setRawKind(data[offset] & 0xff);
+            sample.setRawIntensity(data[offset + 1] & 0xff);
+            sample.setSteps(data[offset + 2] & 0xff);
+            sample.setHeartRate(heartrate);
+        }
+    }
+
     /**
      * Acknowledge the transfer of activity data to the Mi Band.
      * <p/>
      * After receiving data from the band, it has to be acknowledged. This way the Mi Band will delete
-     * the data it has on record.
+     * the data it has on record. So the acknowledgement is only sent once the data is stored, from
+     * the thread that stored it.
      *
      * @param time
      * @param bytesTransferred
      */
-    private void sendAckDataTransfer(Calendar time, int bytesTransferred) {
+    private void sendAckDataTransfer(final Calendar time, final int bytesTransferred) {
+        flushActivityDataHolder();
+        List<SampleIngestion.Ticket> tickets = new ArrayList<>(unacknowledgedSamples);
+        unacknowledgedSamples.clear();
+        if (bytesTransferred == 0 || (activityStruct != null && activityStruct.isLastDataBlock())) {
+            // no more data will follow, store it now instead of waiting for more
+            SampleIngestion.getInstance().flush();
+        }
+        SampleIngestion.getInstance().whenWritten(tickets, new SampleIngestion.Callback() {
+            @Override
+            public void onWritten(boolean stored) {
+                if (!stored) {
+                    LOG.warn("unable to store activity data, asking the band to keep it");
+                }
+                writeAckDataTransfer(time, bytesTransferred, stored);
+            }
+        });
+    }
+
+    private void writeAckDataTransfer(Calendar time, int bytesTransferred, boolean stored) {
         byte[] ackTime = MiBandDateConverter.calendarToRawBytes(time);
         Prefs prefs = GBApplication.getPrefs();
 
@@ -411,7 +452,7 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
                 (byte) (bytesTransferred & 0xff),
                 (byte) (0xff & (bytesTransferred >> 8))
         };
-        if (prefs.getBoolean(MiBandConst.PREF_MIBAND_DONT_ACK_TRANSFER, false)) {
+        if (!stored || prefs.getBoolean(MiBandConst.PREF_MIBAND_DONT_ACK_TRANSFER, false)) {
             ackChecksum = new byte[]{
                     (byte) (~bytesTransferred & 0xff),
                     (byte) (0xff & (~bytesTransferred >> 8))
@@ -433,9 +474,6 @@ public class FetchActivityOperation extends AbstractMiBand1Operation {
             builder.write(getCharacteristic(MiBandService.UUID_CHARACTERISTIC_CONTROL_POINT), ack);
             builder.queue(getQueue());
 
-            // flush to the DB after queueing the ACK
-            flushActivityDataHolder();
-
             //The last data chunk sent by the miband has always length 0.
             //When we ack this chunk, the transfer is done.
             if (getDevice().isBusy() && bytesTransferred == 0) {
@@ -27,7 +27,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -35,7 +34,9 @@ import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventDisplayMessage;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandFWHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandService;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.Transaction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.BulkWriteAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.PlainAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetDeviceBusyAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetProgressAction;
@@ -301,7 +302,6 @@ public class UpdateFirmwareOperation extends AbstractMiBand1Operation {
     private boolean sendFirmwareData(byte[] fwbytes) {
         int len = fwbytes.length;
         final int packetLength = 20;
-        int packets = len / packetLength;
 
         BluetoothGattCharacteristic characteristicControlPoint = getCharacteristic(MiBandService.UUID_CHARACTERISTIC_CONTROL_POINT);
         BluetoothGattCharacteristic characteristicFWData = getCharacteristic(MiBandService.UUID_CHARACTERISTIC_FIRMWARE_DATA);
@@ -310,30 +310,31 @@ public class UpdateFirmwareOperation extends AbstractMiBand1Operation {
             int firmwareProgress = 0;
 
             TransactionBuilder builder = performInitialized("send firmware packet");
+            builder.setPriority(Transaction.Priority.BULK);
+            // alerts may be sent in between the paced packets
+            builder.setInterruptible(true);
             if (prefs.getBoolean("mi_low_latency_fw_update", true)) {
                 getSupport().setLowLatency(builder);
             }
-            for (int i = 0; i < packets; i++) {
-                byte[] fwChunk = Arrays.copyOfRange(fwbytes, i * packetLength, i * packetLength + packetLength);
-
-                builder.write(characteristicFWData, fwChunk);
-                firmwareProgress += packetLength;
-
-                int progressPercent = (int) ((((float) firmwareProgress) / len) * 100);
-                if ((i > 0) && (i % 50 == 0)) {
+            // write the packets in bulk, syncing after packet #50 (counting from 0), then
+            // every 50 packets, and once more after the last one
+            int nextSync = (50 + 1) * packetLength;
+            while (firmwareProgress < len) {
+                int segmentEnd = Math.min(nextSync, len);
+                builder.add(new BulkWriteAction(characteristicFWData, fwbytes, firmwareProgress, segmentEnd - firmwareProgress, packetLength, BulkWriteAction.DEFAULT_MAX_IN_FLIGHT));
+                firmwareProgress = segmentEnd;
+
+                if (firmwareProgress == nextSync) {
+                    int progressPercent = (int) ((((float) firmwareProgress) / len) * 100);
                     builder.write(characteristicControlPoint, new byte[]{MiBandService.COMMAND_SYNC});
                     builder.add(new SetProgressAction(getContext().getString(R.string.updatefirmwareoperation_update_in_progress), true, progressPercent, getContext()));
+                    nextSync += 50 * packetLength;
                 }
             }
-
-            if (firmwareProgress < len) {
-                byte[] lastChunk = Arrays.copyOfRange(fwbytes, packets * packetLength, len);
-                builder.write(characteristicFWData, lastChunk);
-                firmwareProgress = len;
-            }
-
             builder.write(characteristicControlPoint, new byte[]{MiBandService.COMMAND_SYNC});
-            builder.queue(getQueue());
+            if (!builder.queue(getQueue())) {
+                throw new IOException("firmware transaction rejected by the queue");
+            }
 
         } catch (IOException ex) {
             LOG.error("Unable to send fw to MI", ex);
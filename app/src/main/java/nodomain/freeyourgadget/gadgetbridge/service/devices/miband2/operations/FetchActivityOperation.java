@@ -31,14 +31,12 @@ import java.util.concurrent.TimeUnit;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.IdentityCache;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBand2Service;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.WaitAction;
@@ -113,13 +111,13 @@ public class FetchActivityOperation extends AbstractFetchOperation {
             try (DBHandler handler = GBApplication.acquireDB()) {
                 DaoSession session = handler.getDaoSession();
                 SampleProvider<MiBandActivitySample> sampleProvider = new MiBandSampleProvider(getDevice(), session);
-                Device device = DBHelper.getDevice(getDevice(), session);
-                User user = DBHelper.getUser(session);
+                long deviceId = IdentityCache.getInstance().getDeviceId(getDevice(), session);
+                long userId = IdentityCache.getInstance().getUserId(session);
 
                 GregorianCalendar timestamp = (GregorianCalendar) startTimestamp.clone();
                 for (MiBandActivitySample sample : samples) {
-                    sample.setDevice(device);
-                    sample.setUser(user);
+                    sample.setDeviceId(deviceId);
+                    sample.setUserId(userId);
                     sample.setTimestamp((int) (timestamp.getTimeInMillis() / 1000));
                     sample.setProvider(sampleProvider);
 
@@ -26,7 +26,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -36,7 +35,9 @@ import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiFWHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBand2Service;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.miband2.MiBand2FWHelper;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.Transaction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.BulkWriteAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetDeviceBusyAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetProgressAction;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiFirmwareInfo;
@@ -235,39 +236,39 @@ public class UpdateFirmwareOperation extends AbstractMiBand2Operation {
         byte[] fwbytes = info.getBytes();
         int len = fwbytes.length;
         final int packetLength = 20;
-        int packets = len / packetLength;
 
         try {
             // going from 0 to len
             int firmwareProgress = 0;
 
             TransactionBuilder builder = performInitialized("send firmware packet");
+            builder.setPriority(Transaction.Priority.BULK);
+            // alerts may be sent in between the paced packets
+            builder.setInterruptible(true);
             if (prefs.getBoolean("mi_low_latency_fw_update", true)) {
                 getSupport().setLowLatency(builder);
             }
             builder.write(fwCControlChar, new byte[] { MiBand2Service.COMMAND_FIRMWARE_START_DATA });
 
-            for (int i = 0; i < packets; i++) {
-                byte[] fwChunk = Arrays.copyOfRange(fwbytes, i * packetLength, i * packetLength + packetLength);
+            // write the packets in bulk, syncing after packet #100 (counting from 0), then
+            // every 100 packets, and once more after the last one
+            int nextSync = (100 + 1) * packetLength;
+            while (firmwareProgress < len) {
+                int segmentEnd = Math.min(nextSync, len);
+                builder.add(new BulkWriteAction(fwCDataChar, fwbytes, firmwareProgress, segmentEnd - firmwareProgress, packetLength, BulkWriteAction.DEFAULT_MAX_IN_FLIGHT));
+                firmwareProgress = segmentEnd;
 
-                builder.write(fwCDataChar, fwChunk);
-                firmwareProgress += packetLength;
-
-                int progressPercent = (int) ((((float) firmwareProgress) / len) * 100);
-                if ((i > 0) && (i % 100 == 0)) {
+                if (firmwareProgress == nextSync) {
+                    int progressPercent = (int) ((((float) firmwareProgress) / len) * 100);
                     builder.write(fwCControlChar, new byte[]{MiBand2Service.COMMAND_FIRMWARE_UPDATE_SYNC});
                     builder.add(new SetProgressAction(getContext().getString(R.string.updatefirmwareoperation_update_in_progress), true, progressPercent, getContext()));
+                    nextSync += 100 * packetLength;
                 }
             }
-
-            if (firmwareProgress < len) {
-                byte[] lastChunk = Arrays.copyOfRange(fwbytes, packets * packetLength, len);
-                builder.write(fwCDataChar, lastChunk);
-                firmwareProgress = len;
-            }
-
             builder.write(fwCControlChar, new byte[]{MiBand2Service.COMMAND_FIRMWARE_UPDATE_SYNC});
-            builder.queue(getQueue());
+            if (!builder.queue(getQueue())) {
+                throw new IOException("firmware transaction rejected by the queue");
+            }
 
         } catch (IOException ex) {
             LOG.error("Unable to send fw to MI 2", ex);
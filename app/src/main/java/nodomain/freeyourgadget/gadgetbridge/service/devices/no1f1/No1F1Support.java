@@ -37,7 +37,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.IdentityCache;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventBatteryInfo;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
 import nodomain.freeyourgadget.gadgetbridge.devices.no1f1.No1F1Constants;
@@ -589,8 +589,8 @@ public class No1F1Support extends AbstractBTLEDeviceSupport {
                 }
             } else if (samples.size() > 0) {
                 try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                    Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-                    Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
+                    Long userId = IdentityCache.getInstance().getUserId(dbHandler.getDaoSession());
+                    Long deviceId = IdentityCache.getInstance().getDeviceId(getDevice(), dbHandler.getDaoSession());
                     No1F1SampleProvider provider = new No1F1SampleProvider(getDevice(), dbHandler.getDaoSession());
                     for (int i = 0; i < samples.size(); i++) {
                         samples.get(i).setDeviceId(deviceId);
@@ -676,8 +676,8 @@ public class No1F1Support extends AbstractBTLEDeviceSupport {
             sample.setHeartRate(data[3] & 0xff);
             LOG.info("Current heart rate is: " + sample.getHeartRate() + " BPM");
             try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-                Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
+                Long userId = IdentityCache.getInstance().getUserId(dbHandler.getDaoSession());
+                Long deviceId = IdentityCache.getInstance().getDeviceId(getDevice(), dbHandler.getDaoSession());
                 No1F1SampleProvider provider = new No1F1SampleProvider(getDevice(), dbHandler.getDaoSession());
                 sample.setDeviceId(deviceId);
                 sample.setUserId(userId);
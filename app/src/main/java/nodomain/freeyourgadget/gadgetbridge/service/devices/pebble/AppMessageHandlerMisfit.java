@@ -30,7 +30,7 @@ import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.IdentityCache;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventSendBytes;
 import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleMisfitSampleProvider;
@@ -95,8 +95,8 @@ class AppMessageHandlerMisfit extends AppMessageHandler {
                     PebbleMisfitSample[] misfitSamples = new PebbleMisfitSample[samples];
                     try (DBHandler db = GBApplication.acquireDB()) {
                         PebbleMisfitSampleProvider sampleProvider = new PebbleMisfitSampleProvider(device, db.getDaoSession());
-                        Long userId = DBHelper.getUser(db.getDaoSession()).getId();
-                        Long deviceId = DBHelper.getDevice(getDevice(), db.getDaoSession()).getId();
+                        Long userId = IdentityCache.getInstance().getUserId(db.getDaoSession());
+                        Long deviceId = IdentityCache.getInstance().getDeviceId(getDevice(), db.getDaoSession());
                         for (int i = 0; i < samples; i++) {
                             short sample = buf.getShort();
                             misfitSamples[i] = new PebbleMisfitSample(timestamp + i * 60, deviceId, userId, sample & 0xffff);
@@ -32,7 +32,7 @@ import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.IdentityCache;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventSendBytes;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventSleepMonitorResult;
@@ -132,8 +132,8 @@ class AppMessageHandlerMorpheuz extends AppMessageHandler {
                     LOG.info("got point:" + index + " " + intensity);
                     if (index >= 0) {
                         try (DBHandler db = GBApplication.acquireDB()) {
-                            Long userId = DBHelper.getUser(db.getDaoSession()).getId();
-                            Long deviceId = DBHelper.getDevice(getDevice(), db.getDaoSession()).getId();
+                            Long userId = IdentityCache.getInstance().getUserId(db.getDaoSession());
+                            Long deviceId = IdentityCache.getInstance().getDeviceId(getDevice(), db.getDaoSession());
                             PebbleMorpheuzSampleProvider sampleProvider = new PebbleMorpheuzSampleProvider(getDevice(), db.getDaoSession());
                             PebbleMorpheuzSample sample = new PebbleMorpheuzSample(recording_base_timestamp + index * 600, deviceId, userId, intensity);
                             sample.setProvider(sampleProvider);
@@ -22,11 +22,20 @@ import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
 import java.util.UUID;
 
+import nodomain.freeyourgadget.gadgetbridge.ProtocolLog;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.pebble.GBDeviceEventDataLogging;
 
 class DatalogSession {
     private static final Logger LOG = LoggerFactory.getLogger(DatalogSession.class);
+    private static final ProtocolLog PLOG = new ProtocolLog(LOG, "pebble-datalog");
+
+    /**
+     * Returned by #handleMessage(ByteBuffer, int) when the ACK or NACK is not known yet,
+     * e.g. because the Pebble deletes the data once it is acknowledged. The session sends
+     * it later through #sendReply(boolean).
+     */
+    static final GBDeviceEvent[] REPLY_LATER = new GBDeviceEvent[0];
 
     final byte id;
     final int tag;
@@ -35,6 +44,10 @@ class DatalogSession {
     final short itemSize;
     final int timestamp;
     String taginfo = "(unknown)";
+    /**
+     * Sends the replies of messages answered with #REPLY_LATER, set by PebbleProtocol
+     */
+    ReplySender replySender;
 
     DatalogSession(byte id, UUID uuid, int timestamp, int tag, byte itemType, short itemSize) {
         this.id = id;
@@ -49,6 +62,24 @@ class DatalogSession {
         return new GBDeviceEvent[]{null};
     }
 
+    /**
+     * Logs the datalog message of the given length, starting at the buffer's position.
+     */
+    void logMessage(ByteBuffer buf, int length) {
+        PLOG.received(taginfo, buf.array(), buf.position(), length);
+    }
+
+    /**
+     * Sends the ACK or NACK for a message that was answered with #REPLY_LATER.
+     */
+    void sendReply(boolean ack) {
+        if (replySender == null) {
+            LOG.warn("unable to send " + (ack ? "ACK" : "NACK") + " for session " + (id & 0xff) + ", no reply sender");
+            return;
+        }
+        replySender.sendReply(id, ack);
+    }
+
     String getTaginfo() {
         return taginfo;
     }
@@ -92,4 +123,11 @@ class DatalogSession {
         }
         return new GBDeviceEvent[]{dataLogging, null};
     }
-}
\ No newline at end of file
+
+    /**
+     * Sends datalog replies from threads other than the one decoding the messages.
+     */
+    interface ReplySender {
+        void sendReply(byte sessionId, boolean ack);
+    }
+}
@@ -23,29 +23,38 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleIngestion;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 class DatalogSessionHealthSteps extends DatalogSessionPebbleHealth {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatalogSessionHealthSteps.class);
 
+    private final SampleIngestion.Target<PebbleHealthActivitySample> ingestionTarget;
+
     DatalogSessionHealthSteps(byte id, UUID uuid, int timestamp, int tag, byte item_type, short item_size, GBDevice device) {
         super(id, uuid, timestamp, tag, item_type, item_size, device);
         taginfo = "(Health - steps)";
+        ingestionTarget = new SampleIngestion.Target<PebbleHealthActivitySample>(device) {
+            @Override
+            protected AbstractSampleProvider<PebbleHealthActivitySample> createProvider(GBDevice device, DaoSession session) {
+                return new PebbleHealthSampleProvider(device, session);
+            }
+        };
     }
 
     @Override
     public GBDeviceEvent[] handleMessage(ByteBuffer datalogMessage, int length) {
-        LOG.info("DATALOG " + taginfo + GB.hexdump(datalogMessage.array(), datalogMessage.position(), length));
+        logMessage(datalogMessage, length);
 
         if (!isPebbleHealthEnabled()) {
             return null;
@@ -61,6 +70,7 @@ class DatalogSessionHealthSteps extends DatalogSessionPebbleHealth {
             return null;//malformed message?
 
         int packetCount = length / itemSize;
+        List<SampleIngestion.Ticket> tickets = new ArrayList<>(packetCount);
 
         for (int packetIdx = 0; packetIdx < packetCount; packetIdx++) {
             beginOfPacketPosition = initialPosition + packetIdx * itemSize;
@@ -87,36 +97,35 @@ class DatalogSessionHealthSteps extends DatalogSessionPebbleHealth {
                 timestamp += 60;
             }
 
-            store(stepsRecords);
+            tickets.add(store(stepsRecords));
         }
-        return new GBDeviceEvent[]{null};//ACK by default
-    }
-
-    private void store(StepsRecord[] stepsRecords) {
-
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            PebbleHealthSampleProvider sampleProvider = new PebbleHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
-            PebbleHealthActivitySample[] samples = new PebbleHealthActivitySample[stepsRecords.length];
-            // TODO: user and device
-            Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-            Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
-            for (int j = 0; j < stepsRecords.length; j++) {
-                StepsRecord stepsRecord = stepsRecords[j];
-                samples[j] = new PebbleHealthActivitySample(
-                        stepsRecord.timestamp,
-                        deviceId, userId,
-                        stepsRecord.getRawData(),
-                        stepsRecord.intensity,
-                        stepsRecord.steps,
-                        stepsRecord.heart_rate
-                );
-                samples[j].setProvider(sampleProvider);
+        // only ACK when the samples are stored, the Pebble deletes them afterwards
+        SampleIngestion.getInstance().whenWritten(tickets, new SampleIngestion.Callback() {
+            @Override
+            public void onWritten(boolean success) {
+                if (!success) {
+                    LOG.warn("unable to store steps, not acknowledging them");
+                }
+                sendReply(success);
             }
+        });
+        return REPLY_LATER;
+    }
 
-            sampleProvider.addGBActivitySamples(samples);
-        } catch (Exception ex) {
-            LOG.debug(ex.getMessage());
+    private SampleIngestion.Ticket store(StepsRecord[] stepsRecords) {
+        PebbleHealthActivitySample[] samples = new PebbleHealthActivitySample[stepsRecords.length];
+        for (int j = 0; j < stepsRecords.length; j++) {
+            StepsRecord stepsRecord = stepsRecords[j];
+            samples[j] = new PebbleHealthActivitySample(
+                    stepsRecord.timestamp,
+                    0, 0, // set by SampleIngestion
+                    stepsRecord.getRawData(),
+                    stepsRecord.intensity,
+                    stepsRecord.steps,
+                    stepsRecord.heart_rate
+            );
         }
+        return SampleIngestion.getInstance().submit(ingestionTarget, samples);
     }
 
     private class StepsRecord {
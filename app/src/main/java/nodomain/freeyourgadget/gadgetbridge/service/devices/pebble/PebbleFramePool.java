@@ -0,0 +1,87 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import android.util.SparseArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Reuses the byte arrays of outgoing Pebble Protocol frames. PebbleProtocol encodes frames
+ * into arrays obtained from the pool, PebbleWriterThread releases them once it copied them
+ * into its write buffer.
+ * <p/>
+ * Frames are returned as arrays of their exact length, so an array can only be reused for a
+ * frame of the same length. That is typically the case for the frames sent in large numbers,
+ * like upload chunks, datalog and app message ACKs, pings and music info updates.
+ * <p/>
+ * Only arrays obtained from the pool are taken back, so writing other arrays (e.g. constants
+ * or frames from PebbleKit) is fine. A pooled frame must not be used anymore after it has been
+ * written, and must not be written more than once.
+ */
+class PebbleFramePool {
+    private static final int MAX_POOLED_LENGTH = 2048;
+    private static final int MAX_FREE_PER_LENGTH = 8;
+
+    private final SparseArray<ArrayDeque<byte[]>> mFree = new SparseArray<>();
+    // arrays use identity for equals() and hashCode(); weak, so frames that are never
+    // written (e.g. copied into another frame) do not pile up here
+    private final Set<byte[]> mInUse = Collections.newSetFromMap(new WeakHashMap<byte[], Boolean>());
+
+    /**
+     * Returns a zeroed, big endian buffer with exactly the given capacity, backed by an array.
+     */
+    synchronized ByteBuffer obtain(int length) {
+        if (length > MAX_POOLED_LENGTH) {
+            return ByteBuffer.allocate(length);
+        }
+        byte[] bytes = null;
+        ArrayDeque<byte[]> free = mFree.get(length);
+        if (free != null) {
+            bytes = free.poll();
+        }
+        if (bytes != null) {
+            Arrays.fill(bytes, (byte) 0);
+        } else {
+            bytes = new byte[length];
+        }
+        mInUse.add(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Returns the given array to the pool, if it was obtained from it.
+     */
+    synchronized void release(byte[] bytes) {
+        if (!mInUse.remove(bytes)) {
+            return;
+        }
+        ArrayDeque<byte[]> free = mFree.get(bytes.length);
+        if (free == null) {
+            free = new ArrayDeque<>(MAX_FREE_PER_LENGTH);
+            mFree.put(bytes.length, free);
+        }
+        if (free.size() < MAX_FREE_PER_LENGTH) {
+            free.push(bytes);
+        }
+    }
+}
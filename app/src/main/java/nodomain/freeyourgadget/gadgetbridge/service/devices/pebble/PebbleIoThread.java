@@ -42,6 +42,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolLog;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.ExternalPebbleJSActivity;
 import nodomain.freeyourgadget.gadgetbridge.activities.appmanager.AbstractAppManagerFragment;
@@ -67,6 +68,7 @@ import nodomain.freeyourgadget.gadgetbridge.util.WebViewSingleton;
 
 class PebbleIoThread extends GBDeviceIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(PebbleIoThread.class);
+    private static final ProtocolLog PLOG = new ProtocolLog(LOG, "pebble");
 
     private final Prefs prefs = GBApplication.getPrefs();
 
@@ -82,6 +84,8 @@ class PebbleIoThread extends GBDeviceIoThread {
     private InputStream mInStream = null;
     private OutputStream mOutStream = null;
     private PebbleLESupport mPebbleLESupport;
+    // replaced on (re)connect, but used from the threads writing to the watch
+    private volatile PebbleWriterThread mWriterThread;
 
     private boolean mQuit = false;
     private boolean mIsConnected = false;
@@ -98,6 +102,8 @@ class PebbleIoThread extends GBDeviceIoThread {
     private int mCRC = -1;
     private int mBinarySize = -1;
     private int mBytesWritten = -1;
+    private long mInstallStartMillis;
+    private long mInstallStartBytes;
 
     private void sendAppMessageJS(GBDeviceEventAppMessage appMessage) {
         WebViewSingleton.appMessage(appMessage);
@@ -114,6 +120,13 @@ class PebbleIoThread extends GBDeviceIoThread {
         mEnablePebblekit = prefs.getBoolean("pebble_enable_pebblekit", false);
         mPebbleProtocol.setAlwaysACKPebbleKit(prefs.getBoolean("pebble_always_ack_pebblekit", false));
         mPebbleProtocol.setEnablePebbleKit(mEnablePebblekit);
+        mPebbleProtocol.setDatalogReplySender(new DatalogSession.ReplySender() {
+            @Override
+            public void sendReply(byte sessionId, boolean ack) {
+                // called once the data of a datalog message is stored
+                write(mPebbleProtocol.encodeDatalogReply(sessionId, ack));
+            }
+        });
     }
 
     private int readWithException(InputStream inputStream, byte[] buffer, int byteOffset, int byteCount) throws IOException {
@@ -182,6 +195,7 @@ class PebbleIoThread extends GBDeviceIoThread {
             return false;
         }
 
+        startWriterThread();
         mPebbleProtocol.setForceProtocol(prefs.getBoolean("pebble_force_protocol", false));
 
         mIsConnected = true;
@@ -320,6 +334,7 @@ class PebbleIoThread extends GBDeviceIoThread {
                     mInStream.skip(2);
                 }
 
+                PLOG.received("packet", buffer, 0, length + 4);
                 GBDeviceEvent deviceEvents[] = mPebbleProtocol.decodeResponse(buffer);
                 if (deviceEvents == null) {
                     LOG.info("unhandled message to endpoint " + endpoint + " (" + length + " bytes)");
@@ -333,11 +348,6 @@ class PebbleIoThread extends GBDeviceIoThread {
                         }
                     }
                 }
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
             } catch (IOException e) {
                 if (e.getMessage() != null && (e.getMessage().equals("broken pipe") || e.getMessage().contains("socket closed"))) { //FIXME: this does not feel right
                     LOG.info(e.getMessage());
@@ -371,6 +381,7 @@ class PebbleIoThread extends GBDeviceIoThread {
             }
         }
         mIsConnected = false;
+        stopWriterThread();
         if (mBtSocket != null) {
             try {
                 mBtSocket.close();
@@ -407,29 +418,37 @@ class PebbleIoThread extends GBDeviceIoThread {
     }
 
 
-    private void write_real(byte[] bytes) {
-        try {
-            if (mIsTCP) {
-                ByteBuffer buf = ByteBuffer.allocate(bytes.length + 8);
-                buf.order(ByteOrder.BIG_ENDIAN);
-                buf.putShort((short) 0xfeed);
-                buf.putShort((short) 1);
-                buf.putShort((short) bytes.length);
-                buf.put(bytes);
-                buf.putShort((short) 0xbeef);
-                mOutStream.write(buf.array());
-                mOutStream.flush();
-            } else {
-                mOutStream.write(bytes);
-                mOutStream.flush();
-            }
-        } catch (IOException e) {
-            LOG.error("Error writing.", e.getMessage());
+    private void startWriterThread() {
+        stopWriterThread();
+        int writeInterval = prefs.getInt("pebble_write_interval", 0);
+        mWriterThread = new PebbleWriterThread(mOutStream, mPebbleProtocol.getFramePool(), mIsTCP, writeInterval);
+        mWriterThread.start();
+    }
+
+    private void stopWriterThread() {
+        PebbleWriterThread writerThread = mWriterThread;
+        if (writerThread != null) {
+            mWriterThread = null;
+            writerThread.quit();
         }
-        try {
-            Thread.sleep(100);
-        } catch (InterruptedException ignored) {
+    }
+
+    /**
+     * @return false if the frame will not be sent
+     */
+    private boolean write_real(byte[] bytes) {
+        PebbleWriterThread writerThread = mWriterThread;
+        if (writerThread == null) {
+            LOG.warn("not connected, dropping " + bytes.length + " bytes");
+            return false;
+        }
+        // the writer thread blocks us while its queue is full, no need to pace writes here
+        PLOG.sent("packet", bytes);
+        if (!writerThread.enqueue(bytes)) {
+            LOG.error("writer gone, dropping " + bytes.length + " bytes");
+            return false;
         }
+        return true;
     }
 
     @Override
@@ -570,7 +589,10 @@ class PebbleIoThread extends GBDeviceIoThread {
             return;
         }
         LOG.info("got " + bytes.length + "bytes for writeInstallApp()");
-        write_real(bytes);
+        // the watch would wait forever for the missing part; UNKNOWN: already finishing
+        if (!write_real(bytes) && mInstallState != PebbleAppInstallState.UNKNOWN) {
+            finishInstall(true);
+        }
     }
 
     void installApp(Uri uri, int appId) {
@@ -592,6 +614,9 @@ class PebbleIoThread extends GBDeviceIoThread {
 
         mPebbleInstallables = mPBWReader.getPebbleInstallables();
         mCurrentInstallableIndex = 0;
+        mInstallStartMillis = System.currentTimeMillis();
+        PebbleWriterThread writerThread = mWriterThread;
+        mInstallStartBytes = writerThread != null ? writerThread.getBytesWritten() : 0;
 
         if (mPBWReader.isFirmware()) {
             LOG.info("starting firmware installation");
@@ -645,6 +670,7 @@ class PebbleIoThread extends GBDeviceIoThread {
         if (!mIsInstalling) {
             return;
         }
+        logInstallThroughput(hadError);
         if (hadError) {
             GB.updateInstallNotification(getContext().getString(R.string.installation_failed_), false, 0, getContext());
         } else {
@@ -685,9 +711,21 @@ class PebbleIoThread extends GBDeviceIoThread {
         mInstallSlot = -2;
     }
 
+    private void logInstallThroughput(boolean hadError) {
+        PebbleWriterThread writerThread = mWriterThread;
+        if (writerThread == null) {
+            return;
+        }
+        long millis = Math.max(1, System.currentTimeMillis() - mInstallStartMillis);
+        long bytes = writerThread.getBytesWritten() - mInstallStartBytes;
+        LOG.info("installation " + (hadError ? "failed" : "finished") + " after " + millis + "ms, "
+                + bytes + " bytes written (" + (bytes * 1000 / 1024 / millis) + " KiB/s)");
+    }
+
     @Override
     public void quit() {
         mQuit = true;
+        stopWriterThread();
         if (mBtSocket != null) {
             try {
                 mBtSocket.close();
@@ -40,6 +40,7 @@ import java.util.UUID;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleIngestion;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventAppInfo;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventAppManagement;
@@ -279,6 +280,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
     boolean mEnablePebbleKit = false;
     boolean mAlwaysACKPebbleKit = false;
     private boolean mForceProtocol = false;
+    private DatalogSession.ReplySender mDatalogReplySender = null;
     private GBDeviceEventScreenshot mDevEventScreenshot = null;
     private int mScreenshotRemaining = -1;
 
@@ -403,6 +405,8 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private UUID currentRunningApp = UUID_ZERO;
 
+    private final PebbleFramePool mFramePool = new PebbleFramePool();
+
     public PebbleProtocol(GBDevice device) {
         super(device);
         mAppMessageHandlers.put(UUID_MORPHEUZ, new AppMessageHandlerMorpheuz(UUID_MORPHEUZ, PebbleProtocol.this));
@@ -423,11 +427,19 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private final HashMap<Byte, DatalogSession> mDatalogSessions = new HashMap<>();
 
+    /**
+     * Returns the pool the frames encoded by this protocol are taken from. The writer
+     * releases them after writing.
+     */
+    PebbleFramePool getFramePool() {
+        return mFramePool;
+    }
+
     private Integer[] idLookup = new Integer[256];
 
     private byte[] encodeSimpleMessage(short endpoint, byte command) {
         final short LENGTH_SIMPLEMESSAGE = 1;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_SIMPLEMESSAGE);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_SIMPLEMESSAGE);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_SIMPLEMESSAGE);
         buf.putShort(endpoint);
@@ -558,7 +570,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         if (mFwMajor >= 3) {
             String timezone = SimpleTimeZone.getDefault().getID();
             short length = (short) (LENGTH_SETTIME + timezone.getBytes().length + 3);
-            buf = ByteBuffer.allocate(LENGTH_PREFIX + length);
+            buf = mFramePool.obtain(LENGTH_PREFIX + length);
             buf.order(ByteOrder.BIG_ENDIAN);
             buf.putShort(length);
             buf.putShort(ENDPOINT_TIME);
@@ -569,7 +581,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
             buf.put(timezone.getBytes());
             LOG.info(timezone);
         } else {
-            buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_SETTIME);
+            buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_SETTIME);
             buf.order(ByteOrder.BIG_ENDIAN);
             buf.putShort(LENGTH_SETTIME);
             buf.putShort(ENDPOINT_TIME);
@@ -644,7 +656,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         }
 
         // Encode Prefix
-        ByteBuffer buf = ByteBuffer.allocate(length + LENGTH_PREFIX);
+        ByteBuffer buf = mFramePool.obtain(length + LENGTH_PREFIX);
 
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort((short) (length));
@@ -749,7 +761,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
             length += blob.length + 2;
         }
 
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + length);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + length);
 
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort((short) length);
@@ -840,7 +852,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private byte[] encodeBlobDBClear(byte database) {
         final short LENGTH_BLOBDB_CLEAR = 4;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_BLOBDB_CLEAR);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_BLOBDB_CLEAR);
 
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_BLOBDB_CLEAR);
@@ -1080,7 +1092,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private byte[] encodeActionResponse2x(int id, byte actionId, int iconId, String caption) {
         short length = (short) (18 + caption.getBytes().length);
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + length);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + length);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(length);
         buf.putShort(ENDPOINT_EXTENSIBLENOTIFS);
@@ -1295,7 +1307,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private byte[] encodeActionResponse(UUID uuid, int iconId, String caption) {
         short length = (short) (29 + caption.getBytes().length);
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + length);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + length);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(length);
         buf.putShort(ENDPOINT_NOTIFICATIONACTION);
@@ -1338,7 +1350,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     byte[] encodeAppFetchAck() {
         final short LENGTH_APPFETCH = 2;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_APPFETCH);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_APPFETCH);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_APPFETCH);
         buf.putShort(ENDPOINT_APPFETCH);
@@ -1487,7 +1499,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
     public byte[] encodeAppStart(UUID uuid, boolean start) {
         if (mFwMajor >= 3) {
             final short LENGTH_APPRUNSTATE = 17;
-            ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_APPRUNSTATE);
+            ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_APPRUNSTATE);
             buf.order(ByteOrder.BIG_ENDIAN);
             buf.putShort(LENGTH_APPRUNSTATE);
             buf.putShort(ENDPOINT_APPRUNSTATE);
@@ -1518,7 +1530,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
             return encodeBlobdb(uuid, BLOBDB_DELETE, BLOBDB_APP, null);
         } else {
             final short LENGTH_REMOVEAPP_2X = 17;
-            ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_REMOVEAPP_2X);
+            ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_REMOVEAPP_2X);
             buf.order(ByteOrder.BIG_ENDIAN);
             buf.putShort(LENGTH_REMOVEAPP_2X);
             buf.putShort(ENDPOINT_APPMANAGER);
@@ -1531,7 +1543,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private byte[] encodePhoneVersion2x(byte os) {
         final short LENGTH_PHONEVERSION = 17;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_PHONEVERSION);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_PHONEVERSION);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_PHONEVERSION);
         buf.putShort(ENDPOINT_PHONEVERSION);
@@ -1555,7 +1567,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private byte[] encodePhoneVersion3x(byte os) {
         final short LENGTH_PHONEVERSION3X = 25;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_PHONEVERSION3X);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_PHONEVERSION3X);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_PHONEVERSION3X);
         buf.putShort(ENDPOINT_PHONEVERSION);
@@ -1592,7 +1604,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
     @Override
     public byte[] encodeAppReorder(UUID[] uuids) {
         int length = 2 + uuids.length * LENGTH_UUID;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + length);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + length);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort((short) length);
         buf.putShort(ENDPOINT_APPREORDER);
@@ -1667,7 +1679,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
             length += filename.getBytes().length + 1;
         }
 
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + length);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + length);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(length);
         buf.putShort(ENDPOINT_PUTBYTES);
@@ -1692,7 +1704,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     byte[] encodeUploadChunk(int token, byte[] buffer, int size) {
         final short LENGTH_UPLOADCHUNK = 9;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_UPLOADCHUNK + size);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_UPLOADCHUNK + size);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort((short) (LENGTH_UPLOADCHUNK + size));
         buf.putShort(ENDPOINT_PUTBYTES);
@@ -1705,7 +1717,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     byte[] encodeUploadCommit(int token, int crc) {
         final short LENGTH_UPLOADCOMMIT = 9;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_UPLOADCOMMIT);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_UPLOADCOMMIT);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_UPLOADCOMMIT);
         buf.putShort(ENDPOINT_PUTBYTES);
@@ -1717,7 +1729,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     byte[] encodeUploadComplete(int token) {
         final short LENGTH_UPLOADCOMPLETE = 5;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_UPLOADCOMPLETE);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_UPLOADCOMPLETE);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_UPLOADCOMPLETE);
         buf.putShort(ENDPOINT_PUTBYTES);
@@ -1728,7 +1740,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     byte[] encodeUploadCancel(int token) {
         final short LENGTH_UPLOADCANCEL = 5;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_UPLOADCANCEL);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_UPLOADCANCEL);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_UPLOADCANCEL);
         buf.putShort(ENDPOINT_PUTBYTES);
@@ -1739,7 +1751,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private byte[] encodeSystemMessage(byte systemMessage) {
         final short LENGTH_SYSTEMMESSAGE = 2;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_SYSTEMMESSAGE);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_SYSTEMMESSAGE);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_SYSTEMMESSAGE);
         buf.putShort(ENDPOINT_SYSTEMMESSAGE);
@@ -1764,7 +1776,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     byte[] encodeAppRefresh(int index) {
         final short LENGTH_REFRESHAPP = 5;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_REFRESHAPP);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_REFRESHAPP);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_REFRESHAPP);
         buf.putShort(ENDPOINT_APPMANAGER);
@@ -1774,8 +1786,12 @@ public class PebbleProtocol extends GBDeviceProtocol {
         return buf.array();
     }
 
+    byte[] encodeDatalogReply(byte handle, boolean ack) {
+        return encodeDatalog(handle, ack ? DATALOG_ACK : DATALOG_NACK);
+    }
+
     private byte[] encodeDatalog(byte handle, byte reply) {
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + 2);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + 2);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort((short) 2);
         buf.putShort(ENDPOINT_DATALOG);
@@ -1789,7 +1805,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         if (uuid == null) {
             uuid = currentRunningApp;
         }
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + 18); // +ACK
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + 18); // +ACK
 
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort((short) 18);
@@ -1804,7 +1820,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private byte[] encodePing(byte command, int cookie) {
         final short LENGTH_PING = 5;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_PING);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_PING);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_PING);
         buf.putShort(ENDPOINT_PING);
@@ -1816,7 +1832,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     byte[] encodeEnableAppLogs(boolean enable) {
         final short LENGTH_APPLOGS = 1;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_APPLOGS);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + LENGTH_APPLOGS);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort(LENGTH_APPLOGS);
         buf.putShort(ENDPOINT_APPLOGS);
@@ -1953,7 +1969,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
             }
         }
 
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + length);
+        ByteBuffer buf = mFramePool.obtain(LENGTH_PREFIX + length);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort((short) length);
         buf.putShort(endpoint); // 48 or 49
@@ -2321,6 +2337,14 @@ public class PebbleProtocol extends GBDeviceProtocol {
                     } else {
                         devEvtsDataLogging = datalogSession.handleMessage(buf, length - 10);
                     }
+                    if (devEvtsDataLogging == DatalogSession.REPLY_LATER) {
+                        if (items_left == 0) {
+                            // the session is drained, do not wait for more data to store it
+                            SampleIngestion.getInstance().flush();
+                        }
+                        LOG.info("ACK or NACK will be sent when the data is stored");
+                        return new GBDeviceEvent[]{null};
+                    }
                 }
                 break;
             case DATALOG_OPENSESSION:
@@ -2345,6 +2369,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
                     } else {
                         mDatalogSessions.put(id, new DatalogSession(id, uuid, timestamp, log_tag, item_type, item_size));
                     }
+                    mDatalogSessions.get(id).replySender = mDatalogReplySender;
                 }
                 devEvtsDataLogging = new GBDeviceEvent[]{null};
                 break;
@@ -2412,7 +2437,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         if (command == 0x01) { //session setup
             int replLenght = 7;
             byte replStatus = 5; // 5 = disabled,  change to 0 to send success
-            ByteBuffer repl = ByteBuffer.allocate(LENGTH_PREFIX + replLenght);
+            ByteBuffer repl = mFramePool.obtain(LENGTH_PREFIX + replLenght);
             repl.order(ByteOrder.BIG_ENDIAN);
             repl.putShort((short) replLenght);
             repl.putShort(ENDPOINT_VOICECONTROL);
@@ -2729,6 +2754,10 @@ public class PebbleProtocol extends GBDeviceProtocol {
         mAlwaysACKPebbleKit = alwaysACKPebbleKit;
     }
 
+    void setDatalogReplySender(DatalogSession.ReplySender replySender) {
+        mDatalogReplySender = replySender;
+    }
+
     void setEnablePebbleKit(boolean enablePebbleKit) {
         LOG.info("setting enable PebbleKit support to " + enablePebbleKit);
         mEnablePebbleKit = enablePebbleKit;
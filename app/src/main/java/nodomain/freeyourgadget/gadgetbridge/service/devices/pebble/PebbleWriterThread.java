@@ -0,0 +1,218 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes Pebble Protocol frames to the output stream from a dedicated thread, so that
+ * callers do not block on the socket.
+ *
+ * The queue is bounded; when it is full, #enqueue(byte[]) blocks the caller until the
+ * writer caught up. That is the only pacing on this side: the socket blocks the writer
+ * while the watch does not take more data, and uploads already wait for the watch's
+ * PutBytes ACK after every chunk. Frames that are queued at the same time are coalesced
+ * into a single stream write (Pebble Protocol frames carry their own length, so the
+ * receiver can split them again). Optionally, a minimum interval between two stream
+ * writes can be configured, for watches that cannot keep up.
+ * <p/>
+ * Frames are never dropped silently: #enqueue(byte[]) reports whether the frame was
+ * queued, and frames that could not be written because of a write error or #quit() are
+ * logged.
+ */
+class PebbleWriterThread extends Thread {
+    private static final Logger LOG = LoggerFactory.getLogger(PebbleWriterThread.class);
+
+    private static final int QUEUE_CAPACITY = 64;
+    // how often a blocked #enqueue(byte[]) checks whether the writer quit meanwhile
+    private static final long QUIT_CHECK_MILLIS = 500;
+    // the largest message size the Pebble firmware accepts
+    private static final int MAX_COALESCED_BYTES = 2048;
+    private static final int TCP_FRAMING_BYTES = 8;
+    private static final byte[] QUIT = new byte[0];
+
+    private final BlockingQueue<byte[]> mQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final OutputStream mOutStream;
+    private final PebbleFramePool mFramePool;
+    private final boolean mIsTCP;
+    private final int mMinWriteIntervalMillis;
+
+    private byte[] mBuffer = new byte[MAX_COALESCED_BYTES + TCP_FRAMING_BYTES];
+    private volatile boolean mQuit = false;
+
+    private volatile long mFramesWritten;
+    private volatile long mBytesWritten;
+    private volatile long mStreamWrites;
+
+    PebbleWriterThread(OutputStream outStream, PebbleFramePool framePool, boolean isTCP, int minWriteIntervalMillis) {
+        super("Gadgetbridge Pebble Writer");
+        mOutStream = outStream;
+        mFramePool = framePool;
+        mIsTCP = isTCP;
+        mMinWriteIntervalMillis = minWriteIntervalMillis;
+    }
+
+    /**
+     * Queues the given frame for writing. While the queue is full, this blocks the caller
+     * (e.g. an app installation or the thread handling incoming messages) until the writer
+     * caught up, however long that takes.
+     *
+     * @return false if the frame will not be written, because the writer quit, failed
+     * writing, or the calling thread was interrupted
+     */
+    boolean enqueue(byte[] bytes) {
+        try {
+            while (!mQuit) {
+                if (mQueue.offer(bytes, QUIT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // quit() may have discarded it meanwhile
+                    return !mQuit;
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("interrupted while queueing " + bytes.length + " bytes");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * Stops the writer. Frames that are still queued are discarded, as the connection is
+     * going away.
+     */
+    void quit() {
+        mQuit = true;
+        discardQueued("writer quit");
+        mQueue.offer(QUIT);
+    }
+
+    private void discardQueued(String reason) {
+        int discarded = 0;
+        byte[] bytes;
+        while ((bytes = mQueue.poll()) != null) {
+            if (bytes != QUIT) {
+                discarded++;
+            }
+        }
+        if (discarded > 0) {
+            LOG.warn(reason + ", discarded " + discarded + " queued frames");
+        }
+    }
+
+    long getFramesWritten() {
+        return mFramesWritten;
+    }
+
+    long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    long getStreamWrites() {
+        return mStreamWrites;
+    }
+
+    @Override
+    public void run() {
+        while (!mQuit) {
+            byte[] bytes;
+            try {
+                bytes = mQueue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (bytes == QUIT) {
+                break;
+            }
+
+            int length = appendFrame(0, bytes);
+            int frames = 1;
+            // coalesce whatever else is waiting, as long as it fits
+            byte[] next;
+            while ((next = mQueue.peek()) != null && next != QUIT
+                    && length + getFramedLength(next) <= MAX_COALESCED_BYTES) {
+                mQueue.poll();
+                length = appendFrame(length, next);
+                frames++;
+            }
+
+            try {
+                mOutStream.write(mBuffer, 0, length);
+                mOutStream.flush();
+                mFramesWritten += frames;
+                mBytesWritten += length;
+                mStreamWrites++;
+            } catch (IOException e) {
+                // the connection is broken, do not pretend to write anything after this
+                LOG.error("Error writing " + frames + " frames: " + e.getMessage());
+                mQuit = true;
+                discardQueued("writer failed");
+                break;
+            }
+
+            if (mMinWriteIntervalMillis > 0) {
+                try {
+                    Thread.sleep(mMinWriteIntervalMillis);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+        LOG.info("writer quits after " + mFramesWritten + " frames, " + mBytesWritten + " bytes in " + mStreamWrites + " writes");
+    }
+
+    private int getFramedLength(byte[] bytes) {
+        return mIsTCP ? bytes.length + TCP_FRAMING_BYTES : bytes.length;
+    }
+
+    /**
+     * Appends the given frame at the given offset of the write buffer, growing the
+     * buffer if needed, and returns the new length. The frame is returned to the pool
+     * afterwards.
+     */
+    private int appendFrame(int offset, byte[] bytes) {
+        int newLength = offset + getFramedLength(bytes);
+        if (newLength > mBuffer.length) {
+            byte[] newBuffer = new byte[newLength];
+            System.arraycopy(mBuffer, 0, newBuffer, 0, offset);
+            mBuffer = newBuffer;
+        }
+        if (mIsTCP) {
+            offset = putShort(offset, 0xfeed);
+            offset = putShort(offset, 1);
+            offset = putShort(offset, bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, offset, bytes.length);
+            offset = putShort(offset + bytes.length, 0xbeef);
+        } else {
+            System.arraycopy(bytes, 0, mBuffer, offset, bytes.length);
+            offset += bytes.length;
+        }
+        mFramePool.release(bytes);
+        return offset;
+    }
+
+    private int putShort(int offset, int value) {
+        mBuffer[offset] = (byte) (value >> 8);
+        mBuffer[offset + 1] = (byte) value;
+        return offset + 2;
+    }
+}
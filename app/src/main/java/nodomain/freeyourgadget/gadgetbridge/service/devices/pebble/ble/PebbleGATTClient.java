@@ -30,7 +30,7 @@ import java.lang.reflect.Method;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolLog;
 
 import static android.bluetooth.BluetoothGattCharacteristic.FORMAT_UINT16;
 import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE;
@@ -39,6 +39,7 @@ import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE;
 class PebbleGATTClient extends BluetoothGattCallback {
 
     private static final Logger LOG = LoggerFactory.getLogger(PebbleGATTClient.class);
+    private static final ProtocolLog PLOG = new ProtocolLog(LOG, "pebble-le");
 
     private static final UUID SERVICE_UUID = UUID.fromString("0000fed9-0000-1000-8000-00805f9b34fb");
     private static final UUID CONNECTIVITY_CHARACTERISTIC = UUID.fromString("00000001-328E-0FBB-C642-1AA6699BDADA");
@@ -73,7 +74,7 @@ class PebbleGATTClient extends BluetoothGattCallback {
             LOG.info("Pebble requested MTU: " + newMTU);
             mPebbleLESupport.setMTU(newMTU);
         } else {
-            LOG.info("onCharacteristicChanged()" + characteristic.getUuid().toString() + " " + GB.hexdump(characteristic.getValue(), 0, -1));
+            PLOG.received(characteristic.getUuid(), characteristic.getValue());
         }
     }
 
@@ -84,7 +85,7 @@ class PebbleGATTClient extends BluetoothGattCallback {
 
         LOG.info("onCharacteristicRead() status = " + status);
         if (status == BluetoothGatt.GATT_SUCCESS) {
-            LOG.info("onCharacteristicRead()" + characteristic.getUuid().toString() + " " + GB.hexdump(characteristic.getValue(), 0, -1));
+            PLOG.received(characteristic.getUuid(), characteristic.getValue());
 
             if (oldPebble) {
                 subscribeToConnectivity(gatt);
@@ -0,0 +1,180 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.ble;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Sliding window sender for PPoGATT data packets.
+ *
+ * Up to windowSize packets may be unacknowledged at a time. ACKs from the watch are
+ * cumulative, i.e. an ACK for serial n acknowledges all packets up to and including n.
+ * If no ACK arrives within #RETRANSMIT_TIMEOUT_MILLIS, all unacknowledged packets are sent
+ * again. Packet buffers are kept per serial and reused, so that sending does not allocate.
+ *
+ * If the watch does not acknowledge the packets after #MAX_RETRANSMITS retransmits, the
+ * window fails with a LinkFailedException instead of skipping the packets, because the watch
+ * would be missing data and expect other serials. Only a reset makes it usable again.
+ */
+class PebbleGATTSendWindow {
+    private static final Logger LOG = LoggerFactory.getLogger(PebbleGATTSendWindow.class);
+
+    static final int MAX_WINDOW_SIZE = 25; // what we announce in the reset complete packet
+    private static final int SERIAL_COUNT = 32; // serials are 5 bits
+    private static final int MAX_PACKET_SIZE = 512 - 3 + 1; // max MTU minus ATT header plus our header
+    private static final long RETRANSMIT_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_RETRANSMITS = 5;
+
+    private final PebbleGATTServer mPebbleGATTServer;
+    private final int mWindowSize;
+    private final byte[][] mPackets = new byte[SERIAL_COUNT][];
+    private final int[] mPacketLengths = new int[SERIAL_COUNT];
+
+    private int mNextSerial = 0;
+    private int mOldestUnackedSerial = 0;
+    private int mUnackedCount = 0;
+    private long mLastAckMillis;
+    private int mRetransmits = 0;
+    private boolean mFailed = false;
+
+    private long mPacketsSent;
+    private long mPacketsRetransmitted;
+
+    PebbleGATTSendWindow(PebbleGATTServer pebbleGATTServer, int windowSize) {
+        mPebbleGATTServer = pebbleGATTServer;
+        mWindowSize = Math.max(1, Math.min(windowSize, MAX_WINDOW_SIZE));
+    }
+
+    /**
+     * Sends the given payload as one data packet, blocking while the window is full.
+     */
+    synchronized void send(byte[] payload, int offset, int length) throws InterruptedException, LinkFailedException {
+        checkNotFailed();
+        while (mUnackedCount >= mWindowSize) {
+            long waitMillis = mLastAckMillis + RETRANSMIT_TIMEOUT_MILLIS - System.currentTimeMillis();
+            if (waitMillis > 0) {
+                wait(waitMillis);
+            } else {
+                retransmit();
+            }
+        }
+
+        int serial = mNextSerial;
+        byte[] packet = mPackets[serial];
+        if (packet == null) {
+            packet = new byte[MAX_PACKET_SIZE];
+            mPackets[serial] = packet;
+        }
+        packet[0] = (byte) ((serial << 3) & 0xff);
+        System.arraycopy(payload, offset, packet, 1, length);
+        mPacketLengths[serial] = length + 1;
+
+        if (mUnackedCount == 0) {
+            mLastAckMillis = System.currentTimeMillis();
+        }
+        mUnackedCount++;
+        mNextSerial = (serial + 1) % SERIAL_COUNT;
+
+        mPebbleGATTServer.sendDataToPebble(packet, mPacketLengths[serial]);
+        mPacketsSent++;
+    }
+
+    /**
+     * Blocks until all pending packets have been acknowledged, retransmitting them on timeout.
+     */
+    synchronized void awaitAcks() throws InterruptedException, LinkFailedException {
+        checkNotFailed();
+        while (mUnackedCount > 0) {
+            long waitMillis = mLastAckMillis + RETRANSMIT_TIMEOUT_MILLIS - System.currentTimeMillis();
+            if (waitMillis > 0) {
+                wait(waitMillis);
+            } else {
+                retransmit();
+            }
+        }
+    }
+
+    synchronized void onAck(int serial) {
+        if (mUnackedCount == 0) {
+            LOG.warn("got ACK for serial " + serial + " but nothing is pending");
+            return;
+        }
+        int acked = ((serial - mOldestUnackedSerial + SERIAL_COUNT) % SERIAL_COUNT) + 1;
+        if (acked > mUnackedCount) {
+            LOG.warn("got ACK for serial " + serial + " which is not pending, ignoring");
+            return;
+        }
+        mOldestUnackedSerial = (serial + 1) % SERIAL_COUNT;
+        mUnackedCount -= acked;
+        mLastAckMillis = System.currentTimeMillis();
+        mRetransmits = 0;
+        notifyAll();
+    }
+
+    /**
+     * Forgets all pending packets and starts over with serial 0, as after a PPoGATT reset.
+     */
+    synchronized void reset() {
+        mNextSerial = 0;
+        mOldestUnackedSerial = 0;
+        mUnackedCount = 0;
+        mRetransmits = 0;
+        mFailed = false;
+        notifyAll();
+    }
+
+    synchronized long getPacketsSent() {
+        return mPacketsSent;
+    }
+
+    synchronized long getPacketsRetransmitted() {
+        return mPacketsRetransmitted;
+    }
+
+    private void checkNotFailed() throws LinkFailedException {
+        if (mFailed) {
+            throw new LinkFailedException("no ACK for " + mUnackedCount + " packets starting with serial " + mOldestUnackedSerial);
+        }
+    }
+
+    private void retransmit() throws LinkFailedException {
+        if (++mRetransmits > MAX_RETRANSMITS) {
+            LOG.warn("no ACK after " + MAX_RETRANSMITS + " retransmits of " + mUnackedCount + " packets, giving up");
+            mFailed = true;
+            checkNotFailed();
+        }
+        LOG.info("ACK timeout, retransmitting " + mUnackedCount + " packets starting with serial " + mOldestUnackedSerial);
+        for (int i = 0; i < mUnackedCount; i++) {
+            int serial = (mOldestUnackedSerial + i) % SERIAL_COUNT;
+            mPebbleGATTServer.sendDataToPebble(mPackets[serial], mPacketLengths[serial]);
+            mPacketsRetransmitted++;
+        }
+        mLastAckMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Thrown when the watch stopped acknowledging packets, the link must be reset.
+     */
+    static class LinkFailedException extends IOException {
+        LinkFailedException(String message) {
+            super(message);
+        }
+    }
+}
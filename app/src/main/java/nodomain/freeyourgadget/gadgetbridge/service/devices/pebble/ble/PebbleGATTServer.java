@@ -43,6 +43,7 @@ class PebbleGATTServer extends BluetoothGattServerCallback {
     private Context mContext;
     private BluetoothGattServer mBluetoothGattServer;
     private BluetoothGattCharacteristic writeCharacteristics;
+    private byte[] mNotifyBuffer = new byte[0];
 
     PebbleGATTServer(PebbleLESupport pebbleLESupport, Context context, BluetoothDevice btDevice) {
         mContext = context;
@@ -71,8 +72,21 @@ class PebbleGATTServer extends BluetoothGattServerCallback {
     }
 
     synchronized void sendDataToPebble(byte[] data) {
-        //LOG.info("send data to pebble " + GB.hexdump(data, 0, -1));
-        writeCharacteristics.setValue(data.clone());
+        sendDataToPebble(data, data.length);
+    }
+
+    /**
+     * Sends the first length bytes of data. The data is copied, so the caller may reuse the array.
+     */
+    synchronized void sendDataToPebble(byte[] data, int length) {
+        //LOG.info("send data to pebble " + GB.hexdump(data, 0, length));
+        // the value is only read during notifyCharacteristicChanged(), so one buffer per
+        // packet size is enough; all packets but the last of a frame have the same size
+        if (mNotifyBuffer.length != length) {
+            mNotifyBuffer = new byte[length];
+        }
+        System.arraycopy(data, 0, mNotifyBuffer, 0, length);
+        writeCharacteristics.setValue(mNotifyBuffer);
 
         mBluetoothGattServer.notifyCharacteristicChanged(mBtDevice, writeCharacteristics, false);
     }
@@ -121,12 +135,8 @@ class PebbleGATTServer extends BluetoothGattServerCallback {
         int command = header & 7;
         int serial = header >> 3;
         if (command == 0x01) {
-            LOG.info("got ACK for serial = " + serial);
-            if (mPebbleLESupport.mPPAck != null) {
-                mPebbleLESupport.mPPAck.countDown();
-            } else {
-                LOG.warn("mPPAck countdownlatch is not present but it probably should");
-            }
+            LOG.debug("got ACK for serial = " + serial);
+            mPebbleLESupport.handleAck(serial);
         }
         if (command == 0x02) { // some request?
             LOG.info("got command 0x02");
@@ -25,7 +25,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
-import java.util.concurrent.CountDownLatch;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 
@@ -39,8 +38,9 @@ public class PebbleLESupport {
     private PipedOutputStream mPipedOutputStream;
     private int mMTU = 20;
     private int mMTULimit = Integer.MAX_VALUE;
+    private int mWindowSize = 4;
+    private volatile PebbleGATTSendWindow mSendWindow;
     boolean mIsConnected = false;
-    CountDownLatch mPPAck;
 
     public PebbleLESupport(Context context, final BluetoothDevice btDevice, PipedInputStream pipedInputStream, PipedOutputStream pipedOutputStream) throws IOException {
         mBtDevice = btDevice;
@@ -55,6 +55,7 @@ public class PebbleLESupport {
         mMTULimit = GBApplication.getPrefs().getInt("pebble_mtu_limit", 512);
         mMTULimit = Math.max(mMTULimit, 20);
         mMTULimit = Math.min(mMTULimit, 512);
+        mWindowSize = GBApplication.getPrefs().getInt("pebble_le_window_size", 4);
 
         mPebbleGATTServer = new PebbleGATTServer(this, context, mBtDevice);
         if (mPebbleGATTServer.initialize()) {
@@ -101,9 +102,27 @@ public class PebbleLESupport {
         }
     }
 
+    /**
+     * Closes the connection from the PipeReader thread, which cannot call #close() itself
+     * because that waits for the thread to finish. Closing the pipe makes PebbleIoThread
+     * notice the lost connection and reconnect.
+     */
+    private void closeAsync() {
+        new Thread("Pebble LE close") {
+            @Override
+            public void run() {
+                close();
+            }
+        }.start();
+    }
+
     synchronized void createPipedInputReader() {
         if (mPipeReader == null) {
+            mSendWindow = new PebbleGATTSendWindow(mPebbleGATTServer, mWindowSize);
             mPipeReader = new PipeReader();
+        } else {
+            // the watch reset the PPoGATT session, serials start over
+            mSendWindow.reset();
         }
         if (!mPipeReader.isAlive()) {
             mPipeReader.start();
@@ -126,9 +145,16 @@ public class PebbleLESupport {
         mMTU = Math.min(mtu, mMTULimit);
     }
 
-    private class PipeReader extends Thread {
-        int mmSequence = 0;
+    void handleAck(int serial) {
+        PebbleGATTSendWindow sendWindow = mSendWindow;
+        if (sendWindow != null) {
+            sendWindow.onAck(serial);
+        } else {
+            LOG.warn("got ACK for serial " + serial + " before anything was sent");
+        }
+    }
 
+    private class PipeReader extends Thread {
         @Override
         public void run() {
             byte[] buf = new byte[8192];
@@ -153,27 +179,30 @@ public class PebbleLESupport {
 
                     int payloadToSend = bytesRead + 4;
                     int srcPos = 0;
-                    mPPAck = new CountDownLatch(1);
                     while (payloadToSend > 0) {
                         int chunkSize = (payloadToSend < (mMTU - 4)) ? payloadToSend : mMTU - 4;
-                        byte[] outBuf = new byte[chunkSize + 1];
-                        outBuf[0] = (byte) ((mmSequence++ << 3) & 0xff);
-                        System.arraycopy(buf, srcPos, outBuf, 1, chunkSize);
-                        mPebbleGATTServer.sendDataToPebble(outBuf);
+                        mSendWindow.send(buf, srcPos, chunkSize);
                         srcPos += chunkSize;
                         payloadToSend -= chunkSize;
                     }
 
-                    mPPAck.await();
-                    mPPAck = null;
+                    // keep the window open while more frames are waiting, otherwise make
+                    // sure the last packets get retransmitted if their ACK gets lost
+                    if (mPipedInputStream.available() == 0) {
+                        mSendWindow.awaitAcks();
+                    }
 
+                } catch (PebbleGATTSendWindow.LinkFailedException e) {
+                    LOG.warn("closing the connection: " + e.getMessage());
+                    closeAsync();
+                    break;
                 } catch (IOException | InterruptedException e) {
                     LOG.info(e.getMessage());
                     Thread.currentThread().interrupt();
                     break;
                 }
             }
-            LOG.info("Pipereader thread shut down");
+            LOG.info("Pipereader thread shut down after sending " + mSendWindow.getPacketsSent() + " packets, " + mSendWindow.getPacketsRetransmitted() + " retransmitted");
         }
 
         @Override
@@ -0,0 +1,96 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * Table driven CRC-16 with the polynomial 0x1021 and initial value 0xffff
+ * (CRC-16/CCITT-FALSE), as used for Mi Band and Huami firmware.
+ * Longer input is processed eight bytes at a time (slicing-by-8).
+ *
+ * @see CheckSums#getCRC16(byte[])
+ */
+public class CRC16 implements Checksum {
+    private static final int[][] TABLES = createTables(8);
+
+    private int crc = 0xffff;
+
+    @Override
+    public void update(int b) {
+        crc = ((crc << 8) ^ TABLES[0][((crc >>> 8) ^ b) & 0xff]) & 0xffff;
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int[] t0 = TABLES[0];
+        int[] t1 = TABLES[1];
+        int[] t2 = TABLES[2];
+        int[] t3 = TABLES[3];
+        int[] t4 = TABLES[4];
+        int[] t5 = TABLES[5];
+        int[] t6 = TABLES[6];
+        int[] t7 = TABLES[7];
+        int c = crc;
+        int end = off + len;
+        for (; end - off >= 8; off += 8) {
+            c = t7[((c >>> 8) ^ b[off]) & 0xff]
+                    ^ t6[(c ^ b[off + 1]) & 0xff]
+                    ^ t5[b[off + 2] & 0xff]
+                    ^ t4[b[off + 3] & 0xff]
+                    ^ t3[b[off + 4] & 0xff]
+                    ^ t2[b[off + 5] & 0xff]
+                    ^ t1[b[off + 6] & 0xff]
+                    ^ t0[b[off + 7] & 0xff];
+        }
+        for (; off < end; off++) {
+            c = ((c << 8) ^ t0[((c >>> 8) ^ b[off]) & 0xff]) & 0xffff;
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return crc;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffff;
+    }
+
+    /**
+     * Table k contains the CRC of each byte value followed by k zero bytes.
+     */
+    private static int[][] createTables(int count) {
+        int[][] tables = new int[count][256];
+        for (int i = 0; i < 256; i++) {
+            int c = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                c = (c & 0x8000) != 0 ? (c << 1) ^ 0x1021 : c << 1;
+            }
+            tables[0][i] = c & 0xffff;
+        }
+        for (int k = 1; k < count; k++) {
+            for (int i = 0; i < 256; i++) {
+                int c = tables[k - 1][i];
+                tables[k][i] = ((c << 8) ^ tables[0][c >>> 8]) & 0xffff;
+            }
+        }
+        return tables;
+    }
+}
@@ -0,0 +1,86 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * Table driven CRC-8 with the reflected polynomial 0x8c (Dallas/Maxim), initial value 0.
+ * Longer input is processed four bytes at a time (slicing-by-4).
+ *
+ * @see CheckSums#getCRC8(byte[])
+ */
+public class CRC8 implements Checksum {
+    private static final int[][] TABLES = createTables(4);
+
+    private int crc;
+
+    @Override
+    public void update(int b) {
+        crc = TABLES[0][(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int[] t0 = TABLES[0];
+        int[] t1 = TABLES[1];
+        int[] t2 = TABLES[2];
+        int[] t3 = TABLES[3];
+        int c = crc;
+        int end = off + len;
+        for (; end - off >= 4; off += 4) {
+            c = t3[(c ^ b[off]) & 0xff]
+                    ^ t2[b[off + 1] & 0xff]
+                    ^ t1[b[off + 2] & 0xff]
+                    ^ t0[b[off + 3] & 0xff];
+        }
+        for (; off < end; off++) {
+            c = t0[(c ^ b[off]) & 0xff];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return crc;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0;
+    }
+
+    /**
+     * Table k contains the CRC of each byte value followed by k zero bytes.
+     */
+    private static int[][] createTables(int count) {
+        int[][] tables = new int[count][256];
+        for (int i = 0; i < 256; i++) {
+            int c = i;
+            for (int bit = 0; bit < 8; bit++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ 0x8c : c >>> 1;
+            }
+            tables[0][i] = c;
+        }
+        for (int k = 1; k < count; k++) {
+            for (int i = 0; i < 256; i++) {
+                tables[k][i] = tables[0][tables[k - 1][i]];
+            }
+        }
+        return tables;
+    }
+}
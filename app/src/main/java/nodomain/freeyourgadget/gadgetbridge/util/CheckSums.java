@@ -16,45 +16,53 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.zip.Checksum;
 
 public class CheckSums {
     public static int getCRC8(byte[] seq) {
-        int len = seq.length;
-        int i = 0;
-        byte crc = 0x00;
-
-        while (len-- > 0) {
-            byte extract = seq[i++];
-            for (byte tempI = 8; tempI != 0; tempI--) {
-                byte sum = (byte) ((crc & 0xff) ^ (extract & 0xff));
-                sum = (byte) ((sum & 0xff) & 0x01);
-                crc = (byte) ((crc & 0xff) >>> 1);
-                if (sum != 0) {
-                    crc = (byte) ((crc & 0xff) ^ 0x8c);
-                }
-                extract = (byte) ((extract & 0xff) >>> 1);
-            }
-        }
-        return (crc & 0xff);
+        CRC8 crc = new CRC8();
+        crc.update(seq, 0, seq.length);
+        return (int) crc.getValue();
     }
 
-    //thanks http://stackoverflow.com/questions/13209364/convert-c-crc16-to-java-crc16
     public static int getCRC16(byte[] seq) {
-        int crc = 0xFFFF;
+        return getCRC16(seq, 0, seq.length);
+    }
+
+    public static int getCRC16(byte[] seq, int offset, int length) {
+        CRC16 crc = new CRC16();
+        crc.update(seq, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Calculates the CRC-16 of the given stream without loading it into memory.
+     * The stream is read to its end, but not closed.
+     */
+    public static int getCRC16(InputStream in) throws IOException {
+        CRC16 crc = new CRC16();
+        update(crc, in);
+        return (int) crc.getValue();
+    }
 
-        for (int j = 0; j < seq.length; j++) {
-            crc = ((crc >>> 8) | (crc << 8)) & 0xffff;
-            crc ^= (seq[j] & 0xff);//byte to int, trunc sign
-            crc ^= ((crc & 0xff) >> 4);
-            crc ^= (crc << 12) & 0xffff;
-            crc ^= ((crc & 0xFF) << 5) & 0xffff;
+    /**
+     * Feeds the remaining bytes of the given stream into the checksum.
+     * The stream is not closed.
+     *
+     * @return the number of bytes read
+     */
+    public static long update(Checksum checksum, InputStream in) throws IOException {
+        byte[] buf = new byte[8192];
+        long total = 0;
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            checksum.update(buf, 0, read);
+            total += read;
         }
-        crc &= 0xffff;
-        return crc;
+        return total;
     }
 
     public static void main(String[] args) throws IOException {
@@ -63,25 +71,8 @@ public class CheckSums {
         }
         for (String name : args) {
             try (FileInputStream in = new FileInputStream(name)) {
-                byte[] bytes = readAll(in, 1000 * 1000);
-                System.out.println(name + " : " + getCRC16(bytes));
-            }
-        }
-    }
-
-    // copy&paste of FileUtils.readAll() to have it free from Android dependencies
-    private static byte[] readAll(InputStream in, long maxLen) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(8192, in.available()));
-        byte[] buf = new byte[8192];
-        int read;
-        long totalRead = 0;
-        while ((read = in.read(buf)) > 0) {
-            out.write(buf, 0, read);
-            totalRead += read;
-            if (totalRead > maxLen) {
-                throw new IOException("Too much data to read into memory. Got already " + totalRead);
+                System.out.println(name + " : " + getCRC16(in));
             }
         }
-        return out.toByteArray();
     }
 }
@@ -28,8 +28,11 @@ import org.slf4j.LoggerFactory;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -71,6 +74,16 @@ public class DeviceHelper {
 
     // lazily created
     private List<DeviceCoordinator> coordinators;
+    /**
+     * The coordinators of the device types that are handled by a single coordinator. This
+     * relies on coordinators only supporting devices of their own type.
+     */
+    private Map<DeviceType, DeviceCoordinator> coordinatorsByType;
+    /**
+     * The coordinators resolved for devices of the other types, by device address
+     */
+    private final Map<String, DeviceCoordinator> coordinatorsByAddress = new HashMap<>();
+    private UnknownDeviceCoordinator unknownCoordinator;
 
     public DeviceType getSupportedType(GBDeviceCandidate candidate) {
         for (DeviceCoordinator coordinator : getAllCoordinators()) {
@@ -83,12 +96,7 @@ public class DeviceHelper {
     }
 
     public boolean getSupportedType(GBDevice device) {
-        for (DeviceCoordinator coordinator : getAllCoordinators()) {
-            if (coordinator.supports(device)) {
-                return true;
-            }
-        }
-        return false;
+        return !(getCoordinator(device) instanceof UnknownDeviceCoordinator);
     }
 
     public GBDevice findAvailableDevice(String deviceAddress, Context context) {
@@ -166,28 +174,66 @@ public class DeviceHelper {
                     return coord;
                 }
             }
+            return getUnknownCoordinator();
         }
-        return new UnknownDeviceCoordinator();
     }
 
+    /**
+     * Returns the coordinator for the given device. This is called very often, so the
+     * coordinator is looked up by device type, or else by the device address, before
+     * falling back to asking all coordinators.
+     */
     public DeviceCoordinator getCoordinator(GBDevice device) {
         synchronized (this) {
-            for (DeviceCoordinator coord : getAllCoordinators()) {
+            getAllCoordinators();
+            DeviceCoordinator coordinator = coordinatorsByType.get(device.getType());
+            if (coordinator == null) {
+                coordinator = coordinatorsByAddress.get(device.getAddress());
+            }
+            if (coordinator != null && coordinator.supports(device)) {
+                return coordinator;
+            }
+            for (DeviceCoordinator coord : coordinators) {
                 if (coord.supports(device)) {
+                    coordinatorsByAddress.put(device.getAddress(), coord);
                     return coord;
                 }
             }
+            return getUnknownCoordinator();
         }
-        return new UnknownDeviceCoordinator();
     }
 
     public synchronized List<DeviceCoordinator> getAllCoordinators() {
         if (coordinators == null) {
             coordinators = createCoordinators();
+            coordinatorsByType = createCoordinatorsByType(coordinators);
         }
         return coordinators;
     }
 
+    private synchronized DeviceCoordinator getUnknownCoordinator() {
+        if (unknownCoordinator == null) {
+            unknownCoordinator = new UnknownDeviceCoordinator();
+        }
+        return unknownCoordinator;
+    }
+
+    private Map<DeviceType, DeviceCoordinator> createCoordinatorsByType(List<DeviceCoordinator> coordinators) {
+        Map<DeviceType, DeviceCoordinator> result = new EnumMap<>(DeviceType.class);
+        Set<DeviceType> sharedTypes = new LinkedHashSet<>();
+        for (DeviceCoordinator coordinator : coordinators) {
+            DeviceType deviceType = coordinator.getDeviceType();
+            if (result.put(deviceType, coordinator) != null) {
+                sharedTypes.add(deviceType);
+            }
+        }
+        for (DeviceType deviceType : sharedTypes) {
+            // e.g. Mi Band 2 and Mi Band HRX, resolved by name
+            result.remove(deviceType);
+        }
+        return result;
+    }
+
     private List<DeviceCoordinator> createCoordinators() {
         List<DeviceCoordinator> result = new ArrayList<>();
         result.add(new AmazfitBipCoordinator()); // Note: must come before MiBand2 because detection is hacky, atm
@@ -209,7 +255,7 @@ public class DeviceHelper {
 
     private List<GBDevice> getDatabaseDevices() {
         List<GBDevice> result = new ArrayList<>();
-        try (DBHandler lockHandler = GBApplication.acquireDB()) {
+        try (DBHandler lockHandler = GBApplication.acquireDBReadOnly()) {
             List<Device> activeDevices = DBHelper.getActiveDevices(lockHandler.getDaoSession());
             for (Device dbDevice : activeDevices) {
                 GBDevice gbDevice = toGBDevice(dbDevice);
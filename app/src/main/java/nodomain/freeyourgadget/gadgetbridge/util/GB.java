@@ -92,6 +92,7 @@ public class GB {
                 .setOngoing(true);
 
         Intent deviceCommunicationServiceIntent = new Intent(context, DeviceCommunicationService.class);
+        deviceCommunicationServiceIntent.putExtra(GBDevice.EXTRA_DEVICE, device);
         if (connected) {
             deviceCommunicationServiceIntent.setAction(DeviceService.ACTION_DISCONNECT);
             PendingIntent disconnectPendingIntent = PendingIntent.getService(context, 0, deviceCommunicationServiceIntent, PendingIntent.FLAG_ONE_SHOT);
@@ -103,7 +104,6 @@ public class GB {
             }
         } else if (device.getState().equals(GBDevice.State.WAITING_FOR_RECONNECT) || device.getState().equals(GBDevice.State.NOT_CONNECTED)) {
             deviceCommunicationServiceIntent.setAction(DeviceService.ACTION_CONNECT);
-            deviceCommunicationServiceIntent.putExtra(GBDevice.EXTRA_DEVICE, device);
             PendingIntent reconnectPendingIntent = PendingIntent.getService(context, 2, deviceCommunicationServiceIntent, PendingIntent.FLAG_UPDATE_CURRENT);
             builder.addAction(R.drawable.ic_notification, context.getString(R.string.controlcenter_connect), reconnectPendingIntent);
         }
@@ -0,0 +1,254 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+/**
+ * A least-recently-used cache with primitive int keys and O(1) #get(int), #put(int, Object)
+ * and #remove(int). Entries are evicted, least recently used first, as soon as the total
+ * weight of all entries exceeds the maximum weight. By default every entry has a weight of 1,
+ * override #weightOf(int, Object) to account for the size of the values instead.
+ *
+ * All methods are thread-safe.
+ *
+ * @param <V> the value type
+ */
+public class IntLruCache<V> {
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final class Node<V> {
+        final int key;
+        V value;
+        int weight;
+        Node<V> hashNext;
+        Node<V> before;
+        Node<V> after;
+
+        Node(int key) {
+            this.key = key;
+        }
+    }
+
+    private final int maxWeight;
+    private Node<V>[] table;
+    /** sentinel of the circular recency list, head.after is the eldest entry */
+    private final Node<V> head = new Node<>(0);
+
+    private int size;
+    private int weight;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /**
+     * @param maxWeight the maximum total weight of all entries, i.e. the maximum number
+     *                  of entries, unless #weightOf(int, Object) is overridden
+     */
+    public IntLruCache(int maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be > 0");
+        }
+        this.maxWeight = maxWeight;
+        head.before = head;
+        head.after = head;
+        table = newTable(16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] newTable(int capacity) {
+        return (Node<V>[]) new Node[capacity];
+    }
+
+    private static int indexFor(int key, int length) {
+        int h = key * 0x9E3779B9; // spread sequential keys, e.g. timestamps
+        return (h ^ (h >>> 16)) & (length - 1);
+    }
+
+    /**
+     * Returns the weight of the given entry. The weight must not change while
+     * the entry is in the cache.
+     */
+    protected int weightOf(int key, V value) {
+        return 1;
+    }
+
+    /**
+     * Returns the value for the given key and marks it as most recently used,
+     * or returns null if there is no such entry.
+     */
+    public synchronized V get(int key) {
+        Node<V> node = findNode(key);
+        if (node == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        unlink(node);
+        linkLast(node);
+        return node.value;
+    }
+
+    /**
+     * Adds or replaces the value for the given key and marks it as most recently used.
+     * Least recently used entries are evicted if the maximum weight is exceeded.
+     * @return the previous value for the key, or null
+     */
+    public synchronized V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        V previous = null;
+        Node<V> node = findNode(key);
+        if (node != null) {
+            previous = node.value;
+            weight -= node.weight;
+            unlink(node);
+        } else {
+            node = new Node<>(key);
+            int index = indexFor(key, table.length);
+            node.hashNext = table[index];
+            table[index] = node;
+            size++;
+            if (size > table.length * LOAD_FACTOR) {
+                resize();
+            }
+        }
+        node.value = value;
+        node.weight = weightOf(key, value);
+        weight += node.weight;
+        linkLast(node);
+        trimToMaxWeight();
+        return previous;
+    }
+
+    /**
+     * Removes the entry for the given key, if any.
+     * @return the removed value, or null
+     */
+    public synchronized V remove(int key) {
+        Node<V> node = removeNode(key);
+        return node != null ? node.value : null;
+    }
+
+    /**
+     * Removes all entries. The hit, miss and eviction counters are not reset.
+     */
+    public synchronized void clear() {
+        table = newTable(16);
+        head.before = head;
+        head.after = head;
+        size = 0;
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int weight() {
+        return weight;
+    }
+
+    public int getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return getClass().getSimpleName() + "{size=" + size + ", weight=" + weight + "/" + maxWeight
+                + ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+                + ", hitRate=" + hitPercent + "%}";
+    }
+
+    private Node<V> findNode(int key) {
+        for (Node<V> node = table[indexFor(key, table.length)]; node != null; node = node.hashNext) {
+            if (node.key == key) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private Node<V> removeNode(int key) {
+        int index = indexFor(key, table.length);
+        Node<V> previous = null;
+        for (Node<V> node = table[index]; node != null; node = node.hashNext) {
+            if (node.key == key) {
+                if (previous == null) {
+                    table[index] = node.hashNext;
+                } else {
+                    previous.hashNext = node.hashNext;
+                }
+                unlink(node);
+                size--;
+                weight -= node.weight;
+                return node;
+            }
+            previous = node;
+        }
+        return null;
+    }
+
+    private void resize() {
+        Node<V>[] newTable = newTable(table.length * 2);
+        for (Node<V> bucket : table) {
+            Node<V> node = bucket;
+            while (node != null) {
+                Node<V> next = node.hashNext;
+                int index = indexFor(node.key, newTable.length);
+                node.hashNext = newTable[index];
+                newTable[index] = node;
+                node = next;
+            }
+        }
+        table = newTable;
+    }
+
+    private void trimToMaxWeight() {
+        while (weight > maxWeight && head.after != head) {
+            removeNode(head.after.key);
+            evictionCount++;
+        }
+    }
+
+    private void linkLast(Node<V> node) {
+        node.before = head.before;
+        node.after = head;
+        head.before.after = node;
+        head.before = node;
+    }
+
+    private void unlink(Node<V> node) {
+        node.before.after = node.after;
+        node.after.before = node.before;
+        node.before = null;
+        node.after = null;
+    }
+}
@@ -0,0 +1,65 @@
+package nodomain.freeyourgadget.gadgetbridge;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProtocolRingBufferTest extends TestBase {
+
+    @Test
+    public void testDump() throws Exception {
+        ProtocolRingBuffer buffer = new ProtocolRingBuffer(1024);
+        int channel = buffer.registerChannel("test");
+        assertEquals(channel, buffer.registerChannel("test"));
+
+        buffer.record(channel, true, new byte[] { 0x01, 0x02, (byte) 0xff }, 1, 2);
+        buffer.record(channel, false, new byte[] { 0x10 }, 0, 1);
+
+        String[] lines = dump(buffer);
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" test < 02FF"));
+        assertTrue(lines[1], lines[1].endsWith(" test > 10"));
+
+        buffer.clear();
+        assertEquals("", dump(buffer)[0]);
+    }
+
+    @Test
+    public void testOverwriteOldest() throws Exception {
+        ProtocolRingBuffer buffer = new ProtocolRingBuffer(200);
+        int channel = buffer.registerChannel("test");
+        // 18 bytes header + 32 bytes message, only 4 records fit
+        for (int i = 0; i < 10; i++) {
+            byte[] message = new byte[32];
+            message[0] = (byte) i;
+            buffer.record(channel, true, message, 0, message.length);
+        }
+        String[] lines = dump(buffer);
+        assertEquals(4, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertTrue(lines[i], lines[i].contains(" test < 0" + (6 + i) + "00"));
+        }
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        ProtocolRingBuffer buffer = new ProtocolRingBuffer(4096);
+        int channel = buffer.registerChannel("test");
+        byte[] message = new byte[ProtocolRingBuffer.MAX_MESSAGE_LENGTH + 10];
+        buffer.record(channel, true, message, 0, message.length);
+        String[] lines = dump(buffer);
+        assertEquals(1, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" ... (" + message.length + " bytes)"));
+    }
+
+    private String[] dump(ProtocolRingBuffer buffer) throws Exception {
+        StringWriter out = new StringWriter();
+        buffer.dump(out);
+        return out.toString().split("\n");
+    }
+}
@@ -0,0 +1,105 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollups;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the activity amounts calculated from the hourly rollups are the same
+ * as those calculated by ActivityAnalysis from the raw samples.
+ */
+public class ActivityRollupsTest extends TestBase {
+    private static final int START = 1500000000 - 1500000000 % ActivityRollups.HOUR_SECONDS;
+    private static final int DAY_SECONDS = 24 * ActivityRollups.HOUR_SECONDS;
+    private static final int[] RAW_KINDS = {
+            MiBandSampleProvider.TYPE_ACTIVITY,
+            MiBandSampleProvider.TYPE_DEEP_SLEEP,
+            MiBandSampleProvider.TYPE_LIGHT_SLEEP,
+            MiBandSampleProvider.TYPE_NONWEAR,
+    };
+
+    @Test
+    public void testSameAsActivityAnalysis() {
+        GBDevice gbDevice = createDummyGDevice("00:00:00:00:20");
+        MiBandSampleProvider provider = new MiBandSampleProvider(gbDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(gbDevice, daoSession);
+        Random random = new Random(42);
+
+        // mostly one sample per minute, with some gaps of several hours
+        List<MiBandActivitySample> samples = new ArrayList<>();
+        int timestamp = START + 1234;
+        int rawKind = RAW_KINDS[0];
+        while (timestamp < START + 3 * DAY_SECONDS) {
+            if (random.nextInt(20) == 0) {
+                rawKind = RAW_KINDS[random.nextInt(RAW_KINDS.length)];
+            }
+            samples.add(createSample(provider, rawKind, timestamp, random.nextInt(100), user, device));
+            timestamp += random.nextInt(500) == 0 ? random.nextInt(5 * ActivityRollups.HOUR_SECONDS) : 60;
+        }
+        // written in batches in random order, like several fetches would
+        Collections.shuffle(samples, random);
+        for (int i = 0; i < samples.size(); i += 500) {
+            List<MiBandActivitySample> batch = samples.subList(i, Math.min(i + 500, samples.size()));
+            provider.addGBActivitySamples(batch.toArray(new MiBandActivitySample[batch.size()]));
+        }
+        assertSameAmounts(provider);
+
+        // single samples only invalidate the rollups
+        provider.addGBActivitySample(createSample(provider, MiBandSampleProvider.TYPE_DEEP_SLEEP, START + DAY_SECONDS + 30, 0, user, device));
+        provider.addGBActivitySample(createSample(provider, MiBandSampleProvider.TYPE_ACTIVITY, START + 2 * DAY_SECONDS - 1, 10, user, device));
+        assertSameAmounts(provider);
+    }
+
+    private void assertSameAmounts(MiBandSampleProvider provider) {
+        ActivityAnalysis analysis = new ActivityAnalysis();
+        ActivityRollups rollups = provider.getActivityRollups();
+        // whole days with different offsets, and shorter ranges starting right after a gap
+        for (int from = START; from + DAY_SECONDS <= START + 4 * DAY_SECONDS; from += 5 * ActivityRollups.HOUR_SECONDS) {
+            int to = from + DAY_SECONDS - 1;
+            assertAmountsEqual(analysis.calculateActivityAmounts(provider, from, to), rollups.getActivityAmounts(from, to));
+            to = from + 3 * ActivityRollups.HOUR_SECONDS - 1;
+            assertAmountsEqual(analysis.calculateActivityAmounts(provider, from, to), rollups.getActivityAmounts(from, to));
+        }
+    }
+
+    private void assertAmountsEqual(ActivityAmounts expected, ActivityAmounts actual) {
+        assertEquals(expected.getAmounts().size(), actual.getAmounts().size());
+        for (int i = 0; i < expected.getAmounts().size(); i++) {
+            ActivityAmount expectedAmount = expected.getAmounts().get(i);
+            ActivityAmount actualAmount = actual.getAmounts().get(i);
+            assertEquals(expectedAmount.getActivityKind(), actualAmount.getActivityKind());
+            assertEquals(expectedAmount.getTotalSeconds(), actualAmount.getTotalSeconds());
+            assertEquals(expectedAmount.getTotalSteps(), actualAmount.getTotalSteps());
+        }
+    }
+
+    private MiBandActivitySample createSample(MiBandSampleProvider provider, int rawKind, int timestamp, int steps, User user, Device device) {
+        MiBandActivitySample sample = provider.createActivitySample();
+        sample.setProvider(provider);
+        sample.setRawKind(rawKind);
+        sample.setTimestamp(timestamp);
+        sample.setRawIntensity(10);
+        sample.setHeartRate(70);
+        sample.setSteps(steps);
+        sample.setUserId(user.getId());
+        sample.setDeviceId(device.getId());
+        return sample;
+    }
+}
@@ -0,0 +1,80 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleColumns;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SampleDownsamplerTest extends TestBase {
+    private static final int START = 1500000000;
+    private static final int WEEK_MINUTES = 7 * 24 * 60;
+
+    @Test
+    public void testFewSamplesAreKept() {
+        SampleColumns samples = createWeek(100);
+        assertSame(samples, new SampleDownsampler(1000).downsample(samples));
+    }
+
+    @Test
+    public void testDownsample() {
+        SampleColumns samples = createWeek(WEEK_MINUTES);
+        SampleColumns result = new SampleDownsampler(500).downsample(samples);
+
+        assertTrue(result.size() < samples.size() / 2);
+        assertEquals(samples.getTimestamp(0), result.getTimestamp(0));
+        assertEquals(samples.getTimestamp(samples.size() - 1), result.getTimestamp(result.size() - 1));
+
+        int maxHeartRate = 0;
+        int kindChanges = 0;
+        for (int i = 0; i < result.size(); i++) {
+            maxHeartRate = Math.max(maxHeartRate, result.getHeartRate(i));
+            if (i > 0) {
+                assertTrue(result.getTimestamp(i) > result.getTimestamp(i - 1));
+                if (result.getKind(i) != result.getKind(i - 1)) {
+                    kindChanges++;
+                }
+            }
+        }
+        assertEquals(180, maxHeartRate);
+        // sleep from 0:00 to 6:00 every day
+        assertEquals(13, kindChanges);
+    }
+
+    @Test
+    public void testDetail() {
+        SampleColumns samples = createWeek(WEEK_MINUTES);
+        int detailFrom = START + 24 * 3600;
+        int detailTo = detailFrom + 3600;
+        SampleColumns result = new SampleDownsampler(500).downsample(samples, detailFrom, detailTo);
+
+        int detailSamples = 0;
+        for (int i = 0; i < result.size(); i++) {
+            if (result.getTimestamp(i) >= detailFrom && result.getTimestamp(i) <= detailTo) {
+                detailSamples++;
+            }
+        }
+        // all 61 samples of that hour
+        assertEquals(61, detailSamples);
+        assertTrue(result.size() < samples.size() / 2);
+    }
+
+    /**
+     * Creates samples once per minute, starting with sleep
+     */
+    private SampleColumns createWeek(int minutes) {
+        SampleColumns samples = new SampleColumns();
+        for (int i = 0; i < minutes; i++) {
+            int minuteOfDay = i % (24 * 60);
+            int kind = minuteOfDay < 6 * 60 ? ActivityKind.TYPE_LIGHT_SLEEP : ActivityKind.TYPE_ACTIVITY;
+            int heartRate = i == 5000 ? 180 : (i % 3 == 0 ? ActivitySample.NOT_MEASURED : 60 + i % 20);
+            samples.add(START + i * 60, kind, (i % 17) / 17f, heartRate);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,103 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DBLockTest extends TestBase {
+
+    @Test
+    public void testReadOnlyHandler() throws Exception {
+        assertFalse(dbHandler.isReadOnly());
+        try (DBHandler reader = GBApplication.acquireDBReadOnly()) {
+            assertTrue(reader.isReadOnly());
+            assertNotSame(daoSession, reader.getDaoSession());
+            assertSame(dbHandler.getDatabase(), reader.getDatabase());
+        }
+    }
+
+    @Test
+    public void testReaderNotBlockedByWriter() throws Exception {
+        // the test thread holds the write lock, see TestBase
+        final AtomicReference<Object> result = new AtomicReference<>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try (DBHandler handler = GBApplication.acquireDBReadOnly()) {
+                    result.set(handler.getDaoSession().getDeviceDao().loadAll());
+                } catch (Exception e) {
+                    result.set(e);
+                }
+            }
+        };
+        reader.start();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertTrue(String.valueOf(result.get()), result.get() instanceof List);
+    }
+
+    @Test
+    public void testTryAcquireWhileWriting() throws Exception {
+        final AtomicReference<DBHandler> result = new AtomicReference<>();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                result.set(GBApplication.tryAcquireDB());
+            }
+        };
+        writer.start();
+        writer.join(5000);
+        assertNull(result.get());
+
+        // reentrant for the thread holding the write lock
+        DBHandler handler = GBApplication.tryAcquireDB();
+        assertNotNull(handler);
+        GBApplication.releaseDB();
+    }
+
+    @Test
+    public void testCloseFailsFastWhileReading() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try (DBHandler handler = GBApplication.acquireDBReadOnly()) {
+                    reading.countDown();
+                    done.await();
+                } catch (Exception ignored) {
+                }
+            }
+        };
+        reader.start();
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+        // closing happens on the UI thread, it must give up well before an ANR
+        long start = System.currentTimeMillis();
+        try {
+            dbHandler.closeDb();
+            fail("closing must fail while a reader holds the database");
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        // still usable
+        assertNotNull(dbHandler.getDaoSession().getDeviceDao().loadAll());
+
+        done.countDown();
+        reader.join(5000);
+    }
+}
@@ -0,0 +1,92 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.DeviceAttributesDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class IdentityCacheTest extends TestBase {
+
+    private IdentityCache cache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        cache = IdentityCache.getInstance();
+        // the ids of the previous test's database are of no use
+        cache.invalidateAll();
+    }
+
+    @Test
+    public void testCachedId() {
+        GBDevice gbDevice = createInitializedDevice("00:00:00:00:50");
+        long id = cache.getDeviceId(gbDevice, daoSession);
+        assertEquals(DBHelper.getDevice(gbDevice, daoSession).getId().longValue(), id);
+        assertEquals(id, cache.getDeviceId(gbDevice, daoSession));
+        assertEquals(DBHelper.getUser(daoSession).getId().longValue(), cache.getUserId(daoSession));
+    }
+
+    @Test
+    public void testChangedFirmware() {
+        GBDevice gbDevice = createInitializedDevice("00:00:00:00:51");
+        long id = cache.getDeviceId(gbDevice, daoSession);
+        assertEquals(0, countAttributesWithFirmware(id, "2.0.0"));
+
+        gbDevice.setFirmwareVersion("2.0.0");
+        assertEquals(id, cache.getDeviceId(gbDevice, daoSession));
+        // looked up again, so the new firmware is stored
+        assertEquals(1, countAttributesWithFirmware(id, "2.0.0"));
+    }
+
+    @Test
+    public void testChangedName() {
+        GBDevice gbDevice = createInitializedDevice("00:00:00:00:52");
+        long id = cache.getDeviceId(gbDevice, daoSession);
+
+        gbDevice.setName("Renamed");
+        assertEquals(id, cache.getDeviceId(gbDevice, daoSession));
+        // looked up again, so the new name is stored
+        assertEquals("Renamed", daoSession.getDeviceDao().load(id).getName());
+    }
+
+    @Test
+    public void testInvalidateAfterDeletion() {
+        GBDevice gbDevice = createInitializedDevice("00:00:00:00:53");
+        long deletedId = cache.getDeviceId(gbDevice, daoSession);
+        // another device, so that the deleted id is not reused for the new row
+        cache.getDeviceId(createInitializedDevice("00:00:00:00:54"), daoSession);
+
+        Device device = DBHelper.findDevice(gbDevice, daoSession);
+        daoSession.getDeviceAttributesDao().queryBuilder()
+                .where(DeviceAttributesDao.Properties.DeviceId.eq(device.getId()))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+        daoSession.getDeviceDao().delete(device);
+        assertNull(daoSession.getDeviceDao().load(deletedId));
+        cache.invalidate(gbDevice);
+
+        long id = cache.getDeviceId(gbDevice, daoSession);
+        assertNotEquals(deletedId, id);
+        assertNotNull(daoSession.getDeviceDao().load(id));
+    }
+
+    private GBDevice createInitializedDevice(String macAddress) {
+        GBDevice gbDevice = createDummyGDevice(macAddress);
+        // device attributes, including the firmware, are only stored for initialized devices
+        gbDevice.setState(GBDevice.State.INITIALIZED);
+        return gbDevice;
+    }
+
+    private long countAttributesWithFirmware(long deviceId, String firmware) {
+        return daoSession.getDeviceAttributesDao().queryBuilder()
+                .where(DeviceAttributesDao.Properties.DeviceId.eq(deviceId),
+                        DeviceAttributesDao.Properties.FirmwareVersion1.eq(firmware))
+                .count();
+    }
+}
@@ -0,0 +1,138 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RealtimeSampleBufferTest extends TestBase {
+
+    private static class CountingTarget extends SampleIngestion.Target<MiBandActivitySample> {
+        final AtomicInteger writes = new AtomicInteger();
+
+        CountingTarget(GBDevice device) {
+            super(device);
+        }
+
+        @Override
+        protected AbstractSampleProvider<MiBandActivitySample> createProvider(GBDevice device, DaoSession session) {
+            writes.incrementAndGet();
+            return new MiBandSampleProvider(device, session);
+        }
+    }
+
+    private GBDevice gbDevice;
+    private CountingTarget target;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        // the ids of the previous test's database are of no use
+        IdentityCache.getInstance().invalidateAll();
+        gbDevice = createDummyGDevice("00:00:00:00:40");
+        target = new CountingTarget(gbDevice);
+        // the writer thread needs the database, which the test thread holds, see TestBase
+        GBApplication.releaseDB();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        GBApplication.acquireDB();
+        super.tearDown();
+    }
+
+    @Test
+    public void testFlushAtCapacity() throws Exception {
+        RealtimeSampleBuffer<MiBandActivitySample> buffer = new RealtimeSampleBuffer<>(target, MiBandActivitySample.class, 5, 1000);
+        for (int i = 0; i < 4; i++) {
+            buffer.add(createSample(1000 + i));
+        }
+        assertEquals(4, buffer.getBufferedCount());
+        awaitSubmitted();
+        assertEquals(0, getStoredSamples().size());
+
+        buffer.add(createSample(1004));
+        assertEquals(0, buffer.getBufferedCount());
+        awaitSubmitted();
+        assertEquals(5, getStoredSamples().size());
+        assertEquals(1, target.writes.get());
+    }
+
+    @Test
+    public void testFlushOnSpan() throws Exception {
+        RealtimeSampleBuffer<MiBandActivitySample> buffer = new RealtimeSampleBuffer<>(target, MiBandActivitySample.class, 100, 60);
+        buffer.add(createSample(1000));
+        buffer.add(createSample(1030));
+        buffer.add(createSample(1059));
+        assertEquals(3, buffer.getBufferedCount());
+
+        // spans 60 seconds with the first one, so the buffered ones are submitted first
+        buffer.add(createSample(1060));
+        assertEquals(1, buffer.getBufferedCount());
+        awaitSubmitted();
+        List<MiBandActivitySample> samples = getStoredSamples();
+        assertEquals(3, samples.size());
+        assertEquals(1059, samples.get(2).getTimestamp());
+
+        buffer.flush();
+        assertEquals(0, buffer.getBufferedCount());
+        awaitSubmitted();
+        assertEquals(4, getStoredSamples().size());
+    }
+
+    @Test
+    public void testFlushEmpty() throws Exception {
+        RealtimeSampleBuffer<MiBandActivitySample> buffer = new RealtimeSampleBuffer<>(target, MiBandActivitySample.class, 10, 60);
+        buffer.flush();
+        assertEquals(0, buffer.getBufferedCount());
+
+        buffer.add(createSample(1000));
+        buffer.add(createSample(1001));
+        buffer.flush();
+        awaitSubmitted();
+        assertEquals(1, target.writes.get());
+
+        // nothing left to submit, in particular not the samples flushed before
+        buffer.flush();
+        awaitSubmitted();
+        assertEquals(1, target.writes.get());
+        assertEquals(2, getStoredSamples().size());
+    }
+
+    /**
+     * Waits until everything submitted so far is written, since samples are written in
+     * the order they were submitted.
+     */
+    private void awaitSubmitted() {
+        SampleIngestion.Ticket ticket = SampleIngestion.getInstance().submit(target, new MiBandActivitySample[0]);
+        SampleIngestion.getInstance().flush();
+        assertTrue(ticket.await(SampleIngestion.DEFAULT_AWAIT_MILLIS));
+    }
+
+    private MiBandActivitySample createSample(int timestamp) {
+        MiBandActivitySample sample = new MiBandActivitySample();
+        sample.setTimestamp(timestamp);
+        sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+        sample.setRawIntensity(10);
+        sample.setSteps(1);
+        sample.setHeartRate(70);
+        return sample;
+    }
+
+    private List<MiBandActivitySample> getStoredSamples() throws Exception {
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            return new MiBandSampleProvider(gbDevice, handler.getDaoSession()).getAllActivitySamples(0, Integer.MAX_VALUE);
+        }
+    }
+}
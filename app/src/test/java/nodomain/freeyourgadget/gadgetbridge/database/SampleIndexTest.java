@@ -0,0 +1,71 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.database.schema.GadgetbridgeUpdate_19;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the queries of the sample providers use the indexes on the device and
+ * the timestamps, by looking at SQLite's query plans.
+ */
+public class SampleIndexTest extends TestBase {
+
+    @Test
+    public void testSampleQueries() {
+        assertUsesIndex("IDX_" + MiBandActivitySampleDao.TABLENAME + "_DEVICE_ID_TIMESTAMP",
+                "SELECT * FROM " + MiBandActivitySampleDao.TABLENAME + " T WHERE T.DEVICE_ID=? AND T.TIMESTAMP>=? AND T.TIMESTAMP<=? ORDER BY T.TIMESTAMP ASC");
+        assertUsesIndex("IDX_" + PebbleHealthActivitySampleDao.TABLENAME + "_DEVICE_ID_TIMESTAMP",
+                "SELECT * FROM " + PebbleHealthActivitySampleDao.TABLENAME + " T WHERE T.DEVICE_ID=? AND T.TIMESTAMP>=? AND T.TIMESTAMP<=? AND (T.RAW_KIND=? OR T.RAW_KIND=?) ORDER BY T.TIMESTAMP ASC");
+        // latest sample
+        assertUsesIndex("IDX_" + MiBandActivitySampleDao.TABLENAME + "_DEVICE_ID_TIMESTAMP",
+                "SELECT * FROM " + MiBandActivitySampleDao.TABLENAME + " T WHERE T.DEVICE_ID=? ORDER BY T.TIMESTAMP DESC LIMIT 1");
+    }
+
+    @Test
+    public void testOverlayQueries() {
+        // PebbleHealthSampleProvider
+        assertUsesIndex("IDX_" + PebbleHealthActivityOverlayDao.TABLENAME + "_DEVICE_ID_TIMESTAMP_TO_TIMESTAMP_FROM",
+                "SELECT * FROM " + PebbleHealthActivityOverlayDao.TABLENAME + " T WHERE T.DEVICE_ID=? AND T.TIMESTAMP_TO>=? AND T.TIMESTAMP_FROM<=?");
+        // HPlusHealthSampleProvider
+        assertUsesIndex("IDX_" + HPlusHealthActivityOverlayDao.TABLENAME + "_DEVICE_ID_TIMESTAMP_TO_TIMESTAMP_FROM",
+                "SELECT * FROM " + HPlusHealthActivityOverlayDao.TABLENAME + " T WHERE T.DEVICE_ID=? AND T.TIMESTAMP_FROM>=? AND T.TIMESTAMP_TO<=? AND T.TIMESTAMP_TO>=?");
+    }
+
+    @Test
+    public void testUpdateScript() {
+        // the indexes already exist for a new database, must not fail
+        SQLiteDatabase db = dbHandler.getDatabase();
+        new GadgetbridgeUpdate_19().upgradeSchema(db);
+        testSampleQueries();
+        testOverlayQueries();
+    }
+
+    private void assertUsesIndex(String index, String query) {
+        SQLiteDatabase db = dbHandler.getDatabase();
+        int params = query.replaceAll("[^?]", "").length();
+        String[] args = new String[params];
+        for (int i = 0; i < params; i++) {
+            args[i] = "1";
+        }
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, args)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        }
+        assertTrue(plan.toString(), plan.toString().contains("USING INDEX " + index));
+        assertFalse(plan.toString(), plan.toString().contains("TEMP B-TREE"));
+    }
+}
@@ -0,0 +1,217 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class SampleIngestionTest extends TestBase {
+
+    /**
+     * Writes through MiBandSampleProvider and records when it is asked for a provider,
+     * i.e. when a write starts.
+     */
+    private static class RecordingTarget extends SampleIngestion.Target<MiBandActivitySample> {
+        final List<Long> writeNanos = Collections.synchronizedList(new ArrayList<Long>());
+        private final boolean failing;
+
+        RecordingTarget(GBDevice device, boolean failing) {
+            super(device);
+            this.failing = failing;
+        }
+
+        @Override
+        protected AbstractSampleProvider<MiBandActivitySample> createProvider(GBDevice device, DaoSession session) {
+            writeNanos.add(System.nanoTime());
+            if (failing) {
+                throw new IllegalStateException("failing on purpose");
+            }
+            return new MiBandSampleProvider(device, session);
+        }
+    }
+
+    private GBDevice gbDevice;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        // the ids of the previous test's database are of no use
+        IdentityCache.getInstance().invalidateAll();
+        gbDevice = createDummyGDevice("00:00:00:00:30");
+        // the writer thread needs the database, which the test thread holds, see TestBase
+        GBApplication.releaseDB();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        GBApplication.acquireDB();
+        super.tearDown();
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        RecordingTarget target = new RecordingTarget(gbDevice, false);
+        SampleIngestion ingestion = SampleIngestion.getInstance();
+        SampleIngestion.Ticket first = ingestion.submit(target, createSamples(1000, 10, 1));
+        SampleIngestion.Ticket second = ingestion.submit(target, createSamples(1600, 10, 2));
+        // replaces the first sample of the first batch
+        SampleIngestion.Ticket third = ingestion.submit(target, createSamples(1000, 1, 3));
+
+        ingestion.flush();
+        assertTrue(first.await(SampleIngestion.DEFAULT_AWAIT_MILLIS));
+        assertTrue(second.await(0));
+        assertTrue(third.await(0));
+        // all batches were written by a single provider, in a single transaction
+        assertEquals(1, target.writeNanos.size());
+
+        List<MiBandActivitySample> samples = getStoredSamples();
+        assertEquals(20, samples.size());
+        assertEquals(3, samples.get(0).getSteps());
+        assertEquals(1, samples.get(1).getSteps());
+        assertEquals(2, samples.get(19).getSteps());
+    }
+
+    @Test
+    public void testFlushOnCount() throws Exception {
+        RecordingTarget target = new RecordingTarget(gbDevice, false);
+        long submitNanos = System.nanoTime();
+        SampleIngestion.Ticket ticket = SampleIngestion.getInstance().submit(target, createSamples(1000, SampleIngestion.MAX_PENDING_SAMPLES, 1));
+
+        // not flushing, that would request the write
+        assertTrue(waitUntilDone(ticket, 10 * SampleIngestion.MAX_DELAY_MILLIS));
+        assertTrue(ticket.await(0));
+        assertEquals(1, target.writeNanos.size());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(target.writeNanos.get(0) - submitNanos) < SampleIngestion.MAX_DELAY_MILLIS);
+        assertEquals(SampleIngestion.MAX_PENDING_SAMPLES, getStoredSamples().size());
+    }
+
+    @Test
+    public void testFlushOnDelay() throws Exception {
+        RecordingTarget target = new RecordingTarget(gbDevice, false);
+        long submitNanos = System.nanoTime();
+        SampleIngestion.Ticket ticket = SampleIngestion.getInstance().submit(target, createSamples(1000, 5, 1));
+
+        // not flushing, that would request the write
+        assertTrue(waitUntilDone(ticket, 5 * SampleIngestion.MAX_DELAY_MILLIS));
+        assertTrue(ticket.await(0));
+        assertEquals(1, target.writeNanos.size());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(target.writeNanos.get(0) - submitNanos) >= SampleIngestion.MAX_DELAY_MILLIS);
+        assertEquals(5, getStoredSamples().size());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        // the device must not be told that the data was stored, e.g. by the Mi Band's
+        // keep-data checksum or a Pebble datalog ACK
+        SampleIngestion ingestion = SampleIngestion.getInstance();
+        SampleIngestion.Ticket failed = ingestion.submit(new RecordingTarget(gbDevice, true), createSamples(1000, 5, 1));
+        SampleIngestion.Ticket other = ingestion.submit(new RecordingTarget(gbDevice, false), createSamples(2000, 5, 1));
+
+        RecordingCallback callback = new RecordingCallback();
+        ingestion.whenWritten(Arrays.asList(failed, other), callback);
+        ingestion.flush();
+
+        assertFalse(failed.await(SampleIngestion.DEFAULT_AWAIT_MILLIS));
+        assertTrue(failed.isDone());
+        // written in the same transaction, which was rolled back
+        assertFalse(other.await(0));
+        assertTrue(callback.await());
+        assertFalse(callback.success);
+        assertEquals(0, getStoredSamples().size());
+
+        // the next write succeeds again
+        SampleIngestion.Ticket next = ingestion.submit(new RecordingTarget(gbDevice, false), createSamples(3000, 5, 1));
+        ingestion.flush();
+        assertTrue(next.await(SampleIngestion.DEFAULT_AWAIT_MILLIS));
+        assertEquals(5, getStoredSamples().size());
+    }
+
+    @Test
+    public void testWhenWritten() throws Exception {
+        // like acknowledging data to a device once it is stored
+        SampleIngestion ingestion = SampleIngestion.getInstance();
+        RecordingTarget target = new RecordingTarget(gbDevice, false);
+        SampleIngestion.Ticket first = ingestion.submit(target, createSamples(1000, 5, 1));
+        SampleIngestion.Ticket second = ingestion.submit(target, createSamples(2000, 5, 1));
+
+        RecordingCallback callback = new RecordingCallback();
+        ingestion.whenWritten(Arrays.asList(first, second), callback);
+        // nothing is requested to be written early
+        assertFalse(callback.done.await(SampleIngestion.MAX_DELAY_MILLIS / 2, TimeUnit.MILLISECONDS));
+        assertTrue(target.writeNanos.isEmpty());
+
+        assertTrue(callback.await());
+        assertTrue(callback.success);
+        // on the writer thread
+        assertNotSame(Thread.currentThread(), callback.thread);
+        assertEquals(10, getStoredSamples().size());
+
+        // tickets that are already written are reported right away
+        RecordingCallback late = new RecordingCallback();
+        ingestion.whenWritten(Collections.singletonList(first), late);
+        assertEquals(0, late.done.getCount());
+        assertTrue(late.success);
+    }
+
+    private static class RecordingCallback implements SampleIngestion.Callback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean success;
+        volatile Thread thread;
+
+        @Override
+        public void onWritten(boolean success) {
+            this.success = success;
+            thread = Thread.currentThread();
+            done.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(SampleIngestion.DEFAULT_AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean waitUntilDone(SampleIngestion.Ticket ticket, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!ticket.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return ticket.isDone();
+    }
+
+    private MiBandActivitySample[] createSamples(int firstTimestamp, int count, int steps) {
+        MiBandActivitySample[] samples = new MiBandActivitySample[count];
+        for (int i = 0; i < count; i++) {
+            MiBandActivitySample sample = new MiBandActivitySample();
+            sample.setTimestamp(firstTimestamp + i * 60);
+            sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+            sample.setRawIntensity(10);
+            sample.setSteps(steps);
+            sample.setHeartRate(70);
+            samples[i] = sample;
+        }
+        return samples;
+    }
+
+    private List<MiBandActivitySample> getStoredSamples() throws Exception {
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            return new MiBandSampleProvider(gbDevice, handler.getDaoSession()).getAllActivitySamples(0, Integer.MAX_VALUE);
+        }
+    }
+}
@@ -2,20 +2,32 @@ package nodomain.freeyourgadget.gadgetbridge.database;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
+import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusHealthSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityRollup;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySampleDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -170,4 +182,128 @@ public class SampleProviderTest extends TestBase {
         sleepSamples = sampleProvider.getSleepSamples(1500, 2500);
         assertEquals(1, sleepSamples.size());
     }
+
+    @Test
+    public void testVisitSamples() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        MiBandActivitySample s1 = createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 100, 10, 70, 1000, user, device);
+        MiBandActivitySample s2 = createSample(sampleProvider, MiBandSampleProvider.TYPE_DEEP_SLEEP, 300, 20, 80, 1030, user, device);
+        MiBandActivitySample s3 = createSample(sampleProvider, MiBandSampleProvider.TYPE_LIGHT_SLEEP, 200, 10, 62, 4030, user, device);
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] { s1, s2, s3 });
+
+        final List<Integer> timestamps = new ArrayList<>();
+        final List<Integer> kinds = new ArrayList<>();
+        final Set<MiBandActivitySample> instances = new HashSet<>();
+        sampleProvider.visitAllActivitySamples(0, 10000, new SampleVisitor<MiBandActivitySample>() {
+            @Override
+            public boolean visit(MiBandActivitySample sample) {
+                timestamps.add(sample.getTimestamp());
+                kinds.add(sample.getKind());
+                instances.add(sample);
+                return true;
+            }
+        });
+        // ordered by timestamp, streamed through a single reused instance
+        assertEquals(Arrays.asList(100, 200, 300), timestamps);
+        assertEquals(Arrays.asList(ActivityKind.TYPE_ACTIVITY, ActivityKind.TYPE_LIGHT_SLEEP, ActivityKind.TYPE_DEEP_SLEEP), kinds);
+        assertEquals(1, instances.size());
+
+        // stop early
+        timestamps.clear();
+        sampleProvider.visitAllActivitySamples(150, 10000, new SampleVisitor<MiBandActivitySample>() {
+            @Override
+            public boolean visit(MiBandActivitySample sample) {
+                timestamps.add(sample.getTimestamp());
+                return false;
+            }
+        });
+        assertEquals(Collections.singletonList(200), timestamps);
+    }
+
+    @Test
+    public void testBulkUpsert() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        MiBandActivitySample s1 = createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 100, 10, 70, 1000, user, device);
+        MiBandActivitySample s2 = createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 200, 20, 80, 1030, user, device);
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] { s1, s2 });
+
+        // same primary key => replaced
+        MiBandActivitySample s2b = createSample(sampleProvider, MiBandSampleProvider.TYPE_DEEP_SLEEP, 200, 5, 55, 7, user, device);
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] { s2b });
+
+        List<MiBandActivitySample> samples = sampleProvider.getAllActivitySamples(0, 10000);
+        assertEquals(2, samples.size());
+        MiBandActivitySample stored = samples.get(1);
+        assertEquals(200, stored.getTimestamp());
+        assertEquals(MiBandSampleProvider.TYPE_DEEP_SLEEP, stored.getRawKind());
+        assertEquals(5, stored.getRawIntensity());
+        assertEquals(55, stored.getHeartRate());
+        assertEquals(7, stored.getSteps());
+        assertEquals(user.getId().longValue(), stored.getUserId());
+        assertEquals(device.getId().longValue(), stored.getDeviceId());
+
+        // nullable columns
+        HPlusHealthSampleProvider hplusProvider = new HPlusHealthSampleProvider(dummyGBDevice, daoSession);
+        HPlusHealthActivitySample h1 = createSample(hplusProvider, 0, 300, 10, 70, 12, user, device);
+        h1.setCalories(42);
+        HPlusHealthActivitySample h2 = createSample(hplusProvider, 0, 360, 10, 70, 12, user, device);
+        hplusProvider.addGBActivitySamples(new HPlusHealthActivitySample[] { h1, h2 });
+
+        List<HPlusHealthActivitySample> hplusSamples = daoSession.getHPlusHealthActivitySampleDao().queryBuilder()
+                .orderAsc(HPlusHealthActivitySampleDao.Properties.Timestamp).list();
+        assertEquals(2, hplusSamples.size());
+        assertEquals(Integer.valueOf(42), hplusSamples.get(0).getCalories());
+        assertNull(hplusSamples.get(0).getDistance());
+        assertNull(hplusSamples.get(1).getCalories());
+        assertNull(hplusSamples.get(1).getRawHPlusHealthData());
+    }
+
+    @Test
+    public void testActivityRollups() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        MiBandActivitySample s1 = createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 3600, 10, 70, 10, user, device);
+        MiBandActivitySample s2 = createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 3660, 10, 80, 20, user, device);
+        MiBandActivitySample s3 = createSample(sampleProvider, MiBandSampleProvider.TYPE_DEEP_SLEEP, 3720, 10, 60, 0, user, device);
+        MiBandActivitySample s4 = createSample(sampleProvider, MiBandSampleProvider.TYPE_DEEP_SLEEP, 7200, 10, 0, 0, user, device);
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] { s1, s2, s3, s4 });
+
+        // the touched hours are stored right away
+        assertEquals(2, daoSession.getActivityRollupDao().count());
+
+        List<ActivityRollup> rollups = sampleProvider.getActivityRollups().getHourlyRollups(3600, 10799);
+        assertEquals(2, rollups.size());
+        ActivityRollup first = rollups.get(0);
+        assertEquals(3600, first.getTimestamp());
+        assertEquals(90, first.getActivitySeconds());
+        assertEquals(30, first.getActivitySteps());
+        assertEquals(30, first.getDeepSleepSeconds());
+        assertEquals(60, first.getHeartRateMin());
+        assertEquals(80, first.getHeartRateMax());
+        assertEquals(70, first.getHeartRateAverage());
+        assertEquals(3, first.getHeartRateCount());
+        ActivityRollup second = rollups.get(1);
+        assertEquals(7200, second.getTimestamp());
+        assertEquals(3480, second.getDeepSleepSeconds());
+        assertEquals(0, second.getHeartRateCount());
+
+        ActivityAmounts amounts = sampleProvider.getActivityRollups().getActivityAmounts(3600, 10799);
+        assertEquals(3600, amounts.getTotalSeconds());
+
+        // single samples invalidate the affected hours, which are recalculated on the next access
+        MiBandActivitySample s5 = createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 3630, 10, 90, 5, user, device);
+        sampleProvider.addGBActivitySample(s5);
+        assertEquals(1, daoSession.getActivityRollupDao().count());
+        rollups = sampleProvider.getActivityRollups().getHourlyRollups(3600, 7199);
+        assertEquals(35, rollups.get(0).getActivitySteps());
+        assertEquals(90, rollups.get(0).getHeartRateMax());
+    }
 }
@@ -0,0 +1,169 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.greenrobot.dao.AbstractDao;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySampleUpsert;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleUpsert;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySampleUpsert;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Writes the same samples with greenDAO's insertOrReplaceInTx and with the generated
+ * SampleUpsert, checks that both store identical rows and logs how long each took.
+ */
+public class SampleUpsertTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(SampleUpsertTest.class);
+
+    private static final int SAMPLE_COUNT = 2000;
+    private static final int ROUNDS = 3;
+
+    private GBDevice dummyGBDevice;
+    private User user;
+    private Device device;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dummyGBDevice = createDummyGDevice("00:00:00:00:10");
+        user = DBHelper.getUser(daoSession);
+        device = DBHelper.getDevice(dummyGBDevice, daoSession);
+    }
+
+    @Test
+    public void testMiBand() {
+        MiBandSampleProvider provider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        MiBandActivitySample[] samples = new MiBandActivitySample[SAMPLE_COUNT];
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            samples[i] = createSample(provider, i);
+        }
+        compare("MiBand", provider.getSampleDao(), new MiBandActivitySampleUpsert(), samples);
+    }
+
+    @Test
+    public void testPebbleHealth() {
+        PebbleHealthSampleProvider provider = new PebbleHealthSampleProvider(dummyGBDevice, daoSession);
+        PebbleHealthActivitySample[] samples = new PebbleHealthActivitySample[SAMPLE_COUNT];
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            samples[i] = createSample(provider, i);
+            if (i % 2 == 0) {
+                samples[i].setRawPebbleHealthData(new byte[]{(byte) i, (byte) (i >> 8), 0x7f});
+            }
+        }
+        compare("PebbleHealth", provider.getSampleDao(), new PebbleHealthActivitySampleUpsert(), samples);
+    }
+
+    @Test
+    public void testHPlus() {
+        HPlusHealthSampleProvider provider = new HPlusHealthSampleProvider(dummyGBDevice, daoSession);
+        HPlusHealthActivitySample[] samples = new HPlusHealthActivitySample[SAMPLE_COUNT];
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            samples[i] = createSample(provider, i);
+            if (i % 3 == 0) {
+                samples[i].setCalories(i % 100);
+                samples[i].setDistance(i);
+                samples[i].setRawHPlusHealthData(new byte[]{(byte) i});
+            }
+        }
+        compare("HPlus", provider.getSampleDao(), new HPlusHealthActivitySampleUpsert(), samples);
+    }
+
+    private <T extends AbstractActivitySample> T createSample(SampleProvider<T> provider, int i) {
+        T sample = provider.createActivitySample();
+        sample.setProvider(provider);
+        sample.setRawKind(i % 4);
+        sample.setTimestamp(1000 + i * 60);
+        sample.setRawIntensity(i % 256);
+        sample.setHeartRate(50 + i % 100);
+        sample.setSteps(i % 50);
+        sample.setUserId(user.getId());
+        sample.setDeviceId(device.getId());
+        return sample;
+    }
+
+    private <T extends AbstractActivitySample> void compare(String name, AbstractDao<T, ?> dao, SampleUpsert<T> upsert, T[] samples) {
+        SQLiteDatabase db = dbHandler.getDatabase();
+        List<T> sampleList = Arrays.asList(samples);
+
+        long daoNanos = 0;
+        long upsertNanos = 0;
+        List<String> daoRows = null;
+        List<String> upsertRows = null;
+        // the first round only warms up, the later ones replace every row
+        for (int round = 0; round <= ROUNDS; round++) {
+            dao.deleteAll();
+            long start = System.nanoTime();
+            dao.insertOrReplaceInTx(sampleList);
+            dao.insertOrReplaceInTx(sampleList);
+            long daoTime = System.nanoTime() - start;
+            daoRows = dumpRows(db, dao.getTablename());
+
+            dao.deleteAll();
+            start = System.nanoTime();
+            upsert.upsert(db, samples);
+            upsert.upsert(db, samples);
+            long upsertTime = System.nanoTime() - start;
+            upsertRows = dumpRows(db, dao.getTablename());
+
+            if (round > 0) {
+                daoNanos += daoTime;
+                upsertNanos += upsertTime;
+            }
+        }
+
+        assertEquals(samples.length, daoRows.size());
+        assertEquals(daoRows, upsertRows);
+
+        long rows = 2L * samples.length * ROUNDS;
+        LOG.info(name + ": insertOrReplaceInTx " + rowsPerSecond(rows, daoNanos) + " rows/s, SampleUpsert "
+                + rowsPerSecond(rows, upsertNanos) + " rows/s");
+    }
+
+    private static long rowsPerSecond(long rows, long nanos) {
+        return nanos > 0 ? rows * 1000000000L / nanos : 0;
+    }
+
+    private static List<String> dumpRows(SQLiteDatabase db, String table) {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + table + " ORDER BY TIMESTAMP, DEVICE_ID", null);
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
+                        row.append(Arrays.toString(cursor.getBlob(i)));
+                    } else {
+                        row.append(cursor.getString(i));
+                    }
+                    row.append('|');
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,63 @@
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RealtimeSamplesTest extends TestBase {
+
+    @Test
+    public void testRingBuffer() throws Exception {
+        RealtimeSamples samples = new RealtimeSamples(4);
+        RealtimeSamples.Sample sample = new RealtimeSamples.Sample();
+        assertFalse(samples.read(0, sample));
+
+        for (int i = 0; i < 6; i++) {
+            samples.publish(1000 + i, i, 60 + i, ActivitySample.NOT_MEASURED);
+        }
+        assertEquals(6, samples.getNextSequence());
+        assertEquals(2, samples.getOldestSequence());
+        assertFalse(samples.read(1, sample));
+        assertFalse(samples.read(6, sample));
+
+        assertTrue(samples.read(2, sample));
+        assertEquals(1002, sample.timestamp);
+        assertEquals(2, sample.steps);
+        assertEquals(62, sample.heartRate);
+        assertEquals(ActivitySample.NOT_MEASURED, sample.rawIntensity);
+        assertTrue(samples.read(5, sample));
+        assertEquals(1005, sample.timestamp);
+    }
+
+    @Test
+    public void testCoalescedCallbacks() throws Exception {
+        RealtimeSamples samples = new RealtimeSamples(4);
+        final AtomicInteger calls = new AtomicInteger();
+        RealtimeSamples.Listener listener = new RealtimeSamples.Listener() {
+            @Override
+            public void onSamplesAvailable(RealtimeSamples samples) {
+                calls.incrementAndGet();
+            }
+        };
+        samples.addListener(listener);
+
+        ShadowLooper.pauseMainLooper();
+        samples.publish(1000, 1, 60, 0);
+        samples.publish(1001, 1, 60, 0);
+        samples.publish(1002, 1, 60, 0);
+        ShadowLooper.unPauseMainLooper();
+        assertEquals(1, calls.get());
+
+        samples.removeListener(listener);
+        samples.publish(1003, 1, 60, 0);
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(1, calls.get());
+    }
+}
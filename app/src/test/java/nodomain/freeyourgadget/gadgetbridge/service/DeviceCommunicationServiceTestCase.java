@@ -5,25 +5,37 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
+
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBAlarm;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.Alarm;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.ACTION_DISCONNECT;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.ACTION_FIND_DEVICE;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_FIND_START;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_BODY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
 public class DeviceCommunicationServiceTestCase extends TestBase {
     private static final java.lang.String TEST_DEVICE_ADDRESS = TestDeviceSupport.class.getName();
+    private static final java.lang.String SECOND_DEVICE_ADDRESS = TEST_DEVICE_ADDRESS + ".second";
 
     /**
-     * Factory that always returns the mockSupport instance
+     * Factory that returns the secondSupport instance for the second device and the
+     * mockSupport instance for all others
      */
     private class TestDeviceSupportFactory extends DeviceSupportFactory {
         TestDeviceSupportFactory(Context context) {
@@ -32,6 +44,9 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
 
         @Override
         public synchronized DeviceSupport createDeviceSupport(GBDevice device) throws GBException {
+            if (SECOND_DEVICE_ADDRESS.equals(device.getAddress())) {
+                return secondSupport;
+            }
             return mockSupport;
         }
     }
@@ -40,6 +55,7 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
     @Mock
     private TestDeviceSupport realSupport;
     private TestDeviceSupport mockSupport;
+    private TestDeviceSupport secondSupport;
 
     public DeviceCommunicationServiceTestCase() {
         super();
@@ -52,6 +68,9 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
         realSupport = new TestDeviceSupport();
         realSupport.setContext(new GBDevice(TEST_DEVICE_ADDRESS, "Test Device", DeviceType.TEST), null, getContext());
         mockSupport = Mockito.spy(realSupport);
+        TestDeviceSupport secondRealSupport = new TestDeviceSupport();
+        secondRealSupport.setContext(new GBDevice(SECOND_DEVICE_ADDRESS, "Second Test Device", DeviceType.TEST), null, getContext());
+        secondSupport = Mockito.spy(secondRealSupport);
         DeviceCommunicationService.setDeviceSupportFactory(new TestDeviceSupportFactory(getContext()));
 
         mDeviceService = new TestDeviceService(getContext());
@@ -101,6 +120,98 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
         inOrder.verifyNoMoreInteractions();
     }
 
+    @Test
+    public void testReconnectDisposesFirst() {
+        ensureConnected();
+        getDevice().setState(GBDevice.State.NOT_CONNECTED);
+        mDeviceService.connect(getDevice());
+
+        // the new connection is only made after the old one was disposed
+        InOrder inOrder = Mockito.inOrder(mockSupport);
+        inOrder.verify(mockSupport).connect();
+        inOrder.verify(mockSupport).dispose();
+        inOrder.verify(mockSupport).connect();
+        assertTrue(getDevice().isInitialized());
+    }
+
+    @Test
+    public void testMultipleDevices() {
+        ensureConnected();
+        GBDevice secondDevice = secondSupport.getDevice();
+        mDeviceService.connect(secondDevice);
+        Mockito.verify(secondSupport, Mockito.times(1)).connect();
+        assertTrue(getDevice().isInitialized());
+        assertTrue(secondDevice.isInitialized());
+        assertEquals(2, mDeviceService.getService().getGBDevices().size());
+
+        // events for a single device only reach that device
+        Intent intent = mDeviceService.createIntent().setAction(ACTION_FIND_DEVICE)
+                .putExtra(EXTRA_FIND_START, true)
+                .putExtra(GBDevice.EXTRA_DEVICE, secondDevice);
+        mDeviceService.invokeService(intent);
+        Mockito.verify(secondSupport, Mockito.times(1)).onFindDevice(true);
+        Mockito.verify(mockSupport, Mockito.never()).onFindDevice(true);
+
+        // all others reach all devices
+        mDeviceService.onFindDevice(false);
+        Mockito.verify(secondSupport, Mockito.times(1)).onFindDevice(false);
+        Mockito.verify(mockSupport, Mockito.times(1)).onFindDevice(false);
+
+        // disconnecting one device leaves the other one connected
+        mDeviceService.invokeService(mDeviceService.createIntent().setAction(ACTION_DISCONNECT)
+                .putExtra(GBDevice.EXTRA_DEVICE, secondDevice));
+        assertEquals(1, mDeviceService.getService().getGBDevices().size());
+        assertEquals(getDevice().getAddress(), mDeviceService.getService().getGBDevices().get(0).getAddress());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExtrasCopiedPerDevice() {
+        ensureConnected();
+        mDeviceService.connect(secondSupport.getDevice());
+
+        // every device gets its own specs, since a DeviceSupport may modify them
+        ArrayList<Alarm> alarms = new ArrayList<>();
+        alarms.add(new GBAlarm(0, true, false, 0, 7, 30));
+        mDeviceService.onSetAlarms(alarms);
+        ArgumentCaptor<ArrayList> firstAlarms = ArgumentCaptor.forClass(ArrayList.class);
+        ArgumentCaptor<ArrayList> secondAlarms = ArgumentCaptor.forClass(ArrayList.class);
+        Mockito.verify(mockSupport).onSetAlarms(firstAlarms.capture());
+        Mockito.verify(secondSupport).onSetAlarms(secondAlarms.capture());
+        assertEquals(alarms, firstAlarms.getValue());
+        assertEquals(alarms, secondAlarms.getValue());
+        assertNotSame(firstAlarms.getValue().get(0), secondAlarms.getValue().get(0));
+
+        WeatherSpec weatherSpec = new WeatherSpec();
+        weatherSpec.location = "Somewhere";
+        weatherSpec.currentTemp = 293;
+        mDeviceService.onSendWeather(weatherSpec);
+        ArgumentCaptor<WeatherSpec> firstWeather = ArgumentCaptor.forClass(WeatherSpec.class);
+        ArgumentCaptor<WeatherSpec> secondWeather = ArgumentCaptor.forClass(WeatherSpec.class);
+        Mockito.verify(mockSupport).onSendWeather(firstWeather.capture());
+        Mockito.verify(secondSupport).onSendWeather(secondWeather.capture());
+        assertNotSame(firstWeather.getValue(), secondWeather.getValue());
+        assertEquals("Somewhere", firstWeather.getValue().location);
+        assertEquals(293, secondWeather.getValue().currentTemp);
+    }
+
+    @Test
+    public void testDisconnectWhileWaitingForReconnect() throws Exception {
+        ensureConnected();
+        getDevice().setState(GBDevice.State.WAITING_FOR_RECONNECT);
+        mDeviceService.invokeService(mDeviceService.createIntent().setAction(ACTION_DISCONNECT)
+                .putExtra(GBDevice.EXTRA_DEVICE, getDevice()));
+
+        // the state is only changed on the device's thread, after disposing
+        Mockito.verify(mockSupport, Mockito.timeout(5000)).dispose();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getDevice().getState() != GBDevice.State.NOT_CONNECTED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(GBDevice.State.NOT_CONNECTED, getDevice().getState());
+        assertEquals(0, mDeviceService.getService().getGBDevices().size());
+    }
+
     @Test
     public void testTransliterationSupport() {
         SharedPreferences settings = GBApplication.getPrefs().getPreferences();
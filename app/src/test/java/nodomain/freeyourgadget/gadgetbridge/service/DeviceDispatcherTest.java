@@ -0,0 +1,72 @@
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CountDownLatch;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertTrue;
+
+public class DeviceDispatcherTest extends TestBase {
+
+    @Test
+    public void testCoalescing() throws Exception {
+        DeviceSupport support = Mockito.mock(DeviceSupport.class);
+        Mockito.when(support.getDevice()).thenReturn(new GBDevice("AA:BB:CC:DD:EE:FF", "Test Device", DeviceType.TEST));
+        DeviceDispatcher dispatcher = new DeviceDispatcher(support);
+
+        // keep the device's thread busy, so that the following commands stay queued
+        final CountDownLatch blocked = new CountDownLatch(1);
+        dispatcher.dispatch(new DeviceCommand("block") {
+            @Override
+            void execute(DeviceSupport deviceSupport) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        dispatcher.dispatch(createFindDevice(true));
+        dispatcher.dispatch(createSetTime());
+        dispatcher.dispatch(createSetTime());
+        dispatcher.dispatch(createFindDevice(false));
+        dispatcher.dispatch(createSetTime());
+        blocked.countDown();
+        assertTrue(dispatcher.awaitDelivery(5000));
+
+        // only the last of the queued time updates is sent, at its own position
+        InOrder inOrder = Mockito.inOrder(support);
+        inOrder.verify(support).onFindDevice(true);
+        inOrder.verify(support).onFindDevice(false);
+        inOrder.verify(support).onSetTime();
+        Mockito.verify(support, Mockito.times(1)).onSetTime();
+
+        dispatcher.dispose();
+        assertTrue(dispatcher.awaitDelivery(5000));
+        Mockito.verify(support).dispose();
+    }
+
+    private DeviceCommand createSetTime() {
+        return new DeviceCommand("setTime", "setTime") {
+            @Override
+            void execute(DeviceSupport deviceSupport) {
+                deviceSupport.onSetTime();
+            }
+        };
+    }
+
+    private DeviceCommand createFindDevice(final boolean start) {
+        return new DeviceCommand("findDevice") {
+            @Override
+            void execute(DeviceSupport deviceSupport) {
+                deviceSupport.onFindDevice(start);
+            }
+        };
+    }
+}
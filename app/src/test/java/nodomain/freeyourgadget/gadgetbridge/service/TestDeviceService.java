@@ -29,9 +29,15 @@ class TestDeviceService extends GBDeviceService {
         // calling though to the service natively does not work with robolectric,
         // we have to use the ServiceController to do that
         service.onStartCommand(intent, Service.START_FLAG_REDELIVERY, (int) (Math.random() * 10000));
+        // events are delivered on the devices' threads, wait for them to make the tests deterministic
+        service.awaitDelivery(5000);
         super.invokeService(intent);
     }
 
+    DeviceCommunicationService getService() {
+        return service;
+    }
+
     @Override
     public void start() {
         super.start();
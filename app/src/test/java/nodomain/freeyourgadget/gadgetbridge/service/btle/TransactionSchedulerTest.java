@@ -0,0 +1,97 @@
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.Transaction.Priority;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionSchedulerTest extends TestBase {
+
+    private static Transaction createTransaction(String name, Priority priority) {
+        Transaction transaction = new Transaction(name);
+        transaction.setPriority(priority);
+        return transaction;
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        TransactionScheduler scheduler = new TransactionScheduler(4, 4, 4);
+        Transaction bulk = createTransaction("bulk", Priority.BULK);
+        Transaction interactive1 = createTransaction("interactive1", Priority.INTERACTIVE);
+        Transaction interactive2 = createTransaction("interactive2", Priority.INTERACTIVE);
+        Transaction realtime = createTransaction("realtime", Priority.REALTIME);
+        scheduler.add(bulk);
+        scheduler.add(interactive1);
+        scheduler.add(interactive2);
+        scheduler.add(realtime);
+        assertEquals(4, scheduler.size());
+
+        assertSame(realtime, scheduler.take());
+        assertSame(interactive1, scheduler.take());
+        assertSame(interactive2, scheduler.take());
+        assertSame(bulk, scheduler.take());
+        assertEquals(0, scheduler.size());
+        assertEquals(4, scheduler.getMaxDepth());
+    }
+
+    @Test
+    public void testInsert() throws Exception {
+        TransactionScheduler scheduler = new TransactionScheduler(4, 4, 4);
+        Transaction interactive1 = createTransaction("interactive1", Priority.INTERACTIVE);
+        Transaction interactive2 = createTransaction("interactive2", Priority.INTERACTIVE);
+        scheduler.add(interactive1);
+        scheduler.insert(interactive2);
+
+        assertSame(interactive2, scheduler.take());
+        assertSame(interactive1, scheduler.take());
+    }
+
+    @Test
+    public void testPollHigherThan() throws Exception {
+        TransactionScheduler scheduler = new TransactionScheduler(4, 4, 4);
+        Transaction bulk = createTransaction("bulk", Priority.BULK);
+        Transaction interactive = createTransaction("interactive", Priority.INTERACTIVE);
+        scheduler.add(bulk);
+        assertNull(scheduler.pollHigherThan(Priority.BULK));
+
+        scheduler.add(interactive);
+        assertNull(scheduler.pollHigherThan(Priority.INTERACTIVE));
+        assertSame(interactive, scheduler.pollHigherThan(Priority.BULK));
+        assertNull(scheduler.pollHigherThan(Priority.BULK));
+        assertSame(bulk, scheduler.take());
+    }
+
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        TransactionScheduler scheduler = new TransactionScheduler(1, 1, 1);
+        Transaction bulk1 = createTransaction("bulk1", Priority.BULK);
+        Transaction bulk2 = createTransaction("bulk2", Priority.BULK);
+        Transaction realtime = createTransaction("realtime", Priority.REALTIME);
+        assertTrue(scheduler.add(bulk1));
+        // rejected right away instead of waiting for space
+        assertFalse(scheduler.add(bulk2));
+        assertEquals(1, scheduler.getRejectedCount(Priority.BULK));
+        // other classes are not affected
+        assertTrue(scheduler.add(realtime));
+
+        assertSame(realtime, scheduler.take());
+        assertSame(bulk1, scheduler.take());
+        assertTrue(scheduler.add(bulk2));
+        assertSame(bulk2, scheduler.take());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        TransactionScheduler scheduler = new TransactionScheduler(1, 1, 1);
+        scheduler.add(createTransaction("interactive", Priority.INTERACTIVE));
+        scheduler.close();
+        assertEquals(0, scheduler.size());
+        assertFalse(scheduler.add(createTransaction("interactive", Priority.INTERACTIVE)));
+    }
+}
@@ -0,0 +1,213 @@
+package nodomain.freeyourgadget.gadgetbridge.service.btle.actions;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkWriteActionTest extends TestBase {
+    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("00001531-0000-3512-2118-0009af100700");
+
+    /**
+     * Simulates the Bluetooth stack: accepts a written packet after a short delay and
+     * keeps track of the packets not yet accepted.
+     */
+    private class FakeStack {
+        final BluetoothGattCharacteristic characteristic = Mockito.mock(BluetoothGattCharacteristic.class);
+        final BluetoothGatt gatt = Mockito.mock(BluetoothGatt.class);
+        final List<byte[]> packets = new ArrayList<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        int busyWrites;
+        // like Android, which accepts only one outstanding request
+        boolean singleOutstanding;
+        int failingPacket = -1;
+        BulkWriteAction action;
+        private byte[] value;
+
+        FakeStack(int properties) {
+            Mockito.when(characteristic.getUuid()).thenReturn(CHARACTERISTIC_UUID);
+            Mockito.when(characteristic.getProperties()).thenReturn(properties);
+            Mockito.when(characteristic.getWriteType()).thenReturn(BluetoothGattCharacteristic.WRITE_TYPE_SIGNED);
+            Mockito.when(characteristic.setValue(Mockito.any(byte[].class))).thenAnswer(new Answer<Boolean>() {
+                @Override
+                public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                    value = ((byte[]) invocation.getArguments()[0]).clone();
+                    return true;
+                }
+            });
+            Mockito.when(gatt.writeCharacteristic(characteristic)).thenAnswer(new Answer<Boolean>() {
+                @Override
+                public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                    return write();
+                }
+            });
+        }
+
+        private synchronized boolean write() {
+            if (busyWrites > 0) {
+                busyWrites--;
+                return false;
+            }
+            if (singleOutstanding && inFlight.get() > 0) {
+                return false;
+            }
+            final int status = packets.size() == failingPacket ? BluetoothGatt.GATT_FAILURE : BluetoothGatt.GATT_SUCCESS;
+            packets.add(value);
+            int current = inFlight.incrementAndGet();
+            maxInFlight.set(Math.max(maxInFlight.get(), current));
+            acknowledger.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    inFlight.decrementAndGet();
+                    action.onCharacteristicWrite(characteristic, status);
+                }
+            }, 2, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        byte[] getWrittenBytes() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] packet : packets) {
+                out.write(packet, 0, packet.length);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private ScheduledExecutorService acknowledger;
+
+    @Before
+    public void startAcknowledger() {
+        acknowledger = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void stopAcknowledger() {
+        acknowledger.shutdownNow();
+    }
+
+    @Test
+    public void testWritesPacketsWithinWindow() {
+        byte[] data = createData(1000);
+        FakeStack stack = new FakeStack(BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+        stack.action = new BulkWriteAction(stack.characteristic, data, 10, 970, 20, 3);
+
+        assertTrue(stack.action.run(stack.gatt));
+
+        // the sync point: run() returns only after all packets were accepted
+        assertEquals(0, stack.inFlight.get());
+        assertTrue(stack.maxInFlight.get() <= 3);
+        assertEquals(49, stack.packets.size());
+        assertEquals(10, stack.packets.get(48).length);
+        assertArrayEquals(copyOfRange(data, 10, 980), stack.getWrittenBytes());
+        Mockito.verify(stack.characteristic).setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+    }
+
+    @Test
+    public void testDefaultWindow() {
+        byte[] data = createData(2000);
+        FakeStack stack = new FakeStack(BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+        stack.action = new BulkWriteAction(stack.characteristic, data, 0, data.length, 20, BulkWriteAction.DEFAULT_MAX_IN_FLIGHT);
+
+        assertTrue(stack.action.run(stack.gatt));
+        assertTrue(stack.maxInFlight.get() > 1);
+        assertTrue(stack.maxInFlight.get() <= BulkWriteAction.DEFAULT_MAX_IN_FLIGHT);
+        assertArrayEquals(data, stack.getWrittenBytes());
+    }
+
+    @Test
+    public void testRetriesOnCallback() {
+        byte[] data = createData(2000);
+        FakeStack stack = new FakeStack(BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+        stack.singleOutstanding = true;
+        stack.action = new BulkWriteAction(stack.characteristic, data, 0, data.length, 20, BulkWriteAction.DEFAULT_MAX_IN_FLIGHT);
+
+        long start = System.currentTimeMillis();
+        assertTrue(stack.action.run(stack.gatt));
+        // each refused packet is written again right after the previous one was accepted,
+        // not after a timeout
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals(1, stack.maxInFlight.get());
+        assertArrayEquals(data, stack.getWrittenBytes());
+    }
+
+    @Test
+    public void testRetriesWhenBusy() {
+        byte[] data = createData(100);
+        FakeStack stack = new FakeStack(BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+        stack.busyWrites = 3;
+        stack.action = new BulkWriteAction(stack.characteristic, data, 0, data.length, 20, 2);
+
+        assertTrue(stack.action.run(stack.gatt));
+        assertArrayEquals(data, stack.getWrittenBytes());
+    }
+
+    @Test
+    public void testFailsOnErrorStatus() {
+        byte[] data = createData(400);
+        FakeStack stack = new FakeStack(BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+        stack.failingPacket = 2;
+        stack.action = new BulkWriteAction(stack.characteristic, data, 0, data.length, 20, 1);
+
+        assertFalse(stack.action.run(stack.gatt));
+        // stops writing soon after the failure instead of sending all 20 packets
+        assertTrue(stack.packets.size() < 20);
+    }
+
+    @Test
+    public void testRestoresWriteType() {
+        byte[] data = createData(40);
+        FakeStack stack = new FakeStack(BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+        stack.action = new BulkWriteAction(stack.characteristic, data, 0, data.length, 20, 1);
+
+        assertTrue(stack.action.run(stack.gatt));
+        // the characteristic was set to WRITE_TYPE_SIGNED before, see FakeStack
+        Mockito.verify(stack.characteristic).setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_SIGNED);
+        Mockito.verify(stack.characteristic, Mockito.never()).setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+    }
+
+    @Test
+    public void testNotWritable() {
+        FakeStack stack = new FakeStack(BluetoothGattCharacteristic.PROPERTY_READ);
+        stack.action = new BulkWriteAction(stack.characteristic, createData(40), 0, 40, 20, 1);
+
+        assertFalse(stack.action.run(stack.gatt));
+        assertEquals(0, stack.packets.size());
+        Mockito.verify(stack.characteristic, Mockito.never()).setWriteType(Mockito.anyInt());
+    }
+
+    private byte[] createData(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private byte[] copyOfRange(byte[] data, int from, int to) {
+        byte[] result = new byte[to - from];
+        System.arraycopy(data, from, result, 0, result.length);
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PebbleFramePoolTest extends TestBase {
+
+    @Test
+    public void testReuseByLength() {
+        PebbleFramePool pool = new PebbleFramePool();
+        byte[] bytes = pool.obtain(16).array();
+        assertEquals(16, bytes.length);
+        pool.release(bytes);
+
+        // only a frame of the same length gets the array
+        byte[] other = pool.obtain(17).array();
+        assertEquals(17, other.length);
+        assertNotSame(bytes, other);
+        assertSame(bytes, pool.obtain(16).array());
+    }
+
+    @Test
+    public void testZeroFilled() {
+        PebbleFramePool pool = new PebbleFramePool();
+        ByteBuffer buf = pool.obtain(8);
+        buf.putLong(-1L);
+        pool.release(buf.array());
+
+        ByteBuffer reused = pool.obtain(8);
+        assertSame(buf.array(), reused.array());
+        assertEquals(0, reused.position());
+        assertArrayEquals(new byte[8], reused.array());
+    }
+
+    @Test
+    public void testForeignArrayIgnored() {
+        PebbleFramePool pool = new PebbleFramePool();
+        byte[] foreign = new byte[16];
+        Arrays.fill(foreign, (byte) 1);
+        pool.release(foreign);
+        assertNotSame(foreign, pool.obtain(16).array());
+        // and left as it is, it may still be used by its owner
+        assertEquals(1, foreign[0]);
+
+        // released twice, but handed out only once
+        byte[] bytes = pool.obtain(16).array();
+        pool.release(bytes);
+        pool.release(bytes);
+        assertSame(bytes, pool.obtain(16).array());
+        assertNotSame(bytes, pool.obtain(16).array());
+    }
+
+    @Test
+    public void testMaxFreePerLength() {
+        PebbleFramePool pool = new PebbleFramePool();
+        byte[][] arrays = new byte[20][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = pool.obtain(32).array();
+        }
+        for (byte[] bytes : arrays) {
+            pool.release(bytes);
+        }
+
+        Map<byte[], Boolean> released = new IdentityHashMap<>();
+        for (byte[] bytes : arrays) {
+            released.put(bytes, Boolean.TRUE);
+        }
+        int reused = 0;
+        for (int i = 0; i < arrays.length; i++) {
+            if (released.containsKey(pool.obtain(32).array())) {
+                reused++;
+            }
+        }
+        assertEquals(8, reused);
+    }
+
+    @Test
+    public void testLargeFramesNotPooled() {
+        PebbleFramePool pool = new PebbleFramePool();
+        byte[] bytes = pool.obtain(4096).array();
+        pool.release(bytes);
+        assertNotSame(bytes, pool.obtain(4096).array());
+    }
+}
@@ -0,0 +1,193 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PebbleWriterThreadTest extends TestBase {
+
+    /**
+     * Records what is written, optionally blocking until released or failing.
+     */
+    private static class RecordingStream extends OutputStream {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final List<Long> writeNanos = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch released;
+        final CountDownLatch firstWrite = new CountDownLatch(1);
+        volatile boolean failing;
+
+        RecordingStream(boolean blocking) {
+            released = new CountDownLatch(blocking ? 1 : 0);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            firstWrite.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+            if (failing) {
+                throw new IOException("broken pipe");
+            }
+            synchronized (written) {
+                written.write(b, off, len);
+            }
+            writeNanos.add(System.nanoTime());
+        }
+
+        byte[] getWritten() {
+            synchronized (written) {
+                return written.toByteArray();
+            }
+        }
+    }
+
+    private PebbleWriterThread writer;
+
+    @Override
+    public void tearDown() throws Exception {
+        if (writer != null) {
+            writer.quit();
+        }
+        super.tearDown();
+    }
+
+    @Test
+    public void testBlocksWhileQueueFull() throws Exception {
+        RecordingStream stream = new RecordingStream(true);
+        writer = new PebbleWriterThread(stream, new PebbleFramePool(), false, 0);
+        writer.start();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        byte[] first = createFrame(0);
+        expected.write(first);
+        assertTrue(writer.enqueue(first));
+        assertTrue(stream.firstWrite.await(1, TimeUnit.SECONDS));
+        // the writer is stuck in the stream now, so this fills the queue
+        for (int i = 1; i <= 64; i++) {
+            byte[] frame = createFrame(i);
+            expected.write(frame);
+            assertTrue(writer.enqueue(frame));
+        }
+
+        final byte[] last = createFrame(65);
+        expected.write(last);
+        final AtomicBoolean queued = new AtomicBoolean();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                queued.set(writer.enqueue(last));
+            }
+        };
+        producer.start();
+        producer.join(300);
+        assertTrue("must wait for space instead of dropping", producer.isAlive());
+
+        stream.released.countDown();
+        producer.join(2000);
+        assertFalse(producer.isAlive());
+        assertTrue(queued.get());
+        awaitWritten(stream, expected.size());
+        assertArrayEquals(expected.toByteArray(), stream.getWritten());
+        // the frames queued meanwhile were coalesced
+        assertTrue(writer.getStreamWrites() < 66);
+        assertEquals(66, writer.getFramesWritten());
+    }
+
+    @Test
+    public void testMinWriteInterval() throws Exception {
+        RecordingStream stream = new RecordingStream(false);
+        writer = new PebbleWriterThread(stream, new PebbleFramePool(), false, 200);
+        writer.start();
+
+        assertTrue(writer.enqueue(createFrame(1)));
+        awaitWritten(stream, 10);
+        assertTrue(writer.enqueue(createFrame(2)));
+        awaitWritten(stream, 20);
+
+        assertEquals(2, stream.writeNanos.size());
+        long intervalMillis = TimeUnit.NANOSECONDS.toMillis(stream.writeNanos.get(1) - stream.writeNanos.get(0));
+        assertTrue(intervalMillis >= 200);
+    }
+
+    @Test
+    public void testWriteErrorReported() throws Exception {
+        RecordingStream stream = new RecordingStream(false);
+        stream.failing = true;
+        writer = new PebbleWriterThread(stream, new PebbleFramePool(), false, 0);
+        writer.start();
+
+        assertTrue(writer.enqueue(createFrame(1)));
+        writer.join(2000);
+        assertFalse(writer.isAlive());
+        // nothing more is accepted once the connection is broken
+        assertFalse(writer.enqueue(createFrame(2)));
+        assertEquals(0, writer.getFramesWritten());
+    }
+
+    @Test
+    public void testQuitReported() throws Exception {
+        RecordingStream stream = new RecordingStream(true);
+        writer = new PebbleWriterThread(stream, new PebbleFramePool(), false, 0);
+        writer.start();
+        assertTrue(writer.enqueue(createFrame(0)));
+        assertTrue(stream.firstWrite.await(1, TimeUnit.SECONDS));
+        for (int i = 1; i <= 64; i++) {
+            assertTrue(writer.enqueue(createFrame(i)));
+        }
+
+        final AtomicBoolean queued = new AtomicBoolean(true);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                queued.set(writer.enqueue(createFrame(65)));
+            }
+        };
+        producer.start();
+        producer.join(300);
+        assertTrue(producer.isAlive());
+
+        // a producer blocked on the full queue learns that its frame is not sent
+        writer.quit();
+        producer.join(2000);
+        assertFalse(producer.isAlive());
+        assertFalse(queued.get());
+        assertFalse(writer.enqueue(createFrame(66)));
+        stream.released.countDown();
+    }
+
+    private byte[] createFrame(int seq) {
+        // length 6 plus endpoint, followed by the payload
+        return new byte[]{0, 6, 0x7d, 0x01, (byte) seq, 1, 2, 3, 4, 5};
+    }
+
+    private void awaitWritten(RecordingStream stream, int length) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (stream.getWritten().length < length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(length, stream.getWritten().length);
+    }
+}
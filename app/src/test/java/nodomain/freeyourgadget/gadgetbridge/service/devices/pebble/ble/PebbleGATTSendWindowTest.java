@@ -0,0 +1,182 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.ble;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PebbleGATTSendWindowTest extends TestBase {
+    private final List<byte[]> packets = new ArrayList<>();
+
+    private PebbleGATTSendWindow createWindow(int windowSize) {
+        PebbleGATTServer server = Mockito.mock(PebbleGATTServer.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                byte[] data = (byte[]) invocation.getArguments()[0];
+                int length = (Integer) invocation.getArguments()[1];
+                // the window reuses its packet buffers
+                synchronized (packets) {
+                    packets.add(Arrays.copyOf(data, length));
+                }
+                return null;
+            }
+        }).when(server).sendDataToPebble(Mockito.any(byte[].class), Mockito.anyInt());
+        return new PebbleGATTSendWindow(server, windowSize);
+    }
+
+    @Test
+    public void testWindowFill() throws Exception {
+        PebbleGATTSendWindow window = createWindow(4);
+        for (int i = 0; i < 4; i++) {
+            window.send(new byte[]{(byte) i}, 0, 1);
+        }
+        assertEquals(4, getPacketCount());
+
+        Thread sender = startSend(window, (byte) 4);
+        sender.join(300);
+        assertTrue("must wait while the window is full", sender.isAlive());
+        assertEquals(4, getPacketCount());
+
+        window.onAck(0);
+        sender.join(1000);
+        assertFalse(sender.isAlive());
+        assertEquals(5, getPacketCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, getSerial(i));
+            assertArrayEquals(new byte[]{(byte) (i << 3), (byte) i}, getPacket(i));
+        }
+        assertEquals(5, window.getPacketsSent());
+        assertEquals(0, window.getPacketsRetransmitted());
+    }
+
+    @Test
+    public void testAckWithSerialWrap() throws Exception {
+        PebbleGATTSendWindow window = createWindow(PebbleGATTSendWindow.MAX_WINDOW_SIZE);
+        for (int i = 0; i < 20; i++) {
+            window.send(new byte[]{(byte) i}, 0, 1);
+        }
+        window.onAck(19);
+
+        // serials 20 to 31, then 0 to 2 again
+        for (int i = 20; i < 35; i++) {
+            window.send(new byte[]{(byte) i}, 0, 1);
+        }
+        assertEquals(31, getSerial(31));
+        assertEquals(0, getSerial(32));
+        assertEquals(2, getSerial(34));
+
+        // an ACK for a serial that is not pending must not count
+        window.onAck(10);
+        assertAcksPending(window);
+
+        // cumulative ACK across the wrap
+        window.onAck(2);
+        window.awaitAcks();
+
+        window.send(new byte[]{35}, 0, 1);
+        assertEquals(3, getSerial(35));
+        window.onAck(3);
+        window.awaitAcks();
+        assertEquals(36, window.getPacketsSent());
+        assertEquals(0, window.getPacketsRetransmitted());
+    }
+
+    @Test
+    public void testResendOnTimeout() throws Exception {
+        final PebbleGATTSendWindow window = createWindow(4);
+        window.send(new byte[]{0}, 0, 1);
+        window.send(new byte[]{1}, 0, 1);
+        window.send(new byte[]{2}, 0, 1);
+        window.onAck(0);
+
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    window.awaitAcks();
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(1500);
+        assertTrue(waiter.isAlive());
+
+        // only what is still unacknowledged is sent again, with the same serials
+        assertEquals(5, getPacketCount());
+        assertEquals(1, getSerial(3));
+        assertEquals(2, getSerial(4));
+        assertArrayEquals(getPacket(1), getPacket(3));
+        assertArrayEquals(getPacket(2), getPacket(4));
+        assertEquals(2, window.getPacketsRetransmitted());
+
+        window.onAck(2);
+        waiter.join(1000);
+        assertFalse(waiter.isAlive());
+        assertNull(error.get());
+    }
+
+    private Thread startSend(final PebbleGATTSendWindow window, final byte value) {
+        Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    window.send(new byte[]{value}, 0, 1);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        sender.start();
+        return sender;
+    }
+
+    private void assertAcksPending(final PebbleGATTSendWindow window) throws InterruptedException {
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    window.awaitAcks();
+                } catch (Exception ignored) {
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(200);
+        assertTrue(waiter.isAlive());
+        waiter.interrupt();
+        waiter.join(1000);
+    }
+
+    private int getPacketCount() {
+        synchronized (packets) {
+            return packets.size();
+        }
+    }
+
+    private byte[] getPacket(int index) {
+        synchronized (packets) {
+            return packets.get(index);
+        }
+    }
+
+    private int getSerial(int index) {
+        return (getPacket(index)[0] >> 3) & 0x1f;
+    }
+}
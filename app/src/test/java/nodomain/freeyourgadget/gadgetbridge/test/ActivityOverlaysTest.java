@@ -0,0 +1,80 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityOverlays;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests ActivityOverlays
+ */
+public class ActivityOverlaysTest extends TestBase {
+
+    @Test
+    public void testLastOverlayIsDominant() {
+        List<PebbleHealthActivitySample> samples = createSamples(0, 10);
+        int[] from = {2, 0, 4};
+        int[] to = {6, 3, 5};
+        final int[] kinds = {1, 2, 3};
+        apply(samples, from, to, kinds);
+
+        int[] expected = {2, 2, 2, 1, 3, 1, 0, 0, 0, 0};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("sample " + i, expected[i], samples.get(i).getRawKind());
+        }
+    }
+
+    @Test
+    public void testSameAsNestedLoops() {
+        Random random = new Random(42);
+        List<PebbleHealthActivitySample> samples = createSamples(0, 1000);
+        List<PebbleHealthActivitySample> expectedSamples = createSamples(0, 1000);
+        int[] from = new int[50];
+        int[] to = new int[50];
+        int[] kinds = new int[50];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = random.nextInt(1000);
+            to[i] = from[i] + random.nextInt(100);
+            kinds[i] = i + 1;
+        }
+
+        apply(samples, from, to, kinds);
+        for (int i = 0; i < from.length; i++) {
+            for (PebbleHealthActivitySample sample : expectedSamples) {
+                if (from[i] <= sample.getTimestamp() && sample.getTimestamp() < to[i]) {
+                    sample.setRawKind(kinds[i]);
+                }
+            }
+        }
+
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals("sample " + i, expectedSamples.get(i).getRawKind(), samples.get(i).getRawKind());
+        }
+    }
+
+    private void apply(List<PebbleHealthActivitySample> samples, int[] from, int[] to, final int[] kinds) {
+        new ActivityOverlays(from, to).apply(samples, new ActivityOverlays.Applier<PebbleHealthActivitySample>() {
+            @Override
+            public void apply(PebbleHealthActivitySample sample, int overlayIndex) {
+                sample.setRawKind(kinds[overlayIndex]);
+            }
+        });
+    }
+
+    private List<PebbleHealthActivitySample> createSamples(int from, int count) {
+        List<PebbleHealthActivitySample> samples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PebbleHealthActivitySample sample = new PebbleHealthActivitySample();
+            sample.setTimestamp(from + i);
+            sample.setRawKind(0);
+            samples.add(sample);
+        }
+        return samples;
+    }
+}
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncState;
 import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncStateDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.CalendarReceiver;
@@ -54,4 +55,27 @@ public class CalendarEventTest extends TestBase {
         assertEquals(2, calendarSyncStateDao.count());
     }
 
+    @Test
+    public void testSyncUpdateAndDelete() {
+        List<CalendarEvents.CalendarEvent> eventList = new ArrayList<>();
+        eventList.add(new CalendarEvents.CalendarEvent(BEGIN, END, ID_1, null, "something", null, CALNAME_1, false));
+        eventList.add(new CalendarEvents.CalendarEvent(BEGIN, END, ID_2, null, "something", null, CALNAME_1, false));
+
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:01:00:04");
+        dummyGBDevice.setState(GBDevice.State.INITIALIZED);
+        CalendarReceiver testCR = new CalendarReceiver(dummyGBDevice);
+        testCR.syncCalendar(eventList);
+
+        CalendarEvents.CalendarEvent changed = new CalendarEvents.CalendarEvent(BEGIN, END, ID_1, "changed", "something", null, CALNAME_1, false);
+        eventList.clear();
+        eventList.add(changed);
+        testCR.syncCalendar(eventList);
+
+        CalendarSyncStateDao calendarSyncStateDao = daoSession.getCalendarSyncStateDao();
+        List<CalendarSyncState> syncStates = calendarSyncStateDao.loadAll();
+        assertEquals(1, syncStates.size());
+        assertEquals(ID_1, syncStates.get(0).getCalendarEntryId());
+        assertEquals(changed.hashCode(), syncStates.get(0).getHash());
+    }
+
 }
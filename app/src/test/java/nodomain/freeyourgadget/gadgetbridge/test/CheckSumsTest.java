@@ -0,0 +1,76 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.STM32CRC;
+import nodomain.freeyourgadget.gadgetbridge.util.CRC16;
+import nodomain.freeyourgadget.gadgetbridge.util.CRC8;
+import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests CheckSums, CRC8, CRC16 and STM32CRC
+ */
+public class CheckSumsTest extends TestBase {
+
+    private static final byte[] CHECK_INPUT = "123456789".getBytes(Charset.forName("US-ASCII"));
+
+    @Test
+    public void testCheckValues() throws Exception {
+        assertEquals(0xa1, CheckSums.getCRC8(CHECK_INPUT));
+        assertEquals(0x29b1, CheckSums.getCRC16(CHECK_INPUT));
+        assertEquals(0x29b1, CheckSums.getCRC16(new ByteArrayInputStream(CHECK_INPUT)));
+
+        STM32CRC stm32Crc = new STM32CRC();
+        stm32Crc.addData(CHECK_INPUT, CHECK_INPUT.length);
+        assertEquals(0xaff19057, stm32Crc.getResult());
+    }
+
+    @Test
+    public void testIncrementalUpdates() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length < 100; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertIncremental(new CRC8(), new CRC8(), data, random);
+            assertIncremental(new CRC16(), new CRC16(), data, random);
+            assertIncremental(new STM32CRC(), new STM32CRC(), data, random);
+        }
+    }
+
+    @Test
+    public void testOffset() throws Exception {
+        byte[] data = new byte[CHECK_INPUT.length + 10];
+        System.arraycopy(CHECK_INPUT, 0, data, 5, CHECK_INPUT.length);
+        assertEquals(0x29b1, CheckSums.getCRC16(data, 5, CHECK_INPUT.length));
+    }
+
+    /**
+     * Checks that feeding the data in random chunks and single bytes gives the same result
+     * as feeding it at once.
+     */
+    private void assertIncremental(Checksum whole, Checksum chunked, byte[] data, Random random) {
+        whole.update(data, 0, data.length);
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(data.length - offset, random.nextInt(10));
+            if (length == 1) {
+                chunked.update(data[offset]);
+            } else {
+                chunked.update(data, offset, length);
+            }
+            offset += length;
+        }
+        assertEquals(whole.getValue(), chunked.getValue());
+
+        whole.reset();
+        whole.update(data, 0, data.length);
+        assertEquals(chunked.getValue(), whole.getValue());
+    }
+}
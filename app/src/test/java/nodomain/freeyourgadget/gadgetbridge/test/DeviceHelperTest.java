@@ -0,0 +1,47 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.UnknownDeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.miband2.MiBand2Coordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.miband2.MiBand2HRXCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceHelperTest extends TestBase {
+
+    @Test
+    public void testGetCoordinator() {
+        DeviceHelper helper = DeviceHelper.getInstance();
+        GBDevice pebble = new GBDevice("00:00:01:00:05", "Pebble Time", DeviceType.PEBBLE);
+        assertEquals(PebbleCoordinator.class, helper.getCoordinator(pebble).getClass());
+        assertSame(helper.getCoordinator(pebble), helper.getCoordinator(pebble));
+
+        // both handle DeviceType.MIBAND2
+        GBDevice miBand2 = new GBDevice("00:00:01:00:06", "MI Band 2", DeviceType.MIBAND2);
+        GBDevice miBandHRX = new GBDevice("00:00:01:00:07", "Mi Band HRX", DeviceType.MIBAND2);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(MiBand2Coordinator.class, helper.getCoordinator(miBand2).getClass());
+            assertEquals(MiBand2HRXCoordinator.class, helper.getCoordinator(miBandHRX).getClass());
+        }
+        assertTrue(helper.getSupportedType(miBandHRX));
+    }
+
+    @Test
+    public void testUnknownDevice() {
+        DeviceHelper helper = DeviceHelper.getInstance();
+        GBDevice device = createDummyGDevice("00:00:01:00:08");
+        DeviceCoordinator coordinator = helper.getCoordinator(device);
+        assertTrue(coordinator instanceof UnknownDeviceCoordinator);
+        assertSame(coordinator, helper.getCoordinator(device));
+        assertFalse(helper.getSupportedType(device));
+    }
+}
@@ -0,0 +1,78 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.util.IntLruCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests IntLruCache
+ */
+public class IntLruCacheTest extends TestBase {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        IntLruCache<String> cache = new IntLruCache<>(3);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.put(3, "three");
+        assertEquals("one", cache.get(1)); // 2 is now the eldest
+        cache.put(4, "four");
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get(2));
+        assertEquals("one", cache.get(1));
+        assertEquals("three", cache.get(3));
+        assertEquals("four", cache.get(4));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(4, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        IntLruCache<String> cache = new IntLruCache<>(2);
+        assertNull(cache.put(1, "one"));
+        assertEquals("one", cache.put(1, "uno"));
+        assertEquals(1, cache.size());
+        assertEquals("uno", cache.remove(1));
+        assertNull(cache.remove(1));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void testWeights() {
+        IntLruCache<String> cache = new IntLruCache<String>(10) {
+            @Override
+            protected int weightOf(int key, String value) {
+                return value.length();
+            }
+        };
+        cache.put(1, "aaaa");
+        cache.put(2, "bbbb");
+        assertEquals(8, cache.weight());
+        cache.put(3, "cccc");
+        assertEquals(8, cache.weight());
+        assertNull(cache.get(1));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testManyEntries() {
+        IntLruCache<Integer> cache = new IntLruCache<>(1000);
+        for (int i = 0; i < 5000; i++) {
+            cache.put(i * 86400, i);
+        }
+        assertEquals(1000, cache.size());
+        assertNull(cache.get(0));
+        for (int i = 4000; i < 5000; i++) {
+            assertEquals(Integer.valueOf(i), cache.get(i * 86400));
+        }
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(4999 * 86400));
+    }
+}
@@ -0,0 +1,52 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleColumns;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleColumnsTest extends TestBase {
+
+    @Test
+    public void testValues() {
+        SampleColumns columns = new SampleColumns(1);
+        columns.add(100, ActivityKind.TYPE_DEEP_SLEEP, 0.5f, 200);
+        columns.add(160, ActivityKind.TYPE_NOT_MEASURED, 0f, ActivitySample.NOT_MEASURED);
+        columns.add(220, ActivityKind.TYPE_ACTIVITY, 1f, 300);
+
+        assertEquals(3, columns.size());
+        assertEquals(100, columns.getTimestamp(0));
+        assertEquals(ActivityKind.TYPE_DEEP_SLEEP, columns.getKind(0));
+        assertEquals(0.5f, columns.getIntensity(0), 0f);
+        assertEquals(200, columns.getHeartRate(0));
+        assertEquals(ActivityKind.TYPE_NOT_MEASURED, columns.getKind(1));
+        assertEquals(ActivitySample.NOT_MEASURED, columns.getHeartRate(1));
+        // out of range
+        assertEquals(ActivitySample.NOT_MEASURED, columns.getHeartRate(2));
+    }
+
+    @Test
+    public void testEnsureStartAndEnd() {
+        SampleColumns columns = new SampleColumns();
+        columns.ensureStartAndEnd(0, 1000, ActivityKind.TYPE_UNKNOWN, 0f);
+        assertEquals(0, columns.size());
+
+        columns.add(100, ActivityKind.TYPE_ACTIVITY, 0.5f, 60);
+        columns.add(200, ActivityKind.TYPE_ACTIVITY, 0.5f, 70);
+        columns.ensureStartAndEnd(0, 1000, ActivityKind.TYPE_UNKNOWN, 0f);
+        assertEquals(4, columns.size());
+        assertEquals(0, columns.getTimestamp(0));
+        assertEquals(ActivityKind.TYPE_UNKNOWN, columns.getKind(0));
+        assertEquals(ActivitySample.NOT_MEASURED, columns.getHeartRate(0));
+        assertEquals(100, columns.getTimestamp(1));
+        assertEquals(60, columns.getHeartRate(1));
+        assertEquals(200, columns.getTimestamp(2));
+        assertEquals(1000, columns.getTimestamp(3));
+
+        columns.ensureStartAndEnd(0, 1000, ActivityKind.TYPE_UNKNOWN, 0f);
+        assertEquals(4, columns.size());
+    }
+}
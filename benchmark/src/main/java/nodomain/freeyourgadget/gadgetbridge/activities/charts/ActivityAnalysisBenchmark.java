@@ -0,0 +1,95 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.benchmark.BenchmarkEnvironment;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+
+/**
+ * ActivityAnalysis over synthetic Mi Band samples, one per minute, with phases of
+ * sleep, activity and non-wear.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ActivityAnalysisBenchmark {
+
+    /**
+     * One day and one week worth of minutes.
+     */
+    @Param({"1440", "10080"})
+    public int minutes;
+
+    private List<MiBandActivitySample> samples;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.init();
+        MiBandSampleProvider provider = new MiBandSampleProvider(new GBDevice("00:11:22:33:44:55", "MI", DeviceType.MIBAND), null);
+        Random random = new Random(42);
+        samples = new ArrayList<>(minutes);
+        int kind = MiBandSampleProvider.TYPE_ACTIVITY;
+        for (int i = 0; i < minutes; i++) {
+            // switch the kind of activity every 30 minutes on average
+            if (random.nextInt(30) == 0) {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        kind = MiBandSampleProvider.TYPE_DEEP_SLEEP;
+                        break;
+                    case 1:
+                        kind = MiBandSampleProvider.TYPE_LIGHT_SLEEP;
+                        break;
+                    case 2:
+                        kind = MiBandSampleProvider.TYPE_NONWEAR;
+                        break;
+                    default:
+                        kind = MiBandSampleProvider.TYPE_ACTIVITY;
+                }
+            }
+            MiBandActivitySample sample = provider.createActivitySample();
+            sample.setProvider(provider);
+            sample.setTimestamp(1497700000 + i * 60);
+            sample.setRawKind(kind);
+            sample.setRawIntensity(random.nextInt(256));
+            sample.setSteps(kind == MiBandSampleProvider.TYPE_ACTIVITY ? random.nextInt(150) : 0);
+            samples.add(sample);
+        }
+    }
+
+    @Benchmark
+    public ActivityAmounts calculateActivityAmounts() {
+        return new ActivityAnalysis().calculateActivityAmounts(samples);
+    }
+}
@@ -0,0 +1,77 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BLETypeConversionsBenchmark {
+
+    private GregorianCalendar calendar;
+    private byte[] calendarBytes;
+    private byte[] header;
+    private byte[] payload;
+    private int value;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.init();
+        calendar = new GregorianCalendar(2017, 5, 17, 12, 34, 56);
+        calendarBytes = BLETypeConversions.calendarToRawBytes(calendar, false);
+        header = new byte[]{0x01, 0x02, 0x03};
+        payload = new byte[17];
+        value = 0x12345678;
+    }
+
+    @Benchmark
+    public byte[] calendarToRawBytes() {
+        return BLETypeConversions.calendarToRawBytes(calendar, false);
+    }
+
+    @Benchmark
+    public GregorianCalendar rawBytesToCalendar() {
+        return BLETypeConversions.rawBytesToCalendar(calendarBytes, false);
+    }
+
+    @Benchmark
+    public int toUint16() {
+        return BLETypeConversions.toUint16(calendarBytes[0], calendarBytes[1]);
+    }
+
+    @Benchmark
+    public byte[] fromUint32() {
+        return BLETypeConversions.fromUint32(value);
+    }
+
+    @Benchmark
+    public byte[] join() {
+        return BLETypeConversions.join(header, payload);
+    }
+}
@@ -0,0 +1,71 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.STM32CRC;
+import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
+
+/**
+ * CRC calculation over a single BLE packet and over firmware sized buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChecksumBenchmark {
+
+    @Param({"20", "4096", "262144"})
+    public int size;
+
+    private byte[] data;
+    private STM32CRC stm32Crc;
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        stm32Crc = new STM32CRC();
+    }
+
+    @Benchmark
+    public int crc8() {
+        return CheckSums.getCRC8(data);
+    }
+
+    @Benchmark
+    public int crc16() {
+        return CheckSums.getCRC16(data);
+    }
+
+    @Benchmark
+    public int stm32Crc() {
+        stm32Crc.reset();
+        stm32Crc.addData(data, data.length);
+        return stm32Crc.getResult();
+    }
+}
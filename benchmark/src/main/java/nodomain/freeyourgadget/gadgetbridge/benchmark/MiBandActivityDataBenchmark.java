@@ -0,0 +1,135 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.miband.operations.FetchActivityOperation;
+
+/**
+ * Parsing of Mi Band activity data the way FetchActivityOperation does it: the data
+ * arrives in notification sized packets, is buffered until four hours of minutes are
+ * available and then decoded into samples.
+ * The input is synthetic, random kinds, intensities, steps and heart rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MiBandActivityDataBenchmark {
+    private static final int MINUTES_PER_FLUSH = 60 * 4;
+    private static final int[] KINDS = {
+            MiBandSampleProvider.TYPE_DEEP_SLEEP,
+            MiBandSampleProvider.TYPE_LIGHT_SLEEP,
+            MiBandSampleProvider.TYPE_NONWEAR,
+            MiBandSampleProvider.TYPE_CHARGING,
+            1, 2, 7
+    };
+
+    /**
+     * Mi Band 1 without heart rate data uses 3 bytes per minute, Mi Band 1S 4 bytes.
+     */
+    @Param({"false", "true"})
+    public boolean hasHeartRate;
+
+    @Param({"1440"})
+    public int minutes;
+
+    private MiBandSampleProvider provider;
+    private int bytesPerMinute;
+    private byte[][] packets;
+    private byte[] holder;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.init();
+        provider = new MiBandSampleProvider(new GBDevice("00:11:22:33:44:55", "MI", DeviceType.MIBAND), null);
+        bytesPerMinute = hasHeartRate ? 4 : 3;
+        holder = new byte[bytesPerMinute * MINUTES_PER_FLUSH];
+
+        Random random = new Random(42);
+        byte[] data = new byte[bytesPerMinute * minutes];
+        for (int offset = 0; offset < data.length; offset += bytesPerMinute) {
+            data[offset] = (byte) KINDS[random.nextInt(KINDS.length)];
+            data[offset + 1] = (byte) random.nextInt(256);
+            data[offset + 2] = (byte) random.nextInt(150);
+            if (hasHeartRate) {
+                data[offset + 3] = (byte) (50 + random.nextInt(100));
+            }
+        }
+
+        // split into packets the way the band sends them, 16 or 18 bytes of payload plus a counter
+        int payloadLength = hasHeartRate ? 16 : 18;
+        packets = new byte[(data.length + payloadLength - 1) / payloadLength][];
+        for (int i = 0; i < packets.length; i++) {
+            int offset = i * payloadLength;
+            int length = Math.min(payloadLength, data.length - offset);
+            byte[] packet = new byte[length + 1];
+            packet[0] = (byte) i;
+            System.arraycopy(data, offset, packet, 1, length);
+            packets[i] = packet;
+        }
+    }
+
+    @Benchmark
+    public int bufferAndFlush() {
+        int timestamp = 1497700000;
+        int progress = 0;
+        int steps = 0;
+        for (byte[] packet : packets) {
+            int length = packet.length - 1;
+            if (progress + length > holder.length) {
+                steps += flush(progress, timestamp);
+                timestamp += progress / bytesPerMinute * 60;
+                progress = 0;
+            }
+            System.arraycopy(packet, 1, holder, progress, length);
+            progress += length;
+        }
+        steps += flush(progress, timestamp);
+        return steps;
+    }
+
+    private int flush(int length, int timestamp) {
+        MiBandActivitySample[] samples = new MiBandActivitySample[length / bytesPerMinute];
+        for (int i = 0; i < samples.length; i++) {
+            MiBandActivitySample sample = provider.createActivitySample();
+            sample.setTimestamp(timestamp + i * 60);
+            sample.setProvider(provider);
+            samples[i] = sample;
+        }
+        FetchActivityOperation.decodeActivityData(holder, bytesPerMinute, hasHeartRate, samples);
+        int steps = 0;
+        for (MiBandActivitySample sample : samples) {
+            steps += sample.getSteps();
+        }
+        return steps;
+    }
+}
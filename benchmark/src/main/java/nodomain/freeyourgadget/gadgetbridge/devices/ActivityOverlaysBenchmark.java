@@ -0,0 +1,107 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
+
+/**
+ * Compares ActivityOverlays with looping over all samples once per overlay, as the
+ * Pebble Health and HPlus sample providers did before.
+ * The samples are one per minute, the overlays are sleep and not worn phases of
+ * up to a few hours.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ActivityOverlaysBenchmark {
+
+    /**
+     * One day and one month worth of minutes.
+     */
+    @Param({"1440", "43200"})
+    public int minutes;
+
+    /**
+     * Overlays per day
+     */
+    @Param({"4", "20"})
+    public int overlaysPerDay;
+
+    private List<PebbleHealthActivitySample> samples;
+    private int[] timestampsFrom;
+    private int[] timestampsTo;
+    private int[] rawKinds;
+
+    @Setup
+    public void setUp() {
+        int start = 1497700000;
+        samples = new ArrayList<>(minutes);
+        for (int i = 0; i < minutes; i++) {
+            PebbleHealthActivitySample sample = new PebbleHealthActivitySample();
+            sample.setTimestamp(start + i * 60);
+            samples.add(sample);
+        }
+
+        Random random = new Random(42);
+        int count = Math.max(1, minutes / 1440 * overlaysPerDay);
+        timestampsFrom = new int[count];
+        timestampsTo = new int[count];
+        rawKinds = new int[count];
+        for (int i = 0; i < count; i++) {
+            timestampsFrom[i] = start + random.nextInt(minutes) * 60;
+            timestampsTo[i] = timestampsFrom[i] + (10 + random.nextInt(180)) * 60;
+            rawKinds[i] = 1 + random.nextInt(4);
+        }
+    }
+
+    @Benchmark
+    public List<PebbleHealthActivitySample> nestedLoops() {
+        for (int i = 0; i < rawKinds.length; i++) {
+            for (PebbleHealthActivitySample sample : samples) {
+                if (timestampsFrom[i] <= sample.getTimestamp() && sample.getTimestamp() < timestampsTo[i]) {
+                    sample.setRawKind(rawKinds[i]);
+                }
+            }
+        }
+        return samples;
+    }
+
+    @Benchmark
+    public List<PebbleHealthActivitySample> sweep() {
+        new ActivityOverlays(timestampsFrom, timestampsTo).apply(samples, new ActivityOverlays.Applier<PebbleHealthActivitySample>() {
+            @Override
+            public void apply(PebbleHealthActivitySample sample, int overlayIndex) {
+                sample.setRawKind(rawKinds[overlayIndex]);
+            }
+        });
+        return samples;
+    }
+}
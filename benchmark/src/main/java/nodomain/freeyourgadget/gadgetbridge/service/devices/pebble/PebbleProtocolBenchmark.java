@@ -0,0 +1,116 @@
+/*  Copyright (C) 2017 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import android.util.Pair;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.benchmark.BenchmarkEnvironment;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.CalendarEventSpec;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+
+/**
+ * Encoding and decoding of Pebble Protocol frames. Decoding uses the frames from the
+ * pebble-frames.txt fixture plus an app message generated by the encoder.
+ * Lives in the same package as PebbleProtocol to reach its package private encoders.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PebbleProtocolBenchmark {
+
+    private PebbleProtocol protocol;
+    private byte[][] frames;
+    private byte[] appMessage;
+    private CalendarEventSpec calendarEvent;
+    private byte[] uploadChunk;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.init();
+        protocol = new PebbleProtocol(new GBDevice("00:11:22:33:44:55", "Pebble Time", DeviceType.PEBBLE));
+
+        List<byte[]> fixture = BenchmarkEnvironment.loadHexFixture("pebble-frames.txt");
+        frames = fixture.toArray(new byte[fixture.size()][]);
+
+        ArrayList<Pair<Integer, Object>> pairs = new ArrayList<>();
+        pairs.add(new Pair<Integer, Object>(1, 42));
+        pairs.add(new Pair<Integer, Object>(2, "Gadgetbridge"));
+        pairs.add(new Pair<Integer, Object>(3, new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+        appMessage = protocol.encodeApplicationMessagePush(PebbleProtocol.ENDPOINT_APPLICATIONMESSAGE,
+                UUID.fromString("00000000-1111-2222-3333-444444444444"), pairs, null);
+
+        calendarEvent = new CalendarEventSpec();
+        calendarEvent.id = 1234;
+        calendarEvent.type = CalendarEventSpec.TYPE_UNKNOWN;
+        calendarEvent.timestamp = 1497700000;
+        calendarEvent.durationInSeconds = 3600;
+        calendarEvent.title = "Benchmark";
+        calendarEvent.description = "A calendar event with a somewhat longer description";
+        calendarEvent.location = "Somewhere";
+
+        uploadChunk = new byte[2000];
+        new Random(42).nextBytes(uploadChunk);
+    }
+
+    @Benchmark
+    public void decodeFixtureFrames(Blackhole blackhole) {
+        for (byte[] frame : frames) {
+            blackhole.consume(protocol.decodeResponse(frame));
+        }
+    }
+
+    @Benchmark
+    public Object decodeAppMessage() {
+        return protocol.decodeResponse(appMessage);
+    }
+
+    @Benchmark
+    public byte[] encodeSetTime() {
+        return protocol.encodeSetTime();
+    }
+
+    @Benchmark
+    public byte[] encodeSetMusicInfo() {
+        return protocol.encodeSetMusicInfo("Artist", "Album", "Track", 240, 12, 3);
+    }
+
+    @Benchmark
+    public byte[] encodeAddCalendarEvent() {
+        return protocol.encodeAddCalendarEvent(calendarEvent);
+    }
+
+    @Benchmark
+    public byte[] encodeUploadChunk() {
+        return protocol.encodeUploadChunk(1, uploadChunk, uploadChunk.length);
+    }
+}